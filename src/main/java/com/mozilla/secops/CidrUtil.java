@@ -9,8 +9,10 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
@@ -24,11 +26,28 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.springframework.security.web.util.matcher.IpAddressMatcher;
 
-/** CIDR matching utilities */
+/**
+ * CIDR matching utilities
+ *
+ * <p>Subnets added to an instance are stored in binary tries, one for IPv4 and one for IPv6, keyed
+ * on the address bits of the subnet prefix. Testing an address walks at most 32 or 128 trie
+ * nodes regardless of the number of subnets loaded, and addresses in standard textual form are
+ * parsed directly into primitive keys without allocating.
+ */
 public class CidrUtil {
-  private final String AWS_IP_RANGES_URL = "https://ip-ranges.amazonaws.com/ip-ranges.json";
+  private static final String AWS_IP_RANGES_URL =
+      "https://ip-ranges.amazonaws.com/ip-ranges.json";
 
-  private ArrayList<IpAddressMatcher> subnets;
+  private final SubnetTrie subnets4;
+  private final SubnetTrie subnets6;
+
+  /** Sentinel returned by {@link #findIPv6} if the address could not be parsed */
+  private static final Subnet UNPARSED = new Subnet(null, null);
+
+  /** Tag applied to GCP subnets loaded using {@link #loadGcpSubnets} */
+  public static final String TAG_GCP = "gcp";
+  /** Tag applied to subnets loaded using {@link #loadInternalSubnets} */
+  public static final String TAG_INTERNAL = "internal";
 
   /** Load exclusion list from path resource */
   public static final int CIDRUTIL_FILE = 1;
@@ -47,42 +66,43 @@ public class CidrUtil {
    * <p>This function attempts to also perform a forward DNS query on the hostname returned by the
    * reverse DNS query and ensures the IP address matches what was supplied as a function argument.
    *
+   * <p>Lookups are performed using the shared {@link DnsVerifier}, so results are cached.
+   *
    * @param ip IP address
    * @param pattern Regular expression to match against
    * @return True if hostname matches pattern, false otherwise
    */
   public static Boolean resolvedCanonicalHostMatches(String ip, String pattern) {
-    Pattern p = Pattern.compile(pattern);
-
-    InetAddress addr;
-    try {
-      addr = InetAddress.getByName(ip);
-    } catch (UnknownHostException exc) {
-      return false;
-    }
-    String hn = addr.getCanonicalHostName();
-    if (hn.equals(ip)) {
-      // If the returned value is the original address, the lookup operation could not be
-      // completed, so just return false.
-      return false;
-    }
-
-    InetAddress[] rlist;
-    try {
-      rlist = InetAddress.getAllByName(hn);
-    } catch (UnknownHostException exc) {
-      return false;
-    }
-
-    for (InetAddress r : rlist) {
-      if (r.equals(addr)) {
-        if (p.matcher(hn).matches()) {
-          return true;
-        }
-      }
-    }
+    return DnsVerifier.getInstance().matches(ip, pattern);
+  }
 
-    return false;
+  /**
+   * Acquire a shared subnet list
+   *
+   * <p>{@value #CIDRUTIL_FILE} and {@value #CIDRUTIL_INTERNAL} in the flags mask are applied as
+   * for {@link #excludeNormalizedSourceAddresses}, and other flags are ignored. The list is loaded
+   * once per JVM for each combination of flags and path using {@link SharedResources}, and must not
+   * be modified.
+   *
+   * @param flags Option bitmask
+   * @param path Resource path or GCS URL to load subnets from for {@value #CIDRUTIL_FILE}
+   * @return Handle to shared {@link CidrUtil}
+   * @throws IOException If subnets could not be loaded from path
+   */
+  public static SharedResources.Handle<CidrUtil> loadShared(int flags, String path)
+      throws IOException {
+    int m = flags & (CIDRUTIL_FILE | CIDRUTIL_INTERNAL);
+    String p = (m & CIDRUTIL_FILE) == CIDRUTIL_FILE ? path : null;
+    return SharedResources.acquire(
+        CidrUtil.class,
+        String.format("%d|%s", m, p),
+        () -> {
+          CidrUtil ret = (m & CIDRUTIL_FILE) == CIDRUTIL_FILE ? new CidrUtil(p) : new CidrUtil();
+          if ((m & CIDRUTIL_INTERNAL) == CIDRUTIL_INTERNAL) {
+            ret.loadInternalSubnets();
+          }
+          return ret;
+        });
   }
 
   /**
@@ -96,8 +116,8 @@ public class CidrUtil {
    * loaded from the specified path and any matching addresses should be filtered. If this bit is
    * included path must be non-null.
    *
-   * <p>{@value #CIDRUTIL_CLOUDPROVIDERS} can be specified to load known cloud provider public
-   * address ranges into the filter for exclusion.
+   * <p>{@value #CIDRUTIL_CLOUDPROVIDERS} can be specified to exclude known cloud provider public
+   * address ranges, using the ranges shared through {@link CloudProviderRanges}.
    *
    * <p>{@value #CIDRUTIL_INTERNAL} can be specified to load internal (e.g., RFC1918) subnets into
    * the filter.
@@ -107,13 +127,31 @@ public class CidrUtil {
    * @return {@link DoFn}
    */
   public static DoFn<Event, Event> excludeNormalizedSourceAddresses(int flags, String path) {
+    return excludeNormalizedSourceAddresses(flags, path, null);
+  }
+
+  /**
+   * Return a {@link DoFn} that filters events based on the normalized source address field,
+   * falling back to a cloud provider ranges snapshot if ranges cannot be fetched
+   *
+   * <p>See {@link #excludeNormalizedSourceAddresses(int, String)} for a description of the flags.
+   *
+   * @param flags Option bitmask
+   * @param path Resource path or GCS URL to load subnets from for {@value #CIDRUTIL_FILE}
+   * @param cloudRangesSnapshot Resource path or GCS URL of cloud provider ranges snapshot used for
+   *     {@value #CIDRUTIL_CLOUDPROVIDERS} if ranges cannot be fetched, may be null
+   * @return {@link DoFn}
+   */
+  public static DoFn<Event, Event> excludeNormalizedSourceAddresses(
+      int flags, String path, String cloudRangesSnapshot) {
     return new DoFn<Event, Event>() {
       private static final long serialVersionUID = 1L;
 
       private final String resourcePath;
       private final Boolean addCp;
-      private final Boolean addInternal;
+      private SharedResources.Handle<CidrUtil> cidrsHandle;
       private CidrUtil cidrs;
+      private CloudProviderRanges cloudRanges;
 
       {
         if ((flags & CIDRUTIL_FILE) == CIDRUTIL_FILE) {
@@ -126,26 +164,21 @@ public class CidrUtil {
         } else {
           addCp = false;
         }
-        if ((flags & CIDRUTIL_INTERNAL) == CIDRUTIL_INTERNAL) {
-          addInternal = true;
-        } else {
-          addInternal = false;
-        }
       }
 
       @Setup
       public void setup() throws IOException {
-        if (resourcePath != null) {
-          cidrs = new CidrUtil(resourcePath);
-        } else {
-          cidrs = new CidrUtil();
-        }
+        cidrsHandle = loadShared(flags, resourcePath);
+        cidrs = cidrsHandle.get();
         if (addCp) {
-          cidrs.loadGcpSubnets();
-          cidrs.loadAwsSubnets();
+          cloudRanges = CloudProviderRanges.getInstance(cloudRangesSnapshot);
         }
-        if (addInternal) {
-          cidrs.loadInternalSubnets();
+      }
+
+      @Teardown
+      public void teardown() {
+        if (cidrsHandle != null) {
+          cidrsHandle.close();
         }
       }
 
@@ -159,6 +192,9 @@ public class CidrUtil {
             if (cidrs.contains(sourceAddress)) {
               return;
             }
+            if (cloudRanges != null && cloudRanges.contains(sourceAddress)) {
+              return;
+            }
           }
         }
         c.output(e);
@@ -185,12 +221,209 @@ public class CidrUtil {
    * @return True if any loaded subnet contains the address
    */
   public Boolean contains(String addr) {
-    for (IpAddressMatcher s : subnets) {
-      if (s.matches(addr)) {
-        return true;
+    return find(addr, false) != null;
+  }
+
+  /**
+   * Return the most specific loaded subnet that contains the specified address
+   *
+   * @param addr IP address to check against subnets
+   * @return {@link Subnet} with the longest matching prefix, or null if no subnet matches
+   */
+  public Subnet lookup(String addr) {
+    return find(addr, true);
+  }
+
+  private Subnet find(String addr, boolean longest) {
+    if (subnets4.isEmpty() && subnets6.isEmpty()) {
+      return null;
+    }
+    if (addr != null) {
+      long v4 = parseIPv4(addr, 0, addr.length());
+      if (v4 >= 0) {
+        return subnets4.find(v4 << 32, 0L, longest);
+      }
+      Subnet ret = findIPv6(addr, longest);
+      if (ret != UNPARSED) {
+        return ret;
       }
     }
-    return false;
+    // Not an address in a form handled above; use InetAddress, which will also resolve
+    // host names, and look up using the resulting bytes
+    byte[] buf = parseAddress(addr).getAddress();
+    long hi = bytesToLong(buf, 0);
+    if (buf.length == 4) {
+      return subnets4.find(hi, 0L, longest);
+    }
+    return subnets6.find(hi, bytesToLong(buf, 8), longest);
+  }
+
+  private Subnet findIPv6(String s, boolean longest) {
+    // Groups before any :: are accumulated in hi/lo, groups following it in rhi/rlo
+    long hi = 0L;
+    long lo = 0L;
+    long rhi = 0L;
+    long rlo = 0L;
+    int groups = 0;
+    int gap = -1;
+    int len = s.length();
+    int i = 0;
+
+    if (len < 2) {
+      return UNPARSED;
+    }
+    if (s.charAt(0) == ':') {
+      if (s.charAt(1) != ':') {
+        return UNPARSED;
+      }
+      gap = 0;
+      i = 2;
+    }
+    while (i < len) {
+      int start = i;
+      int v = 0;
+      int d;
+      while (i < len && (d = hexDigit(s.charAt(i))) >= 0 && i - start < 4) {
+        v = (v << 4) | d;
+        i++;
+      }
+      if (i < len && s.charAt(i) == '.') {
+        // Trailing dotted quad, occupying the final two groups
+        long v4 = parseIPv4(s, start, len);
+        if (v4 < 0 || groups > 6) {
+          return UNPARSED;
+        }
+        for (int j = 0; j < 2; j++) {
+          int g = (int) (v4 >>> (16 - (j * 16))) & 0xffff;
+          if (gap < 0) {
+            hi = (hi << 16) | (lo >>> 48);
+            lo = (lo << 16) | g;
+          } else {
+            rhi = (rhi << 16) | (rlo >>> 48);
+            rlo = (rlo << 16) | g;
+          }
+        }
+        groups += 2;
+        break;
+      }
+      if (i == start) {
+        return UNPARSED;
+      }
+      if (gap < 0) {
+        hi = (hi << 16) | (lo >>> 48);
+        lo = (lo << 16) | v;
+      } else {
+        rhi = (rhi << 16) | (rlo >>> 48);
+        rlo = (rlo << 16) | v;
+      }
+      groups++;
+      if (i == len) {
+        break;
+      }
+      if (s.charAt(i) != ':' || ++i == len) {
+        return UNPARSED;
+      }
+      if (s.charAt(i) == ':') {
+        if (gap >= 0) {
+          return UNPARSED;
+        }
+        gap = groups;
+        i++;
+      }
+    }
+
+    if (gap < 0) {
+      if (groups != 8) {
+        return UNPARSED;
+      }
+    } else {
+      if (groups > 7) {
+        return UNPARSED;
+      }
+      // Move the groups preceding :: into position, and combine with those following it
+      for (int j = gap; j < 8; j++) {
+        hi = (hi << 16) | (lo >>> 48);
+        lo = lo << 16;
+      }
+      hi |= rhi;
+      lo |= rlo;
+    }
+
+    // IPv4 mapped addresses are treated as IPv4, consistent with InetAddress
+    if (hi == 0L && (lo >>> 32) == 0xffffL) {
+      return subnets4.find(lo << 32, 0L, longest);
+    }
+    return subnets6.find(hi, lo, longest);
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    } else if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+  /**
+   * Parse dotted quad IPv4 address from substring
+   *
+   * @param s String
+   * @param start Start index
+   * @param end End index
+   * @return Address as unsigned value, or -1 if substring is not a dotted quad address
+   */
+  private static long parseIPv4(String s, int start, int end) {
+    long ret = 0L;
+    int octets = 0;
+    int i = start;
+    while (i < end) {
+      int v = 0;
+      int digits = 0;
+      char c;
+      while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+        if (++digits > 3) {
+          return -1L;
+        }
+        v = (v * 10) + (c - '0');
+        i++;
+      }
+      if (digits == 0 || v > 255 || ++octets > 4) {
+        return -1L;
+      }
+      ret = (ret << 8) | v;
+      if (i == end) {
+        break;
+      }
+      if (s.charAt(i) != '.' || ++i == end) {
+        return -1L;
+      }
+    }
+    if (octets != 4) {
+      return -1L;
+    }
+    return ret;
+  }
+
+  private static InetAddress parseAddress(String addr) {
+    try {
+      return InetAddress.getByName(addr);
+    } catch (UnknownHostException exc) {
+      throw new IllegalArgumentException("Failed to parse address" + addr, exc);
+    }
+  }
+
+  private static long bytesToLong(byte[] buf, int off) {
+    long ret = 0L;
+    for (int i = 0; i < 8; i++) {
+      ret <<= 8;
+      if (off + i < buf.length) {
+        ret |= buf[off + i] & 0xff;
+      }
+    }
+    return ret;
   }
 
   private static ArrayList<String> spfResolver(String record, String prefix) {
@@ -219,38 +452,57 @@ public class CidrUtil {
   }
 
   /**
-   * Load known GCP subnets into instance of {@link CidrUtil}
+   * Fetch known GCP subnets
    *
-   * <p>This is done via SPF record queries.
+   * <p>This is done via SPF record queries, which are submitted to the executor so they can be
+   * made in parallel.
+   *
+   * @param executor Executor used for SPF record queries
+   * @return List of subnets, empty if none could be resolved
    */
-  public void loadGcpSubnets() throws IOException {
-    int pcnt = 0;
+  static ArrayList<String> fetchGcpSubnets(Executor executor) {
+    ArrayList<CompletableFuture<ArrayList<String>>> queries = new ArrayList<>();
     for (int i = 1; i <= 16; i++) {
       String rdom = String.format("_cloud-netblocks%d.googleusercontent.com", i);
-      ArrayList<String> ipents = spfResolver(rdom, "ip4:");
-      for (String j : ipents) {
-        pcnt++;
-        add(j);
-      }
-      ipents = spfResolver(rdom, "ip6:");
-      for (String j : ipents) {
-        pcnt++;
-        add(j);
-      }
+      queries.add(
+          CompletableFuture.supplyAsync(
+              () -> {
+                ArrayList<String> ret = spfResolver(rdom, "ip4:");
+                ret.addAll(spfResolver(rdom, "ip6:"));
+                return ret;
+              },
+              executor));
     }
+    ArrayList<String> ret = new ArrayList<>();
+    for (CompletableFuture<ArrayList<String>> f : queries) {
+      ret.addAll(f.join());
+    }
+    return ret;
+  }
+
+  /**
+   * Load known GCP subnets into instance of {@link CidrUtil}
+   *
+   * <p>This is done via SPF record queries.
+   */
+  public void loadGcpSubnets() throws IOException {
+    ArrayList<String> ipents = fetchGcpSubnets(Runnable::run);
     // If we were not able to successfully add any subnet, throw an exception.
-    if (pcnt == 0) {
+    if (ipents.isEmpty()) {
       throw new IOException("unable to process GCP subnet list from SPF records");
     }
+    for (String j : ipents) {
+      add(j, TAG_GCP);
+    }
   }
 
   /** Populate CidrUtil instance with internal/RFC1918 subnets */
   public void loadInternalSubnets() {
-    add("10.0.0.0/8");
-    add("192.168.0.0/16");
-    add("172.16.0.0/12");
-    add("127.0.0.1/32");
-    add("::1/128");
+    add("10.0.0.0/8", TAG_INTERNAL);
+    add("192.168.0.0/16", TAG_INTERNAL);
+    add("172.16.0.0/12", TAG_INTERNAL);
+    add("127.0.0.1/32", TAG_INTERNAL);
+    add("::1/128", TAG_INTERNAL);
   }
 
   private static class AwsCidrPrefixEntry {
@@ -297,11 +549,13 @@ public class CidrUtil {
   }
 
   /**
-   * Load known AWS subnets into instance of {@link CidrUtil}
+   * Fetch known AWS subnets
    *
    * <p>Utilizes information at https://ip-ranges.amazonaws.com/ip-ranges.json
+   *
+   * @return List of subnet and tag pairs, in the order they are published
    */
-  public void loadAwsSubnets() throws IOException {
+  static ArrayList<String[]> fetchAwsSubnets() throws IOException {
     HttpClient httpClient = HttpClientBuilder.create().build();
     HttpGet get = new HttpGet(AWS_IP_RANGES_URL);
     HttpResponse resp = httpClient.execute(get);
@@ -313,26 +567,181 @@ public class CidrUtil {
     ObjectMapper mapper = new ObjectMapper();
     AwsCidrResponse awscidrs =
         mapper.readValue(resp.getEntity().getContent(), AwsCidrResponse.class);
+    ArrayList<String[]> ret = new ArrayList<>();
     for (AwsCidrPrefixEntry e : awscidrs.getIp4Prefixes()) {
-      add(e.getIp4Prefix());
+      ret.add(new String[] {e.getIp4Prefix(), awsTag(e)});
     }
     for (AwsCidrPrefixEntry e : awscidrs.getIp6Prefixes()) {
-      add(e.getIp6Prefix());
+      ret.add(new String[] {e.getIp6Prefix(), awsTag(e)});
+    }
+    return ret;
+  }
+
+  /**
+   * Load known AWS subnets into instance of {@link CidrUtil}
+   *
+   * <p>Utilizes information at https://ip-ranges.amazonaws.com/ip-ranges.json
+   *
+   * <p>Subnets are tagged using the format aws:region:service. Where the same prefix is listed
+   * for more than one service, the tag reflects the first entry in the published list.
+   */
+  public void loadAwsSubnets() throws IOException {
+    for (String[] e : fetchAwsSubnets()) {
+      add(e[0], e[1]);
     }
   }
 
+  private static String awsTag(AwsCidrPrefixEntry e) {
+    return String.format("aws:%s:%s", e.getRegion(), e.getService());
+  }
+
   /**
    * Add subnet to subnet list
    *
    * @param cidr Subnet to add
    */
   public void add(String cidr) {
-    subnets.add(new IpAddressMatcher(cidr));
+    add(cidr, null);
+  }
+
+  /**
+   * Add subnet to subnet list with a tag
+   *
+   * <p>The tag is returned with the subnet from {@link #lookup}. If the same prefix is added more
+   * than once, the tag from the first addition is retained.
+   *
+   * <p>A subnet specified without a prefix length matches only the specified address.
+   *
+   * @param cidr Subnet to add
+   * @param tag Tag to associate with subnet, may be null
+   */
+  public void add(String cidr, String tag) {
+    String addr = cidr;
+    int bits = -1;
+    int idx = cidr.indexOf('/');
+    if (idx > 0) {
+      addr = cidr.substring(0, idx);
+      bits = Integer.parseInt(cidr.substring(idx + 1));
+    }
+    byte[] buf = parseAddress(addr).getAddress();
+    if (bits > buf.length * 8) {
+      throw new IllegalArgumentException(
+          String.format("IP address %s is too short for bitmask of length %d", addr, bits));
+    }
+    if (bits < 0) {
+      bits = buf.length * 8;
+    }
+    Subnet s = new Subnet(cidr, tag);
+    if (buf.length == 4) {
+      subnets4.insert(bytesToLong(buf, 0), 0L, bits, s);
+    } else {
+      subnets6.insert(bytesToLong(buf, 0), bytesToLong(buf, 8), bits, s);
+    }
+  }
+
+  /** Subnet returned from a lookup */
+  public static class Subnet {
+    private final String cidr;
+    private final String tag;
+
+    /**
+     * Get subnet in the form it was added
+     *
+     * @return Subnet string
+     */
+    public String getCidr() {
+      return cidr;
+    }
+
+    /**
+     * Get tag associated with subnet
+     *
+     * @return Tag, or null if no tag was specified
+     */
+    public String getTag() {
+      return tag;
+    }
+
+    private Subnet(String cidr, String tag) {
+      this.cidr = cidr;
+      this.tag = tag;
+    }
+  }
+
+  /**
+   * Binary trie of address prefixes
+   *
+   * <p>Keys are up to 128 bits, supplied as two longs with the most significant bit of hi being the
+   * first address bit. Nodes are stored in parallel arrays indexed by node number, with node 0 as
+   * the root; a child index of 0 indicates no child.
+   */
+  private static class SubnetTrie {
+    private int[] zero = new int[64];
+    private int[] one = new int[64];
+    private Subnet[] values = new Subnet[64];
+    private int count = 1;
+
+    boolean isEmpty() {
+      return count == 1 && values[0] == null;
+    }
+
+    private static int bit(long hi, long lo, int i) {
+      if (i < 64) {
+        return (int) (hi >>> (63 - i)) & 1;
+      }
+      return (int) (lo >>> (127 - i)) & 1;
+    }
+
+    private int newNode() {
+      if (count == zero.length) {
+        zero = Arrays.copyOf(zero, count * 2);
+        one = Arrays.copyOf(one, count * 2);
+        values = Arrays.copyOf(values, count * 2);
+      }
+      return count++;
+    }
+
+    void insert(long hi, long lo, int bits, Subnet s) {
+      int n = 0;
+      for (int i = 0; i < bits; i++) {
+        int[] next = bit(hi, lo, i) == 0 ? zero : one;
+        if (next[n] == 0) {
+          int c = newNode();
+          // The arrays may have been reallocated by newNode
+          next = bit(hi, lo, i) == 0 ? zero : one;
+          next[n] = c;
+        }
+        n = next[n];
+      }
+      if (values[n] == null) {
+        values[n] = s;
+      }
+    }
+
+    Subnet find(long hi, long lo, boolean longest) {
+      int n = 0;
+      Subnet ret = values[0];
+      int i = 0;
+      while (ret == null || longest) {
+        if (i == 128) {
+          break;
+        }
+        n = bit(hi, lo, i++) == 0 ? zero[n] : one[n];
+        if (n == 0) {
+          break;
+        }
+        if (values[n] != null) {
+          ret = values[n];
+        }
+      }
+      return ret;
+    }
   }
 
   /** Constructor for {@link CidrUtil}, initialize empty */
   public CidrUtil() {
-    subnets = new ArrayList<IpAddressMatcher>();
+    subnets4 = new SubnetTrie();
+    subnets6 = new SubnetTrie();
   }
 
   /**
@@ -0,0 +1,323 @@
+package com.mozilla.secops;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared registry of cloud provider address ranges
+ *
+ * <p>Ranges are loaded once per JVM and shared by all users, with the GCP SPF record queries and
+ * the AWS range download made in parallel. Loaded ranges are held in an immutable snapshot that is
+ * replaced in the background at a fixed interval, so readers always see a complete set of ranges
+ * and never wait for a refresh.
+ *
+ * <p>If ranges for a provider cannot be fetched, the ranges from the previous snapshot are kept.
+ * On the initial load, ranges are instead taken from a snapshot file if one is configured, such
+ * as a snapshot staged in GCS and specified using a pipeline option. Snapshot files contain one
+ * range per line in the form "provider cidr [tag]", and can be generated using {@link #main}.
+ */
+public class CloudProviderRanges {
+  /** Default background refresh interval in seconds */
+  public static final long DEFAULT_REFRESH_SECONDS = 21600L;
+
+  /** Provider name for GCP ranges */
+  public static final String PROVIDER_GCP = "gcp";
+
+  /** Provider name for AWS ranges */
+  public static final String PROVIDER_AWS = "aws";
+
+  private static final HashMap<String, CloudProviderRanges> instances = new HashMap<>();
+
+  private static final ExecutorService fetchExecutor =
+      Executors.newCachedThreadPool(
+          r -> {
+            Thread t = new Thread(r, "cloud-provider-ranges-fetch");
+            t.setDaemon(true);
+            return t;
+          });
+
+  private final Logger log;
+  private final String snapshotPath;
+  private final Callable<List<String[]>> gcpFetcher;
+  private final Callable<List<String[]>> awsFetcher;
+  private ScheduledExecutorService refresher;
+
+  private volatile Ranges current;
+
+  /** Immutable set of loaded ranges */
+  private static class Ranges {
+    private final List<String[]> gcp;
+    private final List<String[]> aws;
+    private final CidrUtil gcpCidrs;
+    private final CidrUtil allCidrs;
+
+    Ranges(List<String[]> gcp, List<String[]> aws) {
+      this.gcp = gcp;
+      this.aws = aws;
+      gcpCidrs = new CidrUtil();
+      allCidrs = new CidrUtil();
+      for (String[] e : gcp) {
+        gcpCidrs.add(e[0], e[1]);
+        allCidrs.add(e[0], e[1]);
+      }
+      for (String[] e : aws) {
+        allCidrs.add(e[0], e[1]);
+      }
+    }
+  }
+
+  /**
+   * Get shared registry with no snapshot file fallback
+   *
+   * @return CloudProviderRanges
+   * @throws IOException If ranges for a provider could not be fetched
+   */
+  public static CloudProviderRanges getInstance() throws IOException {
+    return getInstance(null);
+  }
+
+  /**
+   * Get shared registry
+   *
+   * <p>The first call for a given snapshot path loads the ranges and enables background refresh;
+   * concurrent callers wait for that load rather than starting their own.
+   *
+   * @param snapshotPath Resource path or GCS URL of snapshot file used as a fallback, may be null
+   * @return CloudProviderRanges
+   * @throws IOException If ranges for a provider could not be loaded from any source
+   */
+  public static synchronized CloudProviderRanges getInstance(String snapshotPath)
+      throws IOException {
+    String key = snapshotPath == null ? "" : snapshotPath;
+    CloudProviderRanges ret = instances.get(key);
+    if (ret == null) {
+      ret =
+          new CloudProviderRanges(
+              snapshotPath,
+              () -> gcpEntries(CidrUtil.fetchGcpSubnets(fetchExecutor)),
+              CidrUtil::fetchAwsSubnets);
+      ret.refresh();
+      ret.enableRefresh(DEFAULT_REFRESH_SECONDS);
+      instances.put(key, ret);
+    }
+    return ret;
+  }
+
+  /** Discard all shared registry instances, stopping any background refresh */
+  public static synchronized void reset() {
+    for (CloudProviderRanges r : instances.values()) {
+      r.disableRefresh();
+    }
+    instances.clear();
+  }
+
+  private static List<String[]> gcpEntries(List<String> subnets) {
+    ArrayList<String[]> ret = new ArrayList<>();
+    for (String s : subnets) {
+      ret.add(new String[] {s, CidrUtil.TAG_GCP});
+    }
+    return ret;
+  }
+
+  private List<String[]> readSnapshot(String provider) {
+    ArrayList<String[]> ret = new ArrayList<>();
+    if (snapshotPath == null) {
+      return ret;
+    }
+    ArrayList<String> lines;
+    try {
+      lines = FileUtil.fileReadLines(snapshotPath);
+    } catch (IOException exc) {
+      log.warn("unable to read range snapshot {}: {}", snapshotPath, exc.getMessage());
+      return ret;
+    }
+    for (String l : lines) {
+      String[] parts = l.trim().split("\\s+");
+      if (parts.length < 2 || !parts[0].equals(provider)) {
+        continue;
+      }
+      ret.add(new String[] {parts[1], parts.length > 2 ? parts[2] : null});
+    }
+    return ret;
+  }
+
+  private List<String[]> fetch(
+      String provider, CompletableFuture<List<String[]>> f, List<String[]> prev)
+      throws IOException {
+    List<String[]> ret = null;
+    try {
+      ret = f.join();
+    } catch (CompletionException exc) {
+      log.warn("fetching {} ranges failed: {}", provider, exc.getCause().getMessage());
+    }
+    if (ret != null && !ret.isEmpty()) {
+      return ret;
+    }
+    if (prev != null) {
+      log.warn("keeping previously loaded {} ranges", provider);
+      return prev;
+    }
+    ret = readSnapshot(provider);
+    if (ret.isEmpty()) {
+      throw new IOException(String.format("unable to load %s ranges", provider));
+    }
+    log.warn("using {} ranges from snapshot {}", provider, snapshotPath);
+    return ret;
+  }
+
+  private static CompletableFuture<List<String[]>> submit(Callable<List<String[]>> fetcher) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return fetcher.call();
+          } catch (Exception exc) {
+            throw new CompletionException(exc);
+          }
+        },
+        fetchExecutor);
+  }
+
+  /**
+   * Fetch ranges from all providers and replace the current snapshot
+   *
+   * @throws IOException If ranges for a provider could not be loaded from any source
+   */
+  public void refresh() throws IOException {
+    CompletableFuture<List<String[]>> gcp = submit(gcpFetcher);
+    CompletableFuture<List<String[]>> aws = submit(awsFetcher);
+    Ranges prev = current;
+    Ranges n =
+        new Ranges(
+            fetch(PROVIDER_GCP, gcp, prev == null ? null : prev.gcp),
+            fetch(PROVIDER_AWS, aws, prev == null ? null : prev.aws));
+    current = n;
+    log.info("loaded {} gcp and {} aws ranges", n.gcp.size(), n.aws.size());
+  }
+
+  /**
+   * Enable background refresh of ranges
+   *
+   * <p>If background refresh is already enabled this has no effect.
+   *
+   * @param intervalSeconds Refresh interval in seconds
+   */
+  public synchronized void enableRefresh(long intervalSeconds) {
+    if (refresher != null) {
+      return;
+    }
+    refresher =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "cloud-provider-ranges-refresh");
+              t.setDaemon(true);
+              return t;
+            });
+    refresher.scheduleWithFixedDelay(
+        () -> {
+          try {
+            refresh();
+          } catch (IOException exc) {
+            log.error("error refreshing cloud provider ranges: {}", exc.getMessage());
+          }
+        },
+        intervalSeconds,
+        intervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /** Disable background refresh of ranges */
+  public synchronized void disableRefresh() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+  }
+
+  /**
+   * Get current GCP ranges
+   *
+   * <p>The returned object must not be modified.
+   *
+   * @return CidrUtil containing GCP ranges
+   */
+  public CidrUtil getGcp() {
+    return current.gcpCidrs;
+  }
+
+  /**
+   * Get current ranges for all providers
+   *
+   * <p>The returned object must not be modified.
+   *
+   * @return CidrUtil containing ranges for all providers
+   */
+  public CidrUtil getAll() {
+    return current.allCidrs;
+  }
+
+  /**
+   * Return true if the address is within the current range of any provider
+   *
+   * @param addr IP address
+   * @return True if address is within a cloud provider range
+   */
+  public Boolean contains(String addr) {
+    return current.allCidrs.contains(addr);
+  }
+
+  /**
+   * Get current ranges in snapshot file format
+   *
+   * @return Snapshot file lines
+   */
+  public ArrayList<String> toSnapshot() {
+    Ranges r = current;
+    ArrayList<String> ret = new ArrayList<>();
+    for (String[] e : r.gcp) {
+      ret.add(String.format("%s %s %s", PROVIDER_GCP, e[0], e[1]));
+    }
+    for (String[] e : r.aws) {
+      ret.add(String.format("%s %s %s", PROVIDER_AWS, e[0], e[1]));
+    }
+    return ret;
+  }
+
+  /**
+   * Create new registry
+   *
+   * <p>Ranges are not loaded until {@link #refresh} is called.
+   *
+   * @param snapshotPath Resource path or GCS URL of snapshot file used as a fallback, may be null
+   * @param gcpFetcher Fetches GCP ranges as subnet and tag pairs
+   * @param awsFetcher Fetches AWS ranges as subnet and tag pairs
+   */
+  CloudProviderRanges(
+      String snapshotPath,
+      Callable<List<String[]>> gcpFetcher,
+      Callable<List<String[]>> awsFetcher) {
+    log = LoggerFactory.getLogger(CloudProviderRanges.class);
+    this.snapshotPath = snapshotPath;
+    this.gcpFetcher = gcpFetcher;
+    this.awsFetcher = awsFetcher;
+  }
+
+  /** main routine writes a snapshot of current ranges to stdout */
+  public static void main(String[] args) throws Exception {
+    CloudProviderRanges r = getInstance(null);
+    System.out.println("# cloud provider ranges snapshot");
+    for (String l : r.toSnapshot()) {
+      System.out.println(l);
+    }
+  }
+}
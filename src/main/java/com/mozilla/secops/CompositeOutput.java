@@ -72,6 +72,7 @@ public abstract class CompositeOutput {
     } else {
       log.info("no alert state management configured");
     }
+    alertcfg.setStateCompressionThreshold(options.getAlertStateCompressionThreshold());
 
     return new PTransform<PCollection<String>, PDone>() {
       private static final long serialVersionUID = 1L;
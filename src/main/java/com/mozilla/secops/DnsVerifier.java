@@ -0,0 +1,361 @@
+package com.mozilla.secops;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caching forward-confirmed reverse DNS verifier
+ *
+ * <p>An address is verified by performing a reverse DNS query, and then a forward query on the
+ * returned hostname to confirm it resolves back to the original address. The confirmed hostname, or
+ * the absence of one, is cached so repeated checks for the same address do not result in further
+ * queries. Failed verifications are cached for a shorter period than successful ones.
+ *
+ * <p>Queries are performed on a bounded pool of threads, and concurrent requests for the same
+ * address share a single query. {@link #prefetch} can be used to start verification of a set of
+ * addresses in parallel before the results are needed.
+ */
+public class DnsVerifier {
+  /** Namespace for DNS verifier metrics */
+  public static final String METRICS_NAMESPACE = "DnsVerifier";
+
+  /** Metric for cache hits */
+  public static final String CACHE_HITS_METRIC = "dns_cache_hits";
+
+  /** Metric for cache misses, each of which results in a query */
+  public static final String CACHE_MISSES_METRIC = "dns_cache_misses";
+
+  /** Metric for requests that joined a query already in progress */
+  public static final String COALESCED_METRIC = "dns_coalesced";
+
+  /** Default period in milliseconds a confirmed hostname is cached */
+  public static final long DEFAULT_POSITIVE_TTL_MS = 3600000L;
+
+  /** Default period in milliseconds a failed verification is cached */
+  public static final long DEFAULT_NEGATIVE_TTL_MS = 300000L;
+
+  /** Default maximum number of concurrent queries */
+  public static final int DEFAULT_PARALLELISM = 8;
+
+  /** Maximum number of cached addresses */
+  public static final int MAX_ENTRIES = 10000;
+
+  private static DnsVerifier instance;
+
+  private final Logger log;
+  private final Resolver resolver;
+  private final long positiveTtl;
+  private final long negativeTtl;
+  private final ExecutorService executor;
+  private final LinkedHashMap<String, CacheEntry> cache;
+  private final ConcurrentHashMap<String, CompletableFuture<String>> inflight =
+      new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+  private final Counter hitsMetric = Metrics.counter(METRICS_NAMESPACE, CACHE_HITS_METRIC);
+  private final Counter missesMetric = Metrics.counter(METRICS_NAMESPACE, CACHE_MISSES_METRIC);
+  private final Counter coalescedMetric = Metrics.counter(METRICS_NAMESPACE, COALESCED_METRIC);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /** Performs DNS queries for the verifier */
+  public interface Resolver {
+    /**
+     * Perform reverse query for an address
+     *
+     * @param addr Address
+     * @return Hostname, or null if the address has no hostname
+     */
+    String reverse(InetAddress addr);
+
+    /**
+     * Perform forward query for a hostname
+     *
+     * @param hostname Hostname
+     * @return Addresses the hostname resolves to
+     * @throws UnknownHostException If the hostname could not be resolved
+     */
+    InetAddress[] forward(String hostname) throws UnknownHostException;
+  }
+
+  /** Resolver using the system name service */
+  public static class SystemResolver implements Resolver {
+    @Override
+    public String reverse(InetAddress addr) {
+      String hn = addr.getCanonicalHostName();
+      if (hn.equals(addr.getHostAddress())) {
+        // If the returned value is the original address, the lookup operation could not be
+        // completed
+        return null;
+      }
+      return hn;
+    }
+
+    @Override
+    public InetAddress[] forward(String hostname) throws UnknownHostException {
+      return InetAddress.getAllByName(hostname);
+    }
+  }
+
+  /** Cached verification result */
+  private static class CacheEntry {
+    private final String hostname;
+    private final long expires;
+
+    CacheEntry(String hostname, long expires) {
+      this.hostname = hostname;
+      this.expires = expires;
+    }
+  }
+
+  /**
+   * Get shared verifier using the system resolver and default settings
+   *
+   * @return DnsVerifier
+   */
+  public static synchronized DnsVerifier getInstance() {
+    if (instance == null) {
+      instance =
+          new DnsVerifier(
+              new SystemResolver(),
+              DEFAULT_POSITIVE_TTL_MS,
+              DEFAULT_NEGATIVE_TTL_MS,
+              DEFAULT_PARALLELISM);
+    }
+    return instance;
+  }
+
+  /** Discard shared verifier instance */
+  public static synchronized void reset() {
+    if (instance != null) {
+      instance.executor.shutdown();
+      instance = null;
+    }
+  }
+
+  private CacheEntry cacheGet(String ip) {
+    synchronized (cache) {
+      CacheEntry e = cache.get(ip);
+      if (e == null) {
+        return null;
+      }
+      if (System.currentTimeMillis() >= e.expires) {
+        cache.remove(ip);
+        return null;
+      }
+      return e;
+    }
+  }
+
+  private void cachePut(String ip, String hostname) {
+    long ttl = hostname != null ? positiveTtl : negativeTtl;
+    synchronized (cache) {
+      cache.put(ip, new CacheEntry(hostname, System.currentTimeMillis() + ttl));
+    }
+  }
+
+  private String query(String ip) {
+    InetAddress addr;
+    try {
+      addr = InetAddress.getByName(ip);
+    } catch (UnknownHostException exc) {
+      return null;
+    }
+    String hn = resolver.reverse(addr);
+    if (hn == null) {
+      return null;
+    }
+
+    InetAddress[] rlist;
+    try {
+      rlist = resolver.forward(hn);
+    } catch (UnknownHostException exc) {
+      return null;
+    }
+    for (InetAddress r : rlist) {
+      if (r.equals(addr)) {
+        return hn;
+      }
+    }
+    return null;
+  }
+
+  private CompletableFuture<String> lookup(String ip) {
+    CacheEntry e = cacheGet(ip);
+    if (e != null) {
+      hits.incrementAndGet();
+      hitsMetric.inc();
+      return CompletableFuture.completedFuture(e.hostname);
+    }
+
+    CompletableFuture<String> f = new CompletableFuture<>();
+    CompletableFuture<String> existing = inflight.putIfAbsent(ip, f);
+    if (existing != null) {
+      coalesced.incrementAndGet();
+      coalescedMetric.inc();
+      return existing;
+    }
+    misses.incrementAndGet();
+    missesMetric.inc();
+    executor.execute(
+        () -> {
+          String hn = null;
+          try {
+            hn = query(ip);
+          } catch (RuntimeException exc) {
+            log.warn("dns verification of {} failed: {}", ip, exc.getMessage());
+          }
+          cachePut(ip, hn);
+          inflight.remove(ip);
+          f.complete(hn);
+        });
+    return f;
+  }
+
+  /**
+   * Start verification of addresses that are not already cached
+   *
+   * <p>Returns without waiting for the queries to complete.
+   *
+   * @param ips IP addresses
+   */
+  public void prefetch(Collection<String> ips) {
+    for (String ip : ips) {
+      if (ip != null) {
+        lookup(ip);
+      }
+    }
+  }
+
+  /**
+   * Get forward-confirmed hostname for an address
+   *
+   * @param ip IP address
+   * @return Hostname, or null if the address could not be verified
+   */
+  public String getConfirmedHostname(String ip) {
+    if (ip == null) {
+      return null;
+    }
+    return lookup(ip).join();
+  }
+
+  /**
+   * Return true if the forward-confirmed hostname for an address matches a pattern
+   *
+   * @param ip IP address
+   * @param pattern Pattern to match hostname against
+   * @return True if hostname matches pattern, false otherwise
+   */
+  public Boolean matches(String ip, Pattern pattern) {
+    String hn = getConfirmedHostname(ip);
+    if (hn == null) {
+      return false;
+    }
+    return pattern.matcher(hn).matches();
+  }
+
+  /**
+   * Return true if the forward-confirmed hostname for an address matches a regular expression
+   *
+   * <p>The compiled form of each regular expression is retained by the verifier.
+   *
+   * @param ip IP address
+   * @param pattern Regular expression to match hostname against
+   * @return True if hostname matches pattern, false otherwise
+   */
+  public Boolean matches(String ip, String pattern) {
+    return matches(ip, patterns.computeIfAbsent(pattern, Pattern::compile));
+  }
+
+  /**
+   * Get number of cache hits
+   *
+   * @return Hit count
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get number of cache misses
+   *
+   * @return Miss count
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get number of requests that joined a query already in progress
+   *
+   * @return Coalesced count
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * Get number of cached addresses, including expired entries not yet removed
+   *
+   * @return Cache size
+   */
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /** Remove all cached results */
+  public void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Create new DNS verifier
+   *
+   * @param resolver Resolver used to perform queries
+   * @param positiveTtl Period in milliseconds a confirmed hostname is cached
+   * @param negativeTtl Period in milliseconds a failed verification is cached
+   * @param parallelism Maximum number of concurrent queries
+   */
+  public DnsVerifier(Resolver resolver, long positiveTtl, long negativeTtl, int parallelism) {
+    log = LoggerFactory.getLogger(DnsVerifier.class);
+    this.resolver = resolver;
+    this.positiveTtl = positiveTtl;
+    this.negativeTtl = negativeTtl;
+    executor =
+        Executors.newFixedThreadPool(
+            parallelism,
+            r -> {
+              Thread t = new Thread(r, "dns-verifier");
+              t.setDaemon(true);
+              return t;
+            });
+    cache =
+        new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_ENTRIES;
+          }
+        };
+  }
+}
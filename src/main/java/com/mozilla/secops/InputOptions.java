@@ -14,6 +14,12 @@ public interface InputOptions extends PipelineOptions, PubsubOptions, GcpOptions
 
   void setUseEventTimestamp(Boolean value);
 
+  @Description("Try most recently matched payload type first when parsing events from a source")
+  @Default.Boolean(false)
+  Boolean getUseAdaptiveParserDispatch();
+
+  void setUseAdaptiveParserDispatch(Boolean value);
+
   @Description(
       "Only inspect Stackdriver events generated for specified project identifier in parser DoFn")
   String getStackdriverProjectFilter();
@@ -83,4 +89,10 @@ public interface InputOptions extends PipelineOptions, PubsubOptions, GcpOptions
   String getInputIprepd();
 
   void setInputIprepd(String value);
+
+  @Description("Cache reputation read from iprepd; TTL in seconds, 0 to disable")
+  @Default.Integer(0)
+  Integer getInputIprepdCacheTtl();
+
+  void setInputIprepdCacheTtl(Integer value);
 }
@@ -3,17 +3,21 @@ package com.mozilla.secops;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.crypto.RuntimeSecrets;
-import com.mozilla.secops.state.DatastoreStateInterface;
-import com.mozilla.secops.state.State;
-import com.mozilla.secops.state.StateException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
 import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
@@ -24,9 +28,7 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +44,27 @@ public class IprepdIO {
   /** Custom metric name used to count iprepd violation submissions from write functions */
   public static final String VIOLATION_WRITES_METRIC = "iprepd_violation_writes";
 
+  /** Custom metric name used to count violations coalesced with an identical pending violation */
+  public static final String VIOLATIONS_COALESCED_METRIC = "iprepd_violations_coalesced";
+
+  /** Custom metric name used to count violation submissions that failed after all retries */
+  public static final String SUBMIT_ERRORS_METRIC = "iprepd_submit_errors";
+
+  /** Custom metric name used to count violation submission retries */
+  public static final String SUBMIT_RETRIES_METRIC = "iprepd_submit_retries";
+
+  /** Custom metric name used for the distribution of violation submission latency */
+  public static final String SUBMIT_LATENCY_METRIC = "iprepd_submit_latency_ms";
+
+  /** Custom metric name used to count reputation lookups served from cache */
+  public static final String REPUTATION_HITS_METRIC = "iprepd_reputation_cache_hits";
+
+  /** Custom metric name used to count reputation lookups not served from cache */
+  public static final String REPUTATION_MISSES_METRIC = "iprepd_reputation_cache_misses";
+
+  /** Custom metric name used for the distribution of reputation request latency */
+  public static final String REPUTATION_LATENCY_METRIC = "iprepd_reputation_latency_ms";
+
   /** Namespace for custom metrics */
   public static final String METRICS_NAMESPACE = "IprepdIO";
 
@@ -125,29 +148,87 @@ public class IprepdIO {
    * @return Reader
    */
   public static Reader getReader(String iprepdSpec, String project) {
-    return new Reader(iprepdSpec, project);
+    return new Reader(iprepdSpec, project, 0);
+  }
+
+  /**
+   * Return a new caching reader for reading reputation from iprepd
+   *
+   * <p>Reputation values are cached per worker for the specified TTL, and the cache is shared by
+   * all caching readers with the same specification and TTL. Objects that are not found in iprepd
+   * are also cached; lookups that fail are not.
+   *
+   * @param iprepdSpec iprepd input specification
+   * @param project GCP project name, only required if decrypting apiKey via cloudkms
+   * @param cacheTtl Cache TTL in seconds, 0 to disable caching
+   * @return Reader
+   */
+  public static Reader getReader(String iprepdSpec, String project, Integer cacheTtl) {
+    return new Reader(iprepdSpec, project, cacheTtl == null ? 0 : cacheTtl);
   }
 
   public static class Reader {
     private static final long serialVersionUID = 1L;
+    private static final int MAX_CACHE_ENTRIES = 100000;
+
     private final String iprepdSpec;
     private final String project;
     private final Logger log;
     private final HttpClient httpClient;
+    private final ReputationCache cache;
+    private String url;
+    private String apiKey;
+
+    private final Counter cacheHits = Metrics.counter(METRICS_NAMESPACE, REPUTATION_HITS_METRIC);
+    private final Counter cacheMisses =
+        Metrics.counter(METRICS_NAMESPACE, REPUTATION_MISSES_METRIC);
+    private final Distribution lookupLatency =
+        Metrics.distribution(METRICS_NAMESPACE, REPUTATION_LATENCY_METRIC);
 
     private static HashMap<String, String> decrypted = new HashMap<String, String>();
     private static ReentrantLock decryptedLock = new ReentrantLock();
 
-    /**
-     * Read a reputation
-     *
-     * @param type Type of object to make request for
-     * @param value Object to make request for
-     * @return Reputation integer value
-     */
-    public Integer getReputation(String type, String value) {
-      HttpResponse resp;
+    private static final ConcurrentHashMap<String, ReputationCache> caches =
+        new ConcurrentHashMap<>();
+    private static final ObjectReader reputationReader =
+        new ObjectMapper().readerFor(ReputationValue.class);
+
+    private static class CacheEntry {
+      private final Integer value;
+      private final long deadline;
+
+      CacheEntry(Integer value, long deadline) {
+        this.value = value;
+        this.deadline = deadline;
+      }
+    }
+
+    private static class ReputationCache {
+      private final long ttl;
+      private final ConcurrentHashMap<String, CacheEntry> entries = new ConcurrentHashMap<>();
+      private final ConcurrentHashMap<String, CompletableFuture<Integer>> inflight =
+          new ConcurrentHashMap<>();
+
+      ReputationCache(long ttl) {
+        this.ttl = ttl;
+      }
+    }
+
+    /** Result of an iprepd request, with an indication of if the result can be cached */
+    private static class Fetched {
+      private final Integer value;
+      private final Boolean cacheable;
 
+      Fetched(Integer value, Boolean cacheable) {
+        this.value = value;
+        this.cacheable = cacheable;
+      }
+    }
+
+    private void resolveSpec() {
+      if (url != null) {
+        return;
+      }
       String buf = null;
       decryptedLock.lock();
       try {
@@ -169,8 +250,89 @@ public class IprepdIO {
       if (parts.length != 2) {
         throw new RuntimeException("format of iprepd input specification was invalid");
       }
-      String url = parts[0];
-      String apiKey = parts[1];
+      apiKey = parts[1];
+      url = parts[0];
+    }
+
+    /**
+     * Read a reputation
+     *
+     * @param type Type of object to make request for
+     * @param value Object to make request for
+     * @return Reputation integer value
+     */
+    public Integer getReputation(String type, String value) {
+      resolveSpec();
+      if (cache == null) {
+        return fetch(type, value).value;
+      }
+
+      String key = type + "/" + value;
+      CacheEntry ce = cache.entries.get(key);
+      if (ce != null && ce.deadline > System.currentTimeMillis()) {
+        cacheHits.inc();
+        return ce.value;
+      }
+      cacheMisses.inc();
+
+      // Coalesce concurrent lookups for the same object, so only one request is made
+      CompletableFuture<Integer> f = new CompletableFuture<>();
+      CompletableFuture<Integer> prev = cache.inflight.putIfAbsent(key, f);
+      if (prev != null) {
+        return prev.join();
+      }
+      try {
+        Fetched r = fetch(type, value);
+        if (r.cacheable) {
+          if (cache.entries.size() >= MAX_CACHE_ENTRIES) {
+            long now = System.currentTimeMillis();
+            cache.entries.values().removeIf(e -> e.deadline <= now);
+            if (cache.entries.size() >= MAX_CACHE_ENTRIES) {
+              cache.entries.clear();
+            }
+          }
+          cache.entries.put(key, new CacheEntry(r.value, System.currentTimeMillis() + cache.ttl));
+        }
+        f.complete(r.value);
+        return r.value;
+      } catch (RuntimeException exc) {
+        f.completeExceptionally(exc);
+        throw exc;
+      } finally {
+        cache.inflight.remove(key, f);
+      }
+    }
+
+    /**
+     * Read reputations for a set of objects
+     *
+     * <p>Duplicate objects are only looked up once, and cached values are used where available.
+     *
+     * @param type Type of objects to make requests for
+     * @param values Objects to make requests for
+     * @return Map of object to reputation integer value
+     */
+    public Map<String, Integer> getReputations(String type, Collection<String> values) {
+      HashMap<String, Integer> ret = new HashMap<>();
+      for (String v : values) {
+        if (!ret.containsKey(v)) {
+          ret.put(v, getReputation(type, v));
+        }
+      }
+      return ret;
+    }
+
+    private Fetched fetch(String type, String value) {
+      long start = System.currentTimeMillis();
+      try {
+        return fetchUntimed(type, value);
+      } finally {
+        lookupLatency.update(System.currentTimeMillis() - start);
+      }
+    }
+
+    private Fetched fetchUntimed(String type, String value) {
+      HttpResponse resp;
 
       String reqPath = new StringJoiner("/").add(url).add("type").add(type).add(value).toString();
       HttpGet get;
@@ -178,7 +340,7 @@ public class IprepdIO {
         get = new HttpGet(reqPath);
       } catch (IllegalArgumentException exc) {
         log.error(exc.getMessage());
-        return new Integer(100);
+        return new Fetched(100, false);
       }
       if (apiKey != null) {
         get.addHeader("Authorization", "APIKey " + apiKey);
@@ -187,57 +349,46 @@ public class IprepdIO {
         resp = httpClient.execute(get);
       } catch (IOException exc) {
         log.error(exc.getMessage());
-        return new Integer(100);
-      }
-      int sc = resp.getStatusLine().getStatusCode();
-      if (sc == 404) {
-        // Reputation not found, report 100
-        return new Integer(100);
-      }
-      if (sc != 200) {
-        log.error("GET from iprepd returned with status code {}", sc);
-        return new Integer(100);
+        return new Fetched(100, false);
       }
       HttpEntity entity = resp.getEntity();
-      if (entity == null) {
-        log.error("200 response from iprepd contained no response entity");
-        return new Integer(100);
-      }
-
-      ReputationValue rval = null;
-      InputStream is = null;
-
       try {
-        is = entity.getContent();
-      } catch (IOException exc) {
-        log.error(exc.getMessage());
-        return new Integer(100);
-      }
-
-      if (is == null) {
-        log.error("200 response from iprepd contained no response content");
-        return new Integer(100);
-      }
+        int sc = resp.getStatusLine().getStatusCode();
+        if (sc == 404) {
+          // Reputation not found, report 100
+          return new Fetched(100, true);
+        }
+        if (sc != 200) {
+          log.error("GET from iprepd returned with status code {}", sc);
+          return new Fetched(100, false);
+        }
+        if (entity == null) {
+          log.error("200 response from iprepd contained no response entity");
+          return new Fetched(100, false);
+        }
 
-      try {
-        rval = new ObjectMapper().readValue(is, ReputationValue.class);
-      } catch (IOException exc) {
-        log.error(exc.getMessage());
-        return new Integer(100);
-      } finally {
-        try {
-          is.close();
+        ReputationValue rval = null;
+        try (InputStream is = entity.getContent()) {
+          if (is == null) {
+            log.error("200 response from iprepd contained no response content");
+            return new Fetched(100, false);
+          }
+          rval = reputationReader.readValue(is);
         } catch (IOException exc) {
-          throw new RuntimeException(exc.getMessage());
+          log.error(exc.getMessage());
+          return new Fetched(100, false);
         }
-      }
 
-      if (rval.getReputation() == null) {
-        log.error("response from iprepd contained no reputation value");
-        return new Integer(100);
-      }
+        if (rval.getReputation() == null) {
+          log.error("response from iprepd contained no reputation value");
+          return new Fetched(100, false);
+        }
 
-      return rval.getReputation();
+        return new Fetched(rval.getReputation(), true);
+      } finally {
+        // Ensure the connection is released in all cases
+        EntityUtils.consumeQuietly(entity);
+      }
     }
 
     /**
@@ -247,10 +398,29 @@ public class IprepdIO {
      * @param project GCP project name, only required if decrypting spec via cloudkms
      */
     public Reader(String iprepdSpec, String project) {
+      this(iprepdSpec, project, 0);
+    }
+
+    /**
+     * Create new iprepd reader
+     *
+     * @param iprepdSpec iprepd input specification
+     * @param project GCP project name, only required if decrypting spec via cloudkms
+     * @param cacheTtl Cache TTL in seconds, 0 to disable caching
+     */
+    public Reader(String iprepdSpec, String project, int cacheTtl) {
       log = LoggerFactory.getLogger(Reader.class);
       this.iprepdSpec = iprepdSpec;
       this.project = project;
-      httpClient = HttpClientBuilder.create().build();
+      httpClient = IprepdViolationWriter.getSharedClient();
+      if (cacheTtl > 0) {
+        long ttl = cacheTtl * 1000L;
+        cache =
+            caches.computeIfAbsent(
+                String.format("%d|%s", cacheTtl, iprepdSpec), k -> new ReputationCache(ttl));
+      } else {
+        cache = null;
+      }
     }
   }
 
@@ -324,13 +494,22 @@ public class IprepdIO {
   private static class WriteFn extends DoFn<String, Void> {
     private static final long serialVersionUID = 1L;
 
+    /** Maximum number of pending violations before they are submitted within a bundle */
+    private static final int MAX_PENDING = 500;
+
     private final Write wTransform;
     private Logger log;
-    private HttpClient httpClient;
+    private IprepdViolationWriter writer;
     private String[] iprepdSpecs;
     private String project;
 
     private Counter violationWrites = Metrics.counter(METRICS_NAMESPACE, VIOLATION_WRITES_METRIC);
+    private Counter violationsCoalesced =
+        Metrics.counter(METRICS_NAMESPACE, VIOLATIONS_COALESCED_METRIC);
+    private Counter submitErrors = Metrics.counter(METRICS_NAMESPACE, SUBMIT_ERRORS_METRIC);
+    private Counter submitRetries = Metrics.counter(METRICS_NAMESPACE, SUBMIT_RETRIES_METRIC);
+    private Distribution submitLatency =
+        Metrics.distribution(METRICS_NAMESPACE, SUBMIT_LATENCY_METRIC);
 
     private static HashMap<String, String> decrypted = new HashMap<String, String>();
     private static ReentrantLock decryptedLock = new ReentrantLock();
@@ -342,20 +521,41 @@ public class IprepdIO {
     @Setup
     public void setup() throws IOException {
       log = LoggerFactory.getLogger(WriteFn.class);
-      log.info("creating new HTTP client for iprepd submission");
-      httpClient = HttpClientBuilder.create().build();
 
       project = wTransform.getProject();
       iprepdSpecs = wTransform.getIprepdSpecs();
 
+      ArrayList<String> specs = new ArrayList<>();
       decryptedLock.lock();
       try {
         for (String i : iprepdSpecs) {
           decrypted.put(i, RuntimeSecrets.interpretSecret(i, project));
         }
+        for (String i : iprepdSpecs) {
+          String decr = decrypted.get(i);
+          if (decr == null) {
+            throw new RuntimeException("iprepd specification not found in translation map");
+          }
+          specs.add(decr);
+        }
       } finally {
         decryptedLock.unlock();
       }
+      writer = new IprepdViolationWriter(specs);
+    }
+
+    private void flush() {
+      // Metrics are recorded here rather than in the submission threads, as metrics are only
+      // reported from the thread processing the bundle
+      for (IprepdViolationWriter.Result r : writer.flush()) {
+        submitLatency.update(r.getLatency());
+        if (r.getAttempts() > 1) {
+          submitRetries.inc(r.getAttempts() - 1);
+        }
+        if (!r.isSuccess()) {
+          submitErrors.inc();
+        }
+      }
     }
 
     @ProcessElement
@@ -381,9 +581,6 @@ public class IprepdIO {
         return;
       }
       for (Violation v : vlist) {
-        String object = v.getObject();
-        String type = v.getType();
-
         String violationJSON = v.toJSON();
         if (violationJSON == null) {
           log.error("violation serialization failed");
@@ -391,61 +588,19 @@ public class IprepdIO {
         }
 
         violationWrites.inc();
-        for (String spec : iprepdSpecs) {
-          decryptedLock.lock();
-          String decr = null;
-          try {
-            decr = decrypted.get(spec);
-          } finally {
-            decryptedLock.unlock();
-          }
-          if (decr == null) {
-            throw new RuntimeException("iprepd specification not found in translation map");
-          }
-          String[] parts = decr.split("\\|");
-          String url = parts[0];
-          String apiKey = parts[1];
-
-          try {
-            String reqPath;
-            reqPath =
-                new StringJoiner("/")
-                    .add(url)
-                    .add("violations")
-                    .add("type")
-                    .add(type)
-                    .add(object)
-                    .toString();
-            StringEntity body = new StringEntity(violationJSON);
-
-            log.info(
-                "notify iprepd url {} object {} type {} violation {}",
-                url,
-                object,
-                type,
-                v.getViolation());
-            HttpPut put = new HttpPut(reqPath);
-            put.addHeader("Content-Type", "application/json");
-            put.setEntity(body);
-
-            if (apiKey != null) {
-              put.addHeader("Authorization", "APIKey " + apiKey);
-            }
-
-            HttpResponse resp = httpClient.execute(put);
-            log.info(
-                "PUT to iprepd at {} for {} returned with status code {}",
-                url,
-                object,
-                resp.getStatusLine().getStatusCode());
-            put.reset();
-          } catch (IOException exc) {
-            log.error(exc.getMessage());
-          } catch (IllegalArgumentException exc) {
-            log.error(exc.getMessage());
-          }
+        if (!writer.add(v, violationJSON)) {
+          violationsCoalesced.inc();
         }
       }
+
+      if (writer.pendingCount() >= MAX_PENDING) {
+        flush();
+      }
+    }
+
+    @FinishBundle
+    public void finishBundle() {
+      flush();
     }
   }
 
@@ -629,7 +784,7 @@ public class IprepdIO {
    */
   public static void addMetadataIfObjectWhitelisted(
       String obj, String type, Alert a, String datastoreProject) throws IOException {
-    if (obj == null || type == null || a == null) {
+    if (obj == null || obj.isEmpty() || type == null || a == null) {
       return;
     }
 
@@ -637,53 +792,10 @@ public class IprepdIO {
       return;
     }
 
-    State state;
-    State legacyState;
-    if (datastoreProject != null) {
-      state =
-          new State(
-              new DatastoreStateInterface(type, whitelistedObjectNamespace, datastoreProject));
-      legacyState =
-          new State(
-              new DatastoreStateInterface(
-                  legacyWhitelistedIpKind, legacyWhitelistedIpNamespace, datastoreProject));
-    } else {
-      state = new State(new DatastoreStateInterface(type, whitelistedObjectNamespace));
-      legacyState =
-          new State(
-              new DatastoreStateInterface(legacyWhitelistedIpKind, legacyWhitelistedIpNamespace));
-    }
-
-    Logger log = LoggerFactory.getLogger(IprepdIO.class);
-
-    try {
-      state.initialize();
-      legacyState.initialize();
-    } catch (StateException exc) {
-      log.error("error initializing state: {}", exc.getMessage());
-      throw new IOException(exc.getMessage());
-    }
-
-    try {
-      WhitelistedObject wobj = state.get(obj, WhitelistedObject.class);
-      if (wobj != null) {
-        a.addMetadata(IPREPD_EXEMPT, "true");
-        a.addMetadata(IPREPD_EXEMPT + "_created_by", wobj.getCreatedBy());
-      } else {
-        if (type.equals(whitelistedIpKind)) {
-          WhitelistedObject legacyWobj = legacyState.get(obj, WhitelistedObject.class);
-          if (legacyWobj != null) {
-            a.addMetadata(IPREPD_EXEMPT, "true");
-            a.addMetadata(IPREPD_EXEMPT + "_created_by", legacyWobj.getCreatedBy());
-          }
-        }
-      }
-    } catch (StateException exc) {
-      log.error("error getting whitelisted object: {}", exc.getMessage());
-      throw new IOException(exc.getMessage());
-    } finally {
-      state.done();
-      legacyState.done();
+    WhitelistedObject wobj = IprepdWhitelist.getInstance(datastoreProject).get(obj, type);
+    if (wobj != null) {
+      a.addMetadata(IPREPD_EXEMPT, "true");
+      a.addMetadata(IPREPD_EXEMPT + "_created_by", wobj.getCreatedBy());
     }
   }
 }
@@ -0,0 +1,318 @@
+package com.mozilla.secops;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batched violation submission to one or more iprepd instances
+ *
+ * <p>Violations are buffered until {@link #flush} is called. Identical violations for the same
+ * object added between flushes are coalesced into a single submission. On flush, submissions are
+ * made concurrently using a pooled HTTP client, with a bound on the number of requests in flight.
+ * Requests that fail with a server error or an I/O error are retried with exponential backoff.
+ *
+ * <p>The HTTP client and executor used by default are shared by all writers within a worker.
+ */
+class IprepdViolationWriter {
+  /** Maximum number of attempts for a single submission */
+  static final int MAX_ATTEMPTS = 3;
+
+  /** Default initial retry backoff in milliseconds, doubled for each subsequent attempt */
+  static final long DEFAULT_BACKOFF = 200L;
+
+  /** Maximum number of requests in flight for a writer */
+  static final int MAX_IN_FLIGHT = 16;
+
+  private static final int POOL_MAX_TOTAL = 64;
+
+  private static HttpClient sharedClient;
+  private static ExecutorService sharedExecutor;
+
+  private final Logger log = LoggerFactory.getLogger(IprepdViolationWriter.class);
+  private final HttpClient httpClient;
+  private final ExecutorService executor;
+  private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+  private final ArrayList<String[]> endpoints = new ArrayList<>();
+  private final LinkedHashMap<String, Violation> pending = new LinkedHashMap<>();
+  private final LinkedHashMap<String, String> pendingJson = new LinkedHashMap<>();
+  private final long backoff;
+
+  /** Result of submitting a violation to an iprepd instance */
+  static class Result {
+    private final String object;
+    private final int statusCode;
+    private final int attempts;
+    private final long latency;
+
+    /**
+     * Get object violation was submitted for
+     *
+     * @return Object
+     */
+    String getObject() {
+      return object;
+    }
+
+    /**
+     * Get final status code
+     *
+     * @return HTTP status code, or -1 if no response was received
+     */
+    int getStatusCode() {
+      return statusCode;
+    }
+
+    /**
+     * Get number of attempts made
+     *
+     * @return Attempts
+     */
+    int getAttempts() {
+      return attempts;
+    }
+
+    /**
+     * Get total time spent on submission including retries
+     *
+     * @return Latency in milliseconds
+     */
+    long getLatency() {
+      return latency;
+    }
+
+    /**
+     * Test if submission was successful
+     *
+     * @return True if a 2xx response was received
+     */
+    Boolean isSuccess() {
+      return statusCode >= 200 && statusCode < 300;
+    }
+
+    Result(String object, int statusCode, int attempts, long latency) {
+      this.object = object;
+      this.statusCode = statusCode;
+      this.attempts = attempts;
+      this.latency = latency;
+    }
+  }
+
+  /**
+   * Get shared pooled HTTP client
+   *
+   * @return HttpClient
+   */
+  static synchronized HttpClient getSharedClient() {
+    if (sharedClient == null) {
+      PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+      cm.setMaxTotal(POOL_MAX_TOTAL);
+      cm.setDefaultMaxPerRoute(POOL_MAX_TOTAL);
+      sharedClient = HttpClientBuilder.create().setConnectionManager(cm).build();
+    }
+    return sharedClient;
+  }
+
+  /**
+   * Get shared executor used for submissions
+   *
+   * @return ExecutorService
+   */
+  static synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor =
+          Executors.newFixedThreadPool(
+              POOL_MAX_TOTAL,
+              r -> {
+                Thread t = new Thread(r, "iprepd-violation-writer");
+                t.setDaemon(true);
+                return t;
+              });
+    }
+    return sharedExecutor;
+  }
+
+  /**
+   * Add violation to be submitted on next flush
+   *
+   * @param v Violation
+   * @param violationJSON Serialized violation
+   * @return False if the violation was coalesced with an identical pending violation
+   */
+  Boolean add(Violation v, String violationJSON) {
+    String key = String.format("%s/%s/%s", v.getType(), v.getObject(), violationJSON);
+    if (pending.containsKey(key)) {
+      return false;
+    }
+    pending.put(key, v);
+    pendingJson.put(key, violationJSON);
+    return true;
+  }
+
+  /**
+   * Get number of pending violations
+   *
+   * @return Pending count
+   */
+  int pendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Submit all pending violations to each iprepd instance and wait for completion
+   *
+   * @return Results of each submission
+   */
+  List<Result> flush() {
+    ArrayList<Future<Result>> futures = new ArrayList<>();
+    for (Map.Entry<String, Violation> entry : pending.entrySet()) {
+      Violation v = entry.getValue();
+      String json = pendingJson.get(entry.getKey());
+      for (String[] ep : endpoints) {
+        inFlight.acquireUninterruptibly();
+        try {
+          futures.add(
+              executor.submit(
+                  () -> {
+                    try {
+                      return submit(ep[0], ep[1], v, json);
+                    } finally {
+                      inFlight.release();
+                    }
+                  }));
+        } catch (RuntimeException exc) {
+          inFlight.release();
+          throw exc;
+        }
+      }
+    }
+    pending.clear();
+    pendingJson.clear();
+
+    ArrayList<Result> ret = new ArrayList<>();
+    for (Future<Result> f : futures) {
+      try {
+        ret.add(f.get());
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(exc.getMessage());
+      } catch (ExecutionException exc) {
+        throw new RuntimeException(exc.getMessage());
+      }
+    }
+    return ret;
+  }
+
+  private Result submit(String url, String apiKey, Violation v, String violationJSON) {
+    String object = v.getObject();
+    String reqPath =
+        new StringJoiner("/")
+            .add(url)
+            .add("violations")
+            .add("type")
+            .add(v.getType())
+            .add(object)
+            .toString();
+
+    log.info(
+        "notify iprepd url {} object {} type {} violation {}",
+        url,
+        object,
+        v.getType(),
+        v.getViolation());
+
+    long start = System.currentTimeMillis();
+    int sc = -1;
+    int attempt = 0;
+    while (attempt < MAX_ATTEMPTS) {
+      if (attempt > 0) {
+        try {
+          Thread.sleep(backoff << (attempt - 1));
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      attempt++;
+
+      HttpPut put;
+      try {
+        put = new HttpPut(reqPath);
+        put.setEntity(new StringEntity(violationJSON));
+      } catch (IllegalArgumentException | UnsupportedEncodingException exc) {
+        log.error(exc.getMessage());
+        break;
+      }
+      put.addHeader("Content-Type", "application/json");
+      if (apiKey != null) {
+        put.addHeader("Authorization", "APIKey " + apiKey);
+      }
+
+      try {
+        HttpResponse resp = httpClient.execute(put);
+        // Always consume the response so the connection is returned to the pool
+        EntityUtils.consumeQuietly(resp.getEntity());
+        sc = resp.getStatusLine().getStatusCode();
+        log.info("PUT to iprepd at {} for {} returned with status code {}", url, object, sc);
+        if (sc < 500) {
+          break;
+        }
+      } catch (IOException exc) {
+        log.error(exc.getMessage());
+        sc = -1;
+      } finally {
+        put.reset();
+      }
+    }
+    return new Result(object, sc, attempt, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Create new violation writer
+   *
+   * @param decryptedSpecs Decrypted iprepd specifications, in url|apikey format
+   * @param httpClient HTTP client to use for submissions
+   * @param executor Executor to use for submissions
+   * @param backoff Initial retry backoff in milliseconds
+   */
+  IprepdViolationWriter(
+      List<String> decryptedSpecs, HttpClient httpClient, ExecutorService executor, long backoff) {
+    for (String spec : decryptedSpecs) {
+      String[] parts = spec.split("\\|");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("format of iprepd specification was invalid");
+      }
+      endpoints.add(parts);
+    }
+    this.httpClient = httpClient;
+    this.executor = executor;
+    this.backoff = backoff;
+  }
+
+  /**
+   * Create new violation writer using shared HTTP client and executor
+   *
+   * @param decryptedSpecs Decrypted iprepd specifications, in url|apikey format
+   */
+  IprepdViolationWriter(List<String> decryptedSpecs) {
+    this(decryptedSpecs, getSharedClient(), getSharedExecutor(), DEFAULT_BACKOFF);
+  }
+}
@@ -0,0 +1,358 @@
+package com.mozilla.secops;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreException;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StructuredQuery;
+import com.mozilla.secops.state.DatastoreStateInterface;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cached access to whitelisted objects stored in Datastore
+ *
+ * <p>A single instance is maintained per worker for each Datastore project, and is shared by all
+ * functions that check whitelist status. Each instance holds one Datastore client.
+ *
+ * <p>Lookups are served from a TTL cache. Positive results are cached until the configured TTL
+ * elapses or the whitelist entry expires, whichever comes first; negative results are cached using
+ * a shorter TTL so newly added entries take effect quickly. Cache misses are resolved using a
+ * single batched get that includes both the current and legacy kinds.
+ *
+ * <p>Optionally, an instance can instead maintain an in-memory snapshot of all whitelisted objects,
+ * refreshed in the background at a fixed interval. When snapshots are enabled, lookups do not
+ * access Datastore.
+ */
+public class IprepdWhitelist {
+  /** Default TTL for cached whitelisted objects, in milliseconds */
+  public static final long DEFAULT_POSITIVE_TTL = 300000L;
+
+  /** Default TTL for cached objects that are not whitelisted, in milliseconds */
+  public static final long DEFAULT_NEGATIVE_TTL = 60000L;
+
+  private static final int MAX_CACHE_ENTRIES = 65536;
+
+  private static final ConcurrentHashMap<String, IprepdWhitelist> instances =
+      new ConcurrentHashMap<>();
+
+  private static final ObjectReader reader;
+
+  static {
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.registerModule(new JodaModule());
+    mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    reader = mapper.readerFor(IprepdIO.WhitelistedObject.class);
+  }
+
+  private final Logger log = LoggerFactory.getLogger(IprepdWhitelist.class);
+  private final Datastore datastore;
+  private final String projectId;
+  private final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+  private final Counter cacheHits =
+      Metrics.counter(IprepdIO.METRICS_NAMESPACE, "whitelist_cache_hits");
+  private final Counter cacheMisses =
+      Metrics.counter(IprepdIO.METRICS_NAMESPACE, "whitelist_cache_misses");
+  private final Counter datastoreGets =
+      Metrics.counter(IprepdIO.METRICS_NAMESPACE, "whitelist_datastore_gets");
+
+  private long positiveTtl = DEFAULT_POSITIVE_TTL;
+  private long negativeTtl = DEFAULT_NEGATIVE_TTL;
+  private volatile Map<String, IprepdIO.WhitelistedObject> snapshot;
+  private ScheduledExecutorService refresher;
+
+  private static class CacheEntry {
+    private final IprepdIO.WhitelistedObject value;
+    private final long deadline;
+
+    CacheEntry(IprepdIO.WhitelistedObject value, long deadline) {
+      this.value = value;
+      this.deadline = deadline;
+    }
+  }
+
+  private static String cacheKey(String obj, String type) {
+    return type + "/" + obj;
+  }
+
+  private static String instanceKey(String project) {
+    // Include emulator configuration so instances are not reused if it changes, such as in tests
+    return String.format(
+        "%s|%s|%s",
+        project, System.getenv("DATASTORE_HOST"), System.getenv("DATASTORE_PROJECT_ID"));
+  }
+
+  /**
+   * Get shared whitelist instance
+   *
+   * @param datastoreProject If Datastore is in another project, non-null project ID
+   * @return IprepdWhitelist
+   */
+  public static IprepdWhitelist getInstance(String datastoreProject) {
+    return instances.computeIfAbsent(
+        instanceKey(datastoreProject), k -> new IprepdWhitelist(datastoreProject));
+  }
+
+  /**
+   * Discard all shared whitelist instances
+   *
+   * <p>Any background snapshot refresh is stopped. This is primarily intended for tests that modify
+   * whitelist entries in Datastore.
+   */
+  public static void reset() {
+    for (IprepdWhitelist w : instances.values()) {
+      w.disableSnapshot();
+    }
+    instances.clear();
+  }
+
+  /**
+   * Set TTLs used for cached lookup results
+   *
+   * @param positiveTtl TTL for whitelisted objects in milliseconds
+   * @param negativeTtl TTL for objects that are not whitelisted in milliseconds
+   */
+  public void setTtl(long positiveTtl, long negativeTtl) {
+    this.positiveTtl = positiveTtl;
+    this.negativeTtl = negativeTtl;
+    cache.clear();
+  }
+
+  /**
+   * Enable snapshot mode
+   *
+   * <p>All whitelisted objects are loaded immediately, and then reloaded in the background at the
+   * specified interval. If a background refresh fails, the previous snapshot continues to be used.
+   * If snapshot mode is already enabled this has no effect.
+   *
+   * @param intervalSeconds Refresh interval in seconds
+   * @throws IOException If the initial load fails
+   */
+  public synchronized void enableSnapshot(long intervalSeconds) throws IOException {
+    if (refresher != null) {
+      return;
+    }
+    snapshot = loadSnapshot();
+    refresher =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "iprepd-whitelist-refresh");
+              t.setDaemon(true);
+              return t;
+            });
+    refresher.scheduleWithFixedDelay(
+        () -> {
+          try {
+            snapshot = loadSnapshot();
+          } catch (IOException exc) {
+            log.error("error refreshing whitelist snapshot: {}", exc.getMessage());
+          }
+        },
+        intervalSeconds,
+        intervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /** Disable snapshot mode, returning to cached lookups */
+  public synchronized void disableSnapshot() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+    snapshot = null;
+  }
+
+  /**
+   * Get whitelisted object
+   *
+   * <p>For objects of type ip, the legacy whitelisted IP kind is consulted if the object is not
+   * present in the current kind.
+   *
+   * @param obj Object to check (usually an IP or email)
+   * @param type Type of object (usually "ip" or "email")
+   * @return Whitelisted object, or null if the object is not whitelisted
+   * @throws IOException If the Datastore lookup fails
+   */
+  public IprepdIO.WhitelistedObject get(String obj, String type) throws IOException {
+    ArrayList<String> l = new ArrayList<>();
+    l.add(obj);
+    return getAll(l, type).get(obj);
+  }
+
+  /**
+   * Get whitelisted objects
+   *
+   * <p>Objects that are not cached are fetched from Datastore using a single batched get.
+   *
+   * @param objs Objects to check
+   * @param type Type of objects
+   * @return Map of whitelisted objects, objects that are not whitelisted are not included
+   * @throws IOException If the Datastore lookup fails
+   */
+  public Map<String, IprepdIO.WhitelistedObject> getAll(Collection<String> objs, String type)
+      throws IOException {
+    HashMap<String, IprepdIO.WhitelistedObject> ret = new HashMap<>();
+
+    Map<String, IprepdIO.WhitelistedObject> snap = snapshot;
+    if (snap != null) {
+      for (String obj : objs) {
+        IprepdIO.WhitelistedObject w = snap.get(cacheKey(obj, type));
+        if (w != null) {
+          ret.put(obj, w);
+        }
+      }
+      return ret;
+    }
+
+    long now = System.currentTimeMillis();
+    LinkedHashSet<String> missing = new LinkedHashSet<>();
+    for (String obj : objs) {
+      CacheEntry ce = cache.get(cacheKey(obj, type));
+      if (ce != null && ce.deadline > now) {
+        cacheHits.inc();
+        if (ce.value != null) {
+          ret.put(obj, ce.value);
+        }
+      } else if (missing.add(obj)) {
+        cacheMisses.inc();
+      }
+    }
+    if (missing.isEmpty()) {
+      return ret;
+    }
+
+    Map<String, IprepdIO.WhitelistedObject> fetched = fetch(missing, type);
+    if (cache.size() >= MAX_CACHE_ENTRIES) {
+      cache.values().removeIf(ce -> ce.deadline <= now);
+      if (cache.size() >= MAX_CACHE_ENTRIES) {
+        cache.clear();
+      }
+    }
+    for (String obj : missing) {
+      IprepdIO.WhitelistedObject w = fetched.get(obj);
+      long deadline = now + negativeTtl;
+      if (w != null) {
+        ret.put(obj, w);
+        deadline = now + positiveTtl;
+        if (w.getExpiresAt() != null) {
+          deadline = Math.min(deadline, w.getExpiresAt().getMillis());
+        }
+      }
+      if (deadline > now) {
+        cache.put(cacheKey(obj, type), new CacheEntry(w, deadline));
+      }
+    }
+    return ret;
+  }
+
+  private Key newKey(String namespace, String kind, String name) {
+    return Key.newBuilder(projectId, kind, name).setNamespace(namespace).build();
+  }
+
+  private static IprepdIO.WhitelistedObject decode(Entity e) throws IOException {
+    if (!e.contains("state")) {
+      throw new IOException("whitelist entity has no state property");
+    }
+    return reader.readValue(e.getString("state"));
+  }
+
+  private Map<String, IprepdIO.WhitelistedObject> fetch(Collection<String> objs, String type)
+      throws IOException {
+    Boolean legacy = type.equals(IprepdIO.whitelistedIpKind);
+    ArrayList<Key> keys = new ArrayList<>();
+    for (String obj : objs) {
+      keys.add(newKey(IprepdIO.whitelistedObjectNamespace, type, obj));
+      if (legacy) {
+        keys.add(
+            newKey(
+                IprepdIO.legacyWhitelistedIpNamespace, IprepdIO.legacyWhitelistedIpKind, obj));
+      }
+    }
+
+    List<Entity> entities;
+    try {
+      datastoreGets.inc();
+      entities = datastore.fetch(keys.toArray(new Key[0]));
+    } catch (DatastoreException exc) {
+      log.error("error getting whitelisted objects: {}", exc.getMessage());
+      throw new IOException(exc.getMessage());
+    }
+
+    // Results are returned in key order, with null for keys that do not exist
+    HashMap<String, IprepdIO.WhitelistedObject> ret = new HashMap<>();
+    Iterator<Entity> it = entities.iterator();
+    for (String obj : objs) {
+      Entity current = it.next();
+      Entity legacyEntity = legacy ? it.next() : null;
+      if (current != null) {
+        ret.put(obj, decode(current));
+      } else if (legacyEntity != null) {
+        ret.put(obj, decode(legacyEntity));
+      }
+    }
+    return ret;
+  }
+
+  private void loadKind(
+      Map<String, IprepdIO.WhitelistedObject> dest, String namespace, String kind, String type)
+      throws IOException {
+    StructuredQuery<Entity> query =
+        Query.newEntityQueryBuilder().setNamespace(namespace).setKind(kind).build();
+    try {
+      QueryResults<Entity> results = datastore.run(query);
+      while (results.hasNext()) {
+        Entity e = results.next();
+        // Entries in the current kind take precedence over legacy entries
+        dest.putIfAbsent(cacheKey(e.getKey().getName(), type), decode(e));
+      }
+    } catch (DatastoreException exc) {
+      throw new IOException(exc.getMessage());
+    }
+  }
+
+  private Map<String, IprepdIO.WhitelistedObject> loadSnapshot() throws IOException {
+    HashMap<String, IprepdIO.WhitelistedObject> ret = new HashMap<>();
+    loadKind(
+        ret,
+        IprepdIO.whitelistedObjectNamespace,
+        IprepdIO.whitelistedIpKind,
+        IprepdIO.whitelistedIpKind);
+    loadKind(
+        ret,
+        IprepdIO.whitelistedObjectNamespace,
+        IprepdIO.whitelistedEmailKind,
+        IprepdIO.whitelistedEmailKind);
+    loadKind(
+        ret,
+        IprepdIO.legacyWhitelistedIpNamespace,
+        IprepdIO.legacyWhitelistedIpKind,
+        IprepdIO.whitelistedIpKind);
+    log.info("loaded whitelist snapshot with {} entries", ret.size());
+    return ret;
+  }
+
+  private IprepdWhitelist(String datastoreProject) {
+    datastore = DatastoreStateInterface.getDatastore(datastoreProject);
+    projectId = datastore.getOptions().getProjectId();
+  }
+}
@@ -110,6 +110,12 @@ public interface OutputOptions extends PipelineOptions, GcpOptions {
 
   void setAlertStateDatastoreKind(String value);
 
+  @Description("Compress alert state values at or above length, 0 to disable")
+  @Default.Integer(0)
+  Integer getAlertStateCompressionThreshold();
+
+  void setAlertStateCompressionThreshold(Integer value);
+
   @Description("GCS path to alert templates; for example: gs://prod-alerts/templates")
   String getOutputAlertGcsTemplateBasePath();
 
@@ -0,0 +1,352 @@
+package com.mozilla.secops;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Set of regular expressions matched against an input together
+ *
+ * <p>Each pattern is matched against the entire input, as with {@link
+ * java.util.regex.Matcher#matches}. Patterns that are plain literals are looked up in a single hash
+ * table rather than evaluated as regular expressions. Of the remaining patterns, those that begin
+ * with a literal prefix are grouped by the first character of the prefix so only patterns whose
+ * prefix the input begins with are evaluated. Patterns with no literal prefix are always evaluated.
+ *
+ * <p>Results can optionally be cached by input value, which is useful where the same small set of
+ * values such as user agents or finding types is seen repeatedly. The cache is bounded and evicts
+ * the least recently used entries, and is not retained if the set is serialized.
+ */
+public class PatternSet implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** Default maximum number of cached results */
+  public static final int DEFAULT_CACHE_SIZE = 1024;
+
+  private static final int[] NONE = new int[0];
+  private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+  private final String[] sources;
+  private final Pattern[] patterns;
+  private final String[] prefixes;
+  private final HashMap<String, int[]> literals;
+  private final HashMap<Character, int[]> byPrefix;
+  private final int[] unprefixed;
+  private final int cacheSize;
+
+  private transient LinkedHashMap<String, int[]> cache;
+
+  /**
+   * Extract literal value of a pattern that contains no regular expression constructs
+   *
+   * @param p Pattern
+   * @return Literal value, or null if the pattern is not a literal
+   */
+  static String literalValue(String p) {
+    int start = p.startsWith("^") ? 1 : 0;
+    int end = p.length();
+    if (end > start && p.charAt(end - 1) == '$' && !isEscaped(p, end - 1)) {
+      end--;
+    }
+    StringBuilder ret = new StringBuilder();
+    for (int i = start; i < end; i++) {
+      char c = p.charAt(i);
+      if (c == '\\') {
+        if (i + 1 >= end || Character.isLetterOrDigit(p.charAt(i + 1))) {
+          return null;
+        }
+        ret.append(p.charAt(++i));
+      } else if (METACHARACTERS.indexOf(c) != -1) {
+        return null;
+      } else {
+        ret.append(c);
+      }
+    }
+    return ret.toString();
+  }
+
+  /**
+   * Extract literal prefix any input matching a pattern must begin with
+   *
+   * @param p Pattern
+   * @return Literal prefix, empty if the pattern has no literal prefix
+   */
+  static String literalPrefix(String p) {
+    // Alternation anywhere outside of a group or character class means the prefix is not required
+    int depth = 0;
+    int inClass = 0;
+    for (int i = 0; i < p.length(); i++) {
+      char c = p.charAt(i);
+      if (c == '\\') {
+        if (i + 1 < p.length() && p.charAt(i + 1) == 'Q') {
+          // Quoted sections are not tracked
+          return "";
+        }
+        i++;
+      } else if (c == '[') {
+        inClass++;
+        // A closing bracket at the start of a class is literal
+        if (i + 1 < p.length() && p.charAt(i + 1) == '^') {
+          i++;
+        }
+        if (i + 1 < p.length() && p.charAt(i + 1) == ']') {
+          i++;
+        }
+      } else if (inClass > 0) {
+        if (c == ']') {
+          inClass--;
+        }
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '|' && depth == 0) {
+        return "";
+      }
+    }
+
+    StringBuilder ret = new StringBuilder();
+    int i = p.startsWith("^") ? 1 : 0;
+    while (i < p.length()) {
+      char c = p.charAt(i);
+      char lit;
+      int next;
+      if (c == '\\') {
+        if (i + 1 >= p.length() || Character.isLetterOrDigit(p.charAt(i + 1))) {
+          break;
+        }
+        lit = p.charAt(i + 1);
+        next = i + 2;
+      } else if (METACHARACTERS.indexOf(c) != -1) {
+        break;
+      } else {
+        lit = c;
+        next = i + 1;
+      }
+      if (next < p.length()) {
+        char q = p.charAt(next);
+        if (q == '?' || q == '*' || q == '{') {
+          // Character may not be present
+          break;
+        }
+      }
+      ret.append(lit);
+      i = next;
+    }
+    return ret.toString();
+  }
+
+  private static boolean isEscaped(String p, int idx) {
+    int n = 0;
+    for (int i = idx - 1; i >= 0 && p.charAt(i) == '\\'; i--) {
+      n++;
+    }
+    return n % 2 == 1;
+  }
+
+  private static int[] append(int[] a, int v) {
+    int[] ret = Arrays.copyOf(a, a.length + 1);
+    ret[a.length] = v;
+    return ret;
+  }
+
+  private synchronized int[] cacheGet(String input) {
+    if (cache == null) {
+      return null;
+    }
+    return cache.get(input);
+  }
+
+  private synchronized void cachePut(String input, int[] result) {
+    if (cache == null) {
+      int max = cacheSize;
+      cache =
+          new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+              return size() > max;
+            }
+          };
+    }
+    cache.put(input, result);
+  }
+
+  private boolean evaluate(int idx, String input) {
+    String prefix = prefixes[idx];
+    if (prefix != null && !input.startsWith(prefix)) {
+      return false;
+    }
+    return patterns[idx].matcher(input).matches();
+  }
+
+  private int[] compute(String input, boolean firstOnly) {
+    int[] lit = literals.get(input);
+    int[] pre = NONE;
+    if (!input.isEmpty()) {
+      pre = byPrefix.getOrDefault(input.charAt(0), NONE);
+    }
+
+    // Merge the candidate lists so indices are returned in ascending order
+    int[] buf = new int[(lit == null ? 0 : lit.length) + pre.length + unprefixed.length];
+    int n = 0;
+    int a = 0;
+    int b = 0;
+    int c = 0;
+    while (true) {
+      int la = lit != null && a < lit.length ? lit[a] : Integer.MAX_VALUE;
+      int lb = b < pre.length ? pre[b] : Integer.MAX_VALUE;
+      int lc = c < unprefixed.length ? unprefixed[c] : Integer.MAX_VALUE;
+      if (la == Integer.MAX_VALUE && lb == Integer.MAX_VALUE && lc == Integer.MAX_VALUE) {
+        break;
+      }
+      boolean matched;
+      int idx;
+      if (la < lb && la < lc) {
+        idx = la;
+        matched = true;
+        a++;
+      } else if (lb < lc) {
+        idx = lb;
+        matched = evaluate(idx, input);
+        b++;
+      } else {
+        idx = lc;
+        matched = evaluate(idx, input);
+        c++;
+      }
+      if (matched) {
+        buf[n++] = idx;
+        if (firstOnly) {
+          break;
+        }
+      }
+    }
+    return n == 0 ? NONE : Arrays.copyOf(buf, n);
+  }
+
+  private int[] lookup(String input, boolean firstOnly) {
+    if (input == null || sources.length == 0) {
+      return NONE;
+    }
+    if (cacheSize <= 0) {
+      return compute(input, firstOnly);
+    }
+    int[] ret = cacheGet(input);
+    if (ret == null) {
+      ret = compute(input, false);
+      cachePut(input, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Get indices of all patterns matching input
+   *
+   * @param input Input string, a null input matches no patterns
+   * @return Indices of matching patterns in ascending order, the returned array must not be
+   *     modified
+   */
+  public int[] matches(String input) {
+    return lookup(input, false);
+  }
+
+  /**
+   * Get index of the first pattern matching input
+   *
+   * @param input Input string
+   * @return Index of first matching pattern, or -1 if no pattern matches
+   */
+  public int firstMatch(String input) {
+    int[] ret = lookup(input, true);
+    return ret.length == 0 ? -1 : ret[0];
+  }
+
+  /**
+   * Return true if any pattern matches input
+   *
+   * @param input Input string
+   * @return True if any pattern matches
+   */
+  public Boolean matchesAny(String input) {
+    return lookup(input, true).length > 0;
+  }
+
+  /**
+   * Get pattern at index
+   *
+   * @param idx Index
+   * @return Pattern
+   */
+  public String getPattern(int idx) {
+    return sources[idx];
+  }
+
+  /**
+   * Get number of patterns in set
+   *
+   * @return Pattern count
+   */
+  public int size() {
+    return sources.length;
+  }
+
+  /**
+   * Get number of cached results
+   *
+   * @return Cache size
+   */
+  public synchronized int getCacheEntries() {
+    return cache == null ? 0 : cache.size();
+  }
+
+  /**
+   * Create new pattern set with the default cache size
+   *
+   * @param patterns Regular expressions
+   */
+  public PatternSet(List<String> patterns) {
+    this(patterns, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Create new pattern set
+   *
+   * @param patterns Regular expressions
+   * @param cacheSize Maximum number of cached results, or 0 to disable caching
+   */
+  public PatternSet(List<String> patterns, int cacheSize) {
+    this.cacheSize = cacheSize;
+    sources = patterns.toArray(new String[0]);
+    this.patterns = new Pattern[sources.length];
+    prefixes = new String[sources.length];
+    literals = new HashMap<>();
+    byPrefix = new HashMap<>();
+    ArrayList<Integer> rem = new ArrayList<>();
+
+    for (int i = 0; i < sources.length; i++) {
+      // Compile every pattern so invalid expressions are reported on construction
+      this.patterns[i] = Pattern.compile(sources[i]);
+
+      String lit = literalValue(sources[i]);
+      if (lit != null) {
+        literals.put(lit, append(literals.getOrDefault(lit, NONE), i));
+        continue;
+      }
+      String prefix = literalPrefix(sources[i]);
+      if (prefix.isEmpty()) {
+        rem.add(i);
+        continue;
+      }
+      prefixes[i] = prefix;
+      byPrefix.put(prefix.charAt(0), append(byPrefix.getOrDefault(prefix.charAt(0), NONE), i));
+    }
+    unprefixed = rem.stream().mapToInt(Integer::intValue).toArray();
+  }
+}
@@ -0,0 +1,240 @@
+package com.mozilla.secops;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reference counted registry of resources shared within the JVM
+ *
+ * <p>Resources are identified by their type and a specification string, which should include
+ * everything that influences the loaded value such as the path it is loaded from and any
+ * configuration flags. The first request for a resource loads it, and subsequent requests for the
+ * same resource share the loaded value until every {@link Handle} to it has been closed, at which
+ * point the resource is discarded. Concurrent requests for a resource that is being loaded wait for
+ * that load rather than starting their own.
+ *
+ * <p>Typically a handle is acquired in a {@link org.apache.beam.sdk.transforms.DoFn.Setup} method
+ * and closed in the corresponding {@link org.apache.beam.sdk.transforms.DoFn.Teardown} method, so
+ * all instances of a step on a worker, and all steps using the same resource, share one copy.
+ * Shared values are accessed concurrently from multiple threads, and must not be modified.
+ *
+ * <p>A resource can optionally be reloaded at a fixed interval. If a reload fails the previously
+ * loaded value is retained. Holders that need to observe reloaded values should call {@link
+ * Handle#get} each time the value is used rather than retaining the value itself.
+ */
+public class SharedResources {
+  private static final HashMap<String, Entry> entries = new HashMap<>();
+  private static ScheduledExecutorService refresher;
+
+  /**
+   * Loads a shared resource
+   *
+   * @param <T> Resource type
+   */
+  public interface Loader<T> {
+    /**
+     * Load resource
+     *
+     * @return Loaded resource
+     * @throws IOException If the resource could not be loaded
+     */
+    T load() throws IOException;
+  }
+
+  /** Loaded resource and its reference count */
+  private static class Entry {
+    private final Logger log;
+    private final String key;
+    private final Loader<?> loader;
+    private volatile Object value;
+    private int refs;
+    private ScheduledFuture<?> refreshTask;
+
+    Entry(String key, Loader<?> loader) {
+      log = LoggerFactory.getLogger(SharedResources.class);
+      this.key = key;
+      this.loader = loader;
+    }
+
+    synchronized void load() throws IOException {
+      if (value != null) {
+        return;
+      }
+      Object n = loader.load();
+      if (n == null) {
+        throw new IOException(String.format("loading shared resource %s returned null", key));
+      }
+      value = n;
+    }
+
+    void reload() {
+      try {
+        Object n = loader.load();
+        if (n != null) {
+          value = n;
+          log.info("reloaded shared resource {}", key);
+        }
+      } catch (IOException | RuntimeException exc) {
+        log.warn("reloading shared resource {} failed: {}", key, exc.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Reference to a shared resource
+   *
+   * <p>Closing the handle releases the reference; the handle should not be used afterwards.
+   *
+   * @param <T> Resource type
+   */
+  public static class Handle<T> implements AutoCloseable {
+    private final Class<T> type;
+    private final Entry entry;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private Handle(Class<T> type, Entry entry) {
+      this.type = type;
+      this.entry = entry;
+    }
+
+    /**
+     * Get current value of resource
+     *
+     * @return Resource
+     */
+    public T get() {
+      return type.cast(entry.value);
+    }
+
+    /** Release reference to resource, closing a handle more than once has no effect */
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        release(entry);
+      }
+    }
+  }
+
+  private static String key(Class<?> type, String spec) {
+    return String.format("%s|%s", type.getName(), spec);
+  }
+
+  private static void release(Entry e) {
+    synchronized (entries) {
+      if (--e.refs > 0) {
+        return;
+      }
+      if (e.refreshTask != null) {
+        e.refreshTask.cancel(false);
+      }
+      if (entries.get(e.key) == e) {
+        entries.remove(e.key);
+      }
+    }
+  }
+
+  /**
+   * Acquire reference to a shared resource
+   *
+   * @param type Resource type
+   * @param spec Resource specification, such as a path and any configuration affecting the load
+   * @param loader Loads the resource if it is not already loaded
+   * @return Handle to shared resource
+   * @throws IOException If the resource could not be loaded
+   */
+  public static <T> Handle<T> acquire(Class<T> type, String spec, Loader<T> loader)
+      throws IOException {
+    return acquire(type, spec, loader, 0L);
+  }
+
+  /**
+   * Acquire reference to a shared resource, reloading it at a fixed interval
+   *
+   * <p>The reload interval is set by the request that loads the resource, and is ignored for
+   * requests that share an already loaded resource.
+   *
+   * @param type Resource type
+   * @param spec Resource specification, such as a path and any configuration affecting the load
+   * @param loader Loads the resource if it is not already loaded
+   * @param refreshSeconds Reload interval in seconds, or 0 to never reload
+   * @return Handle to shared resource
+   * @throws IOException If the resource could not be loaded
+   */
+  public static <T> Handle<T> acquire(
+      Class<T> type, String spec, Loader<T> loader, long refreshSeconds) throws IOException {
+    Entry e;
+    synchronized (entries) {
+      e = entries.computeIfAbsent(key(type, spec), k -> new Entry(k, loader));
+      e.refs++;
+    }
+    try {
+      e.load();
+    } catch (IOException | RuntimeException exc) {
+      release(e);
+      throw exc;
+    }
+    if (refreshSeconds > 0) {
+      synchronized (entries) {
+        if (e.refreshTask == null && e.refs > 0) {
+          if (refresher == null) {
+            refresher =
+                Executors.newSingleThreadScheduledExecutor(
+                    r -> {
+                      Thread t = new Thread(r, "shared-resources-refresh");
+                      t.setDaemon(true);
+                      return t;
+                    });
+          }
+          e.refreshTask =
+              refresher.scheduleWithFixedDelay(
+                  e::reload, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
+      }
+    }
+    return new Handle<>(type, e);
+  }
+
+  /**
+   * Get number of open references to a shared resource
+   *
+   * @param type Resource type
+   * @param spec Resource specification
+   * @return Reference count, 0 if the resource is not loaded
+   */
+  public static int getReferenceCount(Class<?> type, String spec) {
+    synchronized (entries) {
+      Entry e = entries.get(key(type, spec));
+      return e == null ? 0 : e.refs;
+    }
+  }
+
+  /**
+   * Get number of shared resources currently held
+   *
+   * @return Resource count
+   */
+  public static int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /** Discard all shared resources, stopping any reloads; outstanding handles remain usable */
+  public static void reset() {
+    synchronized (entries) {
+      for (Entry e : entries.values()) {
+        if (e.refreshTask != null) {
+          e.refreshTask.cancel(false);
+        }
+      }
+      entries.clear();
+    }
+  }
+}
@@ -4,6 +4,8 @@ import java.util.Arrays;
 
 /** Levenshtein string distance calculation */
 public class StringDistance {
+  private static final ThreadLocal<int[][]> rows = ThreadLocal.withInitial(() -> new int[2][64]);
+
   private static int sCost(char a, char b) {
     return a == b ? 0 : 1;
   }
@@ -12,6 +14,21 @@ public class StringDistance {
     return Arrays.stream(n).min().orElse(Integer.MAX_VALUE);
   }
 
+  private static void nullCheck(String x, String y, String fn) {
+    if ((x == null) || (y == null)) {
+      throw new RuntimeException(String.format("%s called with null string values", fn));
+    }
+  }
+
+  private static int[][] getRows(int len) {
+    int[][] r = rows.get();
+    if (r[0].length < len) {
+      r = new int[2][Math.max(len, r[0].length * 2)];
+      rows.set(r);
+    }
+    return r;
+  }
+
   /**
    * Calculate similarity ratio between two strings
    *
@@ -20,27 +37,142 @@ public class StringDistance {
    * @return Calculated ratio
    */
   public static Double ratio(String x, String y) {
-    if ((x == null) || (y == null)) {
-      throw new RuntimeException("ratio called with null string values");
-    }
+    nullCheck(x, y, "ratio");
     int maxlen = x.length();
     if (y.length() > maxlen) {
       maxlen = y.length();
     }
-    return calculate(x, y) / (double) maxlen;
+    return distance(x, y) / (double) maxlen;
+  }
+
+  /**
+   * Get the largest edit distance between strings with the specified maximum length that results
+   * in a similarity ratio less than or equal to maxRatio
+   *
+   * <p>The result agrees with comparing the output of {@link #ratio} against maxRatio, including
+   * floating point rounding.
+   *
+   * @param maxlen Length of the longer string
+   * @param maxRatio Maximum similarity ratio
+   * @return Maximum edit distance, or -1 if no distance satisfies maxRatio
+   */
+  public static int maxDistance(int maxlen, Double maxRatio) {
+    if (maxlen == 0) {
+      // The ratio of two empty strings is undefined and never satisfies the bound
+      return -1;
+    }
+    int k = (int) Math.max(-1, Math.min(maxlen, Math.floor(maxRatio * maxlen)));
+    while (k < maxlen && (k + 1) / (double) maxlen <= maxRatio) {
+      k++;
+    }
+    while (k >= 0 && k / (double) maxlen > maxRatio) {
+      k--;
+    }
+    return k;
+  }
+
+  /**
+   * Return true if the similarity ratio between two strings is less than or equal to maxRatio
+   *
+   * <p>Produces the same result as comparing the output of {@link #ratio} against maxRatio, but
+   * evaluation stops as soon as the ratio is known to be exceeded.
+   *
+   * @param x First string
+   * @param y Second string
+   * @param maxRatio Maximum similarity ratio
+   * @return True if ratio is within maxRatio
+   */
+  public static Boolean withinRatio(String x, String y, Double maxRatio) {
+    nullCheck(x, y, "withinRatio");
+    int k = maxDistance(Math.max(x.length(), y.length()), maxRatio);
+    if (k < 0) {
+      return false;
+    }
+    return distance(x, y, k) <= k;
   }
 
   /**
    * Return string distance value between two strings
    *
+   * <p>Uses two rows of working storage that are reused by the calling thread, and returns the
+   * same result as {@link #calculate}.
+   *
    * @param x First string
    * @param y Second string
    * @return Calculated distance
    */
-  public static int calculate(String x, String y) {
-    if ((x == null) || (y == null)) {
-      throw new RuntimeException("calculate called with null string values");
+  public static int distance(String x, String y) {
+    nullCheck(x, y, "distance");
+    return distance(x, y, Math.max(x.length(), y.length()));
+  }
+
+  /**
+   * Return string distance value between two strings, bounded by a maximum distance
+   *
+   * <p>Only the band of cells within k of the diagonal is evaluated, and evaluation stops once
+   * every cell in a row exceeds k. If the distance is greater than k, k + 1 is returned.
+   *
+   * @param x First string
+   * @param y Second string
+   * @param k Maximum distance
+   * @return Calculated distance, or k + 1 if the distance exceeds k
+   */
+  public static int distance(String x, String y, int k) {
+    nullCheck(x, y, "distance");
+    int n = x.length();
+    int m = y.length();
+    int inf = k + 1;
+    if (k < 0 || Math.abs(n - m) > k) {
+      return inf;
+    }
+
+    int[][] r = getRows(m + 1);
+    int[] prev = r[0];
+    int[] cur = r[1];
+    for (int j = 0; j <= m; j++) {
+      prev[j] = j <= k ? j : inf;
+    }
+    for (int i = 1; i <= n; i++) {
+      int lo = Math.max(1, i - k);
+      int hi = Math.min(m, i + k);
+      cur[0] = i <= k ? i : inf;
+      if (lo > 1) {
+        cur[lo - 1] = inf;
+      }
+      int rowMin = cur[0];
+      char xc = x.charAt(i - 1);
+      for (int j = lo; j <= hi; j++) {
+        int v = prev[j - 1] + (xc == y.charAt(j - 1) ? 0 : 1);
+        v = Math.min(v, prev[j] + 1);
+        v = Math.min(v, cur[j - 1] + 1);
+        v = Math.min(v, inf);
+        cur[j] = v;
+        rowMin = Math.min(rowMin, v);
+      }
+      if (hi < m) {
+        cur[hi + 1] = inf;
+      }
+      if (rowMin > k) {
+        return inf;
+      }
+      int[] t = prev;
+      prev = cur;
+      cur = t;
     }
+    return prev[m];
+  }
+
+  /**
+   * Return string distance value between two strings
+   *
+   * <p>Reference implementation that evaluates the full distance matrix.
+   *
+   * @param x First string
+   * @param y Second string
+   * @return Calculated distance
+   */
+  public static int calculate(String x, String y) {
+    nullCheck(x, y, "calculate");
     int[][] dp = new int[x.length() + 1][y.length() + 1];
 
     for (int i = 0; i <= x.length(); i++) {
@@ -1,11 +1,9 @@
 package com.mozilla.secops.alert;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.mozilla.secops.parser.JacksonRegistry;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -381,12 +379,8 @@ public class Alert implements Serializable {
    * @return {@link Alert} object or null if deserialization fails.
    */
   public static Alert fromJSON(String input) {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.registerModule(new JodaModule());
-    mapper.configure(
-        com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
     try {
-      return mapper.readValue(input, Alert.class);
+      return JacksonRegistry.alertReader().readValue(input);
     } catch (IOException exc) {
       return null;
     }
@@ -398,13 +392,8 @@ public class Alert implements Serializable {
    * @return String or null if serialization fails.
    */
   public String toJSON() {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.registerModule(new JodaModule());
-    mapper.configure(
-        com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-    mapper.setSerializationInclusion(Include.NON_NULL);
     try {
-      return mapper.writeValueAsString(this);
+      return JacksonRegistry.jodaWriter().writeValueAsString(this);
     } catch (JsonProcessingException exc) {
       return null;
     }
@@ -18,6 +18,7 @@ public class AlertConfiguration implements Serializable {
   private Integer memcachedPort;
   private String datastoreNamespace;
   private String datastoreKind;
+  private Integer stateCompressionThreshold;
   private String gcsTemplateBasePath;
   private ArrayList<String> registeredTemplates;
 
@@ -228,6 +229,25 @@ public class AlertConfiguration implements Serializable {
     return datastoreKind;
   }
 
+  /**
+   * Set state compression threshold
+   *
+   * @param stateCompressionThreshold state values larger than this many bytes are compressed, 0 to
+   *     disable
+   */
+  public void setStateCompressionThreshold(Integer stateCompressionThreshold) {
+    this.stateCompressionThreshold = stateCompressionThreshold;
+  }
+
+  /**
+   * Get state compression threshold
+   *
+   * @return state compression threshold
+   */
+  public Integer getStateCompressionThreshold() {
+    return stateCompressionThreshold;
+  }
+
   /**
    * Set gcs template base path
    *
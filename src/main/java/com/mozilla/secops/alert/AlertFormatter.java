@@ -1,7 +1,5 @@
 package com.mozilla.secops.alert;
 
-import com.maxmind.geoip2.model.CityResponse;
-import com.maxmind.geoip2.model.IspResponse;
 import com.mozilla.secops.IOOptions;
 import com.mozilla.secops.parser.GeoIP;
 import org.apache.beam.sdk.transforms.DoFn;
@@ -39,25 +37,25 @@ public class AlertFormatter extends DoFn<Alert, String> {
       if (address != null) {
         if (a.getMetadataValue(addressField + "_city") == null
             && a.getMetadataValue(addressField + "_country") == null) {
-          CityResponse cr = geoip.lookupCity(address);
-          if (cr != null) {
-            a.addMetadata(addressField + "_city", cr.getCity().getName());
-            a.addMetadata(addressField + "_country", cr.getCountry().getIsoCode());
+          GeoIP.CityInfo ci = geoip.lookupCityInfo(address);
+          if (ci != null) {
+            a.addMetadata(addressField + "_city", ci.getCity());
+            a.addMetadata(addressField + "_country", ci.getCountry());
           }
         }
         if (a.getMetadataValue(addressField + "_isp") == null
             && a.getMetadataValue(addressField + "_asn") == null
             && a.getMetadataValue(addressField + "_as_org") == null) {
-          IspResponse ir = geoip.lookupIsp(address);
-          if (ir != null) {
-            if (ir.getIsp() != null) {
-              a.addMetadata(addressField + "_isp", ir.getIsp());
+          GeoIP.IspInfo ii = geoip.lookupIspInfo(address);
+          if (ii != null) {
+            if (ii.getIsp() != null) {
+              a.addMetadata(addressField + "_isp", ii.getIsp());
             }
-            if (ir.getAutonomousSystemNumber() != null) {
-              a.addMetadata(addressField + "_asn", ir.getAutonomousSystemNumber().toString());
+            if (ii.getAsn() != null) {
+              a.addMetadata(addressField + "_asn", ii.getAsn().toString());
             }
-            if (ir.getAutonomousSystemOrganization() != null) {
-              a.addMetadata(addressField + "_as_org", ir.getAutonomousSystemOrganization());
+            if (ii.getAsOrg() != null) {
+              a.addMetadata(addressField + "_as_org", ii.getAsOrg());
             }
           }
         }
@@ -6,6 +6,7 @@ import freemarker.template.TemplateNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.GroupByKey;
 import org.apache.beam.sdk.transforms.PTransform;
@@ -152,6 +153,7 @@ public class AlertIO {
     private AlertConfiguration cfg;
     private AlertMailer mailer;
     private AlertSlack slack;
+    private ArrayList<CompletableFuture<Void>> pendingSlack;
 
     public WriteFn(Write wTransform) {
       this.wTransform = wTransform;
@@ -178,6 +180,35 @@ public class AlertIO {
       }
     }
 
+    @StartBundle
+    public void startBundle() {
+      pendingSlack = new ArrayList<>();
+    }
+
+    @FinishBundle
+    public void finishBundle() {
+      if (mailer != null) {
+        mailer.flush();
+      }
+
+      // Slack messages are delivered asynchronously; wait for any queued in this bundle so
+      // delivery completes before the bundle is committed
+      for (CompletableFuture<Void> f : pendingSlack) {
+        f.join();
+      }
+      pendingSlack.clear();
+    }
+
+    private void trackSlack(CompletableFuture<Boolean> f, String errmsg) {
+      pendingSlack.add(
+          f.thenAccept(
+              ok -> {
+                if (!ok) {
+                  log.error(errmsg);
+                }
+              }));
+    }
+
     @ProcessElement
     public void processElement(ProcessContext c) {
       Alert a = c.element();
@@ -204,35 +235,31 @@ public class AlertIO {
       if (mailer != null) {
         if (cfg.getEmailCatchall() != null) {
           // Configured catchall address always recieves a copy of the alert
-          mailer.sendToCatchall(a);
+          mailer.queueToCatchall(a);
         }
 
         // If a direct email metadata entry exists, also send the alert directly
         // to the specified address
         String sd = a.getMetadataValue("notify_email_direct");
         if (sd != null) {
-          mailer.sendToAddress(a, sd);
+          mailer.queueToAddress(a, sd);
         }
       }
 
       if (slack != null) {
         if (cfg.getSlackCatchall() != null) {
           // Configured catchall slack channel always recieves a copy of the alert
-          if (!slack.sendToCatchall(a)) {
-            log.error("failed to send alert to slack catchall");
-          }
+          trackSlack(slack.queueToCatchall(a), "failed to send alert to slack catchall");
         }
 
         String slackEmail = a.getMetadataValue("notify_slack_direct");
         if (slackEmail != null) {
+          String errmsg =
+              String.format("failed to send notification via slack to user %s", slackEmail);
           if (alertType.equals("slack_notification")) {
-            if (!slack.sendToUser(a, slack.getUserId(slackEmail))) {
-              log.error("failed to send notification via slack to user {}", slackEmail);
-            }
+            trackSlack(slack.queueToUser(a, slackEmail), errmsg);
           } else if (alertType.equals("slack_confirmation")) {
-            if (!slack.sendConfirmationAlertToUser(a, slack.getUserId(slackEmail))) {
-              log.error("failed to send notification via slack to user {}", slackEmail);
-            }
+            trackSlack(slack.queueConfirmationAlertToUser(a, slackEmail), errmsg);
           }
         }
       }
@@ -3,24 +3,29 @@ package com.mozilla.secops.alert;
 import com.mozilla.secops.crypto.RuntimeSecrets;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Properties;
 import javax.mail.Address;
-import javax.mail.Authenticator;
 import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.PasswordAuthentication;
-import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** {@link AlertMailer} handles email based alerting output */
+/**
+ * {@link AlertMailer} handles email based alerting output
+ *
+ * <p>Messages can be queued and then delivered together using {@link #flush}. Message bodies are
+ * rendered when a message is queued, and queued messages are sent over a single connection from a
+ * shared pool of authenticated SMTP connections.
+ */
 public class AlertMailer {
+  /** Queued messages are sent automatically once this many are pending */
+  public static final int MAX_QUEUED = 100;
+
   private final AlertConfiguration cfg;
   private final Logger log;
-  private final String smtpCreds;
+  private final SmtpTransportPool pool;
+  private final ArrayList<Message> queued = new ArrayList<>();
   private TemplateManager templateManager;
 
   /**
@@ -30,19 +35,40 @@ public class AlertMailer {
    * @param address Recipient address
    */
   public void sendToAddress(Alert a, String address) {
+    queueToAddress(a, address);
+    flush();
+  }
+
+  /**
+   * Send email alert to configured catchall address
+   *
+   * @param a Alert
+   */
+  public void sendToCatchall(Alert a) {
+    queueToCatchall(a);
+    flush();
+  }
+
+  /**
+   * Queue email alert to specified address
+   *
+   * @param a Alert
+   * @param address Recipient address
+   */
+  public void queueToAddress(Alert a, String address) {
     log.info("generating mail for {}", address);
 
     ArrayList<String> r = new ArrayList<String>();
     r.add(address);
-    sendMail(r, a.getSummary(), a.assemblePayload(), createAlertMailBody(a));
+    queueMail(r, a.getSummary(), a.assemblePayload(), createAlertMailBody(a));
   }
 
   /**
-   * Send email alert to configured catchall address
+   * Queue email alert to configured catchall address
    *
    * @param a Alert
    */
-  public void sendToCatchall(Alert a) {
+  public void queueToCatchall(Alert a) {
     String dest = cfg.getEmailCatchall();
     if (dest == null) {
       return;
@@ -51,39 +77,50 @@ public class AlertMailer {
 
     ArrayList<String> r = new ArrayList<String>();
     r.add(dest);
-    sendMail(r, a.getSummary(), a.assemblePayload(), createAlertMailBody(a));
+    queueMail(r, a.getSummary(), a.assemblePayload(), createAlertMailBody(a));
   }
 
-  private void sendMail(
+  /**
+   * Get number of queued messages
+   *
+   * @return Queued message count
+   */
+  public int queuedCount() {
+    return queued.size();
+  }
+
+  /**
+   * Send all queued messages
+   *
+   * @return Number of messages sent successfully
+   */
+  public int flush() {
+    if (queued.isEmpty()) {
+      return 0;
+    }
+    ArrayList<Message> batch = new ArrayList<>(queued);
+    queued.clear();
+    int ret = pool.send(batch);
+    if (ret < batch.size()) {
+      log.error("{} of {} queued messages could not be sent", batch.size() - ret, batch.size());
+    }
+    return ret;
+  }
+
+  private void queueMail(
       ArrayList<String> recipients, String subject, String textBody, String htmlBody) {
-    String[] akeys = smtpCreds.split(":");
-    if (akeys.length != 2) {
+    if (pool == null) {
       log.error("mail submission failed: invalid SMTP credentials specified");
       return;
     }
 
-    Properties props = new Properties();
-    props.put("mail.smtp.auth", "true");
-    props.put("mail.smtp.starttls.enable", "true");
-    props.put("mail.smtp.host", cfg.getSmtpRelay());
-    props.put("mail.smtp.port", "587");
-
-    Session session =
-        Session.getInstance(
-            props,
-            new Authenticator() {
-              protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(akeys[0], akeys[1]);
-              }
-            });
-
     try {
       int asize = recipients.size();
       Address[] recips = new Address[asize];
       for (int i = 0; i < asize; i++) {
         recips[i] = new InternetAddress(recipients.get(i));
       }
-      Message message = new MimeMessage(session);
+      Message message = new MimeMessage(pool.getSession());
       message.setFrom(new InternetAddress(cfg.getEmailFrom(), true));
       message.setRecipients(Message.RecipientType.TO, recips);
       message.setSubject(subject);
@@ -91,7 +128,11 @@ public class AlertMailer {
       if (htmlBody != null) {
         message.setContent(htmlBody, "text/html; charset=utf-8");
       }
-      Transport.send(message);
+      message.saveChanges();
+      queued.add(message);
+      if (queued.size() >= MAX_QUEUED) {
+        flush();
+      }
     } catch (MessagingException exc) {
       log.error("mail submission failed: {}", exc.getMessage());
     }
@@ -100,13 +141,22 @@ public class AlertMailer {
   /**
    * Create new {@link AlertMailer} with specified {@link AlertConfiguration}
    *
+   * <p>The SMTP relay may be specified as hostname or hostname:port, and defaults to port 587.
+   *
    * @param cfg {@link AlertConfiguration}
    */
   public AlertMailer(AlertConfiguration cfg) throws IOException {
     log = LoggerFactory.getLogger(AlertMailer.class);
     this.cfg = cfg;
 
-    smtpCreds = RuntimeSecrets.interpretSecret(cfg.getSmtpCredentials(), cfg.getGcpProject());
+    String smtpCreds =
+        RuntimeSecrets.interpretSecret(cfg.getSmtpCredentials(), cfg.getGcpProject());
+    String[] akeys = smtpCreds.split(":");
+    if (akeys.length == 2) {
+      pool = SmtpTransportPool.getInstance(cfg.getSmtpRelay(), akeys[0], akeys[1]);
+    } else {
+      pool = null;
+    }
     templateManager = new TemplateManager(cfg);
   }
 
@@ -3,12 +3,15 @@ package com.mozilla.secops.alert;
 import com.github.seratch.jslack.api.methods.SlackApiException;
 import com.mozilla.secops.crypto.RuntimeSecrets;
 import com.mozilla.secops.slack.SlackManager;
+import com.mozilla.secops.slack.SlackSendQueue;
+import com.mozilla.secops.slack.SlackUserDirectory;
+import com.mozilla.secops.state.CompressingStateValueCodec;
 import com.mozilla.secops.state.DatastoreStateInterface;
 import com.mozilla.secops.state.MemcachedStateInterface;
 import com.mozilla.secops.state.State;
-import com.mozilla.secops.state.StateCursor;
 import com.mozilla.secops.state.StateException;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +19,8 @@ import org.slf4j.LoggerFactory;
 public class AlertSlack {
   private final AlertConfiguration cfg;
   private SlackManager slackManager;
+  private SlackUserDirectory userDirectory;
+  private SlackSendQueue sendQueue;
   private final Logger log;
   private State state;
   private TemplateManager templateManager;
@@ -33,11 +38,15 @@ public class AlertSlack {
 
     String slackToken = RuntimeSecrets.interpretSecret(cfg.getSlackToken(), cfg.getGcpProject());
     slackManager = new SlackManager(slackToken);
+    userDirectory = SlackUserDirectory.getInstance(slackToken, slackManager);
+    sendQueue = SlackSendQueue.getInstance(slackToken);
   }
 
   /**
    * Construct new alert slack object, providing an already instantiated {@link SlackManager}
    *
+   * <p>The user directory and send queue are private to the new object rather than shared.
+   *
    * @param cfg {@link AlertConfiguration}
    * @param slackManager {@link SlackManager} instance
    */
@@ -47,6 +56,8 @@ public class AlertSlack {
     templateManager = new TemplateManager(cfg);
     configureState();
     this.slackManager = slackManager;
+    userDirectory = new SlackUserDirectory(slackManager);
+    sendQueue = new SlackSendQueue(SlackSendQueue.DEFAULT_RATE, SlackSendQueue.DEFAULT_BURST);
   }
 
   private void configureState() {
@@ -60,6 +71,11 @@ public class AlertSlack {
     } else if (datastoreNamespace != null && datastoreKind != null) {
       this.state = new State(new DatastoreStateInterface(datastoreKind, datastoreNamespace));
     }
+
+    Integer threshold = cfg.getStateCompressionThreshold();
+    if (state != null && threshold != null) {
+      state.setValueCodec(new CompressingStateValueCodec(threshold));
+    }
   }
 
   /**
@@ -135,23 +151,13 @@ public class AlertSlack {
       return false;
     }
 
-    StateCursor c = null;
     try {
       state.initialize();
-      c = state.newCursor();
       a.addMetadata("status", "NEW");
-      c.set(a.getAlertId().toString(), a);
+      state.update(a.getAlertId().toString(), Alert.class, cur -> a);
     } catch (StateException exc) {
       log.error("error saving alert state (StateException): {}", exc.getMessage());
       return false;
-    } finally {
-      if (c != null) {
-        try {
-          c.commit();
-        } catch (StateException exc) {
-          log.error("error during alert state commit (StateException): {}", exc.getMessage());
-        }
-      }
     }
 
     log.info("generating slack message for {}", userId);
@@ -168,6 +174,42 @@ public class AlertSlack {
     return false;
   }
 
+  /**
+   * Queue alert to be sent to slack catchall channel
+   *
+   * @param a Alert
+   * @return Future completed with whether the alert was sent successfully
+   */
+  public CompletableFuture<Boolean> queueToCatchall(Alert a) {
+    return sendQueue.submit(() -> sendToCatchall(a));
+  }
+
+  /**
+   * Queue alert to be sent to a user
+   *
+   * <p>The user's slack id is resolved from the user directory when the alert is sent.
+   *
+   * @param a Alert
+   * @param email User's email
+   * @return Future completed with whether the alert was sent successfully
+   */
+  public CompletableFuture<Boolean> queueToUser(Alert a, String email) {
+    return sendQueue.submit(() -> sendToUser(a, getUserId(email)));
+  }
+
+  /**
+   * Queue confirmation alert to be sent to a user
+   *
+   * <p>The user's slack id is resolved from the user directory when the alert is sent.
+   *
+   * @param a Alert
+   * @param email User's email
+   * @return Future completed with whether the alert was sent successfully
+   */
+  public CompletableFuture<Boolean> queueConfirmationAlertToUser(Alert a, String email) {
+    return sendQueue.submit(() -> sendConfirmationAlertToUser(a, getUserId(email)));
+  }
+
   /**
    * Get slack user id from user's email
    *
@@ -175,16 +217,7 @@ public class AlertSlack {
    * @return User's slack user id
    */
   public String getUserId(String email) {
-    try {
-      String userId = slackManager.lookupUserIdByEmail(email);
-      return userId;
-    } catch (IOException exc) {
-      log.error("error getting user id from slack (IOException): {}", exc.getMessage());
-    } catch (SlackApiException exc) {
-      log.error("error getting user id from slack (SlackApiException): {}", exc.getMessage());
-    }
-
-    return null;
+    return userDirectory.getUserId(email);
   }
 
   private String createAlertBody(Alert a) {
@@ -0,0 +1,236 @@
+package com.mozilla.secops.alert;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of connected SMTP transports
+ *
+ * <p>Connections are established and authenticated once, and then reused for subsequent messages.
+ * Before an idle connection is reused it is checked with {@link Transport#isConnected}, which for
+ * SMTP issues a NOOP to the relay. Connections that fail the check are discarded and replaced.
+ */
+class SmtpTransportPool {
+  /** Default SMTP submission port */
+  static final int DEFAULT_PORT = 587;
+
+  /** Maximum number of idle connections retained */
+  static final int MAX_IDLE = 4;
+
+  /** Connect, read, and write timeout in milliseconds */
+  static final int TIMEOUT_MS = 30000;
+
+  private static final ConcurrentHashMap<String, SmtpTransportPool> instances =
+      new ConcurrentHashMap<>();
+
+  private final Logger log;
+  private final Session session;
+  private final String host;
+  private final int port;
+  private final String user;
+  private final String password;
+  private final ArrayDeque<Transport> idle = new ArrayDeque<>();
+  private final AtomicInteger connectCount = new AtomicInteger();
+  private final AtomicInteger failedCount = new AtomicInteger();
+
+  /**
+   * Get shared pool instance
+   *
+   * @param relay SMTP relay, as hostname or hostname:port
+   * @param user SMTP username
+   * @param password SMTP password
+   * @return SmtpTransportPool
+   */
+  static SmtpTransportPool getInstance(String relay, String user, String password) {
+    return instances.computeIfAbsent(
+        String.format("%s|%s|%s", relay, user, password),
+        k -> new SmtpTransportPool(relay, user, password));
+  }
+
+  /** Close all idle connections and discard all shared pool instances */
+  static void reset() {
+    for (SmtpTransportPool p : instances.values()) {
+      p.closeIdle();
+    }
+    instances.clear();
+  }
+
+  /**
+   * Get session used to create messages for this pool
+   *
+   * @return Session
+   */
+  Session getSession() {
+    return session;
+  }
+
+  /**
+   * Get number of connections that have been established by this pool
+   *
+   * @return Connection count
+   */
+  int getConnectCount() {
+    return connectCount.get();
+  }
+
+  /**
+   * Get number of messages that could not be sent by this pool
+   *
+   * @return Failed message count
+   */
+  int getFailedCount() {
+    return failedCount.get();
+  }
+
+  private static void close(Transport t) {
+    try {
+      t.close();
+    } catch (MessagingException exc) {
+      // Connection is being discarded
+    }
+  }
+
+  /** Close all idle connections */
+  void closeIdle() {
+    synchronized (idle) {
+      for (Transport t : idle) {
+        close(t);
+      }
+      idle.clear();
+    }
+  }
+
+  private Transport borrow() throws MessagingException {
+    while (true) {
+      Transport t;
+      synchronized (idle) {
+        t = idle.pollFirst();
+      }
+      if (t == null) {
+        break;
+      }
+      if (t.isConnected()) {
+        return t;
+      }
+      close(t);
+    }
+    Transport t = session.getTransport("smtp");
+    t.connect(host, port, user, password);
+    connectCount.incrementAndGet();
+    return t;
+  }
+
+  private void release(Transport t) {
+    synchronized (idle) {
+      if (idle.size() < MAX_IDLE) {
+        idle.addFirst(t);
+        return;
+      }
+    }
+    close(t);
+  }
+
+  private static String describe(Message m) {
+    try {
+      return Arrays.toString(m.getAllRecipients());
+    } catch (MessagingException exc) {
+      return "unknown recipients";
+    }
+  }
+
+  /**
+   * Send messages using a single pooled connection
+   *
+   * <p>If connecting fails, or the connection fails while sending, the connection is replaced and
+   * the message is attempted once more. Messages that still cannot be sent, or are rejected by the
+   * relay, are logged and counted and the remaining messages are still attempted.
+   *
+   * @param messages Messages to send
+   * @return Number of messages sent successfully
+   */
+  int send(List<Message> messages) {
+    if (messages.isEmpty()) {
+      return 0;
+    }
+    int ret = 0;
+    Transport t = null;
+    try {
+      for (Message m : messages) {
+        MessagingException err = null;
+        for (int attempt = 1; attempt <= 2; attempt++) {
+          try {
+            if (t == null) {
+              t = borrow();
+            }
+            t.sendMessage(m, m.getAllRecipients());
+            err = null;
+            break;
+          } catch (SendFailedException exc) {
+            err = exc;
+            break;
+          } catch (MessagingException exc) {
+            err = exc;
+            if (t != null) {
+              close(t);
+              t = null;
+            }
+          }
+        }
+        if (err == null) {
+          ret++;
+        } else {
+          failedCount.incrementAndGet();
+          log.error("mail submission to {} failed: {}", describe(m), err.getMessage());
+        }
+      }
+    } finally {
+      if (t != null) {
+        release(t);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Create new SMTP transport pool
+   *
+   * @param relay SMTP relay, as hostname or hostname:port
+   * @param user SMTP username
+   * @param password SMTP password
+   */
+  SmtpTransportPool(String relay, String user, String password) {
+    log = LoggerFactory.getLogger(SmtpTransportPool.class);
+    this.user = user;
+    this.password = password;
+
+    int idx = relay.lastIndexOf(':');
+    if (idx > 0) {
+      host = relay.substring(0, idx);
+      port = Integer.parseInt(relay.substring(idx + 1));
+    } else {
+      host = relay;
+      port = DEFAULT_PORT;
+    }
+
+    Properties props = new Properties();
+    props.put("mail.smtp.auth", "true");
+    props.put("mail.smtp.starttls.enable", "true");
+    props.put("mail.smtp.host", host);
+    props.put("mail.smtp.port", Integer.toString(port));
+    props.put("mail.smtp.connectiontimeout", Integer.toString(TIMEOUT_MS));
+    props.put("mail.smtp.timeout", Integer.toString(TIMEOUT_MS));
+    props.put("mail.smtp.writetimeout", Integer.toString(TIMEOUT_MS));
+    session = Session.getInstance(props);
+  }
+}
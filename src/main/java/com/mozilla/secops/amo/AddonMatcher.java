@@ -3,6 +3,7 @@ package com.mozilla.secops.amo;
 import com.mozilla.secops.DocumentingTransform;
 import com.mozilla.secops.IprepdIO;
 import com.mozilla.secops.MiscUtil;
+import com.mozilla.secops.PatternSet;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.parser.AmoDocker;
 import com.mozilla.secops.parser.Event;
@@ -10,8 +11,6 @@ import com.mozilla.secops.parser.Payload;
 import com.mozilla.secops.window.GlobalTriggers;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
@@ -52,7 +51,6 @@ public class AddonMatcher extends PTransform<PCollection<Event>, PCollection<Ale
   }
 
   private static class MatchCriteria {
-    public Pattern pattern;
     public Integer minBytes;
     public Integer maxBytes;
   }
@@ -67,10 +65,12 @@ public class AddonMatcher extends PTransform<PCollection<Event>, PCollection<Ale
                   private static final long serialVersionUID = 1L;
 
                   private ArrayList<MatchCriteria> criteria;
+                  private PatternSet patterns;
 
                   @Setup
                   public void setup() {
                     criteria = new ArrayList<MatchCriteria>();
+                    ArrayList<String> regexes = new ArrayList<>();
                     if (matchCriteria != null) {
                       for (String s : matchCriteria) {
                         String parts[] = s.split(":");
@@ -79,12 +79,14 @@ public class AddonMatcher extends PTransform<PCollection<Event>, PCollection<Ale
                               "invalid format for addon match criteria, must be <regex>:<minbytes>:<maxbytes>");
                         }
                         MatchCriteria c = new MatchCriteria();
-                        c.pattern = Pattern.compile(parts[0]);
                         c.minBytes = new Integer(parts[1]);
                         c.maxBytes = new Integer(parts[2]);
                         criteria.add(c);
+                        regexes.add(parts[0]);
                       }
                     }
+                    // Upload file names rarely repeat, so results are not cached
+                    patterns = new PatternSet(regexes, 0);
                   }
 
                   @ProcessElement
@@ -101,48 +103,46 @@ public class AddonMatcher extends PTransform<PCollection<Event>, PCollection<Ale
                       return;
                     }
 
-                    for (MatchCriteria crit : criteria) {
-                      Matcher m = crit.pattern.matcher(d.getFileName());
-                      if (m.matches()) {
-                        if ((d.getBytes() < crit.minBytes) || (d.getBytes() > crit.maxBytes)) {
-                          continue;
-                        }
-                        Alert alert = new Alert();
-                        alert.setCategory("amo");
-                        alert.setNotifyMergeKey("amo_abuse_matched_addon");
-                        alert.addMetadata("amo_category", "amo_abuse_matched_addon");
-                        alert.addMetadata("sourceaddress", d.getRemoteIp());
-                        // If we got an email address with the event, add it to the alert; we also
-                        // add the normalized email equivalents
-                        if (d.getFxaEmail() != null) {
-                          String email = d.getFxaEmail();
-                          String buf = email;
-                          String nb = MiscUtil.normalizeEmailPlus(email);
-                          if (!email.equals(nb)) {
-                            buf += ", " + nb;
-                          }
-                          nb = MiscUtil.normalizeEmailPlusDotStrip(email);
-                          if (!email.equals(nb)) {
-                            buf += ", " + nb;
-                          }
-                          alert.addMetadata("email", buf);
-                        }
-                        alert.addMetadata("addon_filename", d.getFileName());
-                        alert.addMetadata("addon_size", d.getBytes().toString());
-                        String summary =
-                            String.format(
-                                "%s suspected malicious addon submission from %s",
-                                monitoredResource, d.getRemoteIp());
-                        if (d.getFxaEmail() != null) {
-                          summary = summary + ", " + d.getFxaEmail();
+                    for (int idx : patterns.matches(d.getFileName())) {
+                      MatchCriteria crit = criteria.get(idx);
+                      if ((d.getBytes() < crit.minBytes) || (d.getBytes() > crit.maxBytes)) {
+                        continue;
+                      }
+                      Alert alert = new Alert();
+                      alert.setCategory("amo");
+                      alert.setNotifyMergeKey("amo_abuse_matched_addon");
+                      alert.addMetadata("amo_category", "amo_abuse_matched_addon");
+                      alert.addMetadata("sourceaddress", d.getRemoteIp());
+                      // If we got an email address with the event, add it to the alert; we also
+                      // add the normalized email equivalents
+                      if (d.getFxaEmail() != null) {
+                        String email = d.getFxaEmail();
+                        String buf = email;
+                        String nb = MiscUtil.normalizeEmailPlus(email);
+                        if (!email.equals(nb)) {
+                          buf += ", " + nb;
                         }
-                        alert.setSummary(summary);
-                        if (suppressRecovery != null) {
-                          IprepdIO.addMetadataSuppressRecovery(suppressRecovery, alert);
+                        nb = MiscUtil.normalizeEmailPlusDotStrip(email);
+                        if (!email.equals(nb)) {
+                          buf += ", " + nb;
                         }
-                        c.output(alert);
-                        return;
+                        alert.addMetadata("email", buf);
                       }
+                      alert.addMetadata("addon_filename", d.getFileName());
+                      alert.addMetadata("addon_size", d.getBytes().toString());
+                      String summary =
+                          String.format(
+                              "%s suspected malicious addon submission from %s",
+                              monitoredResource, d.getRemoteIp());
+                      if (d.getFxaEmail() != null) {
+                        summary = summary + ", " + d.getFxaEmail();
+                      }
+                      alert.setSummary(summary);
+                      if (suppressRecovery != null) {
+                        IprepdIO.addMetadataSuppressRecovery(suppressRecovery, alert);
+                      }
+                      c.output(alert);
+                      return;
                     }
                   }
                 }));
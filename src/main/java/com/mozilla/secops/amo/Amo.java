@@ -66,7 +66,8 @@ public class Amo implements Serializable {
                     options.getAccountMatchBanOnLogin(),
                     options.getBanPatternSuppressRecovery(),
                     options.getInputIprepd(),
-                    options.getProject())));
+                    options.getProject(),
+                    options.getInputIprepdCacheTtl())));
     resultsList =
         resultsList.and(
             parsed.apply(
@@ -246,7 +247,8 @@ public class Amo implements Serializable {
             options.getAccountMatchBanOnLogin(),
             options.getBanPatternSuppressRecovery(),
             options.getInputIprepd(),
-            options.getProject()));
+            options.getProject(),
+            options.getInputIprepdCacheTtl()));
 
     b.withTransformDoc(new ReportRestriction(options.getMonitoredResourceIndicator()));
 
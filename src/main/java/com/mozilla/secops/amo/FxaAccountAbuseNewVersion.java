@@ -29,6 +29,7 @@ public class FxaAccountAbuseNewVersion extends PTransform<PCollection<Event>, PC
   private final String monitoredResource;
   private final String iprepdSpec;
   private final String project;
+  private final Integer iprepdCacheTtl;
   private final String[] banAccounts;
   private final Integer banAccountsSuppress;
 
@@ -40,13 +41,15 @@ public class FxaAccountAbuseNewVersion extends PTransform<PCollection<Event>, PC
    * @param banAccountsSuppress Optional recovery suppression for ban pattern alerts
    * @param iprepdSpec iprepd spec for reputation lookups
    * @param project Project for KMS secrets decryption of API key if required
+   * @param iprepdCacheTtl TTL in seconds for cached reputation lookups, 0 or null to disable
    */
   public FxaAccountAbuseNewVersion(
       String monitoredResource,
       String[] banAccounts,
       Integer banAccountsSuppress,
       String iprepdSpec,
-      String project) {
+      String project,
+      Integer iprepdCacheTtl) {
     this.monitoredResource = monitoredResource;
 
     this.banAccounts = banAccounts;
@@ -54,6 +57,7 @@ public class FxaAccountAbuseNewVersion extends PTransform<PCollection<Event>, PC
 
     this.iprepdSpec = iprepdSpec;
     this.project = project;
+    this.iprepdCacheTtl = iprepdCacheTtl;
   }
 
   public String getTransformDoc() {
@@ -168,7 +172,7 @@ public class FxaAccountAbuseNewVersion extends PTransform<PCollection<Event>, PC
 
                       @Setup
                       public void setup() {
-                        iprepdReader = IprepdIO.getReader(iprepdSpec, project);
+                        iprepdReader = IprepdIO.getReader(iprepdSpec, project, iprepdCacheTtl);
                       }
 
                       @ProcessElement
@@ -1,9 +1,12 @@
 package com.mozilla.secops.authprofile;
 
-import com.mozilla.secops.CidrUtil;
+import com.mozilla.secops.CloudProviderRanges;
+import com.mozilla.secops.DnsVerifier;
 import com.mozilla.secops.DocumentingTransform;
 import com.mozilla.secops.IOOptions;
 import com.mozilla.secops.OutputOptions;
+import com.mozilla.secops.PatternSet;
+import com.mozilla.secops.SharedResources;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.alert.AlertFormatter;
 import com.mozilla.secops.alert.AlertIO;
@@ -22,16 +25,20 @@ import com.mozilla.secops.parser.Normalized;
 import com.mozilla.secops.parser.ParserCfg;
 import com.mozilla.secops.parser.ParserDoFn;
 import com.mozilla.secops.parser.Payload;
+import com.mozilla.secops.state.CachingStateInterface;
+import com.mozilla.secops.state.CompressingStateValueCodec;
 import com.mozilla.secops.state.DatastoreStateInterface;
 import com.mozilla.secops.state.MemcachedStateInterface;
 import com.mozilla.secops.state.State;
 import com.mozilla.secops.state.StateCursor;
 import com.mozilla.secops.state.StateException;
+import com.mozilla.secops.state.StateInterface;
 import com.mozilla.secops.window.GlobalTriggers;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.regex.Pattern;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.options.Default;
@@ -122,15 +129,12 @@ public class AuthProfile implements Serializable {
                   new DoFn<Event, Event>() {
                     private static final long serialVersionUID = 1L;
 
-                    private Pattern[] ignoreUsers;
+                    private PatternSet ignoreUsers;
 
                     @Setup
                     public void setup() throws IOException {
                       if (ignoreUserRegex != null) {
-                        ignoreUsers = new Pattern[ignoreUserRegex.length];
-                        for (int i = 0; i < ignoreUserRegex.length; i++) {
-                          ignoreUsers[i] = Pattern.compile(ignoreUserRegex[i]);
-                        }
+                        ignoreUsers = new PatternSet(Arrays.asList(ignoreUserRegex));
                       }
                     }
 
@@ -165,13 +169,9 @@ public class AuthProfile implements Serializable {
                         }
                       }
 
-                      if (ignoreUsers != null) {
-                        for (Pattern p : ignoreUsers) {
-                          if (p.matcher(n.getSubjectUser()).matches()) {
-                            log.info("{}: ignoring event for ignored user", n.getSubjectUser());
-                            return;
-                          }
-                        }
+                      if (ignoreUsers != null && ignoreUsers.matchesAny(n.getSubjectUser())) {
+                        log.info("{}: ignoring event for ignored user", n.getSubjectUser());
+                        return;
                       }
 
                       if ((e.getPayloadType().equals(Payload.PayloadType.CLOUDTRAIL))
@@ -218,6 +218,7 @@ public class AuthProfile implements Serializable {
 
     private final String idmanagerPath;
     private final Boolean ignoreUnknownIdentities;
+    private SharedResources.Handle<IdentityManager> idmanagerHandle;
     private IdentityManager idmanager;
     private Logger log;
 
@@ -234,7 +235,15 @@ public class AuthProfile implements Serializable {
     @Setup
     public void setup() throws IOException {
       log = LoggerFactory.getLogger(ExtractIdentity.class);
-      idmanager = IdentityManager.load(idmanagerPath);
+      idmanagerHandle = IdentityManager.loadShared(idmanagerPath);
+      idmanager = idmanagerHandle.get();
+    }
+
+    @Teardown
+    public void teardown() {
+      if (idmanagerHandle != null) {
+        idmanagerHandle.close();
+      }
     }
 
     @ProcessElement
@@ -276,7 +285,7 @@ public class AuthProfile implements Serializable {
     private final String critNotifyEmail;
 
     private Logger log;
-    private Pattern[] critObjectPat;
+    private PatternSet critObjectPat;
 
     /**
      * Initialize new critical object analysis
@@ -298,10 +307,7 @@ public class AuthProfile implements Serializable {
     public void setup() {
       log = LoggerFactory.getLogger(StateAnalyze.class);
       if (critObjects != null) {
-        critObjectPat = new Pattern[critObjects.length];
-        for (int i = 0; i < critObjects.length; i++) {
-          critObjectPat[i] = Pattern.compile(critObjects[i]);
-        }
+        critObjectPat = new PatternSet(Arrays.asList(critObjects));
       }
     }
 
@@ -360,13 +366,7 @@ public class AuthProfile implements Serializable {
         return;
       }
 
-      String matchobj = null;
-      for (Pattern p : critObjectPat) {
-        if (p.matcher(o).matches()) {
-          matchobj = o;
-        }
-      }
-      if (matchobj == null) {
+      if (!critObjectPat.matchesAny(o)) {
         return;
       }
 
@@ -392,13 +392,22 @@ public class AuthProfile implements Serializable {
       implements DocumentingTransform {
     private static final long serialVersionUID = 1L;
 
+    private static final Pattern GOOGLE_HOST_PATTERN = Pattern.compile(".*\\.google\\.com$");
+
     private final String memcachedHost;
     private final Integer memcachedPort;
     private final String datastoreNamespace;
     private final String datastoreKind;
+    private final Integer compressionThreshold;
+    private final Integer cacheEntries;
+    private final Integer cacheTtlSeconds;
+    private final Integer cacheFlushSeconds;
     private final String idmanagerPath;
     private final Double maxKilometersPerSecond;
-    private CidrUtil cidrGcp;
+    private final String cloudRangesSnapshot;
+    private CloudProviderRanges cloudRanges;
+    private DnsVerifier dnsVerifier;
+    private SharedResources.Handle<IdentityManager> idmanagerHandle;
     private IdentityManager idmanager;
     private Logger log;
     private State state;
@@ -413,8 +422,13 @@ public class AuthProfile implements Serializable {
       memcachedPort = options.getMemcachedPort();
       datastoreNamespace = options.getDatastoreNamespace();
       datastoreKind = options.getDatastoreKind();
+      compressionThreshold = options.getStateCompressionThreshold();
+      cacheEntries = options.getStateCacheEntries();
+      cacheTtlSeconds = options.getStateCacheTtlSeconds();
+      cacheFlushSeconds = options.getStateCacheFlushSeconds();
       idmanagerPath = options.getIdentityManagerPath();
       maxKilometersPerSecond = options.getMaximumKilometersPerHour() / 3600.0;
+      cloudRangesSnapshot = options.getCloudProviderRangesSnapshot();
     }
 
     public String getTransformDoc() {
@@ -425,26 +439,48 @@ public class AuthProfile implements Serializable {
     public void setup() throws StateException, IOException {
       log = LoggerFactory.getLogger(StateAnalyze.class);
 
-      idmanager = IdentityManager.load(idmanagerPath);
+      idmanagerHandle = IdentityManager.loadShared(idmanagerPath);
+      idmanager = idmanagerHandle.get();
 
-      cidrGcp = new CidrUtil();
-      cidrGcp.loadGcpSubnets();
+      cloudRanges = CloudProviderRanges.getInstance(cloudRangesSnapshot);
+      dnsVerifier = DnsVerifier.getInstance();
 
+      StateInterface si;
       if (memcachedHost != null && memcachedPort != null) {
         log.info("using memcached for state management");
-        state = new State(new MemcachedStateInterface(memcachedHost, memcachedPort));
+        si = new MemcachedStateInterface(memcachedHost, memcachedPort);
       } else if (datastoreNamespace != null && datastoreKind != null) {
         log.info("using datastore for state management");
-        state = new State(new DatastoreStateInterface(datastoreKind, datastoreNamespace));
+        si = new DatastoreStateInterface(datastoreKind, datastoreNamespace);
       } else {
         throw new IllegalArgumentException("could not find valid state parameters in options");
       }
+      if (cacheEntries > 0) {
+        log.info("caching up to {} state values", cacheEntries);
+        si =
+            new CachingStateInterface(
+                si, cacheEntries, cacheTtlSeconds * 1000L, cacheFlushSeconds * 1000L);
+      }
+      state = new State(si);
+      state.setValueCodec(new CompressingStateValueCodec(compressionThreshold));
       state.initialize();
     }
 
+    @FinishBundle
+    public void finishBundle() {
+      try {
+        state.flush();
+      } catch (StateException exc) {
+        log.error("error flushing state: {}", exc.getMessage());
+      }
+    }
+
     @Teardown
     public void teardown() {
       state.done();
+      if (idmanagerHandle != null) {
+        idmanagerHandle.close();
+      }
     }
 
     private String getEntryKey(String ipAddr) {
@@ -573,8 +609,25 @@ public class AuthProfile implements Serializable {
       String userIdentity = c.element().getKey();
       Identity identity = idmanager.getIdentity(userIdentity);
 
+      // Start DNS verification of GCP audit source addresses outside the GCP ranges in parallel,
+      // so the checks in the loop below are served from the verifier cache
+      HashSet<String> verifyAddresses = new HashSet<>();
+      for (Event e : events) {
+        String addr = e.getNormalized().getSourceAddress();
+        if (e.getPayloadType().equals(Payload.PayloadType.GCPAUDIT)
+            && !cloudRanges.getGcp().contains(addr)) {
+          verifyAddresses.add(addr);
+        }
+      }
+      dnsVerifier.prefetch(verifyAddresses);
+
       ArrayList<String> seenKnownAddresses = new ArrayList<>();
 
+      // The state model is read once for the pane, and written once all events have been
+      // processed
+      StateCursor cur = null;
+      AuthStateModel sm = null;
+
       for (Event e : events) {
         Alert a = AuthProfile.createBaseAlert(e);
         a.addMetadata("category", "state_analyze");
@@ -593,9 +646,9 @@ public class AuthProfile implements Serializable {
         }
 
         if ((e.getPayloadType().equals(Payload.PayloadType.GCPAUDIT))
-            && ((cidrGcp.contains(e.getNormalized().getSourceAddress()))
-                || (CidrUtil.resolvedCanonicalHostMatches(
-                    e.getNormalized().getSourceAddress(), ".*\\.google\\.com$")))) {
+            && ((cloudRanges.getGcp().contains(e.getNormalized().getSourceAddress()))
+                || (dnsVerifier.matches(
+                    e.getNormalized().getSourceAddress(), GOOGLE_HOST_PATTERN)))) {
           // Skip AlertIO if it's a GCP event from GCP source, we can also skip the remainder of the
           // logic here
           a.addMetadata(AlertIO.ALERTIO_IGNORE_EVENT, "true");
@@ -613,13 +666,14 @@ public class AuthProfile implements Serializable {
           // We also want to skip AlertIO for untracked identities here
           a.addMetadata(AlertIO.ALERTIO_IGNORE_EVENT, "true");
         } else {
-          StateCursor cur = state.newCursor();
-
           a.addMetadata("identity_key", userIdentity);
           // The event was for a tracked identity, initialize the state model
-          AuthStateModel sm = AuthStateModel.get(userIdentity, cur, new PruningStrategyEntryAge());
-          if (sm == null) {
-            sm = new AuthStateModel(userIdentity);
+          if (cur == null) {
+            cur = state.newCursor();
+            sm = AuthStateModel.get(userIdentity, cur, new PruningStrategyEntryAge());
+            if (sm == null) {
+              sm = new AuthStateModel(userIdentity);
+            }
           }
 
           String entryKey = getEntryKey(e.getNormalized().getSourceAddress());
@@ -674,19 +728,21 @@ public class AuthProfile implements Serializable {
                 e.getNormalized().getSubjectUser(),
                 e.getNormalized().getSourceAddress());
           }
-
-          // Update persistent state with new information
-          try {
-            sm.set(cur, new PruningStrategyEntryAge());
-          } catch (StateException exc) {
-            log.error("{}: error updating state: {}", userIdentity, exc.getMessage());
-          }
         }
 
         buildAlertSummary(e, a);
         buildAlertPayload(e, a);
         c.output(a);
       }
+
+      // Update persistent state with new information
+      if (sm != null) {
+        try {
+          sm.set(state, cur, new PruningStrategyEntryAge());
+        } catch (StateException exc) {
+          log.error("{}: error updating state: {}", userIdentity, exc.getMessage());
+        }
+      }
     }
   }
 
@@ -725,6 +781,32 @@ public class AuthProfile implements Serializable {
 
     void setDatastoreKind(String value);
 
+    @Description("Compress state values at or above length, 0 to disable")
+    @Default.Integer(0)
+    Integer getStateCompressionThreshold();
+
+    void setStateCompressionThreshold(Integer value);
+
+    @Description("Cache state on workers; maximum number of cached values, 0 to disable")
+    @Default.Integer(0)
+    Integer getStateCacheEntries();
+
+    void setStateCacheEntries(Integer value);
+
+    @Description("Cache state on workers; seconds a cached value is used before being read again")
+    @Default.Integer(60)
+    Integer getStateCacheTtlSeconds();
+
+    void setStateCacheTtlSeconds(Integer value);
+
+    @Description(
+        "Cache state on workers; seconds writes are deferred and coalesced for, also flushed at"
+            + " bundle finish, 0 to write through")
+    @Default.Integer(0)
+    Integer getStateCacheFlushSeconds();
+
+    void setStateCacheFlushSeconds(Integer value);
+
     @Description("Ignore events for any usernames match regex (multiple allowed)")
     String[] getIgnoreUserRegex();
 
@@ -747,6 +829,12 @@ public class AuthProfile implements Serializable {
 
     void setMaximumKilometersPerHour(Integer value);
 
+    @Description(
+        "Cloud provider ranges snapshot used if ranges cannot be fetched; resource path, gcs path")
+    String getCloudProviderRangesSnapshot();
+
+    void setCloudProviderRangesSnapshot(String value);
+
     @Description("Auth0 Client ids to consider for state analysis (multiple allowed)")
     String[] getAuth0ClientIds();
 
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mozilla.secops.GeoUtil;
+import com.mozilla.secops.state.State;
+import com.mozilla.secops.state.StateConflictException;
 import com.mozilla.secops.state.StateCursor;
 import com.mozilla.secops.state.StateException;
 import java.util.AbstractMap;
@@ -247,6 +249,60 @@ public class AuthStateModel {
     s.commit();
   }
 
+  /**
+   * Persist state using state interface, retrying if the stored model was modified concurrently
+   *
+   * <p>The model is written using the cursor it was read with. If the write is rejected with a
+   * {@link StateConflictException}, the stored model is read again using a new cursor, the entries
+   * of this model are merged into it, and the write is retried, up to {@link
+   * State#MAX_UPDATE_ATTEMPTS} attempts in total. Where both models contain an entry for the same
+   * address, the entry with the latest timestamp is kept.
+   *
+   * @param state State used to allocate cursors for retries
+   * @param s Initialized state cursor the model was read with
+   * @param ps Pruning strategy
+   */
+  public void set(State state, StateCursor s, PruningStrategy ps) throws StateException {
+    AuthStateModel m = this;
+    StateCursor cur = s;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        m.set(cur, ps);
+        return;
+      } catch (StateConflictException exc) {
+        if (attempt >= State.MAX_UPDATE_ATTEMPTS) {
+          throw exc;
+        }
+      }
+      cur = state.newCursor();
+      m = get(subject, cur, ps);
+      if (m == null) {
+        m = new AuthStateModel(subject);
+      }
+      m.merge(this);
+    }
+  }
+
+  /**
+   * Merge entries from another model into this model
+   *
+   * <p>Entries not present in this model are added, and entries present in both models are
+   * replaced if the other model's entry has a later timestamp.
+   *
+   * @param other Model to merge entries from
+   */
+  public void merge(AuthStateModel other) {
+    for (Map.Entry<String, ModelEntry> e : other.getEntries().entrySet()) {
+      ModelEntry cur = entries.get(e.getKey());
+      DateTime ts = e.getValue().getTimestamp();
+      if (cur == null
+          || cur.getTimestamp() == null
+          || (ts != null && ts.isAfter(cur.getTimestamp()))) {
+        entries.put(e.getKey(), e.getValue());
+      }
+    }
+  }
+
   /**
    * Perform geo-velocity analysis using the latest entries in the model
    *
@@ -0,0 +1,101 @@
+package com.mozilla.secops.authstate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.util.VarInt;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Coder for {@link AuthStateModel}
+ *
+ * <p>Allows models to be held in Beam keyed state, without the JSON serialization used when models
+ * are stored using a {@link com.mozilla.secops.state.StateInterface}.
+ */
+public class AuthStateModelCoder extends CustomCoder<AuthStateModel> {
+  private static final long serialVersionUID = 1L;
+
+  private static final int F_LATITUDE = 1;
+  private static final int F_LONGITUDE = 1 << 1;
+  private static final int F_TIMESTAMP = 1 << 2;
+
+  private static void writeString(String s, DataOutputStream out) throws IOException {
+    if (s == null) {
+      out.writeBoolean(false);
+      return;
+    }
+    out.writeBoolean(true);
+    out.writeUTF(s);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    return in.readUTF();
+  }
+
+  @Override
+  public void encode(AuthStateModel value, OutputStream outStream) throws IOException {
+    DataOutputStream out = new DataOutputStream(outStream);
+    writeString(value.getSubject(), out);
+    Map<String, AuthStateModel.ModelEntry> entries = value.getEntries();
+    VarInt.encode(entries.size(), out);
+    for (Map.Entry<String, AuthStateModel.ModelEntry> entry : entries.entrySet()) {
+      AuthStateModel.ModelEntry me = entry.getValue();
+      out.writeUTF(entry.getKey());
+      int flags = 0;
+      if (me.getLatitude() != null) {
+        flags |= F_LATITUDE;
+      }
+      if (me.getLongitude() != null) {
+        flags |= F_LONGITUDE;
+      }
+      if (me.getTimestamp() != null) {
+        flags |= F_TIMESTAMP;
+      }
+      out.writeByte(flags);
+      if (me.getLatitude() != null) {
+        out.writeDouble(me.getLatitude());
+      }
+      if (me.getLongitude() != null) {
+        out.writeDouble(me.getLongitude());
+      }
+      if (me.getTimestamp() != null) {
+        VarInt.encode(me.getTimestamp().getMillis(), out);
+      }
+    }
+    out.flush();
+  }
+
+  @Override
+  public AuthStateModel decode(InputStream inStream) throws IOException {
+    DataInputStream in = new DataInputStream(inStream);
+    AuthStateModel ret = new AuthStateModel(readString(in));
+    int count = VarInt.decodeInt(in);
+    HashMap<String, AuthStateModel.ModelEntry> entries = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      String key = in.readUTF();
+      int flags = in.readUnsignedByte();
+      AuthStateModel.ModelEntry me = new AuthStateModel.ModelEntry();
+      if ((flags & F_LATITUDE) != 0) {
+        me.setLatitude(in.readDouble());
+      }
+      if ((flags & F_LONGITUDE) != 0) {
+        me.setLongitude(in.readDouble());
+      }
+      if ((flags & F_TIMESTAMP) != 0) {
+        me.setTimestamp(new DateTime(VarInt.decodeLong(in), DateTimeZone.UTC));
+      }
+      entries.put(key, me);
+    }
+    ret.setEntries(entries);
+    return ret;
+  }
+}
@@ -360,6 +360,32 @@ public class Customs implements Serializable {
 
     void setDatastoreNamespace(String value);
 
+    @Description("Compress state values at or above length, 0 to disable")
+    @Default.Integer(0)
+    Integer getStateCompressionThreshold();
+
+    void setStateCompressionThreshold(Integer value);
+
+    @Description("Cache state on workers; maximum number of cached values, 0 to disable")
+    @Default.Integer(0)
+    Integer getStateCacheEntries();
+
+    void setStateCacheEntries(Integer value);
+
+    @Description("Cache state on workers; seconds a cached value is used before being read again")
+    @Default.Integer(60)
+    Integer getStateCacheTtlSeconds();
+
+    void setStateCacheTtlSeconds(Integer value);
+
+    @Description(
+        "Cache state on workers; seconds writes are deferred and coalesced for, also flushed at"
+            + " bundle finish, 0 to write through")
+    @Default.Integer(0)
+    Integer getStateCacheFlushSeconds();
+
+    void setStateCacheFlushSeconds(Integer value);
+
     @Description("Enable account creation abuse detector")
     @Default.Boolean(false)
     Boolean getEnableAccountCreationAbuseDetector();
@@ -426,6 +452,20 @@ public class Customs implements Serializable {
 
     void setMaximumKilometersPerHour(Integer value);
 
+    @Description("Velocity analysis; hold state models in pipeline keyed state")
+    @Default.Boolean(false)
+    Boolean getVelocityUseKeyedState();
+
+    void setVelocityUseKeyedState(Boolean value);
+
+    @Description(
+        "Velocity analysis with keyed state; seconds between checkpoints of state models to"
+            + " memcached or Datastore state, 0 to disable")
+    @Default.Integer(0)
+    Integer getVelocityStateCheckpointSeconds();
+
+    void setVelocityStateCheckpointSeconds(Integer value);
+
     @Description("Pubsub topic for CustomsAlert notifications; Pubsub topic")
     String getCustomsNotificationTopic();
 
@@ -5,6 +5,9 @@ import com.mozilla.secops.StringDistance;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.parser.Event;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.values.KV;
 
@@ -38,29 +41,150 @@ public class CustomsAccountCreationDist extends DoFn<KV<String, Iterable<Event>>
         ratioAlertCount, ratioConsiderationUpper);
   }
 
+  private static int[] bigrams(String s) {
+    if (s.length() < 2) {
+      return new int[0];
+    }
+    int[] ret = new int[s.length() - 1];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = (s.charAt(i) << 16) | s.charAt(i + 1);
+    }
+    Arrays.sort(ret);
+    return ret;
+  }
+
+  private static int sharedBigrams(int[] x, int[] y) {
+    int i = 0;
+    int j = 0;
+    int ret = 0;
+    while (i < x.length && j < y.length) {
+      if (x[i] == y[j]) {
+        ret++;
+        i++;
+        j++;
+      } else if (x[i] < y[j]) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Find indices of strings similar to the string at the specified index
+   *
+   * <p>A string is similar if {@link StringDistance#ratio} is less than or equal to the upper
+   * bound. The result is the same as comparing the string against every other string, but only
+   * plausible candidates are scored. Candidates are first restricted to lengths that could fall
+   * within the bound, and then filtered by the number of shared bigrams, which for an edit distance
+   * of k must be at least maxlen - 1 - 2k.
+   *
+   * @param locals Strings to search
+   * @param byLength Indices into locals bucketed by string length
+   * @param grams Sorted bigram profiles for each string in locals
+   * @param idx Index of string to find similar strings for
+   * @param upper Upper bound for similarity ratio
+   * @return Ascending list of indices of similar strings, which may include idx
+   */
+  static List<Integer> similarIndices(
+      List<String> locals, List<List<Integer>> byLength, int[][] grams, int idx, Double upper) {
+    String x = locals.get(idx);
+    int xlen = x.length();
+    ArrayList<Integer> ret = new ArrayList<>();
+    for (int ylen = 0; ylen < byLength.size(); ylen++) {
+      List<Integer> bucket = byLength.get(ylen);
+      if (bucket.isEmpty()) {
+        continue;
+      }
+      int maxlen = Math.max(xlen, ylen);
+      int k = StringDistance.maxDistance(maxlen, upper);
+      if (Math.abs(xlen - ylen) > k) {
+        continue;
+      }
+      int minShared = maxlen - 1 - 2 * k;
+      for (Integer j : bucket) {
+        if (minShared > 0 && sharedBigrams(grams[idx], grams[j]) < minShared) {
+          continue;
+        }
+        if (StringDistance.distance(x, locals.get(j), k) <= k) {
+          ret.add(j);
+        }
+      }
+    }
+    Collections.sort(ret);
+    return ret;
+  }
+
+  /**
+   * Bucket string indices by string length
+   *
+   * @param locals Strings
+   * @return List indexed by length, each containing indices of strings of that length
+   */
+  static List<List<Integer>> bucketByLength(List<String> locals) {
+    int maxlen = 0;
+    for (String s : locals) {
+      maxlen = Math.max(maxlen, s.length());
+    }
+    ArrayList<List<Integer>> ret = new ArrayList<>();
+    for (int i = 0; i <= maxlen; i++) {
+      ret.add(new ArrayList<>());
+    }
+    for (int i = 0; i < locals.size(); i++) {
+      ret.get(locals.get(i).length()).add(i);
+    }
+    return ret;
+  }
+
+  /**
+   * Compute sorted bigram profiles for strings
+   *
+   * @param locals Strings
+   * @return Bigram profile for each string
+   */
+  static int[][] bigramProfiles(List<String> locals) {
+    int[][] ret = new int[locals.size()][];
+    for (int i = 0; i < locals.size(); i++) {
+      ret[i] = bigrams(locals.get(i));
+    }
+    return ret;
+  }
+
+  private static String localPart(String email) {
+    int i = email.indexOf('@');
+    return i < 0 ? email : email.substring(0, i);
+  }
+
   @ProcessElement
   public void processElement(ProcessContext c) {
-    String domain = c.element().getKey();
-    Iterable<Event> events = c.element().getValue();
-
-    for (Event e : events) {
+    ArrayList<String> emails = new ArrayList<>();
+    ArrayList<String> addresses = new ArrayList<>();
+    ArrayList<String> locals = new ArrayList<>();
+    for (Event e : c.element().getValue()) {
       String email = CustomsUtil.authGetEmail(e);
-      String remoteAddress = CustomsUtil.authGetSourceAddress(e);
+      emails.add(email);
+      addresses.add(CustomsUtil.authGetSourceAddress(e));
+      locals.add(localPart(email));
+    }
+    List<List<Integer>> byLength = bucketByLength(locals);
+    int[][] grams = bigramProfiles(locals);
+
+    for (int i = 0; i < emails.size(); i++) {
+      String email = emails.get(i);
+      String remoteAddress = addresses.get(i);
 
       Boolean addrVariance = false;
       ArrayList<String> cand = new ArrayList<>();
-      for (Event f : events) {
-        String candEmail = CustomsUtil.authGetEmail(f);
+      for (Integer j : similarIndices(locals, byLength, grams, i, ratioConsiderationUpper)) {
+        String candEmail = emails.get(j);
         if (candEmail.equals(email)) {
           continue;
         }
-        if (StringDistance.ratio(email.split("@")[0], candEmail.split("@")[0])
-            <= ratioConsiderationUpper) {
-          if (!remoteAddress.equals(CustomsUtil.authGetSourceAddress(f))) {
-            addrVariance = true;
-          }
-          cand.add(candEmail);
+        if (!remoteAddress.equals(addresses.get(j))) {
+          addrVariance = true;
         }
+        cand.add(candEmail);
       }
 
       // No variance in the source address we are done
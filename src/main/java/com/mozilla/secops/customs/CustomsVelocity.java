@@ -3,21 +3,35 @@ package com.mozilla.secops.customs;
 import com.mozilla.secops.DocumentingTransform;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.authstate.AuthStateModel;
+import com.mozilla.secops.authstate.AuthStateModelCoder;
+import com.mozilla.secops.authstate.PruningStrategyEntryAge;
 import com.mozilla.secops.authstate.PruningStrategyLatest;
 import com.mozilla.secops.parser.Event;
 import com.mozilla.secops.parser.FxaAuth;
+import com.mozilla.secops.state.CachingStateInterface;
+import com.mozilla.secops.state.CompressingStateValueCodec;
 import com.mozilla.secops.state.DatastoreStateInterface;
 import com.mozilla.secops.state.MemcachedStateInterface;
 import com.mozilla.secops.state.State;
 import com.mozilla.secops.state.StateCursor;
 import com.mozilla.secops.state.StateException;
+import com.mozilla.secops.state.StateInterface;
 import com.mozilla.secops.window.GlobalTriggers;
 import java.util.ArrayList;
+import org.apache.beam.sdk.coders.BooleanCoder;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.GroupByKey;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
 import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
@@ -25,7 +39,16 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Customs location velocity analysis */
+/**
+ * Customs location velocity analysis
+ *
+ * <p>By default, the state model for each user is read from and written to memcached or Datastore
+ * for each event. If keyed state is enabled, models are instead held in pipeline keyed state, and
+ * are only written to memcached or Datastore if periodic checkpointing is configured. With
+ * checkpointing, a model that is not present in keyed state is restored from the last checkpoint.
+ * Models held in keyed state expire once no events have been seen for the user for the default
+ * entry pruning age.
+ */
 public class CustomsVelocity extends PTransform<PCollection<Event>, PCollection<Alert>>
     implements DocumentingTransform {
   private static final long serialVersionUID = 1L;
@@ -37,6 +60,12 @@ public class CustomsVelocity extends PTransform<PCollection<Event>, PCollection<
   private final String memcachedHost;
   private final Integer memcachedPort;
   private final String datastoreNamespace;
+  private final Integer compressionThreshold;
+  private final Integer cacheEntries;
+  private final Integer cacheTtlSeconds;
+  private final Integer cacheFlushSeconds;
+  private final Boolean useKeyedState;
+  private final Integer checkpointSeconds;
   private final Logger log = LoggerFactory.getLogger(CustomsVelocity.class);
 
   public String getTransformDoc() {
@@ -56,154 +85,358 @@ public class CustomsVelocity extends PTransform<PCollection<Event>, PCollection<
     memcachedHost = options.getMemcachedHost();
     memcachedPort = options.getMemcachedPort();
     datastoreNamespace = options.getDatastoreNamespace();
+    compressionThreshold = options.getStateCompressionThreshold();
+    cacheEntries = options.getStateCacheEntries();
+    cacheTtlSeconds = options.getStateCacheTtlSeconds();
+    cacheFlushSeconds = options.getStateCacheFlushSeconds();
+    useKeyedState = options.getVelocityUseKeyedState();
+    checkpointSeconds = options.getVelocityStateCheckpointSeconds();
+  }
+
+  private State newState() {
+    StateInterface si;
+    if (memcachedHost != null && memcachedPort != null) {
+      log.info("using memcached for state management");
+      si = new MemcachedStateInterface(memcachedHost, memcachedPort);
+    } else if (datastoreNamespace != null) {
+      log.info("using datastore for state management");
+      si = new DatastoreStateInterface(VELOCITY_KIND, datastoreNamespace);
+    } else {
+      throw new IllegalArgumentException("could not find valid state parameters in options");
+    }
+    if (cacheEntries > 0) {
+      log.info("caching up to {} state values", cacheEntries);
+      si =
+          new CachingStateInterface(
+              si, cacheEntries, cacheTtlSeconds * 1000L, cacheFlushSeconds * 1000L);
+    }
+    State state = new State(si);
+    state.setValueCodec(new CompressingStateValueCodec(compressionThreshold));
+    return state;
+  }
+
+  private void flushState(State state) {
+    try {
+      state.flush();
+    } catch (StateException exc) {
+      log.error("error flushing state: {}", exc.getMessage());
+    }
+  }
+
+  /**
+   * Update model with event and apply velocity analysis
+   *
+   * @param uid User ID
+   * @param sm State model for user
+   * @param e Event
+   * @param remoteAddress Source address of event
+   * @param email Email address associated with event
+   * @param latitude Source address latitude
+   * @param longitude Source address longitude
+   * @return Alert if velocity was exceeded, otherwise null
+   */
+  private Alert analyzeEvent(
+      String uid,
+      AuthStateModel sm,
+      Event e,
+      String remoteAddress,
+      String email,
+      Double latitude,
+      Double longitude) {
+    // Update the state entry; we want to use the timestamp on the event here
+    if (!sm.updateEntry(remoteAddress, e.getTimestamp(), latitude, longitude)) {
+      // Address was already seen
+      return null;
+    }
+
+    AuthStateModel.GeoVelocityResponse geoResp =
+        sm.geoVelocityAnalyzeLatest(maxKilometersPerSecond);
+    if (geoResp == null) {
+      return null;
+    }
+    log.info(
+        "{}: new location is {}km away from last location within {}s",
+        uid,
+        geoResp.getKmDistance(),
+        geoResp.getTimeDifference());
+    if (!geoResp.getMaxKmPerSecondExceeded()) {
+      return null;
+    }
+    log.info("{}: creating velocity alert", uid);
+    Alert alert = new Alert();
+    alert.setCategory("customs");
+    alert.setTimestamp(e.getTimestamp());
+    alert.setNotifyMergeKey(Customs.CATEGORY_VELOCITY);
+    alert.addMetadata("sourceaddress", remoteAddress);
+    alert.addMetadata("uid", uid);
+    alert.addMetadata("email", email);
+    alert.setSummary(
+        String.format(
+            "%s velocity exceeded, %.2f km in %d seconds",
+            uid, geoResp.getKmDistance(), geoResp.getTimeDifference()));
+    return alert;
+  }
+
+  /** Velocity analysis holding state models in keyed state */
+  private class KeyedStateAnalyzeFn extends DoFn<KV<String, Iterable<Event>>, Alert> {
+    private static final long serialVersionUID = 1L;
+
+    private State state;
+
+    @StateId("model")
+    private final StateSpec<ValueState<AuthStateModel>> modelSpec =
+        StateSpecs.value(new AuthStateModelCoder());
+
+    @StateId("dirty")
+    private final StateSpec<ValueState<Boolean>> dirtySpec = StateSpecs.value(BooleanCoder.of());
+
+    @TimerId("expiry")
+    private final TimerSpec expirySpec = TimerSpecs.timer(TimeDomain.EVENT_TIME);
+
+    @TimerId("checkpoint")
+    private final TimerSpec checkpointSpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
+    @Setup
+    public void setup() throws StateException {
+      if (checkpointSeconds > 0) {
+        state = newState();
+        state.initialize();
+      }
+    }
+
+    @FinishBundle
+    public void finishBundle() {
+      if (state != null) {
+        flushState(state);
+      }
+    }
+
+    @Teardown
+    public void teardown() {
+      if (state != null) {
+        state.done();
+      }
+    }
+
+    @ProcessElement
+    public void processElement(
+        ProcessContext c,
+        @StateId("model") ValueState<AuthStateModel> model,
+        @StateId("dirty") ValueState<Boolean> dirty,
+        @TimerId("expiry") Timer expiryTimer,
+        @TimerId("checkpoint") Timer checkpointTimer) {
+      String uid = c.element().getKey();
+      Iterable<Event> events = c.element().getValue();
+
+      AuthStateModel sm = model.read();
+      if (sm == null && state != null) {
+        StateCursor cur = state.newCursor();
+        try {
+          sm = AuthStateModel.get(uid, cur, new PruningStrategyLatest());
+          cur.commit();
+        } catch (StateException exc) {
+          log.error("error reading from state: {}", exc.getMessage());
+        }
+      }
+      if (sm == null) {
+        sm = new AuthStateModel(uid);
+      }
+
+      ArrayList<String> seenAddr = new ArrayList<>();
+      for (Event e : events) {
+        String remoteAddress = CustomsUtil.authGetSourceAddress(e);
+        String email = CustomsUtil.authGetEmail(e);
+        Double longitude = CustomsUtil.authGetSourceAddressLongitude(e);
+        Double latitude = CustomsUtil.authGetSourceAddressLatitude(e);
+        if ((remoteAddress == null)
+            || (latitude == null)
+            || (longitude == null)
+            || (email == null)) {
+          continue;
+        }
+
+        // Just process each address once per window
+        if (seenAddr.contains(remoteAddress)) {
+          continue;
+        }
+        seenAddr.add(remoteAddress);
+
+        Alert alert = analyzeEvent(uid, sm, e, remoteAddress, email, latitude, longitude);
+        if (alert != null) {
+          c.output(alert);
+        }
+        new PruningStrategyLatest().pruneState(sm);
+      }
+
+      model.write(sm);
+      expiryTimer.set(
+          c.timestamp().plus(Duration.standardSeconds(PruningStrategyEntryAge.DEFAULTPRUNEAGE)));
+      if (state != null) {
+        Boolean d = dirty.read();
+        if (d == null || !d) {
+          dirty.write(true);
+          checkpointTimer.offset(Duration.standardSeconds(checkpointSeconds)).setRelative();
+        }
+      }
+    }
+
+    @OnTimer("checkpoint")
+    public void onCheckpoint(
+        OnTimerContext c,
+        @StateId("model") ValueState<AuthStateModel> model,
+        @StateId("dirty") ValueState<Boolean> dirty) {
+      AuthStateModel sm = model.read();
+      dirty.clear();
+      if (sm == null || state == null) {
+        return;
+      }
+      try {
+        sm.set(state.newCursor(), new PruningStrategyLatest());
+      } catch (StateException exc) {
+        log.error("error checkpointing state: {}", exc.getMessage());
+      }
+    }
+
+    @OnTimer("expiry")
+    public void onExpiry(
+        OnTimerContext c,
+        @StateId("model") ValueState<AuthStateModel> model,
+        @StateId("dirty") ValueState<Boolean> dirty) {
+      model.clear();
+      dirty.clear();
+    }
   }
 
   @Override
   public PCollection<Alert> expand(PCollection<Event> col) {
-    return col.apply(
-            "velocity filter events",
-            ParDo.of(
-                new DoFn<Event, KV<String, Event>>() {
-                  private static final long serialVersionUID = 1L;
-
-                  @ProcessElement
-                  public void processElement(ProcessContext c) {
-                    Event e = c.element();
-
-                    FxaAuth.EventSummary sum = CustomsUtil.authGetEventSummary(e);
-                    if (sum == FxaAuth.EventSummary.ACCOUNT_STATUS_CHECK) {
-                      return;
-                    }
+    PCollection<KV<String, Iterable<Event>>> grouped =
+        col.apply(
+                "velocity filter events",
+                ParDo.of(
+                    new DoFn<Event, KV<String, Event>>() {
+                      private static final long serialVersionUID = 1L;
 
-                    // Consider anything that has both a UID and a source address
-                    String uid = CustomsUtil.authGetUid(e);
-                    if (uid == null) {
-                      return;
+                      @ProcessElement
+                      public void processElement(ProcessContext c) {
+                        Event e = c.element();
+
+                        FxaAuth.EventSummary sum = CustomsUtil.authGetEventSummary(e);
+                        if (sum == FxaAuth.EventSummary.ACCOUNT_STATUS_CHECK) {
+                          return;
+                        }
+
+                        // Consider anything that has both a UID and a source address
+                        String uid = CustomsUtil.authGetUid(e);
+                        if (uid == null) {
+                          return;
+                        }
+                        if (CustomsUtil.authGetSourceAddress(e) == null) {
+                          return;
+                        }
+
+                        c.output(KV.of(uid, e));
+                      }
+                    }))
+            .apply(
+                "velocity window",
+                Window.<KV<String, Event>>into(FixedWindows.of(Duration.standardMinutes(1))))
+            .apply("velocity gbk", GroupByKey.<String, Event>create());
+
+    PCollection<Alert> alerts;
+    if (useKeyedState) {
+      alerts =
+          grouped
+              .apply(
+                  "velocity keyed state window",
+                  Window.<KV<String, Iterable<Event>>>into(new GlobalWindows()))
+              .apply("velocity analyze", ParDo.of(new KeyedStateAnalyzeFn()));
+    } else {
+      alerts =
+          grouped.apply(
+              "velocity analyze",
+              ParDo.of(
+                  new DoFn<KV<String, Iterable<Event>>, Alert>() {
+                    private static final long serialVersionUID = 1L;
+
+                    private State state;
+
+                    @Setup
+                    public void setup() throws StateException {
+                      state = newState();
+                      state.initialize();
                     }
-                    if (CustomsUtil.authGetSourceAddress(e) == null) {
-                      return;
+
+                    @FinishBundle
+                    public void finishBundle() {
+                      flushState(state);
                     }
 
-                    c.output(KV.of(uid, e));
-                  }
-                }))
-        .apply(
-            "velocity window",
-            Window.<KV<String, Event>>into(FixedWindows.of(Duration.standardMinutes(1))))
-        .apply("velocity gbk", GroupByKey.<String, Event>create())
-        .apply(
-            "velocity analyze",
-            ParDo.of(
-                new DoFn<KV<String, Iterable<Event>>, Alert>() {
-                  private static final long serialVersionUID = 1L;
-
-                  private State state;
-
-                  @Setup
-                  public void setup() throws StateException {
-                    if (memcachedHost != null && memcachedPort != null) {
-                      log.info("using memcached for state management");
-                      state = new State(new MemcachedStateInterface(memcachedHost, memcachedPort));
-                    } else if (datastoreNamespace != null) {
-                      log.info("using datastore for state management");
-                      state =
-                          new State(new DatastoreStateInterface(VELOCITY_KIND, datastoreNamespace));
-                    } else {
-                      throw new IllegalArgumentException(
-                          "could not find valid state parameters in options");
+                    @Teardown
+                    public void teardown() {
+                      state.done();
                     }
-                    state.initialize();
-                  }
-
-                  @Teardown
-                  public void teardown() {
-                    state.done();
-                  }
-
-                  @ProcessElement
-                  public void processElement(ProcessContext c) {
-                    String uid = c.element().getKey();
-                    Iterable<Event> events = c.element().getValue();
-
-                    ArrayList<String> seenAddr = new ArrayList<>();
-
-                    for (Event e : events) {
-                      String remoteAddress = CustomsUtil.authGetSourceAddress(e);
-                      String email = CustomsUtil.authGetEmail(e);
-                      Double longitude = CustomsUtil.authGetSourceAddressLongitude(e);
-                      Double latitude = CustomsUtil.authGetSourceAddressLatitude(e);
-                      if ((remoteAddress == null)
-                          || (latitude == null)
-                          || (longitude == null)
-                          || (email == null)) {
-                        continue;
-                      }
 
-                      // Just process each address once per window
-                      if (seenAddr.contains(remoteAddress)) {
-                        continue;
-                      }
-                      seenAddr.add(remoteAddress);
+                    @ProcessElement
+                    public void processElement(ProcessContext c) {
+                      String uid = c.element().getKey();
+                      Iterable<Event> events = c.element().getValue();
 
-                      StateCursor cur = state.newCursor();
+                      ArrayList<String> seenAddr = new ArrayList<>();
 
+                      // The state model is read once for the pane, and written once all events
+                      // have been processed
+                      StateCursor cur = null;
                       AuthStateModel sm = null;
-                      try {
-                        sm = AuthStateModel.get(uid, cur, new PruningStrategyLatest());
-                        if (sm == null) {
-                          sm = new AuthStateModel(uid);
+
+                      for (Event e : events) {
+                        String remoteAddress = CustomsUtil.authGetSourceAddress(e);
+                        String email = CustomsUtil.authGetEmail(e);
+                        Double longitude = CustomsUtil.authGetSourceAddressLongitude(e);
+                        Double latitude = CustomsUtil.authGetSourceAddressLatitude(e);
+                        if ((remoteAddress == null)
+                            || (latitude == null)
+                            || (longitude == null)
+                            || (email == null)) {
+                          continue;
                         }
-                      } catch (StateException exc) {
-                        log.error("error reading from state: {}", exc.getMessage());
-                        return;
-                      }
 
-                      // Update the state entry; we want to use the timestamp on the event here
-                      if (!sm.updateEntry(remoteAddress, e.getTimestamp(), latitude, longitude)) {
-                        // Address was already seen, so just update the state and continue
-                        try {
-                          sm.set(cur, new PruningStrategyLatest());
-                        } catch (StateException exc) {
-                          log.error("error updating state: {}", exc.getMessage());
-                          return;
+                        // Just process each address once per window
+                        if (seenAddr.contains(remoteAddress)) {
+                          continue;
+                        }
+                        seenAddr.add(remoteAddress);
+
+                        if (cur == null) {
+                          cur = state.newCursor();
+                          try {
+                            sm = AuthStateModel.get(uid, cur, new PruningStrategyLatest());
+                            if (sm == null) {
+                              sm = new AuthStateModel(uid);
+                            }
+                          } catch (StateException exc) {
+                            log.error("error reading from state: {}", exc.getMessage());
+                            return;
+                          }
                         }
-                        continue;
-                      }
 
-                      AuthStateModel.GeoVelocityResponse geoResp =
-                          sm.geoVelocityAnalyzeLatest(maxKilometersPerSecond);
-
-                      if (geoResp != null) {
-                        log.info(
-                            "{}: new location is {}km away from last location within {}s",
-                            uid,
-                            geoResp.getKmDistance(),
-                            geoResp.getTimeDifference());
-                        if (geoResp.getMaxKmPerSecondExceeded()) {
-                          log.info("{}: creating velocity alert", uid);
-                          Alert alert = new Alert();
-                          alert.setCategory("customs");
-                          alert.setTimestamp(e.getTimestamp());
-                          alert.setNotifyMergeKey(Customs.CATEGORY_VELOCITY);
-                          alert.addMetadata("sourceaddress", remoteAddress);
-                          alert.addMetadata("uid", uid);
-                          alert.addMetadata("email", email);
-                          alert.setSummary(
-                              String.format(
-                                  "%s velocity exceeded, %.2f km in %d seconds",
-                                  uid, geoResp.getKmDistance(), geoResp.getTimeDifference()));
+                        Alert alert =
+                            analyzeEvent(uid, sm, e, remoteAddress, email, latitude, longitude);
+                        if (alert != null) {
                           c.output(alert);
                         }
+                        new PruningStrategyLatest().pruneState(sm);
                       }
 
-                      try {
-                        sm.set(cur, new PruningStrategyLatest());
-                      } catch (StateException exc) {
-                        log.error("error updating state: {}", exc.getMessage());
+                      if (sm != null) {
+                        try {
+                          sm.set(state, cur, new PruningStrategyLatest());
+                        } catch (StateException exc) {
+                          log.error("error updating state: {}", exc.getMessage());
+                        }
                       }
                     }
-                  }
-                }))
-        .apply("velocity global windows", new GlobalTriggers<Alert>(5));
+                  }));
+    }
+    return alerts.apply("velocity global windows", new GlobalTriggers<Alert>(5));
   }
 }
@@ -2,6 +2,7 @@ package com.mozilla.secops.gatekeeper;
 
 import com.mozilla.secops.DocumentingTransform;
 import com.mozilla.secops.IOOptions;
+import com.mozilla.secops.PatternSet;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.alert.AlertSuppressor;
 import com.mozilla.secops.parser.ETDBeta;
@@ -14,9 +15,9 @@ import com.mozilla.secops.parser.models.etd.Properties;
 import com.mozilla.secops.parser.models.etd.SourceId;
 import com.mozilla.secops.parser.models.etd.SourceLogId;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
@@ -54,7 +55,7 @@ public class ETDTransforms implements Serializable {
   public static class ExtractFindings extends PTransform<PCollection<Event>, PCollection<Event>> {
     private static final long serialVersionUID = 1L;
 
-    private List<Pattern> exclude;
+    private PatternSet exclude;
 
     /**
      * static initializer for filter
@@ -63,12 +64,9 @@ public class ETDTransforms implements Serializable {
      */
     public ExtractFindings(Options opts) {
       String[] ignoreRegexes = opts.getIgnoreETDFindingRuleRegex();
-      exclude = new ArrayList<Pattern>();
-      if (ignoreRegexes != null) {
-        for (String s : ignoreRegexes) {
-          exclude.add(Pattern.compile(s));
-        }
-      }
+      exclude =
+          new PatternSet(
+              ignoreRegexes != null ? Arrays.asList(ignoreRegexes) : Collections.emptyList());
     }
 
     @Override
@@ -94,10 +92,8 @@ public class ETDTransforms implements Serializable {
                       || f.getDetectionCategory().getRuleName() == null) {
                     return;
                   }
-                  for (Pattern p : exclude) {
-                    if (p.matcher(f.getDetectionCategory().getRuleName()).matches()) {
-                      return;
-                    }
+                  if (exclude.matchesAny(f.getDetectionCategory().getRuleName())) {
+                    return;
                   }
                   c.output(e);
                 }
@@ -112,7 +108,7 @@ public class ETDTransforms implements Serializable {
 
     private static final String alertCategory = "gatekeeper:gcp";
 
-    private List<Pattern> escalate;
+    private PatternSet escalate;
     private String critNotifyEmail;
 
     /**
@@ -124,13 +120,10 @@ public class ETDTransforms implements Serializable {
       critNotifyEmail = opts.getCriticalNotificationEmail();
       String[] escalateRegexes = opts.getEscalateETDFindingRuleRegex();
 
-      escalate = new ArrayList<Pattern>();
       if (escalateRegexes != null) {
-        for (String s : escalateRegexes) {
-          escalate.add(Pattern.compile(s));
-        }
+        escalate = new PatternSet(Arrays.asList(escalateRegexes));
       } else {
-        escalate.add(Pattern.compile(".+"));
+        escalate = new PatternSet(Collections.singletonList(".+"));
       }
     }
 
@@ -174,11 +167,8 @@ public class ETDTransforms implements Serializable {
         return;
       }
       if (critNotifyEmail != null) {
-        for (Pattern p : escalate) {
-          if (p.matcher(dc.getRuleName()).matches()) {
-            a.addMetadata("notify_email_direct", critNotifyEmail);
-            return;
-          }
+        if (escalate.matchesAny(dc.getRuleName())) {
+          a.addMetadata("notify_email_direct", critNotifyEmail);
         }
       }
     }
@@ -22,6 +22,8 @@ import com.amazonaws.services.guardduty.model.Service;
 import com.amazonaws.services.guardduty.model.Tag;
 import com.mozilla.secops.DocumentingTransform;
 import com.mozilla.secops.IOOptions;
+import com.mozilla.secops.PatternSet;
+import com.mozilla.secops.SharedResources;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.alert.AlertSuppressor;
 import com.mozilla.secops.identity.IdentityManager;
@@ -30,10 +32,10 @@ import com.mozilla.secops.parser.GuardDuty;
 import com.mozilla.secops.parser.Payload;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
@@ -81,7 +83,7 @@ public class GuardDutyTransforms implements Serializable {
   public static class ExtractFindings extends PTransform<PCollection<Event>, PCollection<Event>> {
     private static final long serialVersionUID = 1L;
 
-    private List<Pattern> exclude;
+    private PatternSet exclude;
     private String[] ignoreDNSFindingAppNames;
 
     /**
@@ -91,12 +93,9 @@ public class GuardDutyTransforms implements Serializable {
      */
     public ExtractFindings(Options opts) {
       String[] ignoreRegexes = opts.getIgnoreGDFindingTypeRegex();
-      exclude = new ArrayList<Pattern>();
-      if (ignoreRegexes != null) {
-        for (String s : ignoreRegexes) {
-          exclude.add(Pattern.compile(s));
-        }
-      }
+      exclude =
+          new PatternSet(
+              ignoreRegexes != null ? Arrays.asList(ignoreRegexes) : Collections.emptyList());
       ignoreDNSFindingAppNames = opts.getIgnoreDNSRequestFindingApps();
     }
 
@@ -142,10 +141,8 @@ public class GuardDutyTransforms implements Serializable {
                   if (f == null || f.getType() == null) {
                     return;
                   }
-                  for (Pattern p : exclude) {
-                    if (p.matcher(f.getType()).matches()) {
-                      return;
-                    }
+                  if (exclude.matchesAny(f.getType())) {
+                    return;
                   }
                   if (f.getService() != null
                       && f.getService().getAction() != null
@@ -173,7 +170,7 @@ public class GuardDutyTransforms implements Serializable {
 
     private static final String alertCategory = "gatekeeper:aws";
 
-    private List<Pattern> escalate;
+    private PatternSet escalate;
     private final String critNotifyEmail;
     private final String identityMgrPath;
 
@@ -191,13 +188,10 @@ public class GuardDutyTransforms implements Serializable {
       identityMgrPath = opts.getIdentityManagerPath();
 
       String[] escalateRegexes = opts.getEscalateGDFindingTypeRegex();
-      escalate = new ArrayList<Pattern>();
       if (escalateRegexes != null) {
-        for (String s : escalateRegexes) {
-          escalate.add(Pattern.compile(s));
-        }
+        escalate = new PatternSet(Arrays.asList(escalateRegexes));
       } else {
-        escalate.add(Pattern.compile(".+"));
+        escalate = new PatternSet(Collections.singletonList(".+"));
       }
     }
 
@@ -253,11 +247,8 @@ public class GuardDutyTransforms implements Serializable {
 
     private void tryAddEscalationEmail(Alert a, Finding f) {
       if (critNotifyEmail != null && f.getType() != null) {
-        for (Pattern p : escalate) {
-          if (p.matcher(f.getType()).matches()) {
-            a.addMetadata("notify_email_direct", critNotifyEmail);
-            return;
-          }
+        if (escalate.matchesAny(f.getType())) {
+          a.addMetadata("notify_email_direct", critNotifyEmail);
         }
       }
     }
@@ -461,13 +452,15 @@ public class GuardDutyTransforms implements Serializable {
               new DoFn<Event, Alert>() {
                 private static final long serialVersionUID = 1L;
 
+                private SharedResources.Handle<IdentityManager> idmanagerHandle;
                 private Map<String, String> awsAcctMap;
 
                 @Setup
                 public void setup() {
                   if (identityMgrPath != null) {
                     try {
-                      awsAcctMap = IdentityManager.load(identityMgrPath).getAwsAccountMap();
+                      idmanagerHandle = IdentityManager.loadShared(identityMgrPath);
+                      awsAcctMap = idmanagerHandle.get().getAwsAccountMap();
                     } catch (IOException x) {
                       log.error(
                           "failed to load identity manager, alerts will not contain aws_account_name. error: {}",
@@ -476,6 +469,13 @@ public class GuardDutyTransforms implements Serializable {
                   }
                 }
 
+                @Teardown
+                public void teardown() {
+                  if (idmanagerHandle != null) {
+                    idmanagerHandle.close();
+                  }
+                }
+
                 @ProcessElement
                 public void processElement(ProcessContext c) {
                   Event e = c.element();
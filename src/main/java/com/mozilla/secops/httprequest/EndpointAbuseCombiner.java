@@ -0,0 +1,270 @@
+package com.mozilla.secops.httprequest;
+
+import com.mozilla.secops.httprequest.HTTPRequest.EndpointAbuseAnalysis.EndpointAbuseEndpointInfo;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.util.VarInt;
+import org.joda.time.Instant;
+
+/**
+ * {@link CombineFn} summarizing client sessions for endpoint abuse analysis
+ *
+ * <p>Input values are request tuples as emitted by {@link
+ * HTTPRequest.KeyAndWindowForSessionsFireEarly}. Rather than retaining each request in a session,
+ * the accumulator keeps a request count for each monitored endpoint, flags indicating if variance
+ * was observed, and the timestamp and user agent of the latest request to a monitored endpoint.
+ *
+ * <p>Accumulators are merged when session windows merge, and with accumulating panes each early
+ * firing only needs to add requests that arrived since the previous firing.
+ */
+public class EndpointAbuseCombiner
+    extends CombineFn<
+        ArrayList<String>, EndpointAbuseCombiner.Accumulator, EndpointAbuseCombiner.Accumulator> {
+  private static final long serialVersionUID = 1L;
+
+  private final EndpointAbuseEndpointInfo[] endpoints;
+  private final String[] customVarianceSubstrings;
+
+  /** Session summary for a client */
+  public static class Accumulator implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] counts;
+    private boolean basicVariance;
+    private boolean extendedVariance;
+    private Instant latestEpaRequest;
+    private String userAgent;
+
+    /**
+     * Get number of requests made to each monitored endpoint
+     *
+     * @return Array of counts, indexed as configured endpoints
+     */
+    public int[] getCounts() {
+      return counts;
+    }
+
+    /**
+     * Get basic variance flag
+     *
+     * @return True if a request was made to an endpoint that is not monitored
+     */
+    public Boolean getBasicVariance() {
+      return basicVariance;
+    }
+
+    /**
+     * Get extended variance flag
+     *
+     * @return True if a request was made for supporting content or matched a custom variance
+     *     substring
+     */
+    public Boolean getExtendedVariance() {
+      return extendedVariance;
+    }
+
+    /**
+     * Get timestamp of latest request to a monitored endpoint
+     *
+     * @return Instant, or null if no monitored endpoints were requested
+     */
+    public Instant getLatestEpaRequest() {
+      return latestEpaRequest;
+    }
+
+    /**
+     * Get user agent of latest request to a monitored endpoint
+     *
+     * @return User agent, or null if no monitored endpoints were requested
+     */
+    public String getUserAgent() {
+      return userAgent;
+    }
+
+    private void observeEpa(Instant t, String ua) {
+      if (latestEpaRequest == null || t.isAfter(latestEpaRequest)) {
+        latestEpaRequest = t;
+        userAgent = ua;
+      }
+    }
+
+    private Accumulator copy() {
+      Accumulator ret = new Accumulator(counts.length);
+      System.arraycopy(counts, 0, ret.counts, 0, counts.length);
+      ret.basicVariance = basicVariance;
+      ret.extendedVariance = extendedVariance;
+      ret.latestEpaRequest = latestEpaRequest;
+      ret.userAgent = userAgent;
+      return ret;
+    }
+
+    Accumulator(int endpointCount) {
+      counts = new int[endpointCount];
+    }
+  }
+
+  /** Compact coder for {@link Accumulator} */
+  public static class AccumulatorCoder extends CustomCoder<Accumulator> {
+    private static final long serialVersionUID = 1L;
+
+    private static final int F_BASIC = 1;
+    private static final int F_EXTENDED = 1 << 1;
+    private static final int F_EPA = 1 << 2;
+
+    @Override
+    public void encode(Accumulator value, OutputStream outStream) throws IOException {
+      DataOutputStream out = new DataOutputStream(outStream);
+      VarInt.encode(value.counts.length, out);
+      for (int c : value.counts) {
+        VarInt.encode(c, out);
+      }
+      int flags = 0;
+      if (value.basicVariance) {
+        flags |= F_BASIC;
+      }
+      if (value.extendedVariance) {
+        flags |= F_EXTENDED;
+      }
+      if (value.latestEpaRequest != null) {
+        flags |= F_EPA;
+      }
+      out.writeByte(flags);
+      if (value.latestEpaRequest != null) {
+        VarInt.encode(value.latestEpaRequest.getMillis(), out);
+        byte[] ua = value.userAgent.getBytes(StandardCharsets.UTF_8);
+        VarInt.encode(ua.length, out);
+        out.write(ua);
+      }
+      out.flush();
+    }
+
+    @Override
+    public Accumulator decode(InputStream inStream) throws IOException {
+      DataInputStream in = new DataInputStream(inStream);
+      Accumulator ret = new Accumulator(VarInt.decodeInt(in));
+      for (int i = 0; i < ret.counts.length; i++) {
+        ret.counts[i] = VarInt.decodeInt(in);
+      }
+      int flags = in.readUnsignedByte();
+      ret.basicVariance = (flags & F_BASIC) != 0;
+      ret.extendedVariance = (flags & F_EXTENDED) != 0;
+      if ((flags & F_EPA) != 0) {
+        ret.latestEpaRequest = new Instant(VarInt.decodeLong(in));
+        byte[] ua = new byte[VarInt.decodeInt(in)];
+        in.readFully(ua);
+        ret.userAgent = new String(ua, StandardCharsets.UTF_8);
+      }
+      return ret;
+    }
+
+    @Override
+    public void verifyDeterministic() {}
+  }
+
+  private static Boolean considerSupporting(String path) {
+    if ((path.endsWith(".css"))
+        || (path.endsWith(".js"))
+        || (path.endsWith(".gif"))
+        || (path.endsWith(".jpg"))
+        || (path.endsWith(".ico"))
+        || (path.endsWith(".svg"))
+        || (path.endsWith(".png"))) {
+      return true;
+    }
+    return false;
+  }
+
+  private Integer indexEndpoint(String path, String method) {
+    for (int i = 0; i < endpoints.length; i++) {
+      if ((endpoints[i].method.equals(method)) && (endpoints[i].path.equals(path))) {
+        return i;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Accumulator createAccumulator() {
+    return new Accumulator(endpoints.length);
+  }
+
+  @Override
+  public Accumulator addInput(Accumulator acc, ArrayList<String> i) {
+    Integer abIdx = indexEndpoint(i.get(1), i.get(0));
+    if (abIdx == null) {
+      // Set a basic variance flag if we see a request that was made to something that is
+      // not monitored
+      if (customVarianceSubstrings != null) {
+        for (String s : customVarianceSubstrings) {
+          if (i.get(4).contains(s)) {
+            acc.extendedVariance = true;
+          }
+        }
+      }
+      acc.basicVariance = true;
+      if (considerSupporting(i.get(1))) {
+        acc.extendedVariance = true;
+      }
+      return acc;
+    }
+    acc.counts[abIdx]++;
+    acc.observeEpa(Instant.parse(i.get(3)), i.get(2));
+    return acc;
+  }
+
+  @Override
+  public Accumulator mergeAccumulators(Iterable<Accumulator> accs) {
+    Accumulator merged = createAccumulator();
+    for (Accumulator a : accs) {
+      for (int i = 0; i < merged.counts.length; i++) {
+        merged.counts[i] += a.counts[i];
+      }
+      merged.basicVariance |= a.basicVariance;
+      merged.extendedVariance |= a.extendedVariance;
+      if (a.latestEpaRequest != null) {
+        merged.observeEpa(a.latestEpaRequest, a.userAgent);
+      }
+    }
+    return merged;
+  }
+
+  @Override
+  public Accumulator extractOutput(Accumulator acc) {
+    // The accumulator is retained across firings with accumulating panes, so return a copy
+    return acc.copy();
+  }
+
+  @Override
+  public Coder<Accumulator> getAccumulatorCoder(
+      CoderRegistry registry, Coder<ArrayList<String>> inputCoder) {
+    return new AccumulatorCoder();
+  }
+
+  @Override
+  public Coder<Accumulator> getDefaultOutputCoder(
+      CoderRegistry registry, Coder<ArrayList<String>> inputCoder) {
+    return new AccumulatorCoder();
+  }
+
+  /**
+   * Initialize new combiner
+   *
+   * @param endpoints Monitored endpoints
+   * @param customVarianceSubstrings Request URL substrings that indicate extended variance, or null
+   */
+  public EndpointAbuseCombiner(
+      EndpointAbuseEndpointInfo[] endpoints, String[] customVarianceSubstrings) {
+    this.endpoints = endpoints;
+    this.customVarianceSubstrings = customVarianceSubstrings;
+  }
+}
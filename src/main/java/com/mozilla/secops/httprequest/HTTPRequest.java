@@ -6,6 +6,7 @@ import com.mozilla.secops.FileUtil;
 import com.mozilla.secops.IOOptions;
 import com.mozilla.secops.IprepdIO;
 import com.mozilla.secops.OutputOptions;
+import com.mozilla.secops.PatternSet;
 import com.mozilla.secops.Stats;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.alert.AlertFormatter;
@@ -22,14 +23,15 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.Combine;
 import org.apache.beam.sdk.transforms.Count;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.Flatten;
@@ -47,6 +49,7 @@ import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionList;
+import org.apache.beam.sdk.values.PCollectionTuple;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -433,15 +436,11 @@ public class HTTPRequest implements Serializable {
                   new DoFn<Event, KV<String, String>>() {
                     private static final long serialVersionUID = 1L;
 
-                    private ArrayList<Pattern> uaRegex;
+                    private PatternSet uaRegex;
 
                     @Setup
                     public void setup() throws IOException {
-                      ArrayList<String> in = FileUtil.fileReadLines(uaBlacklistPath);
-                      uaRegex = new ArrayList<Pattern>();
-                      for (String i : in) {
-                        uaRegex.add(Pattern.compile(i));
-                      }
+                      uaRegex = new PatternSet(FileUtil.fileReadLines(uaBlacklistPath));
                     }
 
                     @ProcessElement
@@ -452,11 +451,8 @@ public class HTTPRequest implements Serializable {
                       if (ua == null) {
                         return;
                       }
-                      for (Pattern p : uaRegex) {
-                        if (p.matcher(ua).matches()) {
-                          c.output(KV.of(n.getSourceAddress(), ua));
-                          return;
-                        }
+                      if (uaRegex.matchesAny(ua)) {
+                        c.output(KV.of(n.getSourceAddress(), ua));
                       }
                     }
                   }))
@@ -626,59 +622,26 @@ public class HTTPRequest implements Serializable {
     @Override
     public PCollection<Alert> expand(PCollection<KV<String, ArrayList<String>>> input) {
       return input
-          .apply(GroupByKey.<String, ArrayList<String>>create())
+          .apply(
+              "summarize per-client",
+              Combine.perKey(new EndpointAbuseCombiner(endpoints, customVarianceSubstrings)))
           .apply(
               "analyze per-client",
               ParDo.of(
-                  new DoFn<KV<String, Iterable<ArrayList<String>>>, KV<String, Alert>>() {
+                  new DoFn<KV<String, EndpointAbuseCombiner.Accumulator>, KV<String, Alert>>() {
                     private static final long serialVersionUID = 1L;
 
                     @ProcessElement
                     public void processElement(ProcessContext c, BoundedWindow w) {
                       String remoteAddress = c.element().getKey();
-                      Iterable<ArrayList<String>> paths = c.element().getValue();
-                      int[] endCounter = new int[endpoints.length];
-                      String userAgent = null;
-                      boolean basicVariance = false;
-                      boolean extendedVariance = false;
-
-                      // Used to track the latest applicable EPA request, so we can use it as the
-                      // alert timestamp if we need to generate an alert.
-                      Instant latestEpaRequest = null;
-
-                      // Count the number of requests in-window for this source that map to
-                      // monitored endpoints. Set a basic variance flag if we see a request
-                      // that was made to something that is not monitored.
-                      for (ArrayList<String> i : paths) {
-                        Integer abIdx = indexEndpoint(i.get(1), i.get(0));
-                        if (abIdx == null) {
-                          if (customVarianceSubstrings != null) {
-                            for (String s : customVarianceSubstrings) {
-                              if (i.get(4).contains(s)) {
-                                basicVariance = true;
-                                extendedVariance = true;
-                              }
-                            }
-                          }
-                          basicVariance = true;
-                          if (considerSupporting(i.get(1))) {
-                            extendedVariance = true;
-                          }
-                          continue;
-                        }
-                        Instant t = Instant.parse(i.get(3));
-                        if (latestEpaRequest == null) {
-                          latestEpaRequest = t;
-                        } else if (t.getMillis() > latestEpaRequest.getMillis()) {
-                          latestEpaRequest = t;
-                        }
-                        // XXX Just pick up the user agent here; with agent variance this could
-                        // result in a different agent being included in the alert than the one
-                        // that was actually associated with the threshold violation, and should
-                        // be fixed.
-                        userAgent = i.get(2);
-                        endCounter[abIdx]++;
-                      }
+                      EndpointAbuseCombiner.Accumulator summary = c.element().getValue();
+                      int[] endCounter = summary.getCounts();
+                      String userAgent = summary.getUserAgent();
+                      boolean basicVariance = summary.getBasicVariance();
+                      boolean extendedVariance = summary.getExtendedVariance();
+
+                      // Used as the alert timestamp if we need to generate an alert
+                      Instant latestEpaRequest = summary.getLatestEpaRequest();
 
                       // If extended object variance is enabled, only consider variance if this
                       // flag has been set. Otherwise we by default consider basic variance to be
@@ -767,28 +730,6 @@ public class HTTPRequest implements Serializable {
           .apply("endpoint abuse analysis global", new GlobalTriggers<KV<String, Alert>>(5))
           .apply(ParDo.of(new AlertSuppressorCount(600L))); // 10 mins, should be configurable
     }
-
-    private Boolean considerSupporting(String path) {
-      if ((path.endsWith(".css"))
-          || (path.endsWith(".js"))
-          || (path.endsWith(".gif"))
-          || (path.endsWith(".jpg"))
-          || (path.endsWith(".ico"))
-          || (path.endsWith(".svg"))
-          || (path.endsWith(".png"))) {
-        return true;
-      }
-      return false;
-    }
-
-    private Integer indexEndpoint(String path, String method) {
-      for (int i = 0; i < endpoints.length; i++) {
-        if ((endpoints[i].method.equals(method)) && (endpoints[i].path.equals(path))) {
-          return i;
-        }
-      }
-      return null;
-    }
   }
 
   /**
@@ -1212,6 +1153,12 @@ public class HTTPRequest implements Serializable {
 
     void setIgnoreCloudProviderRequests(Boolean value);
 
+    @Description(
+        "Cloud provider ranges snapshot used if ranges cannot be fetched; resource path, gcs path")
+    String getCloudProviderRangesSnapshot();
+
+    void setCloudProviderRangesSnapshot(String value);
+
     @Description("Ignore requests from internal subnets (e.g., RFC1918)")
     @Default.Boolean(true)
     Boolean getIgnoreInternalRequests();
@@ -1364,18 +1311,22 @@ public class HTTPRequest implements Serializable {
     // Perform the multiplexed read operations
     PCollection<KV<String, Event>> col = p.apply("input", input.multiplexRead());
 
-    HashMap<String, PCollection<Event>> ret = new HashMap<>();
-    // For each configured element, extract the resulting collection and associate it with
-    // a key in our input map.
+    // Route events to each configured element in a single stage, and associate the resulting
+    // collections with a key in our input map.
+    LinkedHashMap<String, HTTPRequestToggles> toggles = new LinkedHashMap<>();
     for (InputElement e : input.getInputElements()) {
       if (!toggleCache.containsKey(e.getName())) {
         throw new RuntimeException(String.format("no toggle cache entry for %s", e.getName()));
       }
-      PCollection<Event> t =
-          col.apply(
-              String.format("filter %s", e.getName()),
-              new HTTPRequestElementFilter(e.getName(), toggleCache.get(e.getName())));
-      ret.put(e.getName(), t);
+      toggles.put(e.getName(), toggleCache.get(e.getName()));
+    }
+    HTTPRequestElementDemux demux =
+        new HTTPRequestElementDemux(toggles, options.getCloudProviderRangesSnapshot());
+    PCollectionTuple routed = col.apply("demultiplex elements", demux);
+
+    HashMap<String, PCollection<Event>> ret = new HashMap<>();
+    for (String name : toggles.keySet()) {
+      ret.put(name, routed.get(demux.getTag(name)));
     }
 
     return ret;
@@ -0,0 +1,191 @@
+package com.mozilla.secops.httprequest;
+
+import com.mozilla.secops.CidrUtil;
+import com.mozilla.secops.CloudProviderRanges;
+import com.mozilla.secops.SharedResources;
+import com.mozilla.secops.parser.Event;
+import com.mozilla.secops.parser.Normalized;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
+
+/**
+ * Post-input demultiplexer for per-element analysis
+ *
+ * <p>Routes each event in a multiplexed input stream to the output associated with the element it
+ * was read for, in a single stage. Network address/CIDR based exclusion configured for an element
+ * is applied as part of routing.
+ *
+ * <p>{@link CidrUtil} instances used for exclusion are shared through {@link SharedResources} by
+ * all elements with the same exclusion configuration, and by all instances of the demultiplexer
+ * within a worker. Cloud provider ranges are consulted through {@link CloudProviderRanges}.
+ */
+public class HTTPRequestElementDemux
+    extends PTransform<PCollection<KV<String, Event>>, PCollectionTuple> {
+  private static final long serialVersionUID = 1L;
+
+  /** Namespace for element routing metrics */
+  public static final String METRICS_NAMESPACE = "HTTPRequest";
+
+  private final ArrayList<String> names = new ArrayList<>();
+  private final HashMap<String, ElementRoute> routes = new HashMap<>();
+  private final String cloudRangesSnapshot;
+
+  private static class ElementRoute implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final TupleTag<Event> tag;
+    private final int exclmask;
+    private final String cidrExclusionList;
+
+    ElementRoute(HTTPRequestToggles toggles) {
+      tag = new TupleTag<Event>() {};
+      cidrExclusionList = toggles.getCidrExclusionList();
+      int m = 0;
+      if (cidrExclusionList != null) {
+        m |= CidrUtil.CIDRUTIL_FILE;
+      }
+      if (toggles.getIgnoreCloudProviderRequests()) {
+        m |= CidrUtil.CIDRUTIL_CLOUDPROVIDERS;
+      }
+      if (toggles.getIgnoreInternalRequests()) {
+        m |= CidrUtil.CIDRUTIL_INTERNAL;
+      }
+      exclmask = m;
+    }
+
+    Boolean excludeCloudProviders() {
+      return (exclmask & CidrUtil.CIDRUTIL_CLOUDPROVIDERS) == CidrUtil.CIDRUTIL_CLOUDPROVIDERS;
+    }
+  }
+
+  private static class DemuxFn extends DoFn<KV<String, Event>, Event> {
+    private static final long serialVersionUID = 1L;
+
+    private final HashMap<String, ElementRoute> routes;
+    private final String cloudRangesSnapshot;
+    private transient ArrayList<SharedResources.Handle<CidrUtil>> cidrHandles;
+    private transient HashMap<String, CidrUtil> cidrs;
+    private transient CloudProviderRanges cloudRanges;
+    private transient HashMap<String, Counter> routed;
+    private transient HashMap<String, Counter> excluded;
+
+    DemuxFn(HashMap<String, ElementRoute> routes, String cloudRangesSnapshot) {
+      this.routes = routes;
+      this.cloudRangesSnapshot = cloudRangesSnapshot;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+      cidrHandles = new ArrayList<>();
+      cidrs = new HashMap<>();
+      routed = new HashMap<>();
+      excluded = new HashMap<>();
+      for (Map.Entry<String, ElementRoute> entry : routes.entrySet()) {
+        String name = entry.getKey();
+        if (entry.getValue().exclmask != 0) {
+          SharedResources.Handle<CidrUtil> h =
+              CidrUtil.loadShared(entry.getValue().exclmask, entry.getValue().cidrExclusionList);
+          cidrHandles.add(h);
+          cidrs.put(name, h.get());
+        }
+        if (entry.getValue().excludeCloudProviders() && cloudRanges == null) {
+          cloudRanges = CloudProviderRanges.getInstance(cloudRangesSnapshot);
+        }
+        routed.put(name, Metrics.counter(METRICS_NAMESPACE, "element_events_" + name));
+        excluded.put(name, Metrics.counter(METRICS_NAMESPACE, "element_excluded_" + name));
+      }
+    }
+
+    @Teardown
+    public void teardown() {
+      if (cidrHandles != null) {
+        for (SharedResources.Handle<CidrUtil> h : cidrHandles) {
+          h.close();
+        }
+      }
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      String name = c.element().getKey();
+      ElementRoute r = routes.get(name);
+      if (r == null) {
+        return;
+      }
+      Event e = c.element().getValue();
+      CidrUtil cu = cidrs.get(name);
+      if (cu != null) {
+        Normalized n = e.getNormalized();
+        if (n != null) {
+          String sourceAddress = n.getSourceAddress();
+          if (sourceAddress != null
+              && (cu.contains(sourceAddress)
+                  || (r.excludeCloudProviders() && cloudRanges.contains(sourceAddress)))) {
+            excluded.get(name).inc();
+            return;
+          }
+        }
+      }
+      routed.get(name).inc();
+      c.output(r.tag, e);
+    }
+  }
+
+  /**
+   * Get output tag for element
+   *
+   * @param name Element name
+   * @return TupleTag, or null if element was not configured
+   */
+  public TupleTag<Event> getTag(String name) {
+    ElementRoute r = routes.get(name);
+    if (r == null) {
+      return null;
+    }
+    return r.tag;
+  }
+
+  /**
+   * Initialize new element demultiplexer
+   *
+   * @param toggles Per-element toggles, keyed by element name
+   * @param cloudRangesSnapshot Resource path or GCS URL of cloud provider ranges snapshot used if
+   *     ranges cannot be fetched, may be null
+   */
+  public HTTPRequestElementDemux(
+      Map<String, HTTPRequestToggles> toggles, String cloudRangesSnapshot) {
+    this.cloudRangesSnapshot = cloudRangesSnapshot;
+    if (toggles.isEmpty()) {
+      throw new IllegalArgumentException("demultiplexer requires at least one element");
+    }
+    for (Map.Entry<String, HTTPRequestToggles> entry : toggles.entrySet()) {
+      names.add(entry.getKey());
+      routes.put(entry.getKey(), new ElementRoute(entry.getValue()));
+    }
+  }
+
+  @Override
+  public PCollectionTuple expand(PCollection<KV<String, Event>> col) {
+    TupleTagList additional = TupleTagList.empty();
+    for (int i = 1; i < names.size(); i++) {
+      additional = additional.and(routes.get(names.get(i)).tag);
+    }
+    return col.apply(
+        "route events to elements",
+        ParDo.of(new DemuxFn(routes, cloudRangesSnapshot))
+            .withOutputTags(routes.get(names.get(0)).tag, additional));
+  }
+}
@@ -515,7 +515,7 @@ public class HTTPRequestToggles {
    *
    * <p>Note that this filter does not apply any form of address exclusion if indicated in the
    * toggles. This must be handled outside of the event filter, typically within {@link
-   * HTTPRequestElementFilter}.
+   * HTTPRequestElementDemux}.
    *
    * @return EventFilter
    */
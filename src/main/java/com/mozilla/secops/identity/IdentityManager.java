@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mozilla.secops.CidrUtil;
 import com.mozilla.secops.GcsUtil;
+import com.mozilla.secops.SharedResources;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -22,6 +23,7 @@ public class IdentityManager {
   private Notify defaultNotification;
   private Map<String, String> namedSubnets;
   private FeatureFlags defaultFeatureFlags;
+  private volatile CidrUtil namedSubnetCidrs;
 
   /**
    * Load identity manager configuration from a resource file
@@ -46,6 +48,21 @@ public class IdentityManager {
     return mapper.readValue(in, IdentityManager.class);
   }
 
+  /**
+   * Acquire identity manager configuration shared within the JVM
+   *
+   * <p>The configuration is loaded once for each path using {@link SharedResources}, and must not
+   * be modified.
+   *
+   * @param path Path to load JSON file from, resource path or GCS URL
+   * @return Handle to shared {@link IdentityManager}
+   * @throws IOException If the configuration could not be loaded
+   */
+  public static SharedResources.Handle<IdentityManager> loadShared(String path)
+      throws IOException {
+    return SharedResources.acquire(IdentityManager.class, path, () -> load(path));
+  }
+
   /**
    * Get AWS account map
    *
@@ -132,6 +149,9 @@ public class IdentityManager {
   /**
    * Given supplied IP address, return matching named subnet
    *
+   * <p>If more than one named subnet contains the address, the name of the most specific subnet is
+   * returned.
+   *
    * @param address IP address for lookup
    * @return Named subnet, or null if no match
    */
@@ -139,12 +159,18 @@ public class IdentityManager {
     if (namedSubnets == null || address == null) {
       return null;
     }
-    for (Map.Entry<String, String> namedSubnet : namedSubnets.entrySet()) {
-      if (CidrUtil.addressInCidr(address, namedSubnet.getValue())) {
-        return namedSubnet.getKey();
+    if (namedSubnetCidrs == null) {
+      CidrUtil c = new CidrUtil();
+      for (Map.Entry<String, String> namedSubnet : namedSubnets.entrySet()) {
+        c.add(namedSubnet.getValue(), namedSubnet.getKey());
       }
+      namedSubnetCidrs = c;
     }
-    return null;
+    CidrUtil.Subnet ret = namedSubnetCidrs.lookup(address);
+    if (ret == null) {
+      return null;
+    }
+    return ret.getTag();
   }
 
   /** Create new empty {@link IdentityManager} */
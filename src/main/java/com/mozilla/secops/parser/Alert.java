@@ -26,7 +26,7 @@ public class Alert extends PayloadBase implements Serializable {
 
   @Override
   public Boolean matcher(String input, ParserState state) {
-    Map<String, Object> fields = Parser.convertJsonToMap(input);
+    Map<String, Object> fields = Parser.convertJsonToMap(input, state);
     if (fields == null) {
       return false;
     }
@@ -1,11 +1,5 @@
 package com.mozilla.secops.parser;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.google.api.client.json.JsonParser;
-import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.services.logging.v2.model.LogEntry;
 import com.mozilla.secops.identity.IdentityManager;
 import com.mozilla.secops.parser.models.auth0.LogEvent;
 import java.io.ByteArrayOutputStream;
@@ -20,8 +14,6 @@ import org.joda.time.DateTime;
 public class Auth0 extends SourcePayloadBase implements Serializable {
   private static final long serialVersionUID = 1L;
 
-  private ObjectMapper mapper;
-
   private LogEvent event;
 
   private static ArrayList<String> AuthTypes;
@@ -106,7 +98,7 @@ public class Auth0 extends SourcePayloadBase implements Serializable {
   @Override
   public Boolean matcher(String input, ParserState state) {
     try {
-      if (parseInput(input) != null) {
+      if (parseInput(input, state) != null) {
         return true;
       }
     } catch (IOException exc) {
@@ -121,9 +113,7 @@ public class Auth0 extends SourcePayloadBase implements Serializable {
   }
 
   /** Construct matcher object. */
-  public Auth0() {
-    mapper = getObjectMapper();
-  }
+  public Auth0() {}
 
   /**
    * Construct parser object.
@@ -133,9 +123,8 @@ public class Auth0 extends SourcePayloadBase implements Serializable {
    * @param state State
    */
   public Auth0(String input, Event e, ParserState state) {
-    mapper = getObjectMapper();
     try {
-      event = parseInput(input);
+      event = parseInput(input, state);
       if (event.getDate() != null) {
         e.setTimestamp(new DateTime(event.getDate().getTime()));
       }
@@ -167,30 +156,20 @@ public class Auth0 extends SourcePayloadBase implements Serializable {
     }
   }
 
-  private LogEvent parseInput(String input) throws IOException {
-    try {
-      JacksonFactory jfmatcher = new JacksonFactory();
-      JsonParser jp = jfmatcher.createJsonParser(input);
-      LogEntry entry = jp.parse(LogEntry.class);
-      Map<String, Object> m = entry.getJsonPayload();
-      if (m != null) {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        mapper.writeValue(buf, m);
-        input = buf.toString();
-      }
-    } catch (IOException exc) {
-      // pass
-    } catch (IllegalArgumentException exc) {
-      // pass
+  private LogEvent parseInput(String input, ParserState state) throws IOException {
+    Map<String, Object> m = state.getLogEntryJsonPayload(input);
+    LogEvent _event;
+    if (m != null) {
+      // Unwrap the json payload within the log entry into a string that can then be parsed
+      // by ObjectMapper
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      JacksonRegistry.lenientWriter().writeValue(buf, m);
+      _event = JacksonRegistry.auth0LogEventReader().readValue(buf.toString());
+    } else {
+      _event = state.readInput(JacksonRegistry.auth0LogEventReader(), input);
     }
-
-    try {
-      LogEvent _event = mapper.readValue(input, LogEvent.class);
-      if (_event.getClientId() != null) {
-        return _event;
-      }
-    } catch (IOException exc) {
-      throw exc;
+    if (_event != null && _event.getClientId() != null) {
+      return _event;
     }
 
     return null;
@@ -235,15 +214,6 @@ public class Auth0 extends SourcePayloadBase implements Serializable {
     return false;
   }
 
-  private ObjectMapper getObjectMapper() {
-    ObjectMapper _mapper = new ObjectMapper();
-    // Auth0 is known to add new fields
-    _mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-    // Allows for null values in the JsonPayload in a LogEntry when mapping to a Map<String, Object>
-    _mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-    return _mapper;
-  }
-
   /**
    * Return true if Auth0 event's client id is in the passed in list of client ids
    *
@@ -15,7 +15,7 @@ public class CfgTick extends PayloadBase implements Serializable {
 
   @Override
   public Boolean matcher(String input, ParserState state) {
-    Map<String, Object> fields = Parser.convertJsonToMap(input);
+    Map<String, Object> fields = Parser.convertJsonToMap(input, state);
     if (fields == null) {
       return false;
     }
@@ -114,7 +114,7 @@ public class CfgTick extends PayloadBase implements Serializable {
    * @param state State
    */
   public CfgTick(String input, Event e, ParserState state) {
-    Map<String, Object> fields = Parser.convertJsonToMap(input);
+    Map<String, Object> fields = Parser.convertJsonToMap(input, state);
     if (fields == null) {
       return;
     }
@@ -1,11 +1,5 @@
 package com.mozilla.secops.parser;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.google.api.client.json.JsonParser;
-import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.services.logging.v2.model.LogEntry;
 import com.mozilla.secops.identity.IdentityManager;
 import com.mozilla.secops.parser.models.cloudtrail.CloudtrailEvent;
 import com.mozilla.secops.parser.models.cloudtrail.UserIdentity;
@@ -20,14 +14,12 @@ import org.joda.time.DateTime;
 public class Cloudtrail extends SourcePayloadBase implements Serializable {
   private static final long serialVersionUID = 1L;
 
-  private ObjectMapper mapper;
-
   private CloudtrailEvent event;
 
   @Override
   public Boolean matcher(String input, ParserState state) {
     try {
-      if (parseInput(input) != null) {
+      if (parseInput(input, state) != null) {
         return true;
       }
     } catch (IOException exc) {
@@ -42,9 +34,7 @@ public class Cloudtrail extends SourcePayloadBase implements Serializable {
   }
 
   /** Construct matcher object. */
-  public Cloudtrail() {
-    mapper = getObjectMapper();
-  }
+  public Cloudtrail() {}
 
   /**
    * Construct parser object.
@@ -54,9 +44,8 @@ public class Cloudtrail extends SourcePayloadBase implements Serializable {
    * @param state State
    */
   public Cloudtrail(String input, Event e, ParserState state) {
-    mapper = getObjectMapper();
     try {
-      event = parseInput(input);
+      event = parseInput(input, state);
       if (event.getEventTime() != null) {
         DateTime t = Parser.parseISO8601(event.getEventTime());
         if (t != null) {
@@ -96,46 +85,25 @@ public class Cloudtrail extends SourcePayloadBase implements Serializable {
     }
   }
 
-  private CloudtrailEvent parseInput(String input) throws IOException {
-    try {
-      JacksonFactory jfmatcher = new JacksonFactory();
-      JsonParser jp = jfmatcher.createJsonParser(input);
-      LogEntry entry = jp.parse(LogEntry.class);
-      Map<String, Object> m = entry.getJsonPayload();
-      if (m != null) {
-        // XXX Unwrap the json payload within the log entry into a string
-        // that can then be parsed by ObjectMapper into CloudtrailEvent. This
-        // should probably be done within Parser.
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        mapper.writeValue(buf, m);
-        input = buf.toString();
-      }
-    } catch (IOException exc) {
-      // pass
-    } catch (IllegalArgumentException exc) {
-      // pass
+  private CloudtrailEvent parseInput(String input, ParserState state) throws IOException {
+    Map<String, Object> m = state.getLogEntryJsonPayload(input);
+    CloudtrailEvent _event;
+    if (m != null) {
+      // Unwrap the json payload within the log entry into a string that can then be parsed
+      // by ObjectMapper
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      JacksonRegistry.lenientWriter().writeValue(buf, m);
+      _event = JacksonRegistry.cloudtrailEventReader().readValue(buf.toString());
+    } else {
+      _event = state.readInput(JacksonRegistry.cloudtrailEventReader(), input);
     }
-
-    try {
-      CloudtrailEvent _event = mapper.readValue(input, CloudtrailEvent.class);
-      if (_event.getEventVersion() != null) {
-        return _event;
-      }
-    } catch (IOException exc) {
-      throw exc;
+    if (_event != null && _event.getEventVersion() != null) {
+      return _event;
     }
 
     return null;
   }
 
-  private ObjectMapper getObjectMapper() {
-    ObjectMapper _mapper = new ObjectMapper();
-    _mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-    // Allows for null values in the JsonPayload in a LogEntry when mapping to a Map<String, Object>
-    _mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-    return _mapper;
-  }
-
   /**
    * Get username
    *
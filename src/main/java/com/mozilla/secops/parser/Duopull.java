@@ -1,7 +1,6 @@
 package com.mozilla.secops.parser;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mozilla.secops.identity.IdentityManager;
 import java.io.IOException;
 import java.io.Serializable;
@@ -23,10 +22,9 @@ public class Duopull extends SourcePayloadBase implements Serializable {
 
   @Override
   public Boolean matcher(String input, ParserState state) {
-    ObjectMapper mapper = new ObjectMapper();
     com.mozilla.secops.parser.models.duopull.Duopull d;
     try {
-      d = mapper.readValue(input, com.mozilla.secops.parser.models.duopull.Duopull.class);
+      d = state.readInput(JacksonRegistry.duopullReader(), input);
     } catch (IOException exc) {
       return false;
     }
@@ -73,9 +71,8 @@ public class Duopull extends SourcePayloadBase implements Serializable {
    * @param state State
    */
   public Duopull(String input, Event e, ParserState state) {
-    ObjectMapper mapper = new ObjectMapper();
     try {
-      duoPullData = mapper.readValue(input, com.mozilla.secops.parser.models.duopull.Duopull.class);
+      duoPullData = state.readInput(JacksonRegistry.duopullReader(), input);
       if (duoPullData.getEventTimestamp() != null) {
         e.setTimestamp(new DateTime(duoPullData.getEventTimestamp() * 1000));
       }
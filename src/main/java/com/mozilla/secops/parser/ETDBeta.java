@@ -1,6 +1,5 @@
 package com.mozilla.secops.parser;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.services.logging.v2.model.LogEntry;
 import com.mozilla.secops.parser.models.etd.EventThreatDetectionFinding;
 import java.io.IOException;
@@ -14,8 +13,6 @@ public class ETDBeta extends PayloadBase implements Serializable {
   /** StackDriver log resource type for an ETD Finding */
   public static final String STACKDRIVER_LOG_RESOURCE_TYPE = "threat_detector";
 
-  private static ObjectMapper mapper = new ObjectMapper();
-
   private EventThreatDetectionFinding etdf;
 
   @Override
@@ -29,7 +26,8 @@ public class ETDBeta extends PayloadBase implements Serializable {
     //
     // It is included as an effort to maintain consistent behavior across the parsers
     try {
-      EventThreatDetectionFinding f = mapper.readValue(input, EventThreatDetectionFinding.class);
+      EventThreatDetectionFinding f =
+          state.readInput(JacksonRegistry.etdFindingReader(), input);
       return ((f != null) && (f.getDetectionPriority() != null) && (f.getEventTime() != null));
     } catch (IOException exc) {
       return false;
@@ -66,10 +64,8 @@ public class ETDBeta extends PayloadBase implements Serializable {
     try {
       LogEntry entry = s.getLogEntryHint();
       if ((entry != null) && (entry.getJsonPayload() != null)) {
-        etdf =
-            mapper.readValue(
-                mapper.writeValueAsString(entry.getJsonPayload()),
-                EventThreatDetectionFinding.class);
+        String buf = JacksonRegistry.defaultWriter().writeValueAsString(entry.getJsonPayload());
+        etdf = JacksonRegistry.etdFindingReader().readValue(buf);
         return;
       }
     } catch (IOException exc) {
@@ -78,7 +74,7 @@ public class ETDBeta extends PayloadBase implements Serializable {
 
     // try to parse raw input
     try {
-      etdf = mapper.readValue(input, EventThreatDetectionFinding.class);
+      etdf = s.readInput(JacksonRegistry.etdFindingReader(), input);
       return;
     } catch (IOException exc) {
       // pass
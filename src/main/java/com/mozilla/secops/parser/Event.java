@@ -1,17 +1,14 @@
 package com.mozilla.secops.parser;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.joda.JodaModule;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import org.apache.beam.sdk.coders.DefaultCoder;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
@@ -22,7 +19,10 @@ import org.joda.time.DateTimeZone;
  * which contains information related to a specific type of event.
  *
  * <p>Specific parser implementations may also add {@link Normalized} data fields to the event.
+ *
+ * <p>Events are encoded in pipelines using {@link EventCoder}.
  */
+@DefaultCoder(EventCoder.class)
 public class Event implements Serializable {
   private static final long serialVersionUID = 1L;
 
@@ -40,7 +40,18 @@ public class Event implements Serializable {
    * <p>The default timestamp associated with the event is the current time.
    */
   Event() {
-    eventId = UUID.randomUUID();
+    this(UUID.randomUUID());
+  }
+
+  /**
+   * Create a new {@link Event} object with an existing event ID
+   *
+   * <p>Used by {@link EventCoder} when reconstructing an event.
+   *
+   * @param eventId Event ID
+   */
+  Event(UUID eventId) {
+    this.eventId = eventId;
     normalized = new Normalized();
 
     // Default the event timestamp to creation time
@@ -81,6 +92,15 @@ public class Event implements Serializable {
     return (T) payload.getData();
   }
 
+  /**
+   * Test if a payload has been set in the event
+   *
+   * @return True if the event has a payload
+   */
+  Boolean hasPayload() {
+    return payload != null;
+  }
+
   /**
    * Return the type of payload data associated with this event.
    *
@@ -220,24 +240,14 @@ public class Event implements Serializable {
     return normalized;
   }
 
-  private static ObjectMapper getObjectMapper() {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.registerModule(new JodaModule());
-    mapper.configure(
-        com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-    mapper.setSerializationInclusion(Include.NON_NULL);
-    return mapper;
-  }
-
   /**
    * Convert event into JSON string representation
    *
    * @return JSON string, null on failure
    */
   public String toJSON() {
-    ObjectMapper mapper = getObjectMapper();
     try {
-      return mapper.writeValueAsString(this);
+      return JacksonRegistry.jodaWriter().writeValueAsString(this);
     } catch (JsonProcessingException exc) {
       return null;
     }
@@ -250,9 +260,8 @@ public class Event implements Serializable {
    * @return Event object or null on failure
    */
   public static Event fromJSON(String input) {
-    ObjectMapper mapper = getObjectMapper();
     try {
-      return mapper.readValue(input, Event.class);
+      return JacksonRegistry.eventReader().readValue(input);
     } catch (IOException exc) {
       return null;
     }
@@ -265,10 +274,8 @@ public class Event implements Serializable {
    * @return Iterable list of events, or null on failure
    */
   public static Iterable<Event> jsonToIterable(String input) {
-    ObjectMapper mapper = getObjectMapper();
     try {
-      return mapper.readValue(
-          input, mapper.getTypeFactory().constructCollectionType(ArrayList.class, Event.class));
+      return JacksonRegistry.eventListReader().readValue(input);
     } catch (IOException exc) {
       return null;
     }
@@ -281,9 +288,8 @@ public class Event implements Serializable {
    * @return JSON string, null on failure
    */
   public static String iterableToJson(Iterable<Event> input) {
-    ObjectMapper mapper = getObjectMapper();
     try {
-      return mapper.writeValueAsString(input);
+      return JacksonRegistry.jodaWriter().writeValueAsString(input);
     } catch (JsonProcessingException exc) {
       return null;
     }
@@ -0,0 +1,400 @@
+package com.mozilla.secops.parser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.util.VarInt;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Compact Beam coder for {@link Event}
+ *
+ * <p>Events are encoded using a versioned binary layout rather than Java serialization. Timestamps
+ * are written as epoch milliseconds with a zone identifier, normalized fields are written as a
+ * presence bitmask followed by only the fields that are set, and integers use variable length
+ * encoding.
+ *
+ * <p>Strings are written through a per-element string table, so a value that appears more than
+ * once in an event (for example a source address present in both the payload and the normalized
+ * fields) is only written once and subsequently referenced by index.
+ *
+ * <p>Payloads are encoded using a sub-coder selected by {@link Payload.PayloadType}. Payload types
+ * that do not have a dedicated sub-coder fall back to Java serialization.
+ */
+public class EventCoder extends CustomCoder<Event> {
+  private static final long serialVersionUID = 1L;
+
+  /** Current encoding version */
+  public static final int VERSION = 1;
+
+  private static final EventCoder INSTANCE = new EventCoder();
+
+  private static final Coder<PayloadBase> fallbackPayloadCoder =
+      SerializableCoder.of(PayloadBase.class);
+  private static final Coder<Mozlog> mozlogCoder = SerializableCoder.of(Mozlog.class);
+
+  // Event level presence flags
+  private static final int F_PAYLOAD = 1;
+  private static final int F_MOZLOG = 1 << 1;
+  private static final int F_SDPROJECT = 1 << 2;
+  private static final int F_SDLABELS = 1 << 3;
+  private static final int F_TIMESTAMP = 1 << 4;
+
+  // Normalized field presence flags
+  private static final int N_SUBJECTUSER = 1;
+  private static final int N_SOURCEADDRESS = 1 << 1;
+  private static final int N_SOURCEADDRESSCITY = 1 << 2;
+  private static final int N_SOURCEADDRESSCOUNTRY = 1 << 3;
+  private static final int N_SOURCEADDRESSLATITUDE = 1 << 4;
+  private static final int N_SOURCEADDRESSLONGITUDE = 1 << 5;
+  private static final int N_OBJECT = 1 << 6;
+  private static final int N_REQUESTMETHOD = 1 << 7;
+  private static final int N_REQUESTURL = 1 << 8;
+  private static final int N_URLREQUESTPATH = 1 << 9;
+  private static final int N_URLREQUESTHOST = 1 << 10;
+  private static final int N_REQUESTSTATUS = 1 << 11;
+  private static final int N_USERAGENT = 1 << 12;
+  private static final int N_SUBJECTUSERIDENTITY = 1 << 13;
+
+  /**
+   * Return an {@link EventCoder}
+   *
+   * @return EventCoder
+   */
+  public static EventCoder of() {
+    return INSTANCE;
+  }
+
+  /**
+   * Per-element string table used to deduplicate repeated string values
+   *
+   * <p>On the wire a string is written as a varint tag; 0 indicates null, 1 indicates a literal
+   * follows (length prefixed UTF-8), and any other value is a reference to a previously written
+   * literal.
+   */
+  private static class StringTable {
+    private final HashMap<String, Integer> written = new HashMap<>();
+    private final ArrayList<String> read = new ArrayList<>();
+
+    void write(String value, DataOutputStream out) throws IOException {
+      if (value == null) {
+        VarInt.encode(0, out);
+        return;
+      }
+      Integer idx = written.get(value);
+      if (idx != null) {
+        VarInt.encode(idx + 2, out);
+        return;
+      }
+      written.put(value, written.size());
+      byte[] buf = value.getBytes(StandardCharsets.UTF_8);
+      VarInt.encode(1, out);
+      VarInt.encode(buf.length, out);
+      out.write(buf);
+    }
+
+    String read(DataInputStream in) throws IOException {
+      int tag = VarInt.decodeInt(in);
+      if (tag == 0) {
+        return null;
+      } else if (tag == 1) {
+        byte[] buf = new byte[VarInt.decodeInt(in)];
+        in.readFully(buf);
+        String ret = new String(buf, StandardCharsets.UTF_8);
+        read.add(ret);
+        return ret;
+      }
+      int idx = tag - 2;
+      if (idx >= read.size()) {
+        throw new CoderException("invalid string table reference");
+      }
+      return read.get(idx);
+    }
+  }
+
+  private static void writeNullableInt(Integer value, DataOutputStream out) throws IOException {
+    if (value == null) {
+      out.writeBoolean(false);
+      return;
+    }
+    out.writeBoolean(true);
+    VarInt.encode(value, out);
+  }
+
+  private static Integer readNullableInt(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    return VarInt.decodeInt(in);
+  }
+
+  private static void encodeNormalized(Normalized n, StringTable st, DataOutputStream out)
+      throws IOException {
+    int types = 0;
+    for (Normalized.Type t : Normalized.Type.values()) {
+      if (n.isOfType(t)) {
+        types |= 1 << t.ordinal();
+      }
+    }
+    VarInt.encode(types, out);
+
+    int flags = 0;
+    flags |= n.getSubjectUser() != null ? N_SUBJECTUSER : 0;
+    flags |= n.getSourceAddress() != null ? N_SOURCEADDRESS : 0;
+    flags |= n.getSourceAddressCity() != null ? N_SOURCEADDRESSCITY : 0;
+    flags |= n.getSourceAddressCountry() != null ? N_SOURCEADDRESSCOUNTRY : 0;
+    flags |= n.getSourceAddressLatitude() != null ? N_SOURCEADDRESSLATITUDE : 0;
+    flags |= n.getSourceAddressLongitude() != null ? N_SOURCEADDRESSLONGITUDE : 0;
+    flags |= n.getObject() != null ? N_OBJECT : 0;
+    flags |= n.getRequestMethod() != null ? N_REQUESTMETHOD : 0;
+    flags |= n.getRequestUrl() != null ? N_REQUESTURL : 0;
+    flags |= n.getUrlRequestPath() != null ? N_URLREQUESTPATH : 0;
+    flags |= n.getUrlRequestHost() != null ? N_URLREQUESTHOST : 0;
+    flags |= n.getRequestStatus() != null ? N_REQUESTSTATUS : 0;
+    flags |= n.getUserAgent() != null ? N_USERAGENT : 0;
+    flags |= n.getSubjectUserIdentity() != null ? N_SUBJECTUSERIDENTITY : 0;
+    VarInt.encode(flags, out);
+
+    if ((flags & N_SUBJECTUSER) != 0) {
+      st.write(n.getSubjectUser(), out);
+    }
+    if ((flags & N_SOURCEADDRESS) != 0) {
+      st.write(n.getSourceAddress(), out);
+    }
+    if ((flags & N_SOURCEADDRESSCITY) != 0) {
+      st.write(n.getSourceAddressCity(), out);
+    }
+    if ((flags & N_SOURCEADDRESSCOUNTRY) != 0) {
+      st.write(n.getSourceAddressCountry(), out);
+    }
+    if ((flags & N_SOURCEADDRESSLATITUDE) != 0) {
+      out.writeDouble(n.getSourceAddressLatitude());
+    }
+    if ((flags & N_SOURCEADDRESSLONGITUDE) != 0) {
+      out.writeDouble(n.getSourceAddressLongitude());
+    }
+    if ((flags & N_OBJECT) != 0) {
+      st.write(n.getObject(), out);
+    }
+    if ((flags & N_REQUESTMETHOD) != 0) {
+      st.write(n.getRequestMethod(), out);
+    }
+    if ((flags & N_REQUESTURL) != 0) {
+      st.write(n.getRequestUrl(), out);
+    }
+    if ((flags & N_URLREQUESTPATH) != 0) {
+      st.write(n.getUrlRequestPath(), out);
+    }
+    if ((flags & N_URLREQUESTHOST) != 0) {
+      st.write(n.getUrlRequestHost(), out);
+    }
+    if ((flags & N_REQUESTSTATUS) != 0) {
+      VarInt.encode(n.getRequestStatus(), out);
+    }
+    if ((flags & N_USERAGENT) != 0) {
+      st.write(n.getUserAgent(), out);
+    }
+    if ((flags & N_SUBJECTUSERIDENTITY) != 0) {
+      st.write(n.getSubjectUserIdentity(), out);
+    }
+  }
+
+  private static void decodeNormalized(Normalized n, StringTable st, DataInputStream in)
+      throws IOException {
+    int types = VarInt.decodeInt(in);
+    for (Normalized.Type t : Normalized.Type.values()) {
+      if ((types & (1 << t.ordinal())) != 0) {
+        n.addType(t);
+      }
+    }
+
+    int flags = VarInt.decodeInt(in);
+    if ((flags & N_SUBJECTUSER) != 0) {
+      n.setSubjectUser(st.read(in));
+    }
+    if ((flags & N_SOURCEADDRESS) != 0) {
+      n.setSourceAddress(st.read(in));
+    }
+    if ((flags & N_SOURCEADDRESSCITY) != 0) {
+      n.setSourceAddressCity(st.read(in));
+    }
+    if ((flags & N_SOURCEADDRESSCOUNTRY) != 0) {
+      n.setSourceAddressCountry(st.read(in));
+    }
+    if ((flags & N_SOURCEADDRESSLATITUDE) != 0) {
+      n.setSourceAddressLatitude(in.readDouble());
+    }
+    if ((flags & N_SOURCEADDRESSLONGITUDE) != 0) {
+      n.setSourceAddressLongitude(in.readDouble());
+    }
+    if ((flags & N_OBJECT) != 0) {
+      n.setObject(st.read(in));
+    }
+    if ((flags & N_REQUESTMETHOD) != 0) {
+      n.setRequestMethod(st.read(in));
+    }
+    if ((flags & N_REQUESTURL) != 0) {
+      n.setRequestUrl(st.read(in));
+    }
+    if ((flags & N_URLREQUESTPATH) != 0) {
+      n.setUrlRequestPath(st.read(in));
+    }
+    if ((flags & N_URLREQUESTHOST) != 0) {
+      n.setUrlRequestHost(st.read(in));
+    }
+    if ((flags & N_REQUESTSTATUS) != 0) {
+      n.setRequestStatus(VarInt.decodeInt(in));
+    }
+    if ((flags & N_USERAGENT) != 0) {
+      n.setUserAgent(st.read(in));
+    }
+    if ((flags & N_SUBJECTUSERIDENTITY) != 0) {
+      n.setSubjectUserIdentity(st.read(in));
+    }
+  }
+
+  private static void encodePayload(PayloadBase p, StringTable st, DataOutputStream out)
+      throws IOException {
+    switch (p.getType()) {
+      case GLB:
+        GLB g = (GLB) p;
+        st.write(g.getRequestMethod(), out);
+        st.write(g.getUserAgent(), out);
+        st.write(g.getRequestUrl(), out);
+        st.write(g.getSourceAddress(), out);
+        writeNullableInt(g.getStatus(), out);
+        return;
+      case RAW:
+        st.write(((Raw) p).getRaw(), out);
+        return;
+      default:
+        fallbackPayloadCoder.encode(p, out);
+    }
+  }
+
+  private static PayloadBase decodePayload(
+      Payload.PayloadType type, StringTable st, DataInputStream in) throws IOException {
+    switch (type) {
+      case GLB:
+        String requestMethod = st.read(in);
+        String userAgent = st.read(in);
+        String requestUrl = st.read(in);
+        String sourceAddress = st.read(in);
+        return new GLB(requestMethod, userAgent, requestUrl, sourceAddress, readNullableInt(in));
+      case RAW:
+        return new Raw(st.read(in));
+      default:
+        return fallbackPayloadCoder.decode(in);
+    }
+  }
+
+  @Override
+  public void encode(Event value, OutputStream outStream) throws IOException {
+    if (value == null) {
+      throw new CoderException("cannot encode null event");
+    }
+    DataOutputStream out = new DataOutputStream(outStream);
+    StringTable st = new StringTable();
+
+    VarInt.encode(VERSION, out);
+    out.writeLong(value.getEventId().getMostSignificantBits());
+    out.writeLong(value.getEventId().getLeastSignificantBits());
+
+    int flags = 0;
+    flags |= value.hasPayload() ? F_PAYLOAD : 0;
+    flags |= value.getMozlog() != null ? F_MOZLOG : 0;
+    flags |= value.getStackdriverProject() != null ? F_SDPROJECT : 0;
+    flags |= value.getStackdriverLabels() != null ? F_SDLABELS : 0;
+    flags |= value.getTimestamp() != null ? F_TIMESTAMP : 0;
+    VarInt.encode(flags, out);
+
+    if ((flags & F_TIMESTAMP) != 0) {
+      VarInt.encode(value.getTimestamp().getMillis(), out);
+      st.write(value.getTimestamp().getZone().getID(), out);
+    }
+    encodeNormalized(value.getNormalized(), st, out);
+    if ((flags & F_SDPROJECT) != 0) {
+      st.write(value.getStackdriverProject(), out);
+    }
+    if ((flags & F_SDLABELS) != 0) {
+      Map<String, String> labels = value.getStackdriverLabels();
+      VarInt.encode(labels.size(), out);
+      for (Map.Entry<String, String> entry : labels.entrySet()) {
+        st.write(entry.getKey(), out);
+        st.write(entry.getValue(), out);
+      }
+    }
+    if ((flags & F_PAYLOAD) != 0) {
+      PayloadBase p = value.getPayload();
+      VarInt.encode(p.getType().ordinal(), out);
+      encodePayload(p, st, out);
+    }
+    if ((flags & F_MOZLOG) != 0) {
+      mozlogCoder.encode(value.getMozlog(), out);
+    }
+    out.flush();
+  }
+
+  @Override
+  public Event decode(InputStream inStream) throws IOException {
+    DataInputStream in = new DataInputStream(inStream);
+    StringTable st = new StringTable();
+
+    int version = VarInt.decodeInt(in);
+    if (version != VERSION) {
+      throw new CoderException(String.format("unsupported event encoding version %d", version));
+    }
+    long msb = in.readLong();
+    long lsb = in.readLong();
+    Event ret = new Event(new UUID(msb, lsb));
+
+    int flags = VarInt.decodeInt(in);
+
+    DateTime timestamp = null;
+    if ((flags & F_TIMESTAMP) != 0) {
+      long millis = VarInt.decodeLong(in);
+      timestamp = new DateTime(millis, DateTimeZone.forID(st.read(in)));
+    }
+    decodeNormalized(ret.getNormalized(), st, in);
+    if ((flags & F_SDPROJECT) != 0) {
+      ret.setStackdriverProject(st.read(in));
+    }
+    if ((flags & F_SDLABELS) != 0) {
+      int cnt = VarInt.decodeInt(in);
+      HashMap<String, String> labels = new HashMap<>();
+      for (int i = 0; i < cnt; i++) {
+        String k = st.read(in);
+        labels.put(k, st.read(in));
+      }
+      ret.setStackdriverLabels(labels);
+    }
+    if ((flags & F_PAYLOAD) != 0) {
+      int ordinal = VarInt.decodeInt(in);
+      Payload.PayloadType[] types = Payload.PayloadType.values();
+      if (ordinal >= types.length) {
+        throw new CoderException("invalid payload type in encoded event");
+      }
+      ret.setPayload(decodePayload(types[ordinal], st, in));
+    }
+    if ((flags & F_MOZLOG) != 0) {
+      ret.setMozlog(mozlogCoder.decode(in));
+    }
+    // Restore the timestamp last, as setting the mozlog value above may have modified it
+    ret.setTimestamp(timestamp);
+    return ret;
+  }
+
+  private EventCoder() {}
+}
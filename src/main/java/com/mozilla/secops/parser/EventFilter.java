@@ -6,12 +6,21 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.values.PCollection;
 
-/** Event filtering and matching */
+/**
+ * Event filtering and matching
+ *
+ * <p>The first time a filter is used for matching, its rules are indexed by the payload type or
+ * normalized event type they require, so rules that cannot apply to an event are not evaluated. The
+ * index is rebuilt if rules are added using the filter's own methods, but rules should not be
+ * modified once the filter is in use.
+ */
 @JsonInclude(Include.NON_NULL)
 public class EventFilter implements Serializable {
   private static final long serialVersionUID = 1L;
@@ -20,6 +29,67 @@ public class EventFilter implements Serializable {
 
   private Boolean wantUTC;
   private Boolean matchAny; // If true, match on any input event
+  private transient volatile RuleIndex index;
+
+  /** Filter rules indexed by the type of event they can match */
+  private static class RuleIndex {
+    private final EnumMap<Payload.PayloadType, EventFilterRule[]> bySubtype;
+    private final EnumMap<Normalized.Type, EventFilterRule[]> byNormalizedType;
+    private final EventFilterRule[] other;
+
+    RuleIndex(ArrayList<EventFilterRule> rules) {
+      EnumMap<Payload.PayloadType, ArrayList<EventFilterRule>> s =
+          new EnumMap<>(Payload.PayloadType.class);
+      EnumMap<Normalized.Type, ArrayList<EventFilterRule>> n = new EnumMap<>(Normalized.Type.class);
+      ArrayList<EventFilterRule> o = new ArrayList<>();
+      // Each rule is placed in exactly one list, keyed on the most selective type it requires
+      for (EventFilterRule r : rules) {
+        if (r.getWantSubtype() != null) {
+          s.computeIfAbsent(r.getWantSubtype(), k -> new ArrayList<>()).add(r);
+        } else if (r.getWantNormalizedType() != null) {
+          n.computeIfAbsent(r.getWantNormalizedType(), k -> new ArrayList<>()).add(r);
+        } else {
+          o.add(r);
+        }
+      }
+      bySubtype = new EnumMap<>(Payload.PayloadType.class);
+      for (Map.Entry<Payload.PayloadType, ArrayList<EventFilterRule>> entry : s.entrySet()) {
+        bySubtype.put(entry.getKey(), entry.getValue().toArray(new EventFilterRule[0]));
+      }
+      byNormalizedType = new EnumMap<>(Normalized.Type.class);
+      for (Map.Entry<Normalized.Type, ArrayList<EventFilterRule>> entry : n.entrySet()) {
+        byNormalizedType.put(entry.getKey(), entry.getValue().toArray(new EventFilterRule[0]));
+      }
+      other = o.toArray(new EventFilterRule[0]);
+    }
+
+    private static Boolean anyMatches(EventFilterRule[] rules, Event e) {
+      for (EventFilterRule r : rules) {
+        if (r.matches(e)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    Boolean matches(Event e) {
+      EventFilterRule[] rules = bySubtype.get(e.getPayloadType());
+      if (rules != null && anyMatches(rules, e)) {
+        return true;
+      }
+      if (!byNormalizedType.isEmpty()) {
+        Normalized n = e.getNormalized();
+        if (n != null) {
+          for (Map.Entry<Normalized.Type, EventFilterRule[]> entry : byNormalizedType.entrySet()) {
+            if (n.isOfType(entry.getKey()) && anyMatches(entry.getValue(), e)) {
+              return true;
+            }
+          }
+        }
+      }
+      return anyMatches(other, e);
+    }
+  }
 
   /**
    * Configure filter to pass configuration ticks
@@ -79,12 +149,12 @@ public class EventFilter implements Serializable {
         return false;
       }
     }
-    for (EventFilterRule r : rules) {
-      if (r.matches(e)) {
-        return true;
-      }
+    RuleIndex i = index;
+    if (i == null) {
+      i = new RuleIndex(rules);
+      index = i;
     }
-    return false;
+    return i.matches(e);
   }
 
   /**
@@ -94,6 +164,7 @@ public class EventFilter implements Serializable {
    */
   public void addRule(EventFilterRule rule) {
     rules.add(rule);
+    index = null;
   }
 
   /**
@@ -104,6 +175,7 @@ public class EventFilter implements Serializable {
   @JsonProperty("rules")
   public void setRules(ArrayList<EventFilterRule> rules) {
     this.rules = rules;
+    index = null;
   }
 
   /**
@@ -6,13 +6,19 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
-/** Can be associated with {@link EventFilterRule} for payload matching */
+/**
+ * Can be associated with {@link EventFilterRule} for payload matching
+ *
+ * <p>The configured matchers are compiled into a flat form the first time the filter is used, and
+ * compiled again if the filter is subsequently modified using its own methods. Maps returned by the
+ * getters should not be modified directly once the filter is in use.
+ */
 @JsonInclude(Include.NON_EMPTY)
 @JsonDeserialize(as = EventFilterPayload.class)
 public class EventFilterPayload implements EventFilterPayloadInterface, Serializable {
@@ -71,88 +77,136 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
   private Map<StringProperty, Pattern> stringRegexMatchers;
   private Map<IntegerProperty, Integer> integerMatchers;
   private Map<IntegerProperty, EventFilterPayloadRange<Integer>> integerRangeMatchers;
+  private transient volatile Compiled compiled;
 
   /**
-   * Return true if payload criteria matches
+   * Flattened form of the configured matchers
    *
-   * @param e Input event
-   * @return True on match
+   * <p>Whether each property is read from the normalized fields or the payload is resolved when the
+   * matchers are compiled, and cheaper comparisons are ordered before regular expressions.
    */
-  public Boolean matches(Event e) {
-    if (ptype != null && !(ptype.isInstance(e.getPayload()))) {
-      return false;
-    }
-    for (Map.Entry<StringProperty, String> entry : stringMatchers.entrySet()) {
-      String value = null;
-      if (entry.getKey().name().startsWith("NORMALIZED_")) {
-        Normalized n = e.getNormalized();
-        if (n != null) {
-          value = n.eventStringValue(entry.getKey());
-        }
-      } else {
-        value = e.getPayload().eventStringValue(entry.getKey());
+  private static class Compiled {
+    private final StringProperty[] stringProps;
+    private final boolean[] stringNormalized;
+    private final String[] stringValues;
+    private final IntegerProperty[] integerProps;
+    private final boolean[] integerNormalized;
+    private final Integer[] integerValues;
+    private final IntegerProperty[] rangeProps;
+    private final boolean[] rangeNormalized;
+    private final ArrayList<EventFilterPayloadRange<Integer>> ranges;
+    private final StringProperty[] regexProps;
+    private final boolean[] regexNormalized;
+    private final Pattern[] regexes;
+
+    Compiled(EventFilterPayload f) {
+      int i = 0;
+      stringProps = new StringProperty[f.stringMatchers.size()];
+      stringNormalized = new boolean[stringProps.length];
+      stringValues = new String[stringProps.length];
+      for (Map.Entry<StringProperty, String> entry : f.stringMatchers.entrySet()) {
+        stringProps[i] = entry.getKey();
+        stringNormalized[i] = isNormalized(entry.getKey());
+        stringValues[i++] = entry.getValue();
+      }
+
+      i = 0;
+      integerProps = new IntegerProperty[f.integerMatchers.size()];
+      integerNormalized = new boolean[integerProps.length];
+      integerValues = new Integer[integerProps.length];
+      for (Map.Entry<IntegerProperty, Integer> entry : f.integerMatchers.entrySet()) {
+        integerProps[i] = entry.getKey();
+        integerNormalized[i] = isNormalized(entry.getKey());
+        integerValues[i++] = entry.getValue();
       }
-      if (value == null) {
-        return false;
+
+      i = 0;
+      rangeProps = new IntegerProperty[f.integerRangeMatchers.size()];
+      rangeNormalized = new boolean[rangeProps.length];
+      ranges = new ArrayList<>();
+      for (Map.Entry<IntegerProperty, EventFilterPayloadRange<Integer>> entry :
+          f.integerRangeMatchers.entrySet()) {
+        rangeProps[i] = entry.getKey();
+        rangeNormalized[i++] = isNormalized(entry.getKey());
+        ranges.add(entry.getValue());
       }
-      if (!(value.equals(entry.getValue()))) {
-        return false;
+
+      i = 0;
+      regexProps = new StringProperty[f.stringRegexMatchers.size()];
+      regexNormalized = new boolean[regexProps.length];
+      regexes = new Pattern[regexProps.length];
+      for (Map.Entry<StringProperty, Pattern> entry : f.stringRegexMatchers.entrySet()) {
+        regexProps[i] = entry.getKey();
+        regexNormalized[i] = isNormalized(entry.getKey());
+        regexes[i++] = entry.getValue();
       }
     }
-    for (Map.Entry<StringProperty, Pattern> entry : stringRegexMatchers.entrySet()) {
-      String value = null;
-      if (entry.getKey().name().startsWith("NORMALIZED_")) {
+
+    private static boolean isNormalized(Enum<?> property) {
+      return property.name().startsWith("NORMALIZED_");
+    }
+
+    private static String stringValue(Event e, StringProperty property, boolean normalized) {
+      if (normalized) {
         Normalized n = e.getNormalized();
-        if (n != null) {
-          value = n.eventStringValue(entry.getKey());
-        }
-      } else {
-        value = e.getPayload().eventStringValue(entry.getKey());
-      }
-      if (value == null) {
-        return false;
-      }
-      Matcher mat = entry.getValue().matcher(value);
-      if (!(mat.matches())) {
-        return false;
+        return n != null ? n.eventStringValue(property) : null;
       }
+      return e.getPayload().eventStringValue(property);
     }
-    for (Map.Entry<IntegerProperty, Integer> entry : integerMatchers.entrySet()) {
-      Integer value = null;
-      if (entry.getKey().name().startsWith("NORMALIZED_")) {
+
+    private static Integer integerValue(Event e, IntegerProperty property, boolean normalized) {
+      if (normalized) {
         Normalized n = e.getNormalized();
-        if (n != null) {
-          value = n.eventIntegerValue(entry.getKey());
-        }
-      } else {
-        value = e.getPayload().eventIntegerValue(entry.getKey());
-      }
-      if (value == null) {
-        return false;
-      }
-      if (!(value.equals(entry.getValue()))) {
-        return false;
+        return n != null ? n.eventIntegerValue(property) : null;
       }
+      return e.getPayload().eventIntegerValue(property);
     }
-    for (Map.Entry<IntegerProperty, EventFilterPayloadRange<Integer>> entry :
-        integerRangeMatchers.entrySet()) {
-      Integer value = null;
-      if (entry.getKey().name().startsWith("NORMALIZED_")) {
-        Normalized n = e.getNormalized();
-        if (n != null) {
-          value = n.eventIntegerValue(entry.getKey());
+
+    Boolean matches(Event e) {
+      for (int i = 0; i < stringProps.length; i++) {
+        String value = stringValue(e, stringProps[i], stringNormalized[i]);
+        if (value == null || !value.equals(stringValues[i])) {
+          return false;
         }
-      } else {
-        value = e.getPayload().eventIntegerValue(entry.getKey());
       }
-      if (value == null) {
-        return false;
+      for (int i = 0; i < integerProps.length; i++) {
+        Integer value = integerValue(e, integerProps[i], integerNormalized[i]);
+        if (value == null || !value.equals(integerValues[i])) {
+          return false;
+        }
       }
-      if (!entry.getValue().inRange(value)) {
-        return false;
+      for (int i = 0; i < rangeProps.length; i++) {
+        Integer value = integerValue(e, rangeProps[i], rangeNormalized[i]);
+        if (value == null || !ranges.get(i).inRange(value)) {
+          return false;
+        }
       }
+      for (int i = 0; i < regexProps.length; i++) {
+        String value = stringValue(e, regexProps[i], regexNormalized[i]);
+        if (value == null || !regexes[i].matcher(value).matches()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Return true if payload criteria matches
+   *
+   * @param e Input event
+   * @return True on match
+   */
+  public Boolean matches(Event e) {
+    if (ptype != null && !(ptype.isInstance(e.getPayload()))) {
+      return false;
+    }
+    Compiled c = compiled;
+    if (c == null) {
+      c = new Compiled(this);
+      compiled = c;
     }
-    return true;
+    return c.matches(e);
   }
 
   /**
@@ -165,6 +219,7 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
   public EventFilterPayload withStringRegexMatch(StringProperty property, String s)
       throws PatternSyntaxException {
     stringRegexMatchers.put(property, Pattern.compile(s));
+    compiled = null;
     return this;
   }
 
@@ -182,6 +237,7 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
       buf.put(entry.getKey(), Pattern.compile(entry.getValue()));
     }
     this.stringRegexMatchers = buf;
+    compiled = null;
   }
 
   /**
@@ -206,6 +262,7 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
    */
   public EventFilterPayload withStringMatch(StringProperty property, String s) {
     stringMatchers.put(property, s);
+    compiled = null;
     return this;
   }
 
@@ -217,6 +274,7 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
   @JsonProperty("string_match")
   public void setStringMatchers(Map<StringProperty, String> stringMatchers) {
     this.stringMatchers = stringMatchers;
+    compiled = null;
   }
 
   /**
@@ -237,6 +295,7 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
    */
   public EventFilterPayload withIntegerMatch(IntegerProperty property, Integer i) {
     integerMatchers.put(property, i);
+    compiled = null;
     return this;
   }
 
@@ -248,6 +307,7 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
   @JsonProperty("integer_match")
   public void setIntegerMatchers(Map<IntegerProperty, Integer> integerMatchers) {
     this.integerMatchers = integerMatchers;
+    compiled = null;
   }
 
   /**
@@ -271,6 +331,7 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
    */
   public EventFilterPayload withIntegerRangeMatch(IntegerProperty property, int low, int high) {
     integerRangeMatchers.put(property, new EventFilterPayloadRange<Integer>(low, high));
+    compiled = null;
     return this;
   }
 
@@ -283,6 +344,7 @@ public class EventFilterPayload implements EventFilterPayloadInterface, Serializ
   public void setIntegerRangeMatchers(
       Map<IntegerProperty, EventFilterPayloadRange<Integer>> integerRangeMatchers) {
     this.integerRangeMatchers = integerRangeMatchers;
+    compiled = null;
   }
 
   /**
@@ -1,9 +1,6 @@
 package com.mozilla.secops.parser;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.MapperFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.joda.JodaModule;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -86,36 +83,23 @@ public class FxaAuth extends SourcePayloadBase implements Serializable {
     return null;
   }
 
-  private ObjectMapper getObjectMapper() {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.registerModule(new JodaModule());
-    mapper.configure(
-        com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-    mapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
-    return mapper;
-  }
-
   @Override
   public Boolean matcher(String input, ParserState state) {
-    ObjectMapper mapper = getObjectMapper();
-    com.mozilla.secops.parser.models.fxaauth.FxaAuth d;
-    try {
-      d = mapper.readValue(input, com.mozilla.secops.parser.models.fxaauth.FxaAuth.class);
-    } catch (IOException exc) {
-      return false;
-    }
+    // Check the Mozlog logger before binding the input, as it is much cheaper
     Mozlog m = state.getMozlogHint();
     if (m == null) {
       return false;
     }
     String logger = m.getLogger();
-    if (logger == null) {
+    if (logger == null || !logger.equals("fxa-auth-server")) {
       return false;
     }
-    if (logger.equals("fxa-auth-server")) {
-      return true;
+    try {
+      state.readInput(JacksonRegistry.fxaAuthReader(), input);
+    } catch (IOException exc) {
+      return false;
     }
-    return false;
+    return true;
   }
 
   @Override
@@ -309,9 +293,8 @@ public class FxaAuth extends SourcePayloadBase implements Serializable {
    * @param state State
    */
   public FxaAuth(String input, Event e, ParserState state) {
-    ObjectMapper mapper = getObjectMapper();
     try {
-      fxaAuthData = mapper.readValue(input, com.mozilla.secops.parser.models.fxaauth.FxaAuth.class);
+      fxaAuthData = state.readInput(JacksonRegistry.fxaAuthReader(), input);
       if (fxaAuthData == null) {
         return;
       }
@@ -325,10 +308,7 @@ public class FxaAuth extends SourcePayloadBase implements Serializable {
       // array of addresses, so convert that
       ArrayList<String> raca = new ArrayList<>();
       try {
-        raca =
-            mapper.readValue(
-                rac,
-                mapper.getTypeFactory().constructCollectionType(ArrayList.class, String.class));
+        raca = JacksonRegistry.stringListReader().readValue(rac);
         if (raca != null) {
           String sa = state.getParser().applyXffAddressSelector(String.join(",", raca));
           if (sa != null) {
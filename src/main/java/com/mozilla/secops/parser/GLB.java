@@ -29,6 +29,9 @@ public class GLB extends PayloadBase implements Serializable {
     try {
       LogEntry entry = state.getLogEntryHint();
       if (entry == null) {
+        if (state.getInputTree(input) == null) {
+          return false;
+        }
         JsonParser jp = jfmatcher.createJsonParser(input);
         entry = jp.parse(LogEntry.class);
         jp.close();
@@ -61,6 +64,37 @@ public class GLB extends PayloadBase implements Serializable {
   /** Construct matcher object. */
   public GLB() {}
 
+  /**
+   * Construct GLB payload from previously parsed field values
+   *
+   * <p>Used by {@link EventCoder} when decoding an event.
+   *
+   * @param requestMethod Request method
+   * @param userAgent User agent
+   * @param requestUrl Request URL
+   * @param sourceAddress Source address
+   * @param status Status
+   */
+  GLB(
+      String requestMethod,
+      String userAgent,
+      String requestUrl,
+      String sourceAddress,
+      Integer status) {
+    this.requestMethod = requestMethod;
+    this.userAgent = userAgent;
+    this.requestUrl = requestUrl;
+    this.sourceAddress = sourceAddress;
+    this.status = status;
+    if (requestUrl != null) {
+      try {
+        parsedUrl = new URL(requestUrl);
+      } catch (MalformedURLException exc) {
+        // pass
+      }
+    }
+  }
+
   /**
    * Construct parser object.
    *
@@ -2,7 +2,6 @@ package com.mozilla.secops.parser;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.json.JsonParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.logging.v2.model.LogEntry;
@@ -20,8 +19,6 @@ import java.util.Map;
 public class GcpAudit extends SourcePayloadBase implements Serializable {
   private static final long serialVersionUID = 1L;
 
-  private final JacksonFactory jfmatcher;
-
   private String principalEmail;
   private String resource;
 
@@ -80,7 +77,10 @@ public class GcpAudit extends SourcePayloadBase implements Serializable {
     try {
       LogEntry entry = state.getLogEntryHint();
       if (entry == null) {
-        JsonParser jp = jfmatcher.createJsonParser(input);
+        if (state.getInputTree(input) == null) {
+          return false;
+        }
+        JsonParser jp = state.getGoogleJacksonFactory().createJsonParser(input);
         entry = jp.parse(LogEntry.class);
       }
 
@@ -108,9 +108,7 @@ public class GcpAudit extends SourcePayloadBase implements Serializable {
   }
 
   /** Construct matcher object. */
-  public GcpAudit() {
-    jfmatcher = new JacksonFactory();
-  }
+  public GcpAudit() {}
 
   /**
    * Construct parser object.
@@ -120,12 +118,10 @@ public class GcpAudit extends SourcePayloadBase implements Serializable {
    * @param state State
    */
   public GcpAudit(String input, Event e, ParserState state) {
-    jfmatcher = null;
     LogEntry entry = state.getLogEntryHint();
     if (entry == null) {
-      // Use method local JacksonFactory as the object is not serializable, and this event
-      // may be passed around
-      JacksonFactory jf = new JacksonFactory();
+      // Reuse JacksonFactory from parser state
+      JacksonFactory jf = state.getGoogleJacksonFactory();
       try {
         JsonParser jp = jf.createJsonParser(input);
         entry = jp.parse(LogEntry.class);
@@ -136,8 +132,7 @@ public class GcpAudit extends SourcePayloadBase implements Serializable {
 
     String pbuf = null;
     try {
-      ObjectMapper mapper = new ObjectMapper();
-      pbuf = mapper.writeValueAsString(entry.getProtoPayload());
+      pbuf = JacksonRegistry.defaultWriter().writeValueAsString(entry.getProtoPayload());
     } catch (JsonProcessingException exc) {
       return;
     }
@@ -146,7 +141,7 @@ public class GcpAudit extends SourcePayloadBase implements Serializable {
     }
     AuditLog auditLog;
     try {
-      auditLog = (new JacksonFactory()).createJsonParser(pbuf).parse(AuditLog.class);
+      auditLog = state.getGoogleJacksonFactory().createJsonParser(pbuf).parse(AuditLog.class);
     } catch (IOException exc) {
       return;
     }
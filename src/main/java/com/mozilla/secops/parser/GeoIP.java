@@ -1,22 +1,171 @@
 package com.mozilla.secops.parser;
 
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader.FileMode;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CityResponse;
 import com.maxmind.geoip2.model.IspResponse;
 import com.mozilla.secops.GcsUtil;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-/** GeoIP resolution */
+/**
+ * GeoIP resolution
+ *
+ * <p>Databases are staged to local disk once per JVM and opened memory-mapped with a bounded node
+ * cache, so the database contents are not held on the heap. If a database cannot be staged, it is
+ * instead loaded into memory.
+ *
+ * <p>{@link #lookupCityInfo} and {@link #lookupIspInfo} return only the fields used for event and
+ * alert enrichment, and results are held in bounded LRU caches shared within the JVM.
+ */
 public class GeoIP {
+  private static final int NODE_CACHE_SIZE = 4096;
+  private static final int RESULT_CACHE_SIZE = 10000;
+
   private static DatabaseReader geoipCityDb = null;
   private static DatabaseReader geoipIspDb = null;
   private static AtomicBoolean cityInitialized = new AtomicBoolean(false);
   private static AtomicBoolean ispInitialized = new AtomicBoolean(false);
 
+  private static final LruCache<CityInfo> cityCache = new LruCache<>(RESULT_CACHE_SIZE);
+  private static final LruCache<IspInfo> ispCache = new LruCache<>(RESULT_CACHE_SIZE);
+
+  /** Cached value used to indicate a lookup returned no result */
+  private static final CityInfo NO_CITY = new CityInfo(null, null, null, null);
+
+  private static final IspInfo NO_ISP = new IspInfo(null, null, null);
+
+  /** City and country information for an address */
+  public static class CityInfo {
+    private final String city;
+    private final String country;
+    private final Double latitude;
+    private final Double longitude;
+
+    /**
+     * Get city name
+     *
+     * @return City name, or null if unknown
+     */
+    public String getCity() {
+      return city;
+    }
+
+    /**
+     * Get ISO country code
+     *
+     * @return Country code, or null if unknown
+     */
+    public String getCountry() {
+      return country;
+    }
+
+    /**
+     * Get latitude
+     *
+     * @return Latitude, or null if unknown
+     */
+    public Double getLatitude() {
+      return latitude;
+    }
+
+    /**
+     * Get longitude
+     *
+     * @return Longitude, or null if unknown
+     */
+    public Double getLongitude() {
+      return longitude;
+    }
+
+    CityInfo(String city, String country, Double latitude, Double longitude) {
+      this.city = city;
+      this.country = country;
+      this.latitude = latitude;
+      this.longitude = longitude;
+    }
+  }
+
+  /** ISP information for an address */
+  public static class IspInfo {
+    private final String isp;
+    private final Integer asn;
+    private final String asOrg;
+
+    /**
+     * Get ISP
+     *
+     * @return ISP name, or null if unknown
+     */
+    public String getIsp() {
+      return isp;
+    }
+
+    /**
+     * Get autonomous system number
+     *
+     * @return ASN, or null if unknown
+     */
+    public Integer getAsn() {
+      return asn;
+    }
+
+    /**
+     * Get autonomous system organization
+     *
+     * @return Organization, or null if unknown
+     */
+    public String getAsOrg() {
+      return asOrg;
+    }
+
+    IspInfo(String isp, Integer asn, String asOrg) {
+      this.isp = isp;
+      this.asn = asn;
+      this.asOrg = asOrg;
+    }
+  }
+
+  private static class LruCache<T> {
+    private final LinkedHashMap<String, T> map;
+
+    synchronized T get(String key) {
+      return map.get(key);
+    }
+
+    synchronized void put(String key, T value) {
+      map.put(key, value);
+    }
+
+    synchronized void clear() {
+      map.clear();
+    }
+
+    LruCache(int capacity) {
+      map =
+          new LinkedHashMap<String, T>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+              return size() > capacity;
+            }
+          };
+    }
+  }
+
   /**
    * Lookup city/country from IP address string
    *
@@ -59,22 +208,111 @@ public class GeoIP {
     }
   }
 
+  /**
+   * Lookup city/country information from IP address string using the result cache
+   *
+   * @param ip IP address string
+   * @return {@link CityInfo}, or null on failure
+   */
+  public CityInfo lookupCityInfo(String ip) {
+    if (!cityInitialized.get() || ip == null) {
+      return null;
+    }
+
+    CityInfo ret = cityCache.get(ip);
+    if (ret == null) {
+      CityResponse cr = lookupCity(ip);
+      if (cr == null) {
+        ret = NO_CITY;
+      } else {
+        Double latitude = null;
+        Double longitude = null;
+        if ((cr.getLocation() != null)
+            && (cr.getLocation().getLatitude() != null)
+            && (cr.getLocation().getLongitude() != null)) {
+          latitude = cr.getLocation().getLatitude();
+          longitude = cr.getLocation().getLongitude();
+        }
+        ret =
+            new CityInfo(
+                cr.getCity().getName(), cr.getCountry().getIsoCode(), latitude, longitude);
+      }
+      cityCache.put(ip, ret);
+    }
+    return ret == NO_CITY ? null : ret;
+  }
+
+  /**
+   * Lookup ISP information from IP address string using the result cache
+   *
+   * @param ip IP address string
+   * @return {@link IspInfo}, or null on failure
+   */
+  public IspInfo lookupIspInfo(String ip) {
+    if (!ispInitialized.get() || ip == null) {
+      return null;
+    }
+
+    IspInfo ret = ispCache.get(ip);
+    if (ret == null) {
+      IspResponse ir = lookupIsp(ip);
+      if (ir == null) {
+        ret = NO_ISP;
+      } else {
+        ret =
+            new IspInfo(
+                ir.getIsp(),
+                ir.getAutonomousSystemNumber(),
+                ir.getAutonomousSystemOrganization());
+      }
+      ispCache.put(ip, ret);
+    }
+    return ret == NO_ISP ? null : ret;
+  }
+
+  private static InputStream openPath(String path) throws IOException {
+    if (GcsUtil.isGcsUrl(path)) {
+      return GcsUtil.fetchInputStreamContent(path);
+    }
+    return GeoIP.class.getResourceAsStream(path);
+  }
+
   private static DatabaseReader getDatabaseFromPath(String path) throws IOException {
     if (path == null) {
       return null;
     }
 
-    InputStream in;
-    if (GcsUtil.isGcsUrl(path)) {
-      in = GcsUtil.fetchInputStreamContent(path);
-    } else {
-      in = GeoIP.class.getResourceAsStream(path);
+    Logger log = LoggerFactory.getLogger(GeoIP.class);
+    File staged = null;
+    try (InputStream in = openPath(path)) {
+      if (in == null) {
+        return null;
+      }
+      Path tmp = Files.createTempFile("geoip", ".mmdb");
+      staged = tmp.toFile();
+      staged.deleteOnExit();
+      Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException exc) {
+      log.warn("unable to stage GeoIP database {} locally: {}", path, exc.getMessage());
+      if (staged != null) {
+        staged.delete();
+        staged = null;
+      }
     }
+
+    if (staged != null) {
+      return new DatabaseReader.Builder(staged)
+          .fileMode(FileMode.MEMORY_MAPPED)
+          .withCache(new CHMCache(NODE_CACHE_SIZE))
+          .build();
+    }
+
+    // Fall back to loading the database into memory
+    InputStream in = openPath(path);
     if (in == null) {
       return null;
     }
-
-    return new DatabaseReader.Builder(in).build();
+    return new DatabaseReader.Builder(in).withCache(new CHMCache(NODE_CACHE_SIZE)).build();
   }
 
   private static synchronized void initialize(String cityPath, String ispPath) throws IOException {
@@ -82,6 +320,8 @@ public class GeoIP {
       return;
     }
 
+    cityCache.clear();
+    ispCache.clear();
     geoipCityDb = getDatabaseFromPath(cityPath);
     if (geoipCityDb != null) {
       cityInitialized.set(true);
@@ -1,8 +1,6 @@
 package com.mozilla.secops.parser;
 
 import com.amazonaws.services.guardduty.model.Finding;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mozilla.secops.parser.models.cloudwatch.CloudWatchEvent;
 import java.io.IOException;
 import java.io.Serializable;
@@ -13,12 +11,6 @@ public class GuardDuty extends PayloadBase implements Serializable {
   private static final long serialVersionUID = 1L;
   private static final String CLOUDWATCH_EVENT_SOURCE = "aws.guardduty";
 
-  private static ObjectMapper mapper =
-      new ObjectMapper()
-          // our input JSON may have properties not represented in {@link Finding} e.g. ignore
-          // errors such as 'Unrecognized field "affectedResources"....'
-          .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-
   private Finding gdf;
 
   @Override
@@ -32,7 +24,7 @@ public class GuardDuty extends PayloadBase implements Serializable {
     //
     // It is included as an effort to maintain consistent behavior across the parsers
     try {
-      Finding f = mapper.readValue(input, Finding.class);
+      Finding f = state.readInput(JacksonRegistry.guardDutyFindingReader(), input);
       // the AWS GD Finding JSON model does not have -ANY- mandatory JSON fields, and thus we
       // check that the finding has certain GuardDuty-specific fields set.
       // Not doing so results in a generic JSON payload successfully being read onto a Finding.
@@ -73,7 +65,7 @@ public class GuardDuty extends PayloadBase implements Serializable {
    */
   public GuardDuty(String input, Event e, ParserState s) {
     try {
-      gdf = mapper.readValue(input, Finding.class);
+      gdf = s.readInput(JacksonRegistry.guardDutyFindingReader(), input);
     } catch (IOException exc) {
       // pass
     }
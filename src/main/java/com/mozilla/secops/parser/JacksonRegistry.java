@@ -0,0 +1,329 @@
+package com.mozilla.secops.parser;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.mozilla.secops.parser.models.auth0.LogEvent;
+import com.mozilla.secops.parser.models.cloudtrail.CloudtrailEvent;
+import com.mozilla.secops.parser.models.cloudwatch.CloudWatchEvent;
+import com.mozilla.secops.parser.models.etd.EventThreatDetectionFinding;
+import com.mozilla.secops.parser.models.nginxstackdriver.NginxStackdriverVariant1;
+import com.mozilla.secops.parser.models.nginxstackdriver.NginxStackdriverVariant2;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Shared Jackson readers and writers
+ *
+ * <p>Constructing an ObjectMapper and registering modules is expensive, and previously occurred
+ * several times for each parsed event. The mappers here are configured once and never modified
+ * after class initialization; only immutable, thread-safe {@link ObjectReader} and {@link
+ * ObjectWriter} instances derived from them are exposed.
+ *
+ * <p>Readers bound to specific model classes are provided for the parser, payload implementations,
+ * {@link Event} and {@link com.mozilla.secops.alert.Alert}.
+ */
+public class JacksonRegistry {
+  /** Mapper with default Jackson configuration */
+  private static final ObjectMapper defaultMapper = new ObjectMapper();
+
+  /** Mapper with Joda support, used for event and alert serialization */
+  private static final ObjectMapper jodaMapper = new ObjectMapper();
+
+  /** Mapper with Joda support and case insensitive properties, used for Mozlog data */
+  private static final ObjectMapper mozlogMapper = new ObjectMapper();
+
+  /** Mapper that ignores unknown properties, used for AWS/Auth0 models */
+  private static final ObjectMapper lenientMapper = new ObjectMapper();
+
+  static {
+    jodaMapper.registerModule(new JodaModule());
+    jodaMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    jodaMapper.setSerializationInclusion(Include.NON_NULL);
+
+    mozlogMapper.registerModule(new JodaModule());
+    mozlogMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    // Not all Mozlog implementations use lower case field names
+    mozlogMapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
+    // Allows for null values in the JsonPayload in a LogEntry
+    mozlogMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
+    lenientMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    // Allows for null values in the JsonPayload in a LogEntry when mapping to a Map<String, Object>
+    lenientMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+  }
+
+  private static final ObjectReader mapReader = defaultMapper.readerFor(Map.class);
+  private static final ObjectWriter defaultWriter = defaultMapper.writer();
+  private static final ObjectWriter defaultWriterNoTimestamps =
+      defaultMapper.writer().without(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+  private static final ObjectReader eventReader = jodaMapper.readerFor(Event.class);
+  private static final ObjectReader eventListReader =
+      jodaMapper.readerFor(
+          jodaMapper.getTypeFactory().constructCollectionType(ArrayList.class, Event.class));
+  private static final ObjectReader alertReader =
+      jodaMapper.readerFor(com.mozilla.secops.alert.Alert.class);
+  private static final ObjectWriter jodaWriter = jodaMapper.writer();
+
+  private static final ObjectReader mozlogReader = mozlogMapper.readerFor(Mozlog.class);
+  private static final ObjectWriter mozlogWriter = mozlogMapper.writer();
+  private static final ObjectReader cloudWatchEventReader =
+      mozlogMapper.readerFor(CloudWatchEvent.class);
+  private static final ObjectReader fxaAuthReader =
+      mozlogMapper.readerFor(com.mozilla.secops.parser.models.fxaauth.FxaAuth.class);
+  private static final ObjectReader stringListReader =
+      mozlogMapper.readerFor(
+          mozlogMapper.getTypeFactory().constructCollectionType(ArrayList.class, String.class));
+
+  private static final ObjectWriter lenientWriter = lenientMapper.writer();
+  private static final ObjectReader cloudtrailEventReader =
+      lenientMapper.readerFor(CloudtrailEvent.class);
+  private static final ObjectReader auth0LogEventReader = lenientMapper.readerFor(LogEvent.class);
+  private static final ObjectReader guardDutyFindingReader =
+      lenientMapper.readerFor(com.amazonaws.services.guardduty.model.Finding.class);
+
+  private static final ObjectReader duopullReader =
+      defaultMapper.readerFor(com.mozilla.secops.parser.models.duopull.Duopull.class);
+  private static final ObjectReader taskclusterReader =
+      defaultMapper.readerFor(com.mozilla.secops.parser.models.taskcluster.Taskcluster.class);
+  private static final ObjectReader nginxVariant1Reader =
+      defaultMapper.readerFor(NginxStackdriverVariant1.class);
+  private static final ObjectReader nginxVariant2Reader =
+      defaultMapper.readerFor(NginxStackdriverVariant2.class);
+  private static final ObjectReader etdFindingReader =
+      defaultMapper.readerFor(EventThreatDetectionFinding.class);
+
+  /**
+   * Parse a JSON string into a tree
+   *
+   * @param input Input string
+   * @return JsonNode, or null if input is empty or is not valid JSON
+   */
+  public static JsonNode readTree(String input) {
+    try {
+      JsonNode ret = defaultMapper.readTree(input);
+      if (ret == null || ret.isMissingNode()) {
+        return null;
+      }
+      return ret;
+    } catch (IOException exc) {
+      return null;
+    }
+  }
+
+  /**
+   * Convert a value into a tree
+   *
+   * <p>The result is equivalent to serializing the value with {@link #lenientWriter} and parsing
+   * the resulting string with {@link #readTree}.
+   *
+   * @param value Value to convert
+   * @return JsonNode, or null if conversion fails
+   */
+  public static JsonNode valueToTree(Object value) {
+    try {
+      return lenientMapper.valueToTree(value);
+    } catch (IllegalArgumentException exc) {
+      return null;
+    }
+  }
+
+  /**
+   * Reader for generic JSON objects as maps
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader mapReader() {
+    return mapReader;
+  }
+
+  /**
+   * Writer using default configuration
+   *
+   * @return ObjectWriter
+   */
+  public static ObjectWriter defaultWriter() {
+    return defaultWriter;
+  }
+
+  /**
+   * Writer using default configuration, with dates written as strings
+   *
+   * @return ObjectWriter
+   */
+  public static ObjectWriter defaultWriterNoTimestamps() {
+    return defaultWriterNoTimestamps;
+  }
+
+  /**
+   * Reader for {@link Event}
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader eventReader() {
+    return eventReader;
+  }
+
+  /**
+   * Reader for lists of {@link Event}
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader eventListReader() {
+    return eventListReader;
+  }
+
+  /**
+   * Reader for {@link com.mozilla.secops.alert.Alert}
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader alertReader() {
+    return alertReader;
+  }
+
+  /**
+   * Writer with Joda support that omits null values, used for events and alerts
+   *
+   * @return ObjectWriter
+   */
+  public static ObjectWriter jodaWriter() {
+    return jodaWriter;
+  }
+
+  /**
+   * Reader for {@link Mozlog}
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader mozlogReader() {
+    return mozlogReader;
+  }
+
+  /**
+   * Writer used to reserialize encapsulated Mozlog and CloudWatch data
+   *
+   * @return ObjectWriter
+   */
+  public static ObjectWriter mozlogWriter() {
+    return mozlogWriter;
+  }
+
+  /**
+   * Reader for {@link CloudWatchEvent}
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader cloudWatchEventReader() {
+    return cloudWatchEventReader;
+  }
+
+  /**
+   * Reader for FxA auth server model
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader fxaAuthReader() {
+    return fxaAuthReader;
+  }
+
+  /**
+   * Reader for JSON arrays of strings
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader stringListReader() {
+    return stringListReader;
+  }
+
+  /**
+   * Writer that permits empty beans, used to reserialize LogEntry JSON payloads
+   *
+   * @return ObjectWriter
+   */
+  public static ObjectWriter lenientWriter() {
+    return lenientWriter;
+  }
+
+  /**
+   * Reader for {@link CloudtrailEvent}
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader cloudtrailEventReader() {
+    return cloudtrailEventReader;
+  }
+
+  /**
+   * Reader for Auth0 {@link LogEvent}
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader auth0LogEventReader() {
+    return auth0LogEventReader;
+  }
+
+  /**
+   * Reader for GuardDuty findings
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader guardDutyFindingReader() {
+    return guardDutyFindingReader;
+  }
+
+  /**
+   * Reader for Duopull model
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader duopullReader() {
+    return duopullReader;
+  }
+
+  /**
+   * Reader for Taskcluster model
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader taskclusterReader() {
+    return taskclusterReader;
+  }
+
+  /**
+   * Reader for nginx Stackdriver variant 1 model
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader nginxVariant1Reader() {
+    return nginxVariant1Reader;
+  }
+
+  /**
+   * Reader for nginx Stackdriver variant 2 model
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader nginxVariant2Reader() {
+    return nginxVariant2Reader;
+  }
+
+  /**
+   * Reader for ETD finding model
+   *
+   * @return ObjectReader
+   */
+  public static ObjectReader etdFindingReader() {
+    return etdFindingReader;
+  }
+
+  private JacksonRegistry() {}
+}
@@ -4,7 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Map;
@@ -117,11 +117,8 @@ public class Mozlog implements Serializable {
    */
   @JsonIgnore
   public String getFieldsAsJson() {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.configure(
-        com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
     try {
-      return mapper.writeValueAsString(fields);
+      return JacksonRegistry.defaultWriterNoTimestamps().writeValueAsString(fields);
     } catch (JsonProcessingException exc) {
       return null;
     }
@@ -131,14 +128,13 @@ public class Mozlog implements Serializable {
    * Create a new {@link Mozlog} object using a JSON string as input
    *
    * @param input Mozlog JSON event
-   * @param mapper ObjectMapper to use
    * @return Mozlog event or null if deserialization failed
    */
-  public static Mozlog fromJSON(String input, ObjectMapper mapper) {
+  public static Mozlog fromJSON(String input) {
     Mozlog ret;
 
     try {
-      ret = mapper.readValue(input, Mozlog.class);
+      ret = JacksonRegistry.mozlogReader().readValue(input);
     } catch (IOException exc) {
       return null;
     }
@@ -146,5 +142,22 @@ public class Mozlog implements Serializable {
     return ret;
   }
 
+  /**
+   * Create a new {@link Mozlog} object using a parsed JSON tree as input
+   *
+   * @param input Mozlog JSON event as tree
+   * @return Mozlog event or null if deserialization failed
+   */
+  static Mozlog fromTree(JsonNode input) {
+    if (input == null) {
+      return null;
+    }
+    try {
+      return JacksonRegistry.mozlogReader().readValue(input);
+    } catch (IOException exc) {
+      return null;
+    }
+  }
+
   public Mozlog() {}
 }
@@ -1,7 +1,6 @@
 package com.mozilla.secops.parser;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.json.JsonParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.logging.v2.model.LogEntry;
@@ -62,6 +61,9 @@ public class Nginx extends PayloadBase implements Serializable {
       // for example raw nginx log entries.
       LogEntry entry = state.getLogEntryHint();
       if (entry == null) {
+        if (state.getInputTree(input) == null) {
+          return false;
+        }
         JsonParser jp = jfmatcher.createJsonParser(input);
         entry = jp.parse(LogEntry.class);
       }
@@ -129,8 +131,7 @@ public class Nginx extends PayloadBase implements Serializable {
 
     String pbuf = null;
     try {
-      ObjectMapper mapper = new ObjectMapper();
-      pbuf = mapper.writeValueAsString(m);
+      pbuf = JacksonRegistry.defaultWriter().writeValueAsString(m);
     } catch (JsonProcessingException exc) {
       return;
     }
@@ -141,11 +142,7 @@ public class Nginx extends PayloadBase implements Serializable {
     if (matchesStackdriverVariant1(m)) {
       com.mozilla.secops.parser.models.nginxstackdriver.NginxStackdriverVariant1 nginxs;
       try {
-        ObjectMapper mapper = new ObjectMapper();
-        nginxs =
-            mapper.readValue(
-                pbuf,
-                com.mozilla.secops.parser.models.nginxstackdriver.NginxStackdriverVariant1.class);
+        nginxs = JacksonRegistry.nginxVariant1Reader().readValue(pbuf);
       } catch (IOException exc) {
         return;
       }
@@ -164,11 +161,7 @@ public class Nginx extends PayloadBase implements Serializable {
     } else if (matchesStackdriverVariant2(m)) {
       com.mozilla.secops.parser.models.nginxstackdriver.NginxStackdriverVariant2 nginxs;
       try {
-        ObjectMapper mapper = new ObjectMapper();
-        nginxs =
-            mapper.readValue(
-                pbuf,
-                com.mozilla.secops.parser.models.nginxstackdriver.NginxStackdriverVariant2.class);
+        nginxs = JacksonRegistry.nginxVariant2Reader().readValue(pbuf);
       } catch (IOException exc) {
         return;
       }
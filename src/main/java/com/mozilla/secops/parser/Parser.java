@@ -1,23 +1,27 @@
 package com.mozilla.secops.parser;
 
+import static com.mozilla.secops.parser.PayloadDispatcher.CLOUDWATCH;
+import static com.mozilla.secops.parser.PayloadDispatcher.JSON;
+import static com.mozilla.secops.parser.PayloadDispatcher.LOGENTRY;
+import static com.mozilla.secops.parser.PayloadDispatcher.LOGENTRY_JSON;
+import static com.mozilla.secops.parser.PayloadDispatcher.LOGENTRY_PROTO;
+import static com.mozilla.secops.parser.PayloadDispatcher.MOZLOG;
+import static com.mozilla.secops.parser.PayloadDispatcher.QUOTED;
+import static com.mozilla.secops.parser.PayloadDispatcher.SYSLOG;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.MapperFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.api.client.json.JsonParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.logging.v2.model.LogEntry;
 import com.google.api.services.logging.v2.model.MonitoredResource;
 import com.maxmind.geoip2.model.CityResponse;
 import com.mozilla.secops.CidrUtil;
+import com.mozilla.secops.SharedResources;
 import com.mozilla.secops.identity.IdentityManager;
 import com.mozilla.secops.parser.models.cloudwatch.CloudWatchEvent;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import org.apache.commons.validator.routines.InetAddressValidator;
 import org.joda.time.DateTime;
@@ -35,9 +39,8 @@ import org.slf4j.LoggerFactory;
 public class Parser {
   private static final long serialVersionUID = 1L;
 
-  private final List<PayloadBase> payloads;
+  private final PayloadDispatcher dispatcher;
   private final JacksonFactory jf;
-  private final ObjectMapper mapper;
   private final JacksonFactory googleJacksonFactory;
   private final Logger log;
   private final ParserCfg cfg;
@@ -46,6 +49,7 @@ public class Parser {
   public static final String SYSLOG_TS_RE = "\\S{3} {1,2}\\d{1,2} \\d{1,2}:\\d{1,2}:\\d{1,2}";
 
   private IdentityManager idmanager;
+  private SharedResources.Handle<IdentityManager> idmanagerHandle;
 
   /**
    * Given an interable of events, return the latest timestamp
@@ -172,16 +176,35 @@ public class Parser {
    * @return HashMap
    */
   public static <T, U> HashMap<T, U> convertJsonToMap(String input) {
-    ObjectMapper mapper = new ObjectMapper();
     HashMap<T, U> fields = new HashMap<T, U>();
     try {
-      fields = mapper.readValue(input, new TypeReference<Map<T, U>>() {});
+      fields = JacksonRegistry.mapReader().readValue(input);
     } catch (IOException exc) {
       return null;
     }
     return fields;
   }
 
+  /**
+   * Convert a JSON string into the desired map type, using the parsed input tree cached in the
+   * parser state
+   *
+   * @param input Input JSON
+   * @param state Parser state
+   * @return HashMap, or null if input could not be converted
+   */
+  static <T, U> HashMap<T, U> convertJsonToMap(String input, ParserState state) {
+    JsonNode n = state.getInputTree(input);
+    if (n == null) {
+      return null;
+    }
+    try {
+      return JacksonRegistry.mapReader().readValue(n);
+    } catch (IOException exc) {
+      return null;
+    }
+  }
+
   /**
    * Process the value of an X-Forwarded-For header, returning an array of each address in the
    * header or null if invalid
@@ -246,11 +269,15 @@ public class Parser {
         jret = entry.getProtoPayload();
       }
       if (jret != null) {
-        // XXX Serialize the Stackdriver JSON data and emit a string for use in the
-        // matchers. This is inefficient and we could probably look at changing this
-        // to return a different type to avoid having to deserialize the data twice.
-        return entry.toString();
+        // Serialize the Stackdriver JSON data and emit a string for use in the matchers. The
+        // string is associated with the hint in the state, so payloads and the remaining
+        // encapsulation handlers can use the already parsed LogEntry rather than parsing it
+        // again.
+        ret = entry.toString();
+        state.setLogEntryHintInput(ret);
+        return ret;
       }
+      state.setLogEntryHintInput(input);
     } catch (IOException exc) {
       // pass
     } catch (IllegalArgumentException exc) {
@@ -270,13 +297,13 @@ public class Parser {
       String jbuf = null;
       if (jsonPayload != null) {
         try {
-          jbuf = mapper.writeValueAsString(jsonPayload);
+          jbuf = JacksonRegistry.mozlogWriter().writeValueAsString(jsonPayload);
         } catch (JsonProcessingException exc) {
           // pass
         }
       }
       if (jbuf != null) {
-        Mozlog m = Mozlog.fromJSON(jbuf, mapper);
+        Mozlog m = Mozlog.fromJSON(jbuf);
         if (m != null) {
           e.setMozlog(m);
           state.setMozlogHint(m);
@@ -285,23 +312,44 @@ public class Parser {
       }
     }
 
-    Mozlog m = Mozlog.fromJSON(input, mapper);
+    // A serialized LogEntry with a structured payload is never itself a Mozlog entry
+    if (state.isSerializedLogEntryPayload(input)) {
+      return input;
+    }
+
+    Mozlog m = Mozlog.fromTree(state.getInputTree(input));
     if (m != null) {
       e.setMozlog(m);
       state.setMozlogHint(m);
-      return m.getFieldsAsJson();
+      String ret = m.getFieldsAsJson();
+      if (ret != null) {
+        state.setInputTree(ret, JacksonRegistry.valueToTree(m.getFields()));
+      }
+      return ret;
     }
     return input;
   }
 
   private String stripCloudWatch(Event e, String input, ParserState state) {
+    if (state.isSerializedLogEntryPayload(input)) {
+      return input;
+    }
+    JsonNode n = state.getInputTree(input);
+    if (n == null) {
+      return input;
+    }
     try {
-      CloudWatchEvent cwe = mapper.readValue(input, CloudWatchEvent.class);
-      if (cwe.getDetail() == null || cwe.getDetailType() == null || cwe.getAccount() == null) {
+      CloudWatchEvent cwe = JacksonRegistry.cloudWatchEventReader().readValue(n);
+      if (cwe == null
+          || cwe.getDetail() == null
+          || cwe.getDetailType() == null
+          || cwe.getAccount() == null) {
         return input;
       }
       state.setCloudWatchEvent(cwe);
-      return mapper.writeValueAsString(cwe.getDetail());
+      String ret = JacksonRegistry.mozlogWriter().writeValueAsString(cwe.getDetail());
+      state.setInputTree(ret, JacksonRegistry.valueToTree(cwe.getDetail()));
+      return ret;
     } catch (IOException exc) {
       // pass
     }
@@ -336,6 +384,21 @@ public class Parser {
     return geoip.lookupCity(ip);
   }
 
+  /**
+   * Resolve cached GeoIP city information from IP address string
+   *
+   * <p>GeoIP resolution must be enabled in the parser, or this function will always return null.
+   *
+   * @param ip IP address string
+   * @return {@link GeoIP.CityInfo}, or null if lookup fails
+   */
+  public GeoIP.CityInfo geoIpCityInfo(String ip) {
+    if (geoip == null) {
+      return null;
+    }
+    return geoip.lookupCityInfo(ip);
+  }
+
   /**
    * Set an identity manager in the parser that can be used for lookups
    *
@@ -354,6 +417,19 @@ public class Parser {
     return idmanager;
   }
 
+  /**
+   * Release shared resources held by the parser
+   *
+   * <p>Should be called when the parser is no longer needed, for example from a {@link
+   * org.apache.beam.sdk.transforms.DoFn.Teardown} method.
+   */
+  public void close() {
+    if (idmanagerHandle != null) {
+      idmanagerHandle.close();
+      idmanagerHandle = null;
+    }
+  }
+
   /**
    * Parse an event
    *
@@ -385,20 +461,9 @@ public class Parser {
       return null;
     }
 
-    for (PayloadBase p : payloads) {
-      if (!p.matcher(input, state)) {
-        continue;
-      }
-      Class<?> cls = p.getClass();
-      try {
-        e.setPayload(
-            (PayloadBase)
-                cls.getConstructor(String.class, Event.class, ParserState.class)
-                    .newInstance(input, e, state));
-      } catch (ReflectiveOperationException exc) {
-        log.warn(exc.getMessage());
-      }
-      break;
+    PayloadBase p = dispatcher.dispatch(input, e, state);
+    if (p != null) {
+      e.setPayload(p);
     }
 
     return e;
@@ -413,46 +478,56 @@ public class Parser {
     log = LoggerFactory.getLogger(Parser.class);
     jf = new JacksonFactory();
 
-    mapper = new ObjectMapper();
-    mapper.registerModule(new JodaModule());
-    mapper.configure(
-        com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-    // Not all Mozlog implementations use lower case field names, and we will reuse this mapper
-    // for Mozlog conversion
-    mapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
-    // Allows for null values in the JsonPayload in a LogEntry
-    mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-
     googleJacksonFactory = new JacksonFactory();
 
     this.cfg = cfg;
     if (cfg.getMaxmindCityDbPath() != null || cfg.getMaxmindIspDbPath() != null) {
       geoip = new GeoIP(cfg.getMaxmindCityDbPath(), cfg.getMaxmindIspDbPath());
     }
-    payloads = new ArrayList<PayloadBase>();
-    payloads.add(new GLB());
-    payloads.add(new Nginx());
-    payloads.add(new Cloudtrail());
-    payloads.add(new GcpAudit());
-    payloads.add(new ApacheCombined());
-    payloads.add(new BmoAudit());
-    payloads.add(new IPrepdLog());
-    payloads.add(new FxaAuth());
-    payloads.add(new Taskcluster());
-    payloads.add(new AmoDocker());
-    payloads.add(new OpenSSH());
-    payloads.add(new Duopull());
-    payloads.add(new Alert());
-    payloads.add(new GuardDuty());
-    payloads.add(new ETDBeta());
-    payloads.add(new CfgTick());
-    payloads.add(new Auth0());
-    payloads.add(new Raw());
+
+    // Payloads are registered in order of precedence, along with a test over the input
+    // classification that must be satisfied for the payload matcher to be applied. See
+    // PayloadDispatcher for the requirements of these tests.
+    dispatcher = new PayloadDispatcher(Boolean.TRUE.equals(cfg.getUseAdaptiveDispatch()));
+    dispatcher
+        .register(
+            new GLB(),
+            GLB::new,
+            c -> c.has(LOGENTRY_JSON) || (!c.has(LOGENTRY) && c.has(JSON)))
+        .register(
+            new Nginx(),
+            Nginx::new,
+            c -> c.has(LOGENTRY_JSON) || (!c.has(LOGENTRY) && c.has(JSON)))
+        .register(new Cloudtrail(), Cloudtrail::new, c -> c.has(JSON))
+        .register(
+            new GcpAudit(),
+            GcpAudit::new,
+            c -> c.has(LOGENTRY_PROTO) || (!c.has(LOGENTRY) && c.has(JSON)))
+        .register(new ApacheCombined(), ApacheCombined::new, c -> c.has(QUOTED))
+        .register(new BmoAudit(), BmoAudit::new, c -> c.has(MOZLOG | JSON))
+        .register(new IPrepdLog(), IPrepdLog::new, c -> "iprepd".equals(c.getLogger()))
+        .register(
+            new FxaAuth(),
+            FxaAuth::new,
+            c -> c.has(JSON) && "fxa-auth-server".equals(c.getLogger()))
+        .register(
+            new Taskcluster(),
+            Taskcluster::new,
+            c -> c.has(JSON) && c.loggerStartsWith("taskcluster."))
+        .register(new AmoDocker(), AmoDocker::new, c -> c.loggerStartsWith("http_app_addons"))
+        .register(new OpenSSH(), OpenSSH::new, c -> c.has(SYSLOG))
+        .register(new Duopull(), Duopull::new, c -> c.has(JSON))
+        .register(new Alert(), Alert::new, c -> c.has(JSON))
+        .register(new GuardDuty(), GuardDuty::new, c -> c.has(CLOUDWATCH) || c.has(JSON))
+        .register(new ETDBeta(), ETDBeta::new, c -> c.has(LOGENTRY) || c.has(JSON))
+        .register(new CfgTick(), CfgTick::new, c -> c.has(JSON))
+        .register(new Auth0(), Auth0::new, c -> c.has(JSON))
+        .registerFallback(new Raw(), Raw::new);
 
     if (cfg.getIdentityManagerPath() != null) {
       try {
-        IdentityManager mgr = IdentityManager.load(cfg.getIdentityManagerPath());
-        setIdentityManager(mgr);
+        idmanagerHandle = IdentityManager.loadShared(cfg.getIdentityManagerPath());
+        setIdentityManager(idmanagerHandle.get());
       } catch (IOException exc) {
         log.error("could not load identity manager within Parser: {}", exc.getMessage());
       }
@@ -22,6 +22,7 @@ public class ParserCfg implements Serializable {
   private ArrayList<String> xffAddressSelectorSubnets;
   private String idmanagerPath;
   private Boolean useEventTimestamp;
+  private Boolean useAdaptiveDispatch;
 
   private String stackdriverProjectFilter;
   private String[] stackdriverLabelFilters;
@@ -39,6 +40,7 @@ public class ParserCfg implements Serializable {
     cfg.setMaxmindIspDbPath(options.getMaxmindIspDbPath());
     cfg.setIdentityManagerPath(options.getIdentityManagerPath());
     cfg.setParserFastMatcher(options.getParserFastMatcher());
+    cfg.setUseAdaptiveDispatch(options.getUseAdaptiveParserDispatch());
     if (options.getXffAddressSelector() != null) {
       String parts[] = options.getXffAddressSelector().split(",");
       if (parts.length > 0) {
@@ -205,6 +207,31 @@ public class ParserCfg implements Serializable {
     this.useEventTimestamp = useEventTimestamp;
   }
 
+  /**
+   * Get adaptive payload dispatch setting
+   *
+   * @return Boolean
+   */
+  public Boolean getUseAdaptiveDispatch() {
+    return useAdaptiveDispatch;
+  }
+
+  /**
+   * Set adaptive payload dispatch setting
+   *
+   * <p>If true, the parser will first apply the matcher for the payload type that most recently
+   * matched input with the same classification and source, rather than always applying payload
+   * matchers in order of precedence. This reduces matcher evaluations where a source produces a
+   * single type of event, but where more than one payload type could match a given input, the
+   * selected type may differ from the default.
+   *
+   * @param useAdaptiveDispatch Boolean
+   */
+  @JsonProperty("use_adaptive_dispatch")
+  public void setUseAdaptiveDispatch(Boolean useAdaptiveDispatch) {
+    this.useAdaptiveDispatch = useAdaptiveDispatch;
+  }
+
   /**
    * Get Stackdriver label filters
    *
@@ -74,6 +74,13 @@ public class ParserDoFn extends DoFn<String, Event> {
     }
   }
 
+  @Teardown
+  public void teardown() {
+    if (ep != null) {
+      ep.close();
+    }
+  }
+
   @ProcessElement
   public void processElement(ProcessContext c) {
     Event e = ep.parse(c.element());
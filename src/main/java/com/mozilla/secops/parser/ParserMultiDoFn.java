@@ -85,6 +85,15 @@ public class ParserMultiDoFn extends DoFn<KV<String, String>, KV<String, Event>>
     }
   }
 
+  @Teardown
+  public void teardown() {
+    if (parsers != null) {
+      for (Parser p : parsers.values()) {
+        p.close();
+      }
+    }
+  }
+
   @ProcessElement
   public void processElement(ProcessContext c) {
     KV<String, String> raw = c.element();
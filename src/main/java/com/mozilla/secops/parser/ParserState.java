@@ -1,12 +1,27 @@
 package com.mozilla.secops.parser;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.api.client.json.JsonParser;
 import com.google.api.services.logging.v2.model.LogEntry;
 import com.mozilla.secops.parser.models.cloudwatch.CloudWatchEvent;
+import java.io.IOException;
+import java.util.Map;
 
-/** Stores per-event state of parser */
+/**
+ * Stores per-event state of parser
+ *
+ * <p>In addition to hints set during encapsulation stripping, the state holds a parsed JSON tree
+ * for the current parser input. Matchers and payload constructors that need structured access to
+ * the input request the tree from the state, so a given input string is only tokenized once
+ * regardless of how many payload types inspect it.
+ */
 class ParserState {
   private final Parser parser;
   private LogEntry logEntryHint;
+  private String logEntryHintInput;
+  private String inputTreeSource;
+  private JsonNode inputTree;
   private CloudWatchEvent cloudwatchEvent;
   private Mozlog mozLogHint;
   private com.google.api.client.json.jackson2.JacksonFactory googleJacksonFactory;
@@ -29,6 +44,113 @@ class ParserState {
     logEntryHint = entry;
   }
 
+  /**
+   * Set the input string the LogEntry hint was parsed from or serialized to
+   *
+   * <p>This should be set if parsing the string as a LogEntry would yield the same value as the
+   * current hint.
+   *
+   * @param input Input string
+   */
+  public void setLogEntryHintInput(String input) {
+    logEntryHintInput = input;
+  }
+
+  /**
+   * Test if input is a serialized LogEntry that contained a JSON or proto payload
+   *
+   * <p>Such input can never be a CloudWatch event or a Mozlog entry.
+   *
+   * @param input Input string
+   * @return True if input is a serialized LogEntry with a structured payload
+   */
+  public Boolean isSerializedLogEntryPayload(String input) {
+    if (logEntryHint == null || input == null || !input.equals(logEntryHintInput)) {
+      return false;
+    }
+    return logEntryHint.getJsonPayload() != null || logEntryHint.getProtoPayload() != null;
+  }
+
+  /**
+   * Return the LogEntry jsonPayload for input
+   *
+   * <p>Returns the same result as parsing input as a LogEntry and returning the jsonPayload, but
+   * uses the LogEntry hint or the parsed input tree to avoid parsing input again where possible.
+   *
+   * @param input Input string
+   * @return jsonPayload, or null if input was not a LogEntry or had no jsonPayload
+   */
+  public Map<String, Object> getLogEntryJsonPayload(String input) {
+    if (input == null) {
+      return null;
+    }
+    if (logEntryHint != null && input.equals(logEntryHintInput)) {
+      return logEntryHint.getJsonPayload();
+    }
+    JsonNode n = getInputTree(input);
+    if (n == null || !n.has("jsonPayload")) {
+      return null;
+    }
+    try {
+      JsonParser jp = googleJacksonFactory.createJsonParser(input);
+      return jp.parse(LogEntry.class).getJsonPayload();
+    } catch (IOException exc) {
+      // pass
+    } catch (IllegalArgumentException exc) {
+      // pass
+    }
+    return null;
+  }
+
+  /**
+   * Get parsed JSON tree for input
+   *
+   * <p>The tree is parsed once and cached for subsequent calls with the same input.
+   *
+   * @param input Input string
+   * @return JsonNode, or null if input is not valid JSON
+   */
+  public JsonNode getInputTree(String input) {
+    if (input == null) {
+      return null;
+    }
+    if (!input.equals(inputTreeSource)) {
+      inputTreeSource = input;
+      inputTree = JacksonRegistry.readTree(input);
+    }
+    return inputTree;
+  }
+
+  /**
+   * Bind the parsed JSON tree for input using the supplied reader
+   *
+   * @param reader ObjectReader to use, typically obtained from {@link JacksonRegistry}
+   * @param input Input string
+   * @return Deserialized value
+   * @throws IOException If input is not valid JSON or binding fails
+   */
+  public <T> T readInput(ObjectReader reader, String input) throws IOException {
+    JsonNode n = getInputTree(input);
+    if (n == null) {
+      throw new IOException("input is not valid JSON");
+    }
+    return reader.readValue(n);
+  }
+
+  /**
+   * Set parsed JSON tree for input
+   *
+   * <p>Used when a structured representation of a string is already available, to avoid parsing
+   * the string again.
+   *
+   * @param input Input string
+   * @param tree Tree equivalent to parsing input
+   */
+  public void setInputTree(String input, JsonNode tree) {
+    inputTreeSource = input;
+    inputTree = tree;
+  }
+
   /**
    * Get cloudwatch event value
    *
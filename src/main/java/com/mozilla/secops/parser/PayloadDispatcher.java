@@ -0,0 +1,338 @@
+package com.mozilla.secops.parser;
+
+import com.google.api.services.logging.v2.model.LogEntry;
+import com.mozilla.secops.parser.models.cloudwatch.CloudWatchEvent;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects and constructs payload parsers for parser input
+ *
+ * <p>Rather than applying every payload matcher to each input, the dispatcher classifies input
+ * using discriminators that are already available after encapsulation stripping; whether a
+ * LogEntry was present and what type of payload it had, CloudWatch and Mozlog encapsulation, the
+ * Mozlog logger, whether the input is JSON, and syslog or quoted line prefixes. Each payload is
+ * registered with an eligibility test over this classification, and only eligible payloads have
+ * their matchers applied. Eligibility tests must be necessary conditions of the associated
+ * matcher, so dispatch selects the same payload as applying all matchers in registration order
+ * would.
+ *
+ * <p>Candidate lists are computed once for each input class and cached. Payload parser objects are
+ * created using factories supplied during registration rather than through reflection.
+ *
+ * <p>If adaptive mode is enabled, the payload that last matched input of a given class and source
+ * (the LogEntry log name or CloudWatch detail type) is tried before the other candidates. This
+ * favors the common case of a source emitting a single type of event, but means precedence among
+ * payloads whose matchers accept the same input follows recent history rather than registration
+ * order.
+ */
+class PayloadDispatcher {
+  /** Namespace for payload dispatch metrics */
+  public static final String METRICS_NAMESPACE = "Parser";
+
+  /** Input was a LogEntry */
+  static final int LOGENTRY = 1;
+  /** Input was a LogEntry with a JSON payload */
+  static final int LOGENTRY_JSON = 1 << 1;
+  /** Input was a LogEntry with a proto payload */
+  static final int LOGENTRY_PROTO = 1 << 2;
+  /** Input was a CloudWatch event */
+  static final int CLOUDWATCH = 1 << 3;
+  /** Input was Mozlog */
+  static final int MOZLOG = 1 << 4;
+  /** Input is JSON */
+  static final int JSON = 1 << 5;
+  /** Input begins with a double quote */
+  static final int QUOTED = 1 << 6;
+  /** Input begins with a syslog timestamp */
+  static final int SYSLOG = 1 << 7;
+
+  private static final int MAX_CLASSES = 1024;
+
+  private static final Pattern syslogPrefix = Pattern.compile("^" + Parser.SYSLOG_TS_RE + " ");
+
+  private final Logger log = LoggerFactory.getLogger(PayloadDispatcher.class);
+  private final ArrayList<Candidate> registered = new ArrayList<>();
+  private final ConcurrentHashMap<InputClass, ClassState> classes = new ConcurrentHashMap<>();
+  private final boolean adaptive;
+  private Candidate fallback;
+
+  /** Factory for payload parser objects */
+  interface PayloadFactory {
+    /**
+     * Create payload parser object
+     *
+     * @param input Input string
+     * @param e Parent {@link Event}
+     * @param state Parser state
+     * @return Payload
+     */
+    PayloadBase create(String input, Event e, ParserState state);
+  }
+
+  /** Eligibility test for a payload */
+  interface Eligibility {
+    /**
+     * Test if payload matcher could match input of class
+     *
+     * @param c Input class
+     * @return True if the payload matcher should be applied
+     */
+    Boolean test(InputClass c);
+  }
+
+  /** Classification of parser input */
+  static class InputClass {
+    private final int features;
+    private final String logger;
+    private final String source;
+
+    /**
+     * Test if input has all specified features
+     *
+     * @param mask Feature mask
+     * @return True if all features are present
+     */
+    Boolean has(int mask) {
+      return (features & mask) == mask;
+    }
+
+    /**
+     * Get Mozlog logger
+     *
+     * @return Logger, or null if input was not Mozlog or no logger was set
+     */
+    String getLogger() {
+      return logger;
+    }
+
+    /**
+     * Test if input is Mozlog with logger beginning with prefix
+     *
+     * @param prefix Prefix
+     * @return Boolean
+     */
+    Boolean loggerStartsWith(String prefix) {
+      return logger != null && logger.startsWith(prefix);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof InputClass)) {
+        return false;
+      }
+      InputClass c = (InputClass) o;
+      return features == c.features
+          && Objects.equals(logger, c.logger)
+          && Objects.equals(source, c.source);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(features, logger, source);
+    }
+
+    InputClass(int features, String logger, String source) {
+      this.features = features;
+      this.logger = logger;
+      this.source = source;
+    }
+  }
+
+  private static class Candidate {
+    private final PayloadBase matcher;
+    private final PayloadFactory factory;
+    private final Eligibility eligibility;
+    private final Counter matches;
+    private final Counter misses;
+
+    Candidate(PayloadBase matcher, PayloadFactory factory, Eligibility eligibility) {
+      this.matcher = matcher;
+      this.factory = factory;
+      this.eligibility = eligibility;
+      String name = matcher.getType().toString().toLowerCase();
+      matches = Metrics.counter(METRICS_NAMESPACE, "payload_match_" + name);
+      misses = Metrics.counter(METRICS_NAMESPACE, "payload_miss_" + name);
+    }
+  }
+
+  private static class ClassState {
+    private final Candidate[] candidates;
+    private volatile Candidate last;
+
+    ClassState(Candidate[] candidates) {
+      this.candidates = candidates;
+    }
+  }
+
+  /**
+   * Register a payload
+   *
+   * <p>Payloads are considered in the order they are registered.
+   *
+   * @param matcher Matcher object for payload
+   * @param factory Factory used to create payload parser objects
+   * @param eligibility Eligibility test for payload
+   * @return PayloadDispatcher
+   */
+  PayloadDispatcher register(PayloadBase matcher, PayloadFactory factory, Eligibility eligibility) {
+    registered.add(new Candidate(matcher, factory, eligibility));
+    classes.clear();
+    return this;
+  }
+
+  /**
+   * Register fallback payload
+   *
+   * <p>The fallback is considered after all other payloads regardless of input class, and is never
+   * preferred in adaptive mode.
+   *
+   * @param matcher Matcher object for payload
+   * @param factory Factory used to create payload parser objects
+   * @return PayloadDispatcher
+   */
+  PayloadDispatcher registerFallback(PayloadBase matcher, PayloadFactory factory) {
+    fallback = new Candidate(matcher, factory, c -> true);
+    classes.clear();
+    return this;
+  }
+
+  /**
+   * Classify input
+   *
+   * @param input Input string
+   * @param state Parser state
+   * @return Input class
+   */
+  static InputClass classify(String input, ParserState state) {
+    int features = 0;
+    String logger = null;
+    String source = null;
+
+    LogEntry entry = state.getLogEntryHint();
+    if (entry != null) {
+      features |= LOGENTRY;
+      if (entry.getJsonPayload() != null) {
+        features |= LOGENTRY_JSON;
+      }
+      if (entry.getProtoPayload() != null) {
+        features |= LOGENTRY_PROTO;
+      }
+      source = entry.getLogName();
+    }
+    CloudWatchEvent cwe = state.getCloudWatchEvent();
+    if (cwe != null) {
+      features |= CLOUDWATCH;
+      source = cwe.getDetailType();
+    }
+    Mozlog m = state.getMozlogHint();
+    if (m != null) {
+      features |= MOZLOG;
+      logger = m.getLogger();
+    }
+    // A serialized LogEntry is known to be JSON without tokenizing it
+    if (state.isSerializedLogEntryPayload(input) || state.getInputTree(input) != null) {
+      features |= JSON;
+    }
+    if (input.startsWith("\"")) {
+      features |= QUOTED;
+    }
+    if (syslogPrefix.matcher(input).lookingAt()) {
+      features |= SYSLOG;
+    }
+    return new InputClass(features, logger, source);
+  }
+
+  private ClassState newClassState(InputClass c) {
+    ArrayList<Candidate> ret = new ArrayList<>();
+    for (Candidate cand : registered) {
+      if (cand.eligibility.test(c)) {
+        ret.add(cand);
+      }
+    }
+    if (fallback != null) {
+      ret.add(fallback);
+    }
+    return new ClassState(ret.toArray(new Candidate[0]));
+  }
+
+  private ClassState getClassState(InputClass c) {
+    ClassState ret = classes.get(c);
+    if (ret != null) {
+      return ret;
+    }
+    ret = newClassState(c);
+    // Bound the number of cached classes, as the source component is derived from the input
+    if (classes.size() < MAX_CLASSES) {
+      ClassState prev = classes.putIfAbsent(c, ret);
+      if (prev != null) {
+        return prev;
+      }
+    }
+    return ret;
+  }
+
+  private Boolean apply(Candidate c, String input, ParserState state) {
+    if (c.matcher.matcher(input, state)) {
+      c.matches.inc();
+      return true;
+    }
+    c.misses.inc();
+    return false;
+  }
+
+  private PayloadBase create(Candidate c, String input, Event e, ParserState state) {
+    try {
+      return c.factory.create(input, e, state);
+    } catch (RuntimeException exc) {
+      // Preserve previous behavior of reflective construction, where a failure constructing the
+      // payload was logged and the event returned without a payload
+      log.warn("payload construction failed: {}", exc.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Select and construct payload for input
+   *
+   * @param input Input string
+   * @param e Parent {@link Event}
+   * @param state Parser state
+   * @return Payload, or null if no payload matched or construction failed
+   */
+  PayloadBase dispatch(String input, Event e, ParserState state) {
+    ClassState cs = getClassState(classify(input, state));
+
+    Candidate first = adaptive ? cs.last : null;
+    if (first != null && apply(first, input, state)) {
+      return create(first, input, e, state);
+    }
+    for (Candidate c : cs.candidates) {
+      if (c == first) {
+        continue;
+      }
+      if (apply(c, input, state)) {
+        if (adaptive && c != fallback) {
+          cs.last = c;
+        }
+        return create(c, input, e, state);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Create new dispatcher
+   *
+   * @param adaptive If true, try the last successful payload for an input class first
+   */
+  PayloadDispatcher(boolean adaptive) {
+    this.adaptive = adaptive;
+  }
+}
@@ -34,7 +34,16 @@ public class Raw extends PayloadBase implements Serializable {
    * @param state State
    */
   public Raw(String input, Event e, ParserState state) {
-    raw = input;
+    this(input);
+  }
+
+  /**
+   * Construct raw payload from a string
+   *
+   * @param raw Raw string
+   */
+  Raw(String raw) {
+    this.raw = raw;
   }
 
   /**
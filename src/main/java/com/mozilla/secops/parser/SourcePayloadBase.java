@@ -1,6 +1,5 @@
 package com.mozilla.secops.parser;
 
-import com.maxmind.geoip2.model.CityResponse;
 import java.io.Serializable;
 
 /**
@@ -38,17 +37,12 @@ public abstract class SourcePayloadBase extends PayloadBase implements Serializa
 
     if (state != null) {
       // If we have parser state attempt to resolve GeoIP information
-      CityResponse cr = state.getParser().geoIp(sourceAddress);
-      if (cr != null) {
-        sourceAddressCity = cr.getCity().getName();
-        sourceAddressCountry = cr.getCountry().getIsoCode();
-
-        if ((cr.getLocation() != null)
-            && (cr.getLocation().getLatitude() != null)
-            && (cr.getLocation().getLongitude() != null)) {
-          sourceAddressLatitude = cr.getLocation().getLatitude();
-          sourceAddressLongitude = cr.getLocation().getLongitude();
-        }
+      GeoIP.CityInfo ci = state.getParser().geoIpCityInfo(sourceAddress);
+      if (ci != null) {
+        sourceAddressCity = ci.getCity();
+        sourceAddressCountry = ci.getCountry();
+        sourceAddressLatitude = ci.getLatitude();
+        sourceAddressLongitude = ci.getLongitude();
       }
     }
 
@@ -1,7 +1,6 @@
 package com.mozilla.secops.parser;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.regex.Pattern;
@@ -17,25 +16,21 @@ public class Taskcluster extends SourcePayloadBase implements Serializable {
 
   @Override
   public Boolean matcher(String input, ParserState state) {
-    ObjectMapper mapper = new ObjectMapper();
-    com.mozilla.secops.parser.models.taskcluster.Taskcluster d;
-    try {
-      d = mapper.readValue(input, com.mozilla.secops.parser.models.taskcluster.Taskcluster.class);
-    } catch (IOException exc) {
-      return false;
-    }
+    // Check the Mozlog logger before binding the input, as it is much cheaper
     Mozlog m = state.getMozlogHint();
     if (m == null) {
       return false;
     }
     String logger = m.getLogger();
-    if (logger == null) {
+    if (logger == null || !logger.startsWith("taskcluster.")) {
       return false;
     }
-    if (logger.startsWith("taskcluster.")) {
-      return true;
+    try {
+      state.readInput(JacksonRegistry.taskclusterReader(), input);
+    } catch (IOException exc) {
+      return false;
     }
-    return false;
+    return true;
   }
 
   /**
@@ -148,10 +143,8 @@ public class Taskcluster extends SourcePayloadBase implements Serializable {
     emailPattern =
         Pattern.compile("^[A-Z0-9._%+-]+@[A-Z0-9.-]+\\.[A-Z]{2,6}$", Pattern.CASE_INSENSITIVE);
 
-    ObjectMapper mapper = new ObjectMapper();
     try {
-      data =
-          mapper.readValue(input, com.mozilla.secops.parser.models.taskcluster.Taskcluster.class);
+      data = state.readInput(JacksonRegistry.taskclusterReader(), input);
     } catch (IOException exc) {
       return;
     }
@@ -22,6 +22,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SlackManager {
+  /** Error returned by Slack when no user exists with the requested email */
+  public static final String USERS_NOT_FOUND = "users_not_found";
+
   private String apiToken;
   private Slack slack;
   private final Logger log;
@@ -53,19 +56,35 @@ public class SlackManager {
   }
 
   /**
-   * Get slack user id from their email.
+   * Get slack user from their email.
+   *
+   * <p>If the lookup fails, the error returned by Slack is available from the response, which
+   * allows a user that does not exist ({@link #USERS_NOT_FOUND}) to be distinguished from other
+   * failures such as rate limiting.
    *
    * @param email User's email
-   * @return User's slack user id
+   * @return Lookup response
    */
-  public String lookupUserIdByEmail(String email) throws IOException, SlackApiException {
+  public UsersLookupByEmailResponse lookupUserByEmail(String email)
+      throws IOException, SlackApiException {
     UsersLookupByEmailResponse resp =
         slack
             .methods()
             .usersLookupByEmail(
                 UsersLookupByEmailRequest.builder().token(apiToken).email(email).build());
+    handleSlackResponse(resp);
+    return resp;
+  }
 
-    if (handleSlackResponse(resp)) {
+  /**
+   * Get slack user id from their email.
+   *
+   * @param email User's email
+   * @return User's slack user id
+   */
+  public String lookupUserIdByEmail(String email) throws IOException, SlackApiException {
+    UsersLookupByEmailResponse resp = lookupUserByEmail(email);
+    if (resp.isOk()) {
       return resp.getUser().getId();
     }
     return null;
@@ -74,12 +93,20 @@ public class SlackManager {
   /**
    * Get map where the key is user's emails and the corresponding value is their slack id.
    *
-   * @return HashMap for email to slack id
+   * <p>Users without an email address, such as bots, are not included.
+   *
+   * @return HashMap for email to slack id, or null if the user list could not be fetched
    */
   public HashMap<String, String> getEmailToUserIdMapping() throws IOException, SlackApiException {
     List<User> users = getUserList();
+    if (users == null) {
+      return null;
+    }
     HashMap<String, String> emailToUser = new HashMap<String, String>();
     for (User user : users) {
+      if (user.getProfile() == null || user.getProfile().getEmail() == null) {
+        continue;
+      }
       emailToUser.put(user.getProfile().getEmail(), user.getId());
     }
     return emailToUser;
@@ -0,0 +1,115 @@
+package com.mozilla.secops.slack;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Rate limited asynchronous queue for outbound Slack requests
+ *
+ * <p>Submitted tasks are executed in order on a single background thread. Execution is limited by a
+ * token bucket that is refilled at a fixed rate and holds up to a configured number of tokens, so
+ * short bursts are sent immediately while sustained traffic is spread out to stay within Slack rate
+ * limits. If Slack still responds with a rate limit error, {@link SlackManager} waits for the
+ * indicated period on the queue thread, delaying subsequent tasks rather than the caller.
+ */
+public class SlackSendQueue {
+  /** Default rate at which tokens are added to the bucket, per second */
+  public static final double DEFAULT_RATE = 1.0;
+
+  /** Default bucket capacity */
+  public static final int DEFAULT_BURST = 5;
+
+  private static final ConcurrentHashMap<String, SlackSendQueue> instances =
+      new ConcurrentHashMap<>();
+
+  private final double rate;
+  private final int burst;
+  private final ExecutorService executor;
+  private final AtomicInteger pending = new AtomicInteger();
+
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Get shared queue instance for a Slack API token
+   *
+   * @param apiToken Slack API token
+   * @return SlackSendQueue
+   */
+  public static SlackSendQueue getInstance(String apiToken) {
+    return instances.computeIfAbsent(
+        apiToken, k -> new SlackSendQueue(DEFAULT_RATE, DEFAULT_BURST));
+  }
+
+  private void acquire() {
+    while (true) {
+      long now = System.nanoTime();
+      tokens = Math.min(burst, tokens + ((now - lastRefill) / 1e9) * rate);
+      lastRefill = now;
+      if (tokens >= 1.0) {
+        tokens -= 1.0;
+        return;
+      }
+      long waitMs = (long) Math.ceil(((1.0 - tokens) / rate) * 1000);
+      try {
+        Thread.sleep(waitMs);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Submit a task to the queue
+   *
+   * @param task Task to execute once a token is available
+   * @return Future completed with the result of the task
+   */
+  public <T> CompletableFuture<T> submit(Supplier<T> task) {
+    pending.incrementAndGet();
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            acquire();
+            return task.get();
+          } finally {
+            pending.decrementAndGet();
+          }
+        },
+        executor);
+  }
+
+  /**
+   * Get number of tasks that have been submitted but not completed
+   *
+   * @return Pending count
+   */
+  public int pendingCount() {
+    return pending.get();
+  }
+
+  /**
+   * Create new Slack send queue
+   *
+   * @param rate Rate at which tokens are added to the bucket, per second
+   * @param burst Bucket capacity
+   */
+  public SlackSendQueue(double rate, int burst) {
+    this.rate = rate;
+    this.burst = burst;
+    tokens = burst;
+    lastRefill = System.nanoTime();
+    executor =
+        Executors.newSingleThreadExecutor(
+            r -> {
+              Thread t = new Thread(r, "slack-send-queue");
+              t.setDaemon(true);
+              return t;
+            });
+  }
+}
@@ -0,0 +1,215 @@
+package com.mozilla.secops.slack;
+
+import com.github.seratch.jslack.api.methods.SlackApiException;
+import com.github.seratch.jslack.api.methods.response.channels.UsersLookupByEmailResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of Slack user IDs keyed by email address
+ *
+ * <p>The directory is populated in bulk from the Slack user list the first time it is used, and can
+ * be refreshed in the background. Emails that are not present in the directory are looked up
+ * individually, and concurrent lookups for the same email are coalesced into a single request.
+ * Emails Slack reports as not belonging to any user are remembered until the next refresh; other
+ * lookup failures such as rate limiting are not remembered, so the email is looked up again on the
+ * next request.
+ */
+public class SlackUserDirectory {
+  /** Default background refresh interval in seconds */
+  public static final long DEFAULT_REFRESH_SECONDS = 3600L;
+
+  private static final ConcurrentHashMap<String, SlackUserDirectory> instances =
+      new ConcurrentHashMap<>();
+
+  private final SlackManager slackManager;
+  private final Logger log;
+  private final ConcurrentHashMap<String, CompletableFuture<String>> inflight =
+      new ConcurrentHashMap<>();
+
+  private volatile ConcurrentHashMap<String, String> users = new ConcurrentHashMap<>();
+  private volatile ConcurrentHashMap<String, Boolean> misses = new ConcurrentHashMap<>();
+  private volatile Boolean loaded = false;
+  private ScheduledExecutorService refresher;
+
+  /**
+   * Get shared directory instance for a Slack API token
+   *
+   * <p>A new instance uses the supplied {@link SlackManager}, and is refreshed in the background
+   * every {@link #DEFAULT_REFRESH_SECONDS}.
+   *
+   * @param apiToken Slack API token
+   * @param slackManager Slack manager to use if a new instance is created
+   * @return SlackUserDirectory
+   */
+  public static SlackUserDirectory getInstance(String apiToken, SlackManager slackManager) {
+    return instances.computeIfAbsent(
+        apiToken,
+        k -> {
+          SlackUserDirectory d = new SlackUserDirectory(slackManager);
+          d.enableRefresh(DEFAULT_REFRESH_SECONDS);
+          return d;
+        });
+  }
+
+  /** Discard all shared directory instances, stopping any background refresh */
+  public static void reset() {
+    for (SlackUserDirectory d : instances.values()) {
+      d.disableRefresh();
+    }
+    instances.clear();
+  }
+
+  /**
+   * Reload the directory from the Slack user list
+   *
+   * <p>If the user list cannot be fetched, the current directory continues to be used.
+   *
+   * @return True if the directory was reloaded
+   */
+  public Boolean refresh() {
+    HashMap<String, String> mapping;
+    try {
+      mapping = slackManager.getEmailToUserIdMapping();
+    } catch (IOException exc) {
+      log.error("error refreshing slack user directory (IOException): {}", exc.getMessage());
+      return false;
+    } catch (SlackApiException exc) {
+      log.error("error refreshing slack user directory (SlackApiException): {}", exc.getMessage());
+      return false;
+    }
+    if (mapping == null) {
+      return false;
+    }
+    ConcurrentHashMap<String, String> n = new ConcurrentHashMap<>();
+    for (Map.Entry<String, String> entry : mapping.entrySet()) {
+      if (entry.getKey() != null && entry.getValue() != null) {
+        n.put(entry.getKey().toLowerCase(), entry.getValue());
+      }
+    }
+    users = n;
+    misses = new ConcurrentHashMap<>();
+    log.info("loaded {} users into slack user directory", n.size());
+    return true;
+  }
+
+  /**
+   * Enable background refresh of the directory
+   *
+   * <p>If background refresh is already enabled this has no effect.
+   *
+   * @param intervalSeconds Refresh interval in seconds
+   */
+  public synchronized void enableRefresh(long intervalSeconds) {
+    if (refresher != null) {
+      return;
+    }
+    refresher =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "slack-user-directory-refresh");
+              t.setDaemon(true);
+              return t;
+            });
+    refresher.scheduleWithFixedDelay(
+        this::refresh, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /** Disable background refresh of the directory */
+  public synchronized void disableRefresh() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+  }
+
+  private synchronized void initialLoad() {
+    if (!loaded) {
+      // Only attempt the initial load once; failures are retried by background refresh
+      try {
+        refresh();
+      } finally {
+        loaded = true;
+      }
+    }
+  }
+
+  private String lookup(String email, String key) {
+    CompletableFuture<String> f = new CompletableFuture<>();
+    CompletableFuture<String> existing = inflight.putIfAbsent(key, f);
+    if (existing != null) {
+      return existing.join();
+    }
+    String ret = null;
+    try {
+      UsersLookupByEmailResponse resp = slackManager.lookupUserByEmail(email);
+      if (resp.isOk() && resp.getUser() != null) {
+        ret = resp.getUser().getId();
+        users.put(key, ret);
+      } else if (SlackManager.USERS_NOT_FOUND.equals(resp.getError())) {
+        misses.put(key, true);
+      } else {
+        log.warn("slack user lookup failed, not caching result: {}", resp.getError());
+      }
+    } catch (IOException exc) {
+      log.error("error getting user id from slack (IOException): {}", exc.getMessage());
+    } catch (SlackApiException exc) {
+      log.error("error getting user id from slack (SlackApiException): {}", exc.getMessage());
+    } finally {
+      inflight.remove(key, f);
+      f.complete(ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Get Slack user ID for an email address
+   *
+   * @param email User's email
+   * @return User's Slack user ID, or null if it could not be found
+   */
+  public String getUserId(String email) {
+    if (email == null) {
+      return null;
+    }
+    if (!loaded) {
+      initialLoad();
+    }
+    String key = email.toLowerCase();
+    String ret = users.get(key);
+    if (ret != null) {
+      return ret;
+    }
+    if (misses.containsKey(key)) {
+      return null;
+    }
+    return lookup(email, key);
+  }
+
+  /**
+   * Get number of users in the directory
+   *
+   * @return User count
+   */
+  public int size() {
+    return users.size();
+  }
+
+  /**
+   * Create new Slack user directory
+   *
+   * @param slackManager Slack manager used to query the Slack API
+   */
+  public SlackUserDirectory(SlackManager slackManager) {
+    log = LoggerFactory.getLogger(SlackUserDirectory.class);
+    this.slackManager = slackManager;
+  }
+}
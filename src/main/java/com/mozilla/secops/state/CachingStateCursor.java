@@ -0,0 +1,101 @@
+package com.mozilla.secops.state;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cursor implementation for {@link CachingStateInterface}
+ *
+ * <p>Writes made using the cursor are not visible to other cursors until the cursor is committed.
+ * Reads that miss the cache are made using a cursor of the underlying interface, which with write
+ * through is also used for writes so a read, modify and write of an uncached key occurs in a single
+ * transaction where the underlying interface supports it.
+ */
+public class CachingStateCursor extends StateCursor {
+  private final CachingStateInterface parent;
+  private final LinkedHashMap<String, String> writes = new LinkedHashMap<>();
+  private StateCursor backingCursor;
+
+  private StateCursor getBackingCursor() {
+    if (backingCursor == null) {
+      backingCursor = parent.getBacking().newCursor();
+    }
+    return backingCursor;
+  }
+
+  public String getObject(String s) throws StateException {
+    if (writes.containsKey(s)) {
+      return writes.get(s);
+    }
+    synchronized (parent.lockFor(s)) {
+      CachingStateInterface.CacheEntry e = parent.lookup(s);
+      if (e != null) {
+        parent.recordLookup(true);
+        return e.getValue();
+      }
+      parent.recordLookup(false);
+      String ret = getBackingCursor().getObject(s);
+      parent.store(s, ret);
+      return ret;
+    }
+  }
+
+  public void saveObject(String s, String v) throws StateException {
+    writes.put(s, v);
+  }
+
+  public void commit() throws StateException {
+    try {
+      if (parent.isWriteBehind()) {
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+          synchronized (parent.lockFor(entry.getKey())) {
+            parent.queue(entry.getKey(), entry.getValue());
+            parent.store(entry.getKey(), entry.getValue());
+          }
+        }
+        if (backingCursor != null) {
+          backingCursor.commit();
+        }
+        parent.maybeFlush();
+        return;
+      }
+
+      if (writes.isEmpty()) {
+        if (backingCursor != null) {
+          backingCursor.commit();
+        }
+        return;
+      }
+      StateCursor c = getBackingCursor();
+      try {
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+          c.saveObject(entry.getKey(), entry.getValue());
+        }
+        c.commit();
+      } catch (StateException exc) {
+        // The cached value may be the reason the write was rejected, so read it again on next use
+        for (String key : writes.keySet()) {
+          parent.invalidate(key);
+        }
+        throw exc;
+      }
+      for (Map.Entry<String, String> entry : writes.entrySet()) {
+        synchronized (parent.lockFor(entry.getKey())) {
+          parent.store(entry.getKey(), entry.getValue());
+        }
+      }
+    } finally {
+      writes.clear();
+      backingCursor = null;
+    }
+  }
+
+  /**
+   * Initialize new caching state cursor
+   *
+   * @param parent {@link CachingStateInterface} cursor was allocated from
+   */
+  public CachingStateCursor(CachingStateInterface parent) {
+    this.parent = parent;
+  }
+}
@@ -0,0 +1,344 @@
+package com.mozilla.secops.state;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caching decorator for another {@link StateInterface}
+ *
+ * <p>Values read from or written to the underlying interface are held in a bounded LRU cache, and
+ * are served from the cache until the configured TTL expires. Access to a given key is serialized
+ * using striped locks, so concurrent threads on a worker do not race to load the same key.
+ *
+ * <p>If a flush interval is configured, writes are held and coalesced per key, and only the latest
+ * value for each key is written to the underlying interface when the interval elapses or {@link
+ * #flush} is called (for example from a {@link org.apache.beam.sdk.transforms.DoFn.FinishBundle}
+ * method). With a flush interval of zero, writes made using a cursor are written through when the
+ * cursor is committed.
+ *
+ * <p>Since values are served from the cache, transactions in the underlying interface do not
+ * provide consistency between workers for cached keys. The decorator should be used where state is
+ * predominantly accessed by a single worker and the TTL bounds acceptable staleness.
+ */
+public class CachingStateInterface implements StateInterface {
+  /** Namespace for state cache metrics */
+  public static final String METRICS_NAMESPACE = "State";
+
+  /** Metric for cache hits */
+  public static final String CACHE_HITS_METRIC = "state_cache_hits";
+
+  /** Metric for cache misses */
+  public static final String CACHE_MISSES_METRIC = "state_cache_misses";
+
+  /** Metric for number of values written to the underlying interface during flushes */
+  public static final String CACHE_FLUSHED_METRIC = "state_cache_flushed";
+
+  /** Maximum number of values written using a single cursor of the underlying interface */
+  public static final int FLUSH_BATCH_SIZE = 500;
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final Logger log = LoggerFactory.getLogger(CachingStateInterface.class);
+  private final StateInterface backing;
+  private final int maxEntries;
+  private final long ttl;
+  private final long flushInterval;
+  private final Object[] locks;
+  private final LinkedHashMap<String, CacheEntry> cache;
+  private final LinkedHashMap<String, String> dirty = new LinkedHashMap<>();
+  private long lastFlush;
+
+  private final Counter hitsMetric = Metrics.counter(METRICS_NAMESPACE, CACHE_HITS_METRIC);
+  private final Counter missesMetric = Metrics.counter(METRICS_NAMESPACE, CACHE_MISSES_METRIC);
+  private final Counter flushedMetric = Metrics.counter(METRICS_NAMESPACE, CACHE_FLUSHED_METRIC);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong flushed = new AtomicLong();
+
+  /** Cached value */
+  static class CacheEntry {
+    private final String value;
+    private final long expires;
+
+    /**
+     * Get value
+     *
+     * @return Value, or null if the key did not exist
+     */
+    String getValue() {
+      return value;
+    }
+
+    CacheEntry(String value, long expires) {
+      this.value = value;
+      this.expires = expires;
+    }
+  }
+
+  /**
+   * Get lock object for key
+   *
+   * @param key Key
+   * @return Lock object
+   */
+  Object lockFor(String key) {
+    return locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+  }
+
+  /**
+   * Lookup key in cache and pending writes
+   *
+   * <p>The caller must hold the lock for the key.
+   *
+   * @param key Key
+   * @return Cached value, or null if not present or expired
+   */
+  CacheEntry lookup(String key) {
+    synchronized (dirty) {
+      if (dirty.containsKey(key)) {
+        return new CacheEntry(dirty.get(key), Long.MAX_VALUE);
+      }
+    }
+    synchronized (cache) {
+      CacheEntry e = cache.get(key);
+      if (e == null) {
+        return null;
+      }
+      if (e.expires <= System.currentTimeMillis()) {
+        cache.remove(key);
+        return null;
+      }
+      return e;
+    }
+  }
+
+  /**
+   * Store value in cache
+   *
+   * @param key Key
+   * @param value Value, or null to cache absence of the key
+   */
+  void store(String key, String value) {
+    synchronized (cache) {
+      cache.put(key, new CacheEntry(value, System.currentTimeMillis() + ttl));
+    }
+  }
+
+  /**
+   * Remove key from cache
+   *
+   * @param key Key
+   */
+  void invalidate(String key) {
+    synchronized (cache) {
+      cache.remove(key);
+    }
+  }
+
+  /**
+   * Queue value to be written on next flush
+   *
+   * @param key Key
+   * @param value Value
+   */
+  void queue(String key, String value) {
+    synchronized (dirty) {
+      dirty.put(key, value);
+    }
+  }
+
+  /**
+   * Record the result of a cache lookup
+   *
+   * @param hit True for a hit, false for a miss
+   */
+  void recordLookup(Boolean hit) {
+    if (hit) {
+      hits.incrementAndGet();
+      hitsMetric.inc();
+    } else {
+      misses.incrementAndGet();
+      missesMetric.inc();
+    }
+  }
+
+  /**
+   * Get underlying interface
+   *
+   * @return StateInterface
+   */
+  StateInterface getBacking() {
+    return backing;
+  }
+
+  /**
+   * Test if writes are deferred until flush
+   *
+   * @return True if a flush interval is configured
+   */
+  Boolean isWriteBehind() {
+    return flushInterval > 0;
+  }
+
+  /**
+   * Flush pending writes if the flush interval has elapsed
+   *
+   * @throws StateException StateException
+   */
+  void maybeFlush() throws StateException {
+    synchronized (dirty) {
+      if (System.currentTimeMillis() - lastFlush < flushInterval) {
+        return;
+      }
+    }
+    flush();
+  }
+
+  /**
+   * Write all pending values to the underlying interface
+   *
+   * <p>If writing fails, values that have not been superseded by a later write are queued again.
+   *
+   * @throws StateException StateException
+   */
+  public void flush() throws StateException {
+    ArrayList<Map.Entry<String, String>> pending;
+    synchronized (dirty) {
+      lastFlush = System.currentTimeMillis();
+      if (dirty.isEmpty()) {
+        return;
+      }
+      pending = new ArrayList<>(dirty.entrySet());
+      dirty.clear();
+    }
+
+    for (int i = 0; i < pending.size(); i += FLUSH_BATCH_SIZE) {
+      int end = Math.min(i + FLUSH_BATCH_SIZE, pending.size());
+      try {
+        StateCursor c = backing.newCursor();
+        for (Map.Entry<String, String> entry : pending.subList(i, end)) {
+          c.saveObject(entry.getKey(), entry.getValue());
+        }
+        c.commit();
+      } catch (StateException exc) {
+        synchronized (dirty) {
+          for (Map.Entry<String, String> entry : pending.subList(i, pending.size())) {
+            dirty.putIfAbsent(entry.getKey(), entry.getValue());
+          }
+        }
+        throw exc;
+      }
+      flushed.addAndGet(end - i);
+      flushedMetric.inc(end - i);
+    }
+  }
+
+  /**
+   * Get number of cache hits
+   *
+   * @return Hit count
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get number of cache misses
+   *
+   * @return Miss count
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get number of values written to the underlying interface by flushes
+   *
+   * @return Flushed value count
+   */
+  public long getFlushed() {
+    return flushed.get();
+  }
+
+  /**
+   * Get number of writes pending flush
+   *
+   * @return Pending count
+   */
+  public int pendingCount() {
+    synchronized (dirty) {
+      return dirty.size();
+    }
+  }
+
+  public StateCursor newCursor() {
+    return new CachingStateCursor(this);
+  }
+
+  public void done() {
+    try {
+      flush();
+    } catch (StateException exc) {
+      // Values that could not be written are requeued by flush, and are lost once the underlying
+      // interface is shut down
+      log.error(
+          "final flush failed, discarding {} pending state writes: {}",
+          pendingCount(),
+          exc.getMessage());
+    }
+    backing.done();
+  }
+
+  public void deleteAll() throws StateException {
+    synchronized (dirty) {
+      dirty.clear();
+    }
+    synchronized (cache) {
+      cache.clear();
+    }
+    backing.deleteAll();
+  }
+
+  public void initialize() throws StateException {
+    backing.initialize();
+    lastFlush = System.currentTimeMillis();
+  }
+
+  /**
+   * Initialize a caching state interface
+   *
+   * @param backing Underlying state interface
+   * @param maxEntries Maximum number of values to cache
+   * @param ttl Time in milliseconds a cached value is used before being read again
+   * @param flushInterval Interval in milliseconds writes are deferred for, 0 to write on commit
+   */
+  public CachingStateInterface(
+      StateInterface backing, int maxEntries, long ttl, long flushInterval) {
+    if (maxEntries <= 0 || ttl <= 0 || flushInterval < 0) {
+      throw new IllegalArgumentException("invalid cache configuration");
+    }
+    this.backing = backing;
+    this.maxEntries = maxEntries;
+    this.ttl = ttl;
+    this.flushInterval = flushInterval;
+    locks = new Object[LOCK_STRIPES];
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+    cache =
+        new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > CachingStateInterface.this.maxEntries;
+          }
+        };
+  }
+}
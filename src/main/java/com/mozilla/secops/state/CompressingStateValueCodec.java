@@ -0,0 +1,95 @@
+package com.mozilla.secops.state;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * State value codec that compresses large values
+ *
+ * <p>Values with a serialized length at or above the threshold are deflate compressed and stored
+ * as base64 with a versioned prefix, so the result can still be stored as a string by any {@link
+ * StateInterface}. Smaller values are stored as plain JSON. Values without the prefix are always
+ * decoded as plain JSON, so state written before compression was enabled remains readable.
+ *
+ * <p>Readers that do not use this codec cannot decode compressed values, so compression should only
+ * be enabled once every reader of the state has been updated.
+ */
+public class CompressingStateValueCodec implements StateValueCodec {
+  /** Prefix identifying a compressed value, including the format version */
+  public static final String PREFIX_V1 = "~z1:";
+
+  /** Default threshold at which values are compressed */
+  public static final int DEFAULT_THRESHOLD = 512;
+
+  private final int threshold;
+
+  public String encode(String value) throws StateException {
+    if (threshold <= 0 || value.length() < threshold) {
+      return value;
+    }
+    byte[] in = value.getBytes(StandardCharsets.UTF_8);
+    Deflater d = new Deflater(Deflater.BEST_SPEED);
+    try {
+      d.setInput(in);
+      d.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 2);
+      byte[] buf = new byte[4096];
+      while (!d.finished()) {
+        out.write(buf, 0, d.deflate(buf));
+      }
+      String ret = PREFIX_V1 + Base64.getEncoder().encodeToString(out.toByteArray());
+      // Store whichever representation is smaller
+      return ret.length() < value.length() ? ret : value;
+    } finally {
+      d.end();
+    }
+  }
+
+  public String decode(String value) throws StateException {
+    if (!value.startsWith(PREFIX_V1)) {
+      return value;
+    }
+    byte[] in;
+    try {
+      in = Base64.getDecoder().decode(value.substring(PREFIX_V1.length()));
+    } catch (IllegalArgumentException exc) {
+      throw new StateException(exc.getMessage());
+    }
+    Inflater i = new Inflater();
+    try {
+      i.setInput(in);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(in.length * 4);
+      byte[] buf = new byte[4096];
+      while (!i.finished()) {
+        int n = i.inflate(buf);
+        if (n == 0 && (i.needsInput() || i.needsDictionary())) {
+          throw new StateException("truncated compressed state value");
+        }
+        out.write(buf, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (DataFormatException exc) {
+      throw new StateException(exc.getMessage());
+    } finally {
+      i.end();
+    }
+  }
+
+  /**
+   * Create new compressing codec
+   *
+   * @param threshold Serialized length at which values are compressed, 0 to never compress
+   */
+  public CompressingStateValueCodec(int threshold) {
+    this.threshold = threshold;
+  }
+
+  /** Create new compressing codec using the default threshold */
+  public CompressingStateValueCodec() {
+    this(DEFAULT_THRESHOLD);
+  }
+}
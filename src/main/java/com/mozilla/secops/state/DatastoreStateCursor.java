@@ -7,47 +7,139 @@ import com.google.cloud.datastore.Key;
 import com.google.cloud.datastore.KeyFactory;
 import com.google.cloud.datastore.StringValue;
 import com.google.cloud.datastore.Transaction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
-/** Datastore state cursor implementation */
+/**
+ * Datastore state cursor implementation
+ *
+ * <p>Reads are made in the cursor's transaction. Keys can be fetched in batches of up to {@link
+ * #MAX_LOOKUP_KEYS} using {@link #prefetch}. Writes are buffered and sent when the cursor is
+ * committed. The first {@link #MAX_MUTATIONS} writes are committed in the cursor's transaction. Any
+ * remaining writes are committed in additional transactions of up to {@link #MAX_MUTATIONS} writes
+ * each, and those transactions are retried if they fail with a retryable error.
+ */
 public class DatastoreStateCursor extends StateCursor {
+  /** Maximum number of mutations Datastore permits in a single commit */
+  public static final int MAX_MUTATIONS = 500;
+
+  /** Maximum number of keys fetched in a single lookup */
+  public static final int MAX_LOOKUP_KEYS = 1000;
+
+  /** Maximum attempts for writes committed outside of the cursor transaction */
+  public static final int MAX_ATTEMPTS = 3;
+
+  private Datastore datastore;
   private String namespace;
   private String kind;
   private KeyFactory keyFactory;
   private Transaction tx;
+  private final HashMap<String, String> fetched = new HashMap<>();
+  private final LinkedHashMap<String, Entity> puts = new LinkedHashMap<>();
+
+  private static void commitWithRetry(Datastore d, List<Entity> entities) throws StateException {
+    for (int attempt = 1; ; attempt++) {
+      Transaction t = d.newTransaction();
+      try {
+        t.put(entities.toArray(new Entity[0]));
+        t.commit();
+        return;
+      } catch (DatastoreException exc) {
+        if (t.isActive()) {
+          t.rollback();
+        }
+        if (!exc.isRetryable() || attempt >= MAX_ATTEMPTS) {
+          throw new StateException(exc.getMessage());
+        }
+      }
+    }
+  }
 
   public void commit() throws StateException {
+    ArrayList<Entity> entities = new ArrayList<>(puts.values());
+    puts.clear();
+    fetched.clear();
     try {
+      if (!entities.isEmpty()) {
+        int n = Math.min(entities.size(), MAX_MUTATIONS);
+        tx.put(entities.subList(0, n).toArray(new Entity[0]));
+      }
       tx.commit();
     } catch (DatastoreException exc) {
+      if ("ABORTED".equals(exc.getReason())) {
+        throw new StateConflictException(exc.getMessage());
+      }
       throw new StateException(exc.getMessage());
     }
+    for (int i = MAX_MUTATIONS; i < entities.size(); i += MAX_MUTATIONS) {
+      int end = Math.min(entities.size(), i + MAX_MUTATIONS);
+      commitWithRetry(datastore, entities.subList(i, end));
+    }
   }
 
-  public String getObject(String s) {
-    Key nk = keyFactory.newKey(s);
-    Entity e = tx.get(nk);
-    if (e == null) {
-      return null;
+  private Key newKey(String s) throws StateException {
+    try {
+      return keyFactory.newKey(s);
+    } catch (IllegalArgumentException exc) {
+      throw new StateException(exc.getMessage());
     }
-    return e.getString("state");
   }
 
-  public void saveObject(String s, String v) throws StateException {
-    Key nk;
+  @Override
+  public void prefetch(Collection<String> keys) throws StateException {
+    ArrayList<Key> want = new ArrayList<>();
+    for (String s : keys) {
+      if (!fetched.containsKey(s) && !puts.containsKey(s)) {
+        want.add(newKey(s));
+        // Keys not returned by the lookup do not exist
+        fetched.put(s, null);
+      }
+    }
+    if (want.isEmpty()) {
+      return;
+    }
     try {
-      nk = keyFactory.newKey(s);
-    } catch (IllegalArgumentException exc) {
+      for (int i = 0; i < want.size(); i += MAX_LOOKUP_KEYS) {
+        int end = Math.min(want.size(), i + MAX_LOOKUP_KEYS);
+        Iterator<Entity> it = tx.get(want.subList(i, end).toArray(new Key[0]));
+        while (it.hasNext()) {
+          Entity e = it.next();
+          fetched.put(e.getKey().getName(), e.getString("state"));
+        }
+      }
+    } catch (DatastoreException exc) {
       throw new StateException(exc.getMessage());
     }
-    Entity.Builder eb = Entity.newBuilder(nk);
-    StringValue value = StringValue.newBuilder(v).setExcludeFromIndexes(true).build();
-    eb.set("state", value);
-    Entity e = eb.build();
+  }
+
+  public String getObject(String s) throws StateException {
+    Entity p = puts.get(s);
+    if (p != null) {
+      return p.getString("state");
+    }
+    if (fetched.containsKey(s)) {
+      return fetched.get(s);
+    }
+    Entity e;
     try {
-      tx.put(e);
+      e = tx.get(newKey(s));
     } catch (DatastoreException exc) {
       throw new StateException(exc.getMessage());
     }
+    String ret = e == null ? null : e.getString("state");
+    fetched.put(s, ret);
+    return ret;
+  }
+
+  public void saveObject(String s, String v) throws StateException {
+    Entity.Builder eb = Entity.newBuilder(newKey(s));
+    StringValue value = StringValue.newBuilder(v).setExcludeFromIndexes(true).build();
+    eb.set("state", value);
+    puts.put(s, eb.build());
   }
 
   /**
@@ -56,6 +148,7 @@ public class DatastoreStateCursor extends StateCursor {
    * @param d Initialized {@link Datastore} object
    */
   public DatastoreStateCursor(Datastore d, String namespace, String kind) {
+    datastore = d;
     this.namespace = namespace;
     this.kind = kind;
     keyFactory = d.newKeyFactory().setNamespace(namespace).setKind(kind);
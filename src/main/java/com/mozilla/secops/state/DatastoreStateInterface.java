@@ -2,12 +2,14 @@ package com.mozilla.secops.state;
 
 import com.google.cloud.NoCredentials;
 import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreException;
 import com.google.cloud.datastore.DatastoreOptions;
-import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
 import com.google.cloud.datastore.KeyFactory;
+import com.google.cloud.datastore.KeyQuery;
 import com.google.cloud.datastore.Query;
 import com.google.cloud.datastore.QueryResults;
-import com.google.cloud.datastore.StructuredQuery;
+import java.util.ArrayList;
 
 /** Utilize GCP Datastore for centralized state storage */
 public class DatastoreStateInterface implements StateInterface {
@@ -23,7 +25,23 @@ public class DatastoreStateInterface implements StateInterface {
 
   public void done() {}
 
+  public void flush() throws StateException {}
+
   public void initialize() throws StateException {
+    datastore = getDatastore(project);
+    keyFactory = datastore.newKeyFactory().setNamespace(namespace).setKind(kind);
+  }
+
+  /**
+   * Get a Datastore client
+   *
+   * <p>If the DATASTORE_HOST and DATASTORE_PROJECT_ID environment variables are set, the client
+   * will be configured to use the emulator.
+   *
+   * @param project If Datastore is in another project, non-null project ID
+   * @return Datastore
+   */
+  public static Datastore getDatastore(String project) {
     String emulatorHost = System.getenv("DATASTORE_HOST");
     String emulatorProject = System.getenv("DATASTORE_PROJECT_ID");
 
@@ -32,24 +50,33 @@ public class DatastoreStateInterface implements StateInterface {
       b.setHost(emulatorHost);
       b.setProjectId(emulatorProject);
       b.setCredentials(NoCredentials.getInstance());
-      datastore = b.build().getService();
-    } else {
-      DatastoreOptions.Builder b = DatastoreOptions.getDefaultInstance().toBuilder();
-      if (project != null) {
-        b.setProjectId(project);
-      }
-      datastore = b.build().getService();
+      return b.build().getService();
     }
-    keyFactory = datastore.newKeyFactory().setNamespace(namespace).setKind(kind);
+    DatastoreOptions.Builder b = DatastoreOptions.getDefaultInstance().toBuilder();
+    if (project != null) {
+      b.setProjectId(project);
+    }
+    return b.build().getService();
   }
 
   public void deleteAll() throws StateException {
-    StructuredQuery<Entity> query =
-        Query.newEntityQueryBuilder().setNamespace(namespace).setKind(kind).build();
-    QueryResults<Entity> results = datastore.run(query);
+    KeyQuery query = Query.newKeyQueryBuilder().setNamespace(namespace).setKind(kind).build();
+    QueryResults<Key> results = datastore.run(query);
 
-    while (results.hasNext()) {
-      datastore.delete(results.next().getKey());
+    ArrayList<Key> batch = new ArrayList<>();
+    try {
+      while (results.hasNext()) {
+        batch.add(results.next());
+        if (batch.size() == DatastoreStateCursor.MAX_MUTATIONS) {
+          datastore.delete(batch.toArray(new Key[0]));
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        datastore.delete(batch.toArray(new Key[0]));
+      }
+    } catch (DatastoreException exc) {
+      throw new StateException(exc.getMessage());
     }
   }
 
@@ -1,32 +1,135 @@
 package com.mozilla.secops.state;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
 import net.spy.memcached.MemcachedClient;
-import net.spy.memcached.OperationTimeoutException;
 
 /**
  * Memcached state cursor implementation
  *
- * <p>This implementation does not support transactions.
+ * <p>Reads fetch a CAS identifier along with the value, and writes are buffered until the cursor is
+ * committed. On commit, a value that was read using the cursor is only replaced if it has not been
+ * modified since it was read, and a value that was read as absent is only added if it still does
+ * not exist. If either check fails, a {@link StateConflictException} is thrown. Values that were
+ * not read are written unconditionally.
+ *
+ * <p>{@link #prefetch} issues reads without waiting for the responses, so a caller can continue
+ * processing while the requests are outstanding. All operations are pipelined on the client
+ * connection.
  */
 public class MemcachedStateCursor extends StateCursor {
-  private MemcachedClient memclient;
+  private final MemcachedClient memclient;
+  private final HashMap<String, Future<CASValue<Object>>> pending = new HashMap<>();
+  private final HashMap<String, CASValue<Object>> fetched = new HashMap<>();
+  private final LinkedHashMap<String, String> writes = new LinkedHashMap<>();
 
-  public void commit() throws StateException {}
+  private <T> T await(Future<T> f) throws StateException {
+    try {
+      return f.get(memclient.getOperationTimeout(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new StateException(exc.getMessage());
+    } catch (ExecutionException | TimeoutException | RuntimeException exc) {
+      f.cancel(true);
+      throw new StateException(exc.getMessage() != null ? exc.getMessage() : exc.toString());
+    }
+  }
 
-  public String getObject(String s) throws StateException {
+  private Future<CASValue<Object>> fetch(String s) throws StateException {
     try {
-      return (String) memclient.get(s);
-    } catch (OperationTimeoutException exc) {
+      return memclient.asyncGets(s);
+    } catch (IllegalArgumentException | IllegalStateException exc) {
       throw new StateException(exc.getMessage());
     }
   }
 
-  public void saveObject(String s, String v) throws StateException {
+  @Override
+  public void prefetch(Collection<String> keys) throws StateException {
+    for (String s : keys) {
+      if (!fetched.containsKey(s) && !pending.containsKey(s)) {
+        pending.put(s, fetch(s));
+      }
+    }
+  }
+
+  public void commit() throws StateException {
+    ArrayList<String> keys = new ArrayList<>();
+    ArrayList<Future<?>> futures = new ArrayList<>();
+    ArrayList<Boolean> conditional = new ArrayList<>();
     try {
-      memclient.set(s, 0, v);
-    } catch (IllegalArgumentException exc) {
+      for (Map.Entry<String, String> entry : writes.entrySet()) {
+        String s = entry.getKey();
+        keys.add(s);
+        if (!fetched.containsKey(s)) {
+          futures.add(memclient.set(s, 0, entry.getValue()));
+          conditional.add(false);
+        } else if (fetched.get(s) == null) {
+          futures.add(memclient.add(s, 0, entry.getValue()));
+          conditional.add(true);
+        } else {
+          futures.add(memclient.asyncCAS(s, fetched.get(s).getCas(), entry.getValue()));
+          conditional.add(true);
+        }
+      }
+    } catch (IllegalArgumentException | IllegalStateException exc) {
       throw new StateException(exc.getMessage());
+    } finally {
+      writes.clear();
+      fetched.clear();
+      pending.clear();
+    }
+
+    // All writes have been issued, wait for each to complete
+    String conflict = null;
+    String failed = null;
+    for (int i = 0; i < futures.size(); i++) {
+      Object ret = await(futures.get(i));
+      if (Boolean.TRUE.equals(ret) || ret == CASResponse.OK) {
+        continue;
+      }
+      if (conditional.get(i) && conflict == null) {
+        conflict = keys.get(i);
+      } else if (!conditional.get(i) && failed == null) {
+        failed = keys.get(i);
+      }
     }
+    if (failed != null) {
+      throw new StateException(String.format("writing state for %s failed", failed));
+    }
+    if (conflict != null) {
+      throw new StateConflictException(String.format("state for %s was modified", conflict));
+    }
+  }
+
+  public String getObject(String s) throws StateException {
+    if (writes.containsKey(s)) {
+      return writes.get(s);
+    }
+    if (!fetched.containsKey(s)) {
+      Future<CASValue<Object>> f = pending.remove(s);
+      if (f == null) {
+        f = fetch(s);
+      }
+      fetched.put(s, await(f));
+    }
+    CASValue<Object> v = fetched.get(s);
+    if (v == null) {
+      return null;
+    }
+    return (String) v.getValue();
+  }
+
+  public void saveObject(String s, String v) throws StateException {
+    writes.put(s, v);
   }
 
   /**
@@ -23,6 +23,8 @@ public class MemcachedStateInterface implements StateInterface {
     memclient.flush();
   }
 
+  public void flush() throws StateException {}
+
   public void initialize() throws StateException {
     try {
       memclient = new MemcachedClient(new InetSocketAddress(memcachedHost, memcachedPort));
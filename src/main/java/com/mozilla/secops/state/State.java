@@ -1,5 +1,6 @@
 package com.mozilla.secops.state;
 
+import java.util.function.UnaryOperator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -8,8 +9,12 @@ import org.slf4j.LoggerFactory;
  * persistent storage source
  */
 public class State {
+  /** Maximum attempts made by {@link #update} */
+  public static final int MAX_UPDATE_ATTEMPTS = 3;
+
   private final StateInterface si;
   private final Logger log;
+  private StateValueCodec codec;
 
   /**
    * Construct a new state instance using the specified {@link StateInterface}
@@ -26,6 +31,17 @@ public class State {
     si.deleteAll();
   }
 
+  /**
+   * Write any values buffered by the underlying state storage
+   *
+   * <p>Where the underlying {@link StateInterface} defers writes, such as {@link
+   * CachingStateInterface} with a flush interval, this should be called when processing of a bundle
+   * completes.
+   */
+  public void flush() throws StateException {
+    si.flush();
+  }
+
   /**
    * Perform simple key fetch operation with no intended follow up modification and update of the
    * value. For operations involving a fetch, update, and store a new cursor should be allocated by
@@ -44,6 +60,37 @@ public class State {
     }
   }
 
+  /**
+   * Perform a read, modify, and write of a single key, retrying if the value is modified
+   * concurrently
+   *
+   * <p>The update function is applied to the current value, or null if the key does not exist, and
+   * the result is stored. If the underlying interface rejects the write with a {@link
+   * StateConflictException}, the update is applied again to a fresh read of the value, up to {@link
+   * #MAX_UPDATE_ATTEMPTS} times.
+   *
+   * @param s State key to update
+   * @param cls Class to deserialize state data into
+   * @param fn Update function
+   * @return Value that was stored
+   */
+  public <T> T update(String s, Class<T> cls, UnaryOperator<T> fn) throws StateException {
+    for (int attempt = 1; ; attempt++) {
+      StateCursor c = newCursor();
+      T v = fn.apply(c.get(s, cls));
+      c.set(s, v);
+      try {
+        c.commit();
+        return v;
+      } catch (StateConflictException exc) {
+        if (attempt >= MAX_UPDATE_ATTEMPTS) {
+          throw exc;
+        }
+        log.info("retrying update of {} after conflict", s);
+      }
+    }
+  }
+
   /**
    * Allocate new state cursor for a set of operations
    *
@@ -57,7 +104,20 @@ public class State {
    * @return {@link StateCursor}
    */
   public StateCursor newCursor() {
-    return si.newCursor();
+    StateCursor ret = si.newCursor();
+    if (codec != null) {
+      ret.setValueCodec(codec);
+    }
+    return ret;
+  }
+
+  /**
+   * Set codec applied to values stored using cursors allocated from this state instance
+   *
+   * @param codec {@link StateValueCodec}
+   */
+  public void setValueCodec(StateValueCodec codec) {
+    this.codec = codec;
   }
 
   /**
@@ -0,0 +1,15 @@
+package com.mozilla.secops.state;
+
+/**
+ * Exception indicating a write was rejected because the value was modified after it was read
+ *
+ * <p>The operation can be retried by reading the value again using a new cursor.
+ */
+public class StateConflictException extends StateException {
+  private static final long serialVersionUID = 1L;
+
+  /** Construct new {@link StateConflictException} */
+  public StateConflictException(String e) {
+    super(e);
+  }
+}
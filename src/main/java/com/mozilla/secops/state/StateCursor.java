@@ -4,13 +4,24 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 import java.io.IOException;
+import java.util.Collection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /** Generic state cursor implementation */
 public abstract class StateCursor {
+  private static final ObjectMapper mapper;
+  private static final StateValueCodec DEFAULT_CODEC = new CompressingStateValueCodec(0);
+
+  static {
+    mapper = new ObjectMapper();
+    mapper.registerModule(new JodaModule());
+    mapper.configure(
+        com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+  }
+
   private final Logger log;
-  private final ObjectMapper mapper;
+  private StateValueCodec codec;
 
   /**
    * Low level state object fetch operation
@@ -40,6 +51,29 @@ public abstract class StateCursor {
    */
   public abstract void commit() throws StateException;
 
+  /**
+   * Fetch a set of keys for later use by the cursor
+   *
+   * <p>Cursors for interfaces that support batched reads fetch all keys in a single request, so
+   * that subsequent calls to {@link #get} for those keys do not require a request each. For other
+   * cursors this is a noop.
+   *
+   * @param keys Keys to fetch
+   */
+  public void prefetch(Collection<String> keys) throws StateException {}
+
+  /**
+   * Set codec applied to values stored using the cursor
+   *
+   * <p>By default values are stored as plain JSON, but values stored using a {@link
+   * CompressingStateValueCodec} can still be read.
+   *
+   * @param codec {@link StateValueCodec}
+   */
+  public void setValueCodec(StateValueCodec codec) {
+    this.codec = codec;
+  }
+
   private static Boolean validKey(String k) {
     if (k.isEmpty()) {
       return false;
@@ -65,7 +99,7 @@ public abstract class StateCursor {
     }
 
     try {
-      return mapper.readValue(lv, cls);
+      return mapper.readValue(codec.decode(lv), cls);
     } catch (IOException exc) {
       throw new StateException(exc.getMessage());
     }
@@ -84,7 +118,7 @@ public abstract class StateCursor {
     log.info("Writing state for {}", s);
 
     try {
-      saveObject(s, mapper.writeValueAsString(o));
+      saveObject(s, codec.encode(mapper.writeValueAsString(o)));
     } catch (JsonProcessingException exc) {
       throw new StateException(exc.getMessage());
     }
@@ -93,10 +127,6 @@ public abstract class StateCursor {
   /** Allocate new {@link StateCursor} */
   public StateCursor() {
     log = LoggerFactory.getLogger(StateCursor.class);
-
-    mapper = new ObjectMapper();
-    mapper.registerModule(new JodaModule());
-    mapper.configure(
-        com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    codec = DEFAULT_CODEC;
   }
 }
@@ -8,6 +8,9 @@ public interface StateInterface {
   /** Flush all keys in the state implementation */
   public void deleteAll() throws StateException;
 
+  /** Write any values buffered by the state implementation */
+  public void flush() throws StateException;
+
   /** Perform any setup required to read and write state */
   public void initialize() throws StateException;
 
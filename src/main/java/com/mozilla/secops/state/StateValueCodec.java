@@ -0,0 +1,26 @@
+package com.mozilla.secops.state;
+
+/**
+ * Codec applied to serialized state values
+ *
+ * <p>{@link StateCursor} serializes values to JSON, and applies the codec to the JSON before the
+ * value is stored and after it is fetched. Implementations must be able to decode values that were
+ * stored as plain JSON.
+ */
+public interface StateValueCodec {
+  /**
+   * Encode serialized value for storage
+   *
+   * @param value JSON value
+   * @return Encoded value
+   */
+  public String encode(String value) throws StateException;
+
+  /**
+   * Decode stored value
+   *
+   * @param value Stored value
+   * @return JSON value
+   */
+  public String decode(String value) throws StateException;
+}
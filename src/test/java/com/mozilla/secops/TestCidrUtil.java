@@ -1,6 +1,9 @@
 package com.mozilla.secops;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -28,6 +31,67 @@ public class TestCidrUtil {
     assertFalse(c.contains("200.201.200.200"));
   }
 
+  @Test
+  public void cidrMatchIPv6Test() throws Exception {
+    CidrUtil c = new CidrUtil();
+    c.add("2001:db8::/32");
+    c.add("fd00:0:0:0:0:0:0:0/48");
+    c.add("10.0.0.0/8");
+    assertTrue(c.contains("2001:db8::1"));
+    assertTrue(c.contains("2001:0db8:ffff:0:0:0:0:1"));
+    assertTrue(c.contains("2001:DB8::"));
+    assertFalse(c.contains("2001:db9::1"));
+    assertTrue(c.contains("fd00::ffff"));
+    assertFalse(c.contains("fd00:0:1::"));
+    assertFalse(c.contains("::1"));
+    // IPv4 mapped addresses are treated as IPv4
+    assertTrue(c.contains("::ffff:10.1.2.3"));
+    assertFalse(c.contains("::ffff:11.1.2.3"));
+  }
+
+  @Test
+  public void cidrExactAddressTest() throws Exception {
+    CidrUtil c = new CidrUtil();
+    c.add("192.168.1.1");
+    c.add("::2");
+    assertTrue(c.contains("192.168.1.1"));
+    assertFalse(c.contains("192.168.1.2"));
+    assertTrue(c.contains("0:0:0:0:0:0:0:2"));
+    assertFalse(c.contains("::3"));
+  }
+
+  @Test
+  public void cidrLookupTest() throws Exception {
+    CidrUtil c = new CidrUtil();
+    c.add("10.0.0.0/8", "a");
+    c.add("10.1.0.0/16", "b");
+    c.add("10.1.1.0/24");
+    c.add("10.1.0.0/16", "c");
+    c.add("2001:db8::/32", "d");
+
+    CidrUtil.Subnet s = c.lookup("10.2.0.1");
+    assertNotNull(s);
+    assertEquals("10.0.0.0/8", s.getCidr());
+    assertEquals("a", s.getTag());
+    s = c.lookup("10.1.2.1");
+    assertNotNull(s);
+    assertEquals("10.1.0.0/16", s.getCidr());
+    assertEquals("b", s.getTag());
+    s = c.lookup("10.1.1.1");
+    assertNotNull(s);
+    assertEquals("10.1.1.0/24", s.getCidr());
+    assertNull(s.getTag());
+    assertEquals("d", c.lookup("2001:db8:1::1").getTag());
+    assertNull(c.lookup("11.0.0.1"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void cidrInvalidAddressTest() throws Exception {
+    CidrUtil c = new CidrUtil();
+    c.add("10.0.0.0/8");
+    c.contains("invalid");
+  }
+
   @Test
   public void cidrLoadGcpSubnetsTest() throws Exception {
     CidrUtil c = new CidrUtil();
@@ -0,0 +1,74 @@
+package com.mozilla.secops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class TestCloudProviderRanges {
+  public TestCloudProviderRanges() {}
+
+  private static List<String[]> entries(String... e) {
+    ArrayList<String[]> ret = new ArrayList<>();
+    for (int i = 0; i < e.length; i += 2) {
+      ret.add(new String[] {e[i], e[i + 1]});
+    }
+    return ret;
+  }
+
+  @Test
+  public void cloudProviderRangesSnapshotFallbackTest() throws Exception {
+    AtomicBoolean fail = new AtomicBoolean(true);
+    CloudProviderRanges r =
+        new CloudProviderRanges(
+            "/testdata/cloudranges_snapshot.txt",
+            () -> {
+              if (fail.get()) {
+                throw new IOException("dns failure");
+              }
+              return entries("34.64.0.0/10", CidrUtil.TAG_GCP);
+            },
+            () -> entries("3.5.0.0/16", "aws:us-east-1:S3"));
+
+    // GCP ranges come from the snapshot, AWS ranges are fetched
+    r.refresh();
+    assertTrue(r.contains("35.190.1.1"));
+    assertTrue(r.getGcp().contains("2600:1900::1"));
+    assertFalse(r.contains("52.204.1.1"));
+    assertTrue(r.contains("3.5.1.1"));
+    assertFalse(r.getGcp().contains("3.5.1.1"));
+    assertEquals("aws:us-east-1:S3", r.getAll().lookup("3.5.1.1").getTag());
+
+    // A successful refresh replaces the snapshot ranges
+    CidrUtil prev = r.getAll();
+    fail.set(false);
+    r.refresh();
+    assertTrue(r.contains("34.64.1.1"));
+    assertFalse(r.contains("35.190.1.1"));
+    assertTrue(prev.contains("35.190.1.1"));
+
+    // A failed refresh keeps the previously fetched ranges
+    fail.set(true);
+    r.refresh();
+    assertTrue(r.contains("34.64.1.1"));
+    assertFalse(r.contains("35.190.1.1"));
+    assertEquals(2, r.toSnapshot().size());
+  }
+
+  @Test(expected = IOException.class)
+  public void cloudProviderRangesNoSourceTest() throws Exception {
+    CloudProviderRanges r =
+        new CloudProviderRanges(
+            "/testdata/nonexistent.txt",
+            () -> {
+              throw new IOException("dns failure");
+            },
+            () -> entries("3.5.0.0/16", "aws:us-east-1:S3"));
+    r.refresh();
+  }
+}
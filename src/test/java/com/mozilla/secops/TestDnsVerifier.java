@@ -0,0 +1,122 @@
+package com.mozilla.secops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestDnsVerifier {
+  public TestDnsVerifier() {}
+
+  /** In-process resolver answering from fixed tables */
+  private static class StubResolver implements DnsVerifier.Resolver {
+    private final HashMap<String, String> ptr = new HashMap<>();
+    private final HashMap<String, String[]> a = new HashMap<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private CountDownLatch gate;
+
+    StubResolver() {
+      ptr.put("10.0.0.1", "host1.google.com");
+      a.put("host1.google.com", new String[] {"10.0.0.5", "10.0.0.1"});
+      // Reverse record that does not resolve back to the address
+      ptr.put("10.0.0.2", "spoofed.google.com");
+      a.put("spoofed.google.com", new String[] {"10.0.0.9"});
+      // Reverse record with no forward record
+      ptr.put("10.0.0.3", "host3.example.com");
+      ptr.put("10.0.0.4", "host4.example.com");
+      a.put("host4.example.com", new String[] {"10.0.0.4"});
+    }
+
+    @Override
+    public String reverse(InetAddress addr) {
+      queries.incrementAndGet();
+      if (gate != null) {
+        try {
+          gate.await();
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return ptr.get(addr.getHostAddress());
+    }
+
+    @Override
+    public InetAddress[] forward(String hostname) throws UnknownHostException {
+      String[] addrs = a.get(hostname);
+      if (addrs == null) {
+        throw new UnknownHostException(hostname);
+      }
+      InetAddress[] ret = new InetAddress[addrs.length];
+      for (int i = 0; i < addrs.length; i++) {
+        ret[i] = InetAddress.getByName(addrs[i]);
+      }
+      return ret;
+    }
+  }
+
+  @Test
+  public void verifyTest() throws Exception {
+    StubResolver r = new StubResolver();
+    DnsVerifier v = new DnsVerifier(r, 60000L, 60000L, 2);
+
+    assertTrue(v.matches("10.0.0.1", ".*\\.google\\.com$"));
+    assertFalse(v.matches("10.0.0.1", ".*\\.example\\.com$"));
+    assertFalse(v.matches("10.0.0.2", ".*\\.google\\.com$"));
+    assertFalse(v.matches("10.0.0.3", ".*"));
+    assertTrue(v.matches("10.0.0.4", ".*\\.example\\.com$"));
+    assertFalse(v.matches("10.0.0.100", ".*"));
+    assertNull(v.getConfirmedHostname(null));
+    assertEquals("host1.google.com", v.getConfirmedHostname("10.0.0.1"));
+
+    // Each address is queried once, with subsequent checks served from the cache
+    assertEquals(5, r.queries.get());
+    assertEquals(5, v.getMisses());
+    assertEquals(2, v.getHits());
+    assertEquals(5, v.size());
+
+    v.clear();
+    assertTrue(v.matches("10.0.0.1", ".*\\.google\\.com$"));
+    assertEquals(6, r.queries.get());
+  }
+
+  @Test
+  public void verifyNegativeTtlTest() throws Exception {
+    StubResolver r = new StubResolver();
+    DnsVerifier v = new DnsVerifier(r, 60000L, 50L, 1);
+
+    assertTrue(v.matches("10.0.0.1", ".*"));
+    assertFalse(v.matches("10.0.0.3", ".*"));
+    assertEquals(2, r.queries.get());
+    Thread.sleep(100);
+
+    // Only the failed verification has expired
+    assertTrue(v.matches("10.0.0.1", ".*"));
+    assertFalse(v.matches("10.0.0.3", ".*"));
+    assertEquals(3, r.queries.get());
+  }
+
+  @Test
+  public void verifyPrefetchTest() throws Exception {
+    StubResolver r = new StubResolver();
+    r.gate = new CountDownLatch(1);
+    DnsVerifier v = new DnsVerifier(r, 60000L, 60000L, 4);
+
+    v.prefetch(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.1"));
+    assertEquals(4, v.getMisses());
+    assertEquals(1, v.getCoalesced());
+
+    r.gate.countDown();
+    assertTrue(v.matches("10.0.0.1", ".*\\.google\\.com$"));
+    assertTrue(v.matches("10.0.0.4", ".*\\.example\\.com$"));
+    assertFalse(v.matches("10.0.0.2", ".*"));
+    assertEquals(4, r.queries.get());
+  }
+}
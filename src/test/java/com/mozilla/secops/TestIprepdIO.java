@@ -6,9 +6,16 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.alert.AlertFormatter;
+import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.testing.TestPipeline;
 import org.apache.beam.sdk.transforms.DoFn;
@@ -217,4 +224,139 @@ public class TestIprepdIO implements Serializable {
     r = IprepdIO.getReader("http://127.0.0.1:8080|invalid", null);
     assertEquals(100, (int) r.getReputation("ip", "255.255.200.1"));
   }
+
+  @Test
+  public void iprepdIOTestViolationWriterStub() throws Exception {
+    ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          String path = exchange.getRequestURI().getPath();
+          int n = requests.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+          int sc = 200;
+          if (path.endsWith("10.0.0.1") && n == 1) {
+            sc = 503;
+          } else if (path.endsWith("10.0.0.3")) {
+            sc = 400;
+          }
+          exchange.sendResponseHeaders(sc, -1);
+          exchange.close();
+        });
+    server.start();
+    try {
+      String spec = String.format("http://127.0.0.1:%d|test", server.getAddress().getPort());
+      IprepdViolationWriter w =
+          new IprepdViolationWriter(
+              Arrays.asList(spec),
+              IprepdViolationWriter.getSharedClient(),
+              IprepdViolationWriter.getSharedExecutor(),
+              1L);
+
+      Violation v1 = new Violation("10.0.0.1", "ip", "hard_limit_violation");
+      Violation v2 = new Violation("10.0.0.2", "ip", "hard_limit_violation");
+      Violation v3 = new Violation("10.0.0.3", "ip", "hard_limit_violation");
+      assertTrue(w.add(v1, v1.toJSON()));
+      // Identical violation for the same object should be coalesced
+      assertFalse(w.add(v1, v1.toJSON()));
+      assertTrue(w.add(v2, v2.toJSON()));
+      assertTrue(w.add(v3, v3.toJSON()));
+      assertEquals(3, w.pendingCount());
+
+      List<IprepdViolationWriter.Result> results = w.flush();
+      assertEquals(0, w.pendingCount());
+      assertEquals(3, results.size());
+      for (IprepdViolationWriter.Result r : results) {
+        switch (r.getObject()) {
+          case "10.0.0.1":
+            // Server error should be retried
+            assertTrue(r.isSuccess());
+            assertEquals(2, r.getAttempts());
+            break;
+          case "10.0.0.2":
+            assertTrue(r.isSuccess());
+            assertEquals(1, r.getAttempts());
+            break;
+          case "10.0.0.3":
+            // Client error should not be retried
+            assertFalse(r.isSuccess());
+            assertEquals(400, r.getStatusCode());
+            assertEquals(1, r.getAttempts());
+            break;
+          default:
+            fail("unexpected object");
+        }
+      }
+      assertEquals(2, requests.get("/violations/type/ip/10.0.0.1").get());
+      assertEquals(1, requests.get("/violations/type/ip/10.0.0.2").get());
+      assertEquals(1, requests.get("/violations/type/ip/10.0.0.3").get());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void iprepdIOTestReadCached() throws Exception {
+    deleteReputation("ip", "255.255.201.1");
+    deleteReputation("ip", "255.255.201.2");
+
+    IprepdIO.Reader r = IprepdIO.getReader("http://127.0.0.1:8080|test", null, 600);
+    IprepdIO.Reader uncached = IprepdIO.getReader("http://127.0.0.1:8080|test", null);
+
+    assertEquals(100, (int) r.getReputation("ip", "255.255.201.1"));
+    putReputation("ip", "255.255.201.1", 50);
+    putReputation("ip", "255.255.201.2", 25);
+
+    // Not found result should be cached, and shared with other readers using the same settings
+    assertEquals(100, (int) r.getReputation("ip", "255.255.201.1"));
+    IprepdIO.Reader r2 = IprepdIO.getReader("http://127.0.0.1:8080|test", null, 600);
+    assertEquals(100, (int) r2.getReputation("ip", "255.255.201.1"));
+    assertEquals(50, (int) uncached.getReputation("ip", "255.255.201.1"));
+
+    Map<String, Integer> reps =
+        r.getReputations("ip", Arrays.asList("255.255.201.1", "255.255.201.2", "255.255.201.2"));
+    assertEquals(2, reps.size());
+    assertEquals(100, (int) reps.get("255.255.201.1"));
+    assertEquals(25, (int) reps.get("255.255.201.2"));
+
+    // Failed requests should not be cached
+    IprepdIO.Reader invalid = IprepdIO.getReader("http://127.0.0.1:8081|test", null, 600);
+    assertEquals(100, (int) invalid.getReputation("ip", "255.255.201.2"));
+  }
+
+  @Test
+  public void iprepdIOTestReadCachedStub() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          if (requests.incrementAndGet() == 1) {
+            exchange.sendResponseHeaders(500, -1);
+          } else {
+            byte[] buf =
+                "{\"object\": \"10.0.0.1\", \"type\": \"ip\", \"reputation\": 25}".getBytes();
+            exchange.sendResponseHeaders(200, buf.length);
+            exchange.getResponseBody().write(buf);
+          }
+          exchange.close();
+        });
+    server.start();
+    try {
+      String spec = String.format("http://127.0.0.1:%d|test", server.getAddress().getPort());
+      IprepdIO.Reader r = IprepdIO.getReader(spec, null, 600);
+
+      // Failed request should not be cached, so the second lookup reaches the server again
+      assertEquals(100, (int) r.getReputation("ip", "10.0.0.1"));
+      assertEquals(1, requests.get());
+      assertEquals(25, (int) r.getReputation("ip", "10.0.0.1"));
+      assertEquals(2, requests.get());
+
+      // Successful result is served from the cache
+      assertEquals(25, (int) r.getReputation("ip", "10.0.0.1"));
+      assertEquals(2, requests.get());
+    } finally {
+      server.stop(0);
+    }
+  }
 }
@@ -0,0 +1,116 @@
+package com.mozilla.secops;
+
+import static org.junit.Assert.*;
+
+import com.mozilla.secops.alert.Alert;
+import com.mozilla.secops.state.DatastoreStateInterface;
+import com.mozilla.secops.state.State;
+import com.mozilla.secops.state.StateCursor;
+import java.util.Arrays;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.EnvironmentVariables;
+
+public class TestIprepdWhitelist {
+  @Rule public final EnvironmentVariables environmentVariables = new EnvironmentVariables();
+
+  public TestIprepdWhitelist() {}
+
+  private void testEnv() {
+    environmentVariables.set("DATASTORE_EMULATOR_HOST", "localhost:8081");
+    environmentVariables.set("DATASTORE_EMULATOR_HOST_PATH", "localhost:8081/datastore");
+    environmentVariables.set("DATASTORE_HOST", "http://localhost:8081");
+    environmentVariables.set("DATASTORE_PROJECT_ID", "foxsec-pipeline");
+  }
+
+  private void putWhitelisted(String namespace, String kind, String obj, String createdBy)
+      throws Exception {
+    State state = new State(new DatastoreStateInterface(kind, namespace));
+    state.initialize();
+    IprepdIO.WhitelistedObject wobj = new IprepdIO.WhitelistedObject();
+    wobj.setObject(obj);
+    wobj.setType(kind);
+    wobj.setExpiresAt(new DateTime().plusDays(1));
+    wobj.setCreatedBy(createdBy);
+    StateCursor cur = state.newCursor();
+    cur.set(obj, wobj);
+    cur.commit();
+    state.done();
+  }
+
+  @After
+  public void tearDown() {
+    IprepdWhitelist.reset();
+  }
+
+  @Test
+  public void testWhitelistCachedLookup() throws Exception {
+    testEnv();
+    IprepdWhitelist.reset();
+
+    putWhitelisted(IprepdIO.whitelistedObjectNamespace, "ip", "10.100.0.1", "current");
+    putWhitelisted(
+        IprepdIO.legacyWhitelistedIpNamespace,
+        IprepdIO.legacyWhitelistedIpKind,
+        "10.100.0.2",
+        "legacy");
+    putWhitelisted(IprepdIO.whitelistedObjectNamespace, "email", "user@example.com", "email");
+
+    IprepdWhitelist w = IprepdWhitelist.getInstance(null);
+    assertSame(w, IprepdWhitelist.getInstance(null));
+
+    Map<String, IprepdIO.WhitelistedObject> res =
+        w.getAll(Arrays.asList("10.100.0.1", "10.100.0.2", "10.100.0.3"), "ip");
+    assertEquals(2, res.size());
+    assertEquals("current", res.get("10.100.0.1").getCreatedBy());
+    assertEquals("legacy", res.get("10.100.0.2").getCreatedBy());
+    assertNull(res.get("10.100.0.3"));
+
+    // Legacy entries only apply to addresses
+    assertNull(w.get("10.100.0.2", "email"));
+    assertEquals("email", w.get("user@example.com", "email").getCreatedBy());
+
+    // Negative result should be cached until the TTL is reset
+    putWhitelisted(IprepdIO.whitelistedObjectNamespace, "ip", "10.100.0.3", "late");
+    assertNull(w.get("10.100.0.3", "ip"));
+    w.setTtl(IprepdWhitelist.DEFAULT_POSITIVE_TTL, IprepdWhitelist.DEFAULT_NEGATIVE_TTL);
+    assertEquals("late", w.get("10.100.0.3", "ip").getCreatedBy());
+
+    Alert a = new Alert();
+    IprepdIO.addMetadataIfIpWhitelisted("10.100.0.2", a);
+    assertEquals("true", a.getMetadataValue(IprepdIO.IPREPD_EXEMPT));
+    assertEquals("legacy", a.getMetadataValue(IprepdIO.IPREPD_EXEMPT + "_created_by"));
+
+    a = new Alert();
+    IprepdIO.addMetadataIfIpWhitelisted("10.100.0.4", a);
+    assertNull(a.getMetadataValue(IprepdIO.IPREPD_EXEMPT));
+  }
+
+  @Test
+  public void testWhitelistSnapshot() throws Exception {
+    testEnv();
+    IprepdWhitelist.reset();
+
+    putWhitelisted(IprepdIO.whitelistedObjectNamespace, "ip", "10.101.0.1", "current");
+    putWhitelisted(
+        IprepdIO.legacyWhitelistedIpNamespace,
+        IprepdIO.legacyWhitelistedIpKind,
+        "10.101.0.2",
+        "legacy");
+
+    IprepdWhitelist w = IprepdWhitelist.getInstance(null);
+    w.enableSnapshot(3600);
+    assertEquals("current", w.get("10.101.0.1", "ip").getCreatedBy());
+    assertEquals("legacy", w.get("10.101.0.2", "ip").getCreatedBy());
+    assertNull(w.get("10.101.0.3", "ip"));
+
+    // Entries added after the snapshot was loaded are not visible until it is refreshed
+    putWhitelisted(IprepdIO.whitelistedObjectNamespace, "ip", "10.101.0.3", "late");
+    assertNull(w.get("10.101.0.3", "ip"));
+    w.disableSnapshot();
+    assertEquals("late", w.get("10.101.0.3", "ip").getCreatedBy());
+  }
+}
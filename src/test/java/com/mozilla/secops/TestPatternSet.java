@@ -0,0 +1,178 @@
+package com.mozilla.secops;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class TestPatternSet {
+  public TestPatternSet() {}
+
+  private static final List<String> PATTERNS =
+      Arrays.asList(
+          "UnauthorizedAccess:EC2/SSHBruteForce",
+          "Recon:EC2/.*",
+          "^Trojan:.+$",
+          "Backdoor\\:EC2/DenialOfService\\.(Tcp|Udp)",
+          ".*Tor.*",
+          "CryptoCurrency:EC2/BitcoinTool\\.B!DNS",
+          "ab?c",
+          "x*yz",
+          "Policy:IAMUser/RootCredentialUsage|Stealth:.*",
+          "Recon:EC2/.*",
+          "[Pp]enTest:IAMUser/.*",
+          "Persistence:IAMUser/\\QUserPermissions\\E|Other",
+          "curl/7\\.[0-9]+\\.[0-9]+",
+          "python-requests/.*",
+          "",
+          "a+b{2}");
+
+  private static final List<String> INPUTS =
+      Arrays.asList(
+          "UnauthorizedAccess:EC2/SSHBruteForce",
+          "UnauthorizedAccess:EC2/RDPBruteForce",
+          "Recon:EC2/PortProbeUnprotectedPort",
+          "Recon:EC2/",
+          "Trojan:EC2/DNSDataExfiltration",
+          "Trojan:",
+          "Backdoor:EC2/DenialOfService.Tcp",
+          "Backdoor:EC2/DenialOfService.Dns",
+          "UnauthorizedAccess:EC2/TorIPCaller",
+          "CryptoCurrency:EC2/BitcoinTool.B!DNS",
+          "CryptoCurrency:EC2/BitcoinTool.B",
+          "ac",
+          "abc",
+          "abbc",
+          "yz",
+          "xxyz",
+          "Policy:IAMUser/RootCredentialUsage",
+          "Stealth:IAMUser/CloudTrailLoggingDisabled",
+          "PenTest:IAMUser/KaliLinux",
+          "penTest:IAMUser/ParrotLinux",
+          "Persistence:IAMUser/UserPermissions",
+          "Other",
+          "curl/7.64.1",
+          "curl/7.x",
+          "python-requests/2.22.0",
+          "Mozilla/5.0 (X11; Linux x86_64; rv:68.0) Gecko/20100101 Firefox/68.0",
+          "",
+          "abb",
+          "aabb");
+
+  private static int[] naive(List<String> patterns, String input) {
+    ArrayList<Integer> ret = new ArrayList<>();
+    for (int i = 0; i < patterns.size(); i++) {
+      if (Pattern.compile(patterns.get(i)).matcher(input).matches()) {
+        ret.add(i);
+      }
+    }
+    return ret.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  @Test
+  public void patternSetLiteralTest() throws Exception {
+    assertEquals("abc", PatternSet.literalValue("abc"));
+    assertEquals("abc", PatternSet.literalValue("^abc$"));
+    assertEquals("a.b$", PatternSet.literalValue("a\\.b\\$"));
+    assertEquals("Backdoor:EC2", PatternSet.literalValue("Backdoor\\:EC2"));
+    assertEquals("", PatternSet.literalValue(""));
+    assertNull(PatternSet.literalValue("a.b"));
+    assertNull(PatternSet.literalValue("a\\db"));
+    assertNull(PatternSet.literalValue("a|b"));
+    assertNull(PatternSet.literalValue("(?i)abc"));
+  }
+
+  @Test
+  public void patternSetPrefixTest() throws Exception {
+    assertEquals("Recon:EC2/", PatternSet.literalPrefix("Recon:EC2/.*"));
+    assertEquals("Trojan:", PatternSet.literalPrefix("^Trojan:.+$"));
+    assertEquals("a", PatternSet.literalPrefix("ab?c"));
+    assertEquals("ab", PatternSet.literalPrefix("ab+c*"));
+    assertEquals("curl/7.", PatternSet.literalPrefix("curl/7\\.[0-9]+"));
+    assertEquals("ab", PatternSet.literalPrefix("ab(c|d)"));
+    assertEquals("x", PatternSet.literalPrefix("x[]|]y"));
+    assertEquals("", PatternSet.literalPrefix("x*yz"));
+    assertEquals("", PatternSet.literalPrefix("ab|cd"));
+    assertEquals("", PatternSet.literalPrefix("ab[(]|cd"));
+    assertEquals("", PatternSet.literalPrefix("(?i)abc"));
+    assertEquals("", PatternSet.literalPrefix("a\\Q(\\E|b"));
+  }
+
+  @Test
+  public void patternSetMatchTest() throws Exception {
+    PatternSet cached = new PatternSet(PATTERNS);
+    PatternSet uncached = new PatternSet(PATTERNS, 0);
+    assertEquals(PATTERNS.size(), cached.size());
+    assertEquals("Recon:EC2/.*", cached.getPattern(1));
+
+    // Results are evaluated twice so the second pass is served from the cache
+    for (int pass = 0; pass < 2; pass++) {
+      for (String i : INPUTS) {
+        int[] expect = naive(PATTERNS, i);
+        assertArrayEquals(i, expect, cached.matches(i));
+        assertArrayEquals(i, expect, uncached.matches(i));
+        assertEquals(i, expect.length > 0 ? expect[0] : -1, cached.firstMatch(i));
+        assertEquals(i, expect.length > 0 ? expect[0] : -1, uncached.firstMatch(i));
+        assertEquals(i, expect.length > 0, cached.matchesAny(i));
+        assertEquals(i, expect.length > 0, uncached.matchesAny(i));
+      }
+    }
+    assertEquals(INPUTS.size(), cached.getCacheEntries());
+    assertEquals(0, uncached.getCacheEntries());
+
+    // Duplicate patterns both match
+    assertArrayEquals(new int[] {1, 9}, cached.matches("Recon:EC2/PortProbeUnprotectedPort"));
+    assertArrayEquals(new int[] {4}, cached.matches("UnauthorizedAccess:EC2/TorIPCaller"));
+    assertArrayEquals(new int[0], cached.matches(null));
+    assertFalse(cached.matchesAny(null));
+  }
+
+  @Test
+  public void patternSetCacheBoundTest() throws Exception {
+    PatternSet p = new PatternSet(Collections.singletonList("python-requests/.*"), 2);
+    assertTrue(p.matchesAny("python-requests/1"));
+    assertTrue(p.matchesAny("python-requests/2"));
+    assertFalse(p.matchesAny("curl/7.64.1"));
+    assertEquals(2, p.getCacheEntries());
+  }
+
+  @Test
+  public void patternSetEmptyTest() throws Exception {
+    PatternSet p = new PatternSet(Collections.emptyList());
+    assertEquals(0, p.size());
+    assertFalse(p.matchesAny("test"));
+    assertEquals(-1, p.firstMatch("test"));
+  }
+
+  @Test
+  public void patternSetSerializeTest() throws Exception {
+    PatternSet p = new PatternSet(PATTERNS);
+    assertTrue(p.matchesAny("Recon:EC2/Portscan"));
+
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+      out.writeObject(p);
+    }
+    PatternSet d;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+      d = (PatternSet) in.readObject();
+    }
+    assertEquals(0, d.getCacheEntries());
+    for (String i : INPUTS) {
+      assertArrayEquals(i, naive(PATTERNS, i), d.matches(i));
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.mozilla.secops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.mozilla.secops.identity.IdentityManager;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestSharedResources {
+  public TestSharedResources() {}
+
+  @After
+  public void resetResources() {
+    SharedResources.reset();
+  }
+
+  @Test
+  public void sharedReferenceCountTest() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    SharedResources.Loader<StringBuilder> loader =
+        () -> new StringBuilder(String.format("load %d", loads.incrementAndGet()));
+
+    SharedResources.Handle<StringBuilder> h1 =
+        SharedResources.acquire(StringBuilder.class, "a", loader);
+    SharedResources.Handle<StringBuilder> h2 =
+        SharedResources.acquire(StringBuilder.class, "a", loader);
+    SharedResources.Handle<StringBuilder> h3 =
+        SharedResources.acquire(StringBuilder.class, "b", loader);
+    assertEquals(2, loads.get());
+    assertSame(h1.get(), h2.get());
+    assertNotSame(h1.get(), h3.get());
+    assertEquals(2, SharedResources.getReferenceCount(StringBuilder.class, "a"));
+    assertEquals(2, SharedResources.size());
+
+    h1.close();
+    h1.close();
+    assertEquals(1, SharedResources.getReferenceCount(StringBuilder.class, "a"));
+    h2.close();
+    assertEquals(0, SharedResources.getReferenceCount(StringBuilder.class, "a"));
+    assertEquals(1, SharedResources.size());
+
+    // Once all references are released the resource is loaded again on the next request
+    SharedResources.Handle<StringBuilder> h4 =
+        SharedResources.acquire(StringBuilder.class, "a", loader);
+    assertEquals("load 3", h4.get().toString());
+    h3.close();
+    h4.close();
+    assertEquals(0, SharedResources.size());
+  }
+
+  @Test
+  public void sharedLoadFailureTest() throws Exception {
+    try {
+      SharedResources.acquire(
+          String.class,
+          "fail",
+          () -> {
+            throw new IOException("unavailable");
+          });
+      fail("expected IOException");
+    } catch (IOException exc) {
+      assertEquals("unavailable", exc.getMessage());
+    }
+    assertEquals(0, SharedResources.size());
+
+    SharedResources.Handle<String> h = SharedResources.acquire(String.class, "fail", () -> "ok");
+    assertEquals("ok", h.get());
+    h.close();
+  }
+
+  @Test
+  public void sharedRefreshTest() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    SharedResources.Handle<Integer> h =
+        SharedResources.acquire(
+            Integer.class,
+            "refresh",
+            () -> {
+              if (loads.incrementAndGet() == 2) {
+                throw new IOException("transient failure");
+              }
+              return loads.get();
+            },
+            1L);
+    assertEquals(1, (int) h.get());
+
+    // The failed reload keeps the previous value
+    for (int i = 0; i < 50 && loads.get() < 2; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(1, (int) h.get());
+
+    for (int i = 0; i < 50 && h.get() < 3; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(3, (int) h.get());
+    h.close();
+  }
+
+  @Test
+  public void sharedIdentityManagerTest() throws Exception {
+    SharedResources.Handle<IdentityManager> h1 =
+        IdentityManager.loadShared("/testdata/identitymanager.json");
+    SharedResources.Handle<IdentityManager> h2 =
+        IdentityManager.loadShared("/testdata/identitymanager.json");
+    assertNotNull(h1.get());
+    assertSame(h1.get(), h2.get());
+    h1.close();
+    h2.close();
+  }
+
+  @Test
+  public void sharedCidrUtilTest() throws Exception {
+    SharedResources.Handle<CidrUtil> h1 =
+        CidrUtil.loadShared(CidrUtil.CIDRUTIL_FILE, "/testdata/cidrutil1.txt");
+    SharedResources.Handle<CidrUtil> h2 =
+        CidrUtil.loadShared(
+            CidrUtil.CIDRUTIL_FILE | CidrUtil.CIDRUTIL_CLOUDPROVIDERS, "/testdata/cidrutil1.txt");
+    SharedResources.Handle<CidrUtil> h3 =
+        CidrUtil.loadShared(
+            CidrUtil.CIDRUTIL_FILE | CidrUtil.CIDRUTIL_INTERNAL, "/testdata/cidrutil1.txt");
+    // Cloud provider ranges are not part of the shared list
+    assertSame(h1.get(), h2.get());
+    assertNotSame(h1.get(), h3.get());
+    assertTrue(h1.get().contains("10.0.0.10"));
+    assertFalse(h1.get().contains("172.16.0.1"));
+    assertTrue(h3.get().contains("172.16.0.1"));
+    h1.close();
+    h2.close();
+    h3.close();
+  }
+}
@@ -1,7 +1,10 @@
 package com.mozilla.secops;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
 import org.junit.Test;
 
 public class TestStringDistance {
@@ -18,4 +21,38 @@ public class TestStringDistance {
     assertEquals(1.0, (double) StringDistance.ratio("aaaa", "bbbb"), 0.001);
     assertEquals(0.142, (double) StringDistance.ratio("test100", "test102"), 0.001);
   }
+
+  @Test
+  public void stringDistanceBoundedTest() throws Exception {
+    assertEquals(1, StringDistance.distance("test", "test1"));
+    assertEquals(4, StringDistance.distance("test", "abcd"));
+    assertEquals(0, StringDistance.distance("", ""));
+    assertEquals(2, StringDistance.distance("test", "test10", 2));
+    assertEquals(2, StringDistance.distance("test", "test10", 1));
+    assertEquals(4, StringDistance.distance("test", "abcd", 3));
+
+    assertTrue(StringDistance.withinRatio("test100", "test102", 0.35));
+    assertFalse(StringDistance.withinRatio("aaaa", "bbbb", 0.35));
+    assertTrue(StringDistance.withinRatio("aaaa", "bbbb", 1.0));
+    assertFalse(StringDistance.withinRatio("", "", 1.0));
+
+    // Compare against the reference implementation using email local part like strings
+    Random r = new Random(0);
+    for (int i = 0; i < 5000; i++) {
+      String x = "user" + Integer.toString(r.nextInt(100000), 36);
+      String y = "user" + Integer.toString(r.nextInt(100000), 36);
+      if (r.nextBoolean()) {
+        y = y.substring(r.nextInt(y.length()));
+      }
+      int d = StringDistance.calculate(x, y);
+      assertEquals(d, StringDistance.distance(x, y));
+      for (int k = 0; k <= 10; k++) {
+        assertEquals(Math.min(d, k + 1), StringDistance.distance(x, y, k));
+      }
+      for (Double ratio : new Double[] {0.0, 0.2, 0.35, 0.5}) {
+        assertEquals(
+            StringDistance.ratio(x, y) <= ratio, StringDistance.withinRatio(x, y, ratio));
+      }
+    }
+  }
 }
@@ -0,0 +1,176 @@
+package com.mozilla.secops.alert;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process SMTP server for tests
+ *
+ * <p>Accepts any credentials using AUTH PLAIN or AUTH LOGIN unless authentication failures have
+ * been requested, and records the data of each message that is submitted.
+ */
+public class SmtpStandIn implements AutoCloseable {
+  private final ServerSocket server;
+  private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+  private final List<Socket> clients = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicInteger connections = new AtomicInteger();
+  private final AtomicInteger auths = new AtomicInteger();
+  private final AtomicInteger rejectAuths = new AtomicInteger();
+
+  private static void reply(OutputStream out, String line) throws IOException {
+    out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  private void handle(Socket sock) {
+    try (Socket s = sock) {
+      BufferedReader in =
+          new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+      OutputStream out = s.getOutputStream();
+      reply(out, "220 localhost ESMTP");
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] cmd = line.split(" ");
+        String verb = cmd[0].toUpperCase();
+        if (verb.equals("EHLO")) {
+          reply(out, "250-localhost");
+          reply(out, "250 AUTH PLAIN LOGIN");
+        } else if (verb.equals("HELO")) {
+          reply(out, "250 localhost");
+        } else if (verb.equals("AUTH")) {
+          // Read any remaining responses for the mechanism; credentials are not checked
+          int need = cmd[1].equalsIgnoreCase("LOGIN") ? 2 : 1;
+          if (cmd.length > 2) {
+            need--;
+          }
+          for (int i = 0; i < need; i++) {
+            reply(out, "334 ");
+            if (in.readLine() == null) {
+              return;
+            }
+          }
+          if (rejectAuths.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+            reply(out, "535 5.7.8 Authentication credentials invalid");
+            continue;
+          }
+          auths.incrementAndGet();
+          reply(out, "235 2.7.0 Authentication successful");
+        } else if (verb.equals("DATA")) {
+          reply(out, "354 End data with <CR><LF>.<CR><LF>");
+          StringBuilder buf = new StringBuilder();
+          while ((line = in.readLine()) != null && !line.equals(".")) {
+            buf.append(line.startsWith("..") ? line.substring(1) : line).append("\n");
+          }
+          messages.add(buf.toString());
+          reply(out, "250 OK");
+        } else if (verb.equals("QUIT")) {
+          reply(out, "221 Bye");
+          return;
+        } else {
+          // MAIL, RCPT, RSET, NOOP
+          reply(out, "250 OK");
+        }
+      }
+    } catch (IOException exc) {
+      // Connection closed
+    }
+  }
+
+  /**
+   * Get port server is listening on
+   *
+   * @return Port
+   */
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Get data of messages received
+   *
+   * @return List of message data
+   */
+  public List<String> getMessages() {
+    return messages;
+  }
+
+  /**
+   * Get number of connections accepted
+   *
+   * @return Connection count
+   */
+  public int getConnectionCount() {
+    return connections.get();
+  }
+
+  /**
+   * Get number of successful authentications
+   *
+   * @return Authentication count
+   */
+  public int getAuthCount() {
+    return auths.get();
+  }
+
+  /**
+   * Reject the next authentication attempts
+   *
+   * @param count Number of authentication attempts to reject
+   */
+  public void rejectAuthentication(int count) {
+    rejectAuths.set(count);
+  }
+
+  /** Close all client connections, without closing the listening socket */
+  public void dropConnections() throws IOException {
+    synchronized (clients) {
+      for (Socket s : clients) {
+        s.close();
+      }
+      clients.clear();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    dropConnections();
+    server.close();
+  }
+
+  /**
+   * Start new stand-in server on an ephemeral port
+   *
+   * @throws IOException IOException
+   */
+  public SmtpStandIn() throws IOException {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread t =
+        new Thread(
+            () -> {
+              while (!server.isClosed()) {
+                try {
+                  Socket sock = server.accept();
+                  connections.incrementAndGet();
+                  clients.add(sock);
+                  Thread h = new Thread(() -> handle(sock));
+                  h.setDaemon(true);
+                  h.start();
+                } catch (IOException exc) {
+                  // Server closed
+                }
+              }
+            });
+    t.setDaemon(true);
+    t.start();
+  }
+}
@@ -0,0 +1,95 @@
+package com.mozilla.secops.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestAlertMailer {
+  public TestAlertMailer() {}
+
+  private AlertConfiguration getTestAlertCfg(int port) {
+    AlertConfiguration cfg = new AlertConfiguration();
+    cfg.setSmtpCredentials("user:password");
+    cfg.setSmtpRelay(String.format("127.0.0.1:%d", port));
+    cfg.setEmailFrom("foxsec@example.com");
+    cfg.setEmailCatchall("catchall@example.com");
+    return cfg;
+  }
+
+  private Alert getTestAlert(int n) {
+    Alert a = new Alert();
+    a.setSummary(String.format("test alert %d", n));
+    a.addToPayload("test payload");
+    return a;
+  }
+
+  @After
+  public void resetPool() {
+    SmtpTransportPool.reset();
+  }
+
+  @Test
+  public void mailerBatchTest() throws Exception {
+    try (SmtpStandIn smtp = new SmtpStandIn()) {
+      AlertMailer m = new AlertMailer(getTestAlertCfg(smtp.getPort()));
+
+      for (int i = 0; i < 5; i++) {
+        m.queueToCatchall(getTestAlert(i));
+        m.queueToAddress(getTestAlert(i), "user@example.com");
+      }
+      assertEquals(10, m.queuedCount());
+      assertEquals(0, smtp.getMessages().size());
+      assertEquals(10, m.flush());
+      assertEquals(0, m.queuedCount());
+
+      // Another mailer using the same relay should reuse the pooled connection
+      AlertMailer m2 = new AlertMailer(getTestAlertCfg(smtp.getPort()));
+      m2.sendToCatchall(getTestAlert(5));
+
+      assertEquals(11, smtp.getMessages().size());
+      assertTrue(smtp.getMessages().get(0).contains("Subject: test alert 0"));
+      assertEquals(1, smtp.getConnectionCount());
+      assertEquals(1, smtp.getAuthCount());
+    }
+  }
+
+  @Test
+  public void mailerReconnectTest() throws Exception {
+    try (SmtpStandIn smtp = new SmtpStandIn()) {
+      AlertMailer m = new AlertMailer(getTestAlertCfg(smtp.getPort()));
+
+      m.sendToCatchall(getTestAlert(0));
+      assertEquals(1, smtp.getConnectionCount());
+
+      // The idle connection fails the health check and is replaced
+      smtp.dropConnections();
+      m.sendToCatchall(getTestAlert(1));
+      assertEquals(2, smtp.getMessages().size());
+      assertEquals(2, smtp.getConnectionCount());
+    }
+  }
+
+  @Test
+  public void mailerConnectFailureTest() throws Exception {
+    try (SmtpStandIn smtp = new SmtpStandIn()) {
+      AlertMailer m = new AlertMailer(getTestAlertCfg(smtp.getPort()));
+
+      // Both connection attempts for the first message fail, the remaining messages are still sent
+      smtp.rejectAuthentication(2);
+      for (int i = 0; i < 4; i++) {
+        m.queueToCatchall(getTestAlert(i));
+      }
+      assertEquals(3, m.flush());
+      assertEquals(3, smtp.getMessages().size());
+      assertTrue(smtp.getMessages().get(0).contains("Subject: test alert 1"));
+      assertEquals(3, smtp.getConnectionCount());
+
+      SmtpTransportPool p =
+          SmtpTransportPool.getInstance(
+              String.format("127.0.0.1:%d", smtp.getPort()), "user", "password");
+      assertEquals(1, p.getFailedCount());
+    }
+  }
+}
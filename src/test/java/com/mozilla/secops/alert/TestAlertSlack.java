@@ -3,17 +3,27 @@ package com.mozilla.secops.alert;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.github.seratch.jslack.api.methods.SlackApiResponse;
+import com.github.seratch.jslack.api.methods.response.channels.UsersLookupByEmailResponse;
 import com.github.seratch.jslack.api.methods.response.chat.ChatPostMessageResponse;
+import com.github.seratch.jslack.api.model.User;
 import com.mozilla.secops.slack.SlackManager;
+import com.mozilla.secops.slack.SlackSendQueue;
+import com.mozilla.secops.slack.SlackUserDirectory;
 import com.mozilla.secops.state.MemcachedStateInterface;
 import com.mozilla.secops.state.State;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -42,6 +52,20 @@ public class TestAlertSlack {
     return slackManagerMock;
   }
 
+  private UsersLookupByEmailResponse getLookupResponse(String userId, String error) {
+    UsersLookupByEmailResponse resp = new UsersLookupByEmailResponse();
+    if (userId != null) {
+      User u = new User();
+      u.setId(userId);
+      resp.setOk(true);
+      resp.setUser(u);
+    } else {
+      resp.setOk(false);
+      resp.setError(error);
+    }
+    return resp;
+  }
+
   @Test
   public void basicTest() throws Exception {
     AlertSlack s = new AlertSlack(getTestAlertCfg());
@@ -75,4 +99,94 @@ public class TestAlertSlack {
     assertEquals(a.getTimestamp(), ta.getTimestamp());
     assertEquals(a.getMetadataValue("status"), "NEW");
   }
+
+  @Test
+  public void userDirectoryTest() throws Exception {
+    SlackManager slackManagerMock = mock(SlackManager.class);
+    HashMap<String, String> mapping = new HashMap<>();
+    mapping.put("user@example.com", "U0001");
+    when(slackManagerMock.getEmailToUserIdMapping()).thenReturn(mapping);
+    when(slackManagerMock.lookupUserByEmail("other@example.com"))
+        .thenAnswer(
+            x -> {
+              Thread.sleep(200);
+              return getLookupResponse("U0002", null);
+            });
+    when(slackManagerMock.lookupUserByEmail("missing@example.com"))
+        .thenReturn(getLookupResponse(null, SlackManager.USERS_NOT_FOUND));
+
+    SlackUserDirectory d = new SlackUserDirectory(slackManagerMock);
+    assertEquals("U0001", d.getUserId("user@example.com"));
+    assertEquals("U0001", d.getUserId("User@Example.com"));
+    assertEquals(1, d.size());
+
+    // Concurrent lookups for the same missing email should result in a single request
+    ArrayList<CompletableFuture<String>> results = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      results.add(CompletableFuture.supplyAsync(() -> d.getUserId("other@example.com")));
+    }
+    for (CompletableFuture<String> f : results) {
+      assertEquals("U0002", f.get());
+    }
+    assertEquals("U0002", d.getUserId("other@example.com"));
+
+    assertNull(d.getUserId("missing@example.com"));
+    assertNull(d.getUserId("missing@example.com"));
+
+    verify(slackManagerMock, times(1)).getEmailToUserIdMapping();
+    verify(slackManagerMock, times(1)).lookupUserByEmail("other@example.com");
+    verify(slackManagerMock, times(1)).lookupUserByEmail("missing@example.com");
+  }
+
+  @Test
+  public void userDirectoryTransientErrorTest() throws Exception {
+    SlackManager slackManagerMock = mock(SlackManager.class);
+    when(slackManagerMock.getEmailToUserIdMapping()).thenReturn(new HashMap<>());
+    when(slackManagerMock.lookupUserByEmail("user@example.com"))
+        .thenReturn(getLookupResponse(null, "ratelimited"))
+        .thenReturn(getLookupResponse(null, "internal_error"))
+        .thenReturn(getLookupResponse("U0001", null));
+
+    // Transient errors are not cached, so the user is found once Slack recovers
+    SlackUserDirectory d = new SlackUserDirectory(slackManagerMock);
+    assertNull(d.getUserId("user@example.com"));
+    assertNull(d.getUserId("user@example.com"));
+    assertEquals("U0001", d.getUserId("user@example.com"));
+    assertEquals("U0001", d.getUserId("user@example.com"));
+
+    verify(slackManagerMock, times(3)).lookupUserByEmail("user@example.com");
+  }
+
+  @Test
+  public void sendQueueRateTest() throws Exception {
+    SlackSendQueue q = new SlackSendQueue(20.0, 2);
+    ArrayList<CompletableFuture<Integer>> results = new ArrayList<>();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 6; i++) {
+      final int n = i;
+      results.add(q.submit(() -> n));
+    }
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i, (int) results.get(i).get());
+    }
+    // Two tasks run immediately from the initial burst, the remaining four are paced at 20/s
+    assertTrue(System.currentTimeMillis() - start >= 150);
+    assertEquals(0, q.pendingCount());
+  }
+
+  @Test
+  public void queueToUserTest() throws Exception {
+    SlackManager slackManagerMock = mock(SlackManager.class);
+    HashMap<String, String> mapping = new HashMap<>();
+    mapping.put("user@example.com", "U0001");
+    when(slackManagerMock.getEmailToUserIdMapping()).thenReturn(mapping);
+    when(slackManagerMock.sendMessageToChannel(anyString(), anyString()))
+        .thenReturn(new ChatPostMessageResponse());
+    when(slackManagerMock.handleSlackResponse(any(SlackApiResponse.class))).thenReturn(true);
+
+    AlertSlack s = new AlertSlack(getTestAlertCfg(), slackManagerMock);
+    assertTrue(s.queueToUser(getTestAlert(), "user@example.com").get());
+    assertFalse(s.queueToUser(getTestAlert(), null).get());
+    verify(slackManagerMock, times(1)).sendMessageToChannel(anyString(), anyString());
+  }
 }
@@ -7,10 +7,13 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.mozilla.secops.state.DatastoreStateInterface;
+import com.mozilla.secops.state.MemcachedStandIn;
+import com.mozilla.secops.state.MemcachedStateInterface;
 import com.mozilla.secops.state.State;
 import com.mozilla.secops.state.StateCursor;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.joda.time.DateTime;
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,6 +51,37 @@ public class TestAuthStateModel {
     assertEquals(4L, ret.get(3).getValue().getTimestamp().getMillis());
   }
 
+  @Test
+  public void authStateModelCoderTest() throws Exception {
+    AuthStateModelCoder coder = new AuthStateModelCoder();
+    AuthStateModel sm = new AuthStateModel("riker");
+    sm.updateEntry("127.0.0.1", new DateTime(1000L), 47.2513, -122.3149);
+    sm.updateEntry("127.0.0.2", new DateTime(2000L), null, null);
+
+    AuthStateModel d =
+        CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, sm));
+    assertEquals("riker", d.getSubject());
+    assertEquals(2, d.getEntries().size());
+    AuthStateModel.ModelEntry me = d.getEntries().get("127.0.0.1");
+    assertEquals(47.2513, me.getLatitude(), 0.0);
+    assertEquals(-122.3149, me.getLongitude(), 0.0);
+    assertEquals(1000L, me.getTimestamp().getMillis());
+    me = d.getEntries().get("127.0.0.2");
+    assertNull(me.getLatitude());
+    assertNull(me.getLongitude());
+    assertEquals(2000L, me.getTimestamp().getMillis());
+
+    ArrayList<AbstractMap.SimpleEntry<String, AuthStateModel.ModelEntry>> ret =
+        d.timeSortedEntries();
+    assertEquals("127.0.0.2", ret.get(1).getKey());
+
+    d =
+        CoderUtils.decodeFromByteArray(
+            coder, CoderUtils.encodeToByteArray(coder, new AuthStateModel("picard")));
+    assertEquals("picard", d.getSubject());
+    assertEquals(0, d.getEntries().size());
+  }
+
   @Test
   public void authStateModelTest() throws Exception {
     testEnv();
@@ -128,4 +162,37 @@ public class TestAuthStateModel {
 
     s.done();
   }
+
+  @Test
+  public void authStateModelConflictTest() throws Exception {
+    try (MemcachedStandIn m = new MemcachedStandIn()) {
+      State s = new State(new MemcachedStateInterface("127.0.0.1", m.getPort()));
+      s.initialize();
+      PruningStrategyEntryAge ps = new PruningStrategyEntryAge();
+
+      AuthStateModel sm = new AuthStateModel("riker");
+      assertTrue(sm.updateEntry("127.0.0.1", 1.0, 1.0));
+      sm.set(s.newCursor(), ps);
+
+      // Two panes read the model, and the second writes its update first
+      StateCursor c1 = s.newCursor();
+      StateCursor c2 = s.newCursor();
+      AuthStateModel sm1 = AuthStateModel.get("riker", c1, ps);
+      AuthStateModel sm2 = AuthStateModel.get("riker", c2, ps);
+      assertTrue(sm2.updateEntry("10.0.0.2", 2.0, 2.0));
+      sm2.set(c2, ps);
+
+      // The first pane's update is merged with the stored model rather than being discarded
+      assertTrue(sm1.updateEntry("10.0.0.1", 3.0, 3.0));
+      sm1.set(s, c1, ps);
+
+      StateCursor c = s.newCursor();
+      sm = AuthStateModel.get("riker", c, ps);
+      c.commit();
+      assertEquals(3, sm.getEntries().size());
+      assertNotNull(sm.getEntries().get("10.0.0.1"));
+      assertNotNull(sm.getEntries().get("10.0.0.2"));
+      s.done();
+    }
+  }
 }
@@ -2,6 +2,7 @@ package com.mozilla.secops.customs;
 
 import static org.junit.Assert.assertEquals;
 
+import com.mozilla.secops.StringDistance;
 import com.mozilla.secops.TestUtil;
 import com.mozilla.secops.alert.Alert;
 import com.mozilla.secops.input.Input;
@@ -11,7 +12,9 @@ import com.mozilla.secops.parser.ParserTest;
 import com.mozilla.secops.state.DatastoreStateInterface;
 import com.mozilla.secops.state.State;
 import com.mozilla.secops.window.GlobalTriggers;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.testing.PAssert;
@@ -179,6 +182,27 @@ public class TestCustoms {
     p.run().waitUntilFinish();
   }
 
+  @Test
+  public void accountCreationDistCandidatesTest() throws Exception {
+    List<String> locals =
+        Arrays.asList("user1", "user2", "user10", "user100", "usr1", "", "u", "abcdefgh", "user1");
+    List<List<Integer>> byLength = CustomsAccountCreationDist.bucketByLength(locals);
+    int[][] grams = CustomsAccountCreationDist.bigramProfiles(locals);
+    for (Double upper : new Double[] {0.0, 0.2, 0.35, 0.5, 1.0}) {
+      for (int i = 0; i < locals.size(); i++) {
+        ArrayList<Integer> expect = new ArrayList<>();
+        for (int j = 0; j < locals.size(); j++) {
+          if (StringDistance.ratio(locals.get(i), locals.get(j)) <= upper) {
+            expect.add(j);
+          }
+        }
+        assertEquals(
+            expect,
+            CustomsAccountCreationDist.similarIndices(locals, byLength, grams, i, upper));
+      }
+    }
+  }
+
   @Test
   public void sourceLoginFailureTest() throws Exception {
     String[] eb1 = TestUtil.getTestInputArray("/testdata/customs_rl_badlogin_simple1.txt");
@@ -269,4 +293,44 @@ public class TestCustoms {
 
     p.run().waitUntilFinish();
   }
+
+  @Test
+  public void velocityTestKeyedState() throws Exception {
+    testEnv();
+
+    String[] eb1 = TestUtil.getTestInputArray("/testdata/customs_velocity1.txt");
+    TestStream<String> s =
+        TestStream.create(StringUtf8Coder.of())
+            .advanceWatermarkTo(new Instant(0L))
+            .addElements(eb1[0], Arrays.copyOfRange(eb1, 1, eb1.length))
+            .advanceWatermarkToInfinity();
+
+    Customs.CustomsOptions options = getTestOptions();
+    options.setEnableVelocityDetector(true);
+    options.setXffAddressSelector("127.0.0.1/32");
+    options.setVelocityUseKeyedState(true);
+
+    PCollection<Alert> alerts = Customs.executePipeline(p, p.apply(s), options);
+
+    PAssert.that(alerts)
+        .satisfies(
+            x -> {
+              int cnt = 0;
+              for (Alert a : x) {
+                assertEquals("81.2.69.192", a.getMetadataValue("sourceaddress"));
+                assertEquals("00000000000000000000000000000000", a.getMetadataValue("uid"));
+                assertEquals("riker@mozilla.com", a.getMetadataValue("email"));
+                assertEquals(
+                    "00000000000000000000000000000000 velocity exceeded, "
+                        + "7740.82 km in 9 seconds",
+                    a.getSummary());
+                assertEquals("velocity", a.getMetadataValue("notify_merge"));
+                cnt++;
+              }
+              assertEquals(1, cnt);
+              return null;
+            });
+
+    p.run().waitUntilFinish();
+  }
 }
@@ -0,0 +1,76 @@
+package com.mozilla.secops.httprequest;
+
+import static org.junit.Assert.*;
+
+import com.mozilla.secops.httprequest.HTTPRequest.EndpointAbuseAnalysis.EndpointAbuseEndpointInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class TestEndpointAbuseCombiner {
+  public TestEndpointAbuseCombiner() {}
+
+  private EndpointAbuseCombiner getCombiner() {
+    EndpointAbuseEndpointInfo info = new EndpointAbuseEndpointInfo();
+    info.method = "POST";
+    info.path = "/login";
+    info.threshold = 5;
+    return new EndpointAbuseCombiner(new EndpointAbuseEndpointInfo[] {info}, null);
+  }
+
+  private ArrayList<String> request(String method, String path, String ua, long ts) {
+    return new ArrayList<>(
+        Arrays.asList(method, path, ua, new Instant(ts).toString(), "https://x.com" + path));
+  }
+
+  @Test
+  public void testCombinerMerge() throws Exception {
+    EndpointAbuseCombiner fn = getCombiner();
+
+    EndpointAbuseCombiner.Accumulator a = fn.createAccumulator();
+    a = fn.addInput(a, request("POST", "/login", "first", 1000L));
+    a = fn.addInput(a, request("POST", "/login", "third", 3000L));
+    EndpointAbuseCombiner.Accumulator b = fn.createAccumulator();
+    b = fn.addInput(b, request("POST", "/login", "second", 2000L));
+
+    EndpointAbuseCombiner.Accumulator m = fn.mergeAccumulators(Arrays.asList(a, b));
+    EndpointAbuseCombiner.Accumulator out = fn.extractOutput(m);
+    assertEquals(3, out.getCounts()[0]);
+    assertFalse(out.getBasicVariance());
+    assertFalse(out.getExtendedVariance());
+    assertEquals(3000L, out.getLatestEpaRequest().getMillis());
+    assertEquals("third", out.getUserAgent());
+
+    // Output should not be affected by further input to the accumulator
+    m = fn.addInput(m, request("GET", "/main.css", "x", 4000L));
+    assertFalse(out.getBasicVariance());
+    out = fn.extractOutput(m);
+    assertTrue(out.getBasicVariance());
+    assertTrue(out.getExtendedVariance());
+    assertEquals(3000L, out.getLatestEpaRequest().getMillis());
+  }
+
+  @Test
+  public void testAccumulatorCoder() throws Exception {
+    EndpointAbuseCombiner fn = getCombiner();
+    EndpointAbuseCombiner.AccumulatorCoder coder = new EndpointAbuseCombiner.AccumulatorCoder();
+
+    EndpointAbuseCombiner.Accumulator a = fn.createAccumulator();
+    EndpointAbuseCombiner.Accumulator d =
+        CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, a));
+    assertEquals(0, d.getCounts()[0]);
+    assertNull(d.getLatestEpaRequest());
+    assertNull(d.getUserAgent());
+
+    a = fn.addInput(a, request("POST", "/login", "Mozilla", 1000L));
+    a = fn.addInput(a, request("GET", "/", "Mozilla", 2000L));
+    d = CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, a));
+    assertEquals(1, d.getCounts()[0]);
+    assertTrue(d.getBasicVariance());
+    assertFalse(d.getExtendedVariance());
+    assertEquals(1000L, d.getLatestEpaRequest().getMillis());
+    assertEquals("Mozilla", d.getUserAgent());
+  }
+}
@@ -0,0 +1,110 @@
+package com.mozilla.secops.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.util.Scanner;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.junit.Test;
+
+public class EventCoderTest {
+  public EventCoderTest() {}
+
+  private Event roundTrip(Event e) throws Exception {
+    return CoderUtils.decodeFromByteArray(
+        EventCoder.of(), CoderUtils.encodeToByteArray(EventCoder.of(), e));
+  }
+
+  private String readFirstLine(String resource) {
+    InputStream in = EventCoderTest.class.getResourceAsStream(resource);
+    assertNotNull(in);
+    try (Scanner s = new Scanner(in, "UTF-8")) {
+      return s.nextLine();
+    }
+  }
+
+  @Test
+  public void testEventCoderGLB() throws Exception {
+    ParserCfg cfg = new ParserCfg();
+    cfg.setMaxmindCityDbPath(ParserTest.TEST_GEOIP_DBPATH);
+    Parser p = new Parser(cfg);
+    Event e = p.parse(readFirstLine("/testdata/httpreq_errorrate1.txt"));
+    assertNotNull(e);
+    assertEquals(Payload.PayloadType.GLB, e.getPayloadType());
+
+    Event d = roundTrip(e);
+    assertEquals(e, d);
+    assertEquals(e.getEventId(), d.getEventId());
+    assertEquals(e.getTimestamp(), d.getTimestamp());
+    assertEquals(e.getStackdriverProject(), d.getStackdriverProject());
+    assertEquals(e.getStackdriverLabels(), d.getStackdriverLabels());
+    assertEquals(Payload.PayloadType.GLB, d.getPayloadType());
+
+    GLB g = d.getPayload();
+    GLB og = e.getPayload();
+    assertEquals(og.getRequestMethod(), g.getRequestMethod());
+    assertEquals(og.getUserAgent(), g.getUserAgent());
+    assertEquals(og.getRequestUrl(), g.getRequestUrl());
+    assertEquals(og.getSourceAddress(), g.getSourceAddress());
+    assertEquals(og.getStatus(), g.getStatus());
+    assertEquals(og.getParsedUrl().getPath(), g.getParsedUrl().getPath());
+
+    Normalized n = d.getNormalized();
+    assertTrue(n.isOfType(Normalized.Type.HTTP_REQUEST));
+    assertFalse(n.isOfType(Normalized.Type.AUTH));
+    assertEquals("192.168.1.1", n.getSourceAddress());
+    assertEquals("GET", n.getRequestMethod());
+    assertEquals(200, (int) n.getRequestStatus());
+    assertEquals("/public/locales/en-US/send.js", n.getUrlRequestPath());
+    assertEquals("send.firefox.com", n.getUrlRequestHost());
+    assertEquals("Mozilla", n.getUserAgent());
+
+    // The compact encoding should be substantially smaller than Java serialization
+    int compact = CoderUtils.encodeToByteArray(EventCoder.of(), e).length;
+    int serialized = CoderUtils.encodeToByteArray(SerializableCoder.of(Event.class), e).length;
+    assertTrue(compact * 4 < serialized);
+  }
+
+  @Test
+  public void testEventCoderRaw() throws Exception {
+    Parser p = new Parser();
+    Event e = p.parse("test");
+    Event d = roundTrip(e);
+    assertEquals(e.getEventId(), d.getEventId());
+    assertEquals(e.getTimestamp(), d.getTimestamp());
+    assertEquals(Payload.PayloadType.RAW, d.getPayloadType());
+    Raw r = d.getPayload();
+    assertEquals("test", r.getRaw());
+    assertNull(d.getMozlog());
+    assertNull(d.getStackdriverLabels());
+  }
+
+  @Test
+  public void testEventCoderFallbackMozlog() throws Exception {
+    String buf =
+        "{\"EnvVersion\": \"2.0\", \"Severity\": 6, \"Fields\": "
+            + "{\"event_description_valid_secs\": 3600, \"event_description_count\": 1, "
+            + "\"event_description_user_id\": \"ZZZZZZZZZZZZZZZZZZZZ\", \"event_object\": \"worf\", "
+            + "\"event_timestamp\": 1530282703, \"event_username\": \"First Last\", "
+            + "\"event_description_bypass_code_ids\": [\"XXXXXXXXXXXXXXXXXXXX\"], "
+            + "\"event_description_bypass\": \"\", \"path\": \"/admin/v1/logs/administrator\", "
+            + "\"msg\": \"duopull event\", \"event_action\": \"bypass_create\", "
+            + "\"event_description_auto_generated\": true, \"event_description_remaining_uses\": 1}, "
+            + "\"Hostname\": \"test\", \"Pid\": 62312, \"Time\": \"2018-07-04T15:49:46Z\", "
+            + "\"Logger\": \"duopull\", \"Type\": \"app.log\", \"Timestamp\": 1530719386349480000}";
+    Parser p = new Parser();
+    Event e = p.parse(buf);
+    assertEquals(Payload.PayloadType.DUOPULL, e.getPayloadType());
+    assertNotNull(e.getMozlog());
+
+    Event d = roundTrip(e);
+    assertEquals(e.getEventId(), d.getEventId());
+    assertEquals(e.getTimestamp(), d.getTimestamp());
+    assertEquals(Payload.PayloadType.DUOPULL, d.getPayloadType());
+    Duopull dp = d.getPayload();
+    assertEquals("bypass_create", dp.getDuopullData().getEventAction());
+    assertNotNull(d.getMozlog());
+    assertEquals("duopull", d.getMozlog().getLogger());
+  }
+}
@@ -579,4 +579,86 @@ public class EventFilterTest {
     filter = mapper.readValue(buf, EventFilter.class);
     assertEquals(buf, mapper.writeValueAsString(filter));
   }
+
+  @Test
+  public void testEventFilterIndexedEquivalence() throws Exception {
+    Parser p = new Parser();
+    Event[] events =
+        new Event[] {
+          p.parse("test"),
+          p.parse(
+              "Sep 18 22:15:38 emit-bastion sshd[2644]: Accepted publickey for riker from "
+                  + "127.0.0.1 port 58530 ssh2: RSA SHA256:dd/"
+                  + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"),
+          p.parse(
+              "Sep 18 22:15:38 emit-bastion sshd[2644]: Accepted publickey for picard from "
+                  + "127.0.0.2 port 58530 ssh2: RSA SHA256:dd/"
+                  + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA")
+        };
+
+    EventFilterRule[] rules =
+        new EventFilterRule[] {
+          new EventFilterRule().wantSubtype(Payload.PayloadType.RAW),
+          new EventFilterRule()
+              .wantSubtype(Payload.PayloadType.OPENSSH)
+              .addPayloadFilter(
+                  new EventFilterPayload()
+                      .withStringRegexMatch(
+                          EventFilterPayload.StringProperty.NORMALIZED_SUBJECTUSER, "r.*")),
+          new EventFilterRule()
+              .wantNormalizedType(Normalized.Type.AUTH)
+              .except(
+                  new EventFilterRule()
+                      .addPayloadFilter(
+                          new EventFilterPayload()
+                              .withStringMatch(
+                                  EventFilterPayload.StringProperty.NORMALIZED_SUBJECTUSER,
+                                  "riker"))),
+          new EventFilterRule()
+              .addPayloadFilter(
+                  new EventFilterPayloadOr()
+                      .addPayloadFilter(
+                          new EventFilterPayload(Raw.class)
+                              .withStringMatch(EventFilterPayload.StringProperty.RAW_RAW, "x"))
+                      .addPayloadFilter(
+                          new EventFilterPayload()
+                              .withStringMatch(
+                                  EventFilterPayload.StringProperty.NORMALIZED_SOURCEADDRESS,
+                                  "127.0.0.2"))),
+          new EventFilterRule().wantNormalizedType(Normalized.Type.HTTP_REQUEST),
+        };
+
+    // Every combination of rules must give the same result as evaluating each rule in turn
+    for (int mask = 0; mask < (1 << rules.length); mask++) {
+      EventFilter filter = new EventFilter();
+      for (int i = 0; i < rules.length; i++) {
+        if ((mask & (1 << i)) != 0) {
+          filter.addRule(rules[i]);
+        }
+      }
+      EventFilter reloaded = reload(filter);
+      for (Event e : events) {
+        boolean want = false;
+        for (EventFilterRule r : filter.getRules()) {
+          want |= r.matches(e);
+        }
+        assertEquals(want, filter.matches(e));
+        assertEquals(want, reloaded.matches(e));
+      }
+    }
+
+    // Adding rules or matchers after the filter has been used is reflected in later matches
+    EventFilterPayload pf =
+        new EventFilterPayload()
+            .withStringMatch(EventFilterPayload.StringProperty.NORMALIZED_SUBJECTUSER, "picard");
+    EventFilter filter = new EventFilter();
+    filter.addRule(new EventFilterRule().addPayloadFilter(pf));
+    assertFalse(filter.matches(events[1]));
+    assertTrue(filter.matches(events[2]));
+    pf.withStringMatch(EventFilterPayload.StringProperty.NORMALIZED_SUBJECTUSER, "riker");
+    assertTrue(filter.matches(events[1]));
+    assertFalse(filter.matches(events[0]));
+    filter.addRule(new EventFilterRule().wantSubtype(Payload.PayloadType.RAW));
+    assertTrue(filter.matches(events[0]));
+  }
 }
@@ -1859,6 +1859,25 @@ public class ParserTest {
     assertEquals("Milton", resp.getCity().getName());
   }
 
+  @Test
+  public void testGeoIpCityInfo() throws Exception {
+    Parser p = getTestParser();
+    assertNotNull(p);
+    CityResponse resp = p.geoIp("216.160.83.56");
+    assertNotNull(resp);
+    for (int i = 0; i < 2; i++) {
+      GeoIP.CityInfo ci = p.geoIpCityInfo("216.160.83.56");
+      assertNotNull(ci);
+      assertEquals("US", ci.getCountry());
+      assertEquals("Milton", ci.getCity());
+      assertEquals(resp.getLocation().getLatitude(), ci.getLatitude());
+      assertEquals(resp.getLocation().getLongitude(), ci.getLongitude());
+    }
+    assertNull(p.geoIpCityInfo("127.0.0.1"));
+    assertNull(p.geoIpCityInfo("127.0.0.1"));
+    assertNull(p.geoIpCityInfo("not an address"));
+  }
+
   @Test
   public void testParseJsonSerializeDeserializeRaw() throws Exception {
     Parser p = getTestParser();
@@ -2132,4 +2151,77 @@ public class ParserTest {
     Auth0 promptsContainsEmptyArrayPayload = e.getPayload();
     assertNull(promptsContainsEmptyArrayPayload.getUsername());
   }
+
+  @Test
+  public void testParserStateInputTree() throws Exception {
+    ParserState state = new ParserState(new Parser());
+    String buf = "{\"a\": 1, \"b\": [\"x\"]}";
+    com.fasterxml.jackson.databind.JsonNode n = state.getInputTree(buf);
+    assertNotNull(n);
+    assertEquals(1, n.get("a").asInt());
+    // Subsequent requests for the same input should return the cached tree
+    assertSame(n, state.getInputTree(new String(buf)));
+    assertNull(state.getInputTree("not json"));
+    Map<String, Object> m = Parser.convertJsonToMap(buf, state);
+    assertEquals(1, m.get("a"));
+    assertFalse(state.isSerializedLogEntryPayload(buf));
+    assertNull(state.getLogEntryJsonPayload(buf));
+  }
+
+  @Test
+  public void testPayloadDispatchClassify() throws Exception {
+    Parser p = getTestParser();
+    ParserState state = new ParserState(p);
+    String buf =
+        "Sep 18 22:15:38 emit-bastion sshd[2644]: Accepted publickey for riker from 12"
+            + "7.0.0.1 port 58530 ssh2: RSA SHA256:dd/AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+    PayloadDispatcher.InputClass c = PayloadDispatcher.classify(buf, state);
+    assertTrue(c.has(PayloadDispatcher.SYSLOG));
+    assertFalse(c.has(PayloadDispatcher.JSON));
+    assertFalse(c.has(PayloadDispatcher.LOGENTRY));
+    assertNull(c.getLogger());
+
+    state = new ParserState(p);
+    c = PayloadDispatcher.classify("{\"configuration_tick\": true}", state);
+    assertTrue(c.has(PayloadDispatcher.JSON));
+    assertFalse(c.has(PayloadDispatcher.SYSLOG));
+    assertFalse(c.has(PayloadDispatcher.MOZLOG));
+  }
+
+  @Test
+  public void testAdaptivePayloadDispatch() throws Exception {
+    ParserCfg cfg = new ParserCfg();
+    cfg.setMaxmindCityDbPath(TEST_GEOIP_DBPATH);
+    cfg.setUseAdaptiveDispatch(true);
+    Parser adaptive = new Parser(cfg);
+    Parser p = getTestParser();
+
+    String[] files =
+        new String[] {
+          "/testdata/httpreq_errorrate1.txt",
+          "/testdata/cloudtrail_buffer1.txt",
+          "/testdata/duo_buffer1.txt",
+          "/testdata/authprof_buffer1.txt",
+          "/testdata/customs_multi1.txt",
+          "/testdata/inputtype_buffer1.txt"
+        };
+    // Parse twice with the adaptive parser so the second pass is dispatched using the types
+    // learned in the first pass; results should be consistent with the default parser
+    for (int i = 0; i < 2; i++) {
+      for (String f : files) {
+        java.io.InputStream in = ParserTest.class.getResourceAsStream(f);
+        assertNotNull(in);
+        try (java.util.Scanner s = new java.util.Scanner(in, "UTF-8")) {
+          while (s.hasNextLine()) {
+            String buf = s.nextLine();
+            Event e = p.parse(buf);
+            Event ae = adaptive.parse(buf);
+            assertNotNull(e);
+            assertNotNull(ae);
+            assertEquals(e.getPayloadType(), ae.getPayloadType());
+          }
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,229 @@
+package com.mozilla.secops.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.EnvironmentVariables;
+
+public class CachingStateTest {
+  @Rule public final EnvironmentVariables environmentVariables = new EnvironmentVariables();
+
+  private void testEnv() {
+    environmentVariables.set("DATASTORE_EMULATOR_HOST", "localhost:8081");
+    environmentVariables.set("DATASTORE_EMULATOR_HOST_PATH", "localhost:8081/datastore");
+    environmentVariables.set("DATASTORE_HOST", "http://localhost:8081");
+    environmentVariables.set("DATASTORE_PROJECT_ID", "foxsec-pipeline");
+  }
+
+  /** In-memory state interface that counts operations on the underlying store */
+  private static class MemoryStateInterface implements StateInterface {
+    private final HashMap<String, String> store = new HashMap<>();
+    private final AtomicInteger reads = new AtomicInteger();
+    private final AtomicInteger writes = new AtomicInteger();
+
+    public void done() {}
+
+    public void deleteAll() {
+      synchronized (store) {
+        store.clear();
+      }
+    }
+
+    public void initialize() {}
+
+    public void flush() {}
+
+    public StateCursor newCursor() {
+      return new StateCursor() {
+        public String getObject(String s) {
+          reads.incrementAndGet();
+          synchronized (store) {
+            return store.get(s);
+          }
+        }
+
+        public void saveObject(String s, String v) {
+          writes.incrementAndGet();
+          synchronized (store) {
+            store.put(s, v);
+          }
+        }
+
+        public void commit() {}
+      };
+    }
+  }
+
+  public CachingStateTest() {}
+
+  @Test
+  public void testCachingReadThrough() throws Exception {
+    MemoryStateInterface m = new MemoryStateInterface();
+    CachingStateInterface csi = new CachingStateInterface(m, 100, 60000L, 0L);
+    State s = new State(csi);
+    s.initialize();
+
+    StateTestClass t = new StateTestClass();
+    t.str = "test";
+    StateCursor c = s.newCursor();
+    assertNull(c.get("testing", StateTestClass.class));
+    c.set("testing", t);
+    c.commit();
+    assertEquals(1, m.writes.get());
+
+    for (int i = 0; i < 5; i++) {
+      t = s.get("testing", StateTestClass.class);
+      assertNotNull(t);
+      assertEquals("test", t.str);
+    }
+    assertNull(s.get("nonexist", StateTestClass.class));
+    assertNull(s.get("nonexist", StateTestClass.class));
+
+    // One read for each distinct key, all others served from cache
+    assertEquals(2, m.reads.get());
+    assertEquals(2, csi.getMisses());
+    assertEquals(6, csi.getHits());
+  }
+
+  @Test
+  public void testCachingEviction() throws Exception {
+    MemoryStateInterface m = new MemoryStateInterface();
+    CachingStateInterface csi = new CachingStateInterface(m, 2, 60000L, 0L);
+    State s = new State(csi);
+    s.initialize();
+
+    StateTestClass t = new StateTestClass();
+    t.str = "test";
+    for (String k : new String[] {"a", "b", "c"}) {
+      StateCursor c = s.newCursor();
+      c.set(k, t);
+      c.commit();
+    }
+    assertNotNull(s.get("c", StateTestClass.class));
+    assertNotNull(s.get("b", StateTestClass.class));
+    assertEquals(0, m.reads.get());
+    assertNotNull(s.get("a", StateTestClass.class));
+    assertEquals(1, m.reads.get());
+  }
+
+  @Test
+  public void testCachingTtl() throws Exception {
+    MemoryStateInterface m = new MemoryStateInterface();
+    CachingStateInterface csi = new CachingStateInterface(m, 100, 1L, 0L);
+    State s = new State(csi);
+    s.initialize();
+
+    assertNull(s.get("testing", StateTestClass.class));
+    Thread.sleep(10);
+    assertNull(s.get("testing", StateTestClass.class));
+    assertEquals(2, m.reads.get());
+  }
+
+  @Test
+  public void testCachingWriteBehind() throws Exception {
+    MemoryStateInterface m = new MemoryStateInterface();
+    CachingStateInterface csi = new CachingStateInterface(m, 100, 60000L, 3600000L);
+    State s = new State(csi);
+    s.initialize();
+
+    StateTestClass t = new StateTestClass();
+    for (int i = 0; i < 10; i++) {
+      StateCursor c = s.newCursor();
+      StateTestClass prev = c.get("testing", StateTestClass.class);
+      if (prev != null) {
+        assertEquals(Integer.toString(i - 1), prev.str);
+      }
+      t.str = Integer.toString(i);
+      c.set("testing", t);
+      c.set("other", t);
+      c.commit();
+    }
+    assertEquals(0, m.writes.get());
+    assertEquals(2, csi.pendingCount());
+    assertEquals("9", s.get("testing", StateTestClass.class).str);
+
+    // Repeated writes to each key are coalesced into a single write, flushing through the state
+    // instance as pipelines do at bundle finish
+    s.flush();
+    assertEquals(2, m.writes.get());
+    assertEquals(2, csi.getFlushed());
+    assertEquals(0, csi.pendingCount());
+    assertEquals("{\"str\":\"9\"}", m.store.get("testing"));
+
+    s.done();
+    assertEquals(2, m.writes.get());
+  }
+
+  @Test
+  public void testCachingConcurrent() throws Exception {
+    MemoryStateInterface m = new MemoryStateInterface();
+    CachingStateInterface csi = new CachingStateInterface(m, 100, 60000L, 0L);
+    State s = new State(csi);
+    s.initialize();
+
+    ArrayList<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      Thread th =
+          new Thread(
+              () -> {
+                try {
+                  for (int j = 0; j < 100; j++) {
+                    s.get("key" + (j % 10), StateTestClass.class);
+                  }
+                } catch (StateException exc) {
+                  throw new RuntimeException(exc);
+                }
+              });
+      threads.add(th);
+      th.start();
+    }
+    for (Thread th : threads) {
+      th.join();
+    }
+    // Striped locking ensures each key is only loaded once
+    assertEquals(10, m.reads.get());
+    assertEquals(10, csi.getMisses());
+    assertEquals(790, csi.getHits());
+  }
+
+  @Test
+  public void testCachingDatastore() throws Exception {
+    testEnv();
+    CachingStateInterface csi =
+        new CachingStateInterface(
+            new DatastoreStateInterface("test", "cachingstatetest"), 100, 60000L, 3600000L);
+    State s = new State(csi);
+    s.initialize();
+    s.deleteAll();
+
+    StateTestClass t = new StateTestClass();
+    t.str = "test";
+    StateCursor c = s.newCursor();
+    c.set("testing", t);
+    c.commit();
+    assertEquals(1, csi.pendingCount());
+    csi.flush();
+    assertEquals(1, csi.getFlushed());
+
+    // Verify the value was written using an uncached interface
+    State d = new State(new DatastoreStateInterface("test", "cachingstatetest"));
+    d.initialize();
+    t = d.get("testing", StateTestClass.class);
+    assertNotNull(t);
+    assertEquals("test", t.str);
+
+    t = s.get("testing", StateTestClass.class);
+    assertNotNull(t);
+    assertEquals("test", t.str);
+    assertNull(s.get("nonexist", StateTestClass.class));
+    assertEquals(1, csi.getHits());
+    assertEquals(1, csi.getMisses());
+    s.done();
+  }
+}
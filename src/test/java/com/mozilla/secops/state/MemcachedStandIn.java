@@ -0,0 +1,196 @@
+package com.mozilla.secops.state;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Minimal in-process memcached server for tests
+ *
+ * <p>Implements the subset of the text protocol used by {@link MemcachedStateInterface}: get, gets,
+ * set, add, cas, delete, flush_all and version.
+ */
+public class MemcachedStandIn implements AutoCloseable {
+  private final ServerSocket server;
+  private final HashMap<String, Item> items = new HashMap<>();
+  private long nextCas = 1;
+
+  private static class Item {
+    final int flags;
+    final byte[] data;
+    final long cas;
+
+    Item(int flags, byte[] data, long cas) {
+      this.flags = flags;
+      this.data = data;
+      this.cas = cas;
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    int c;
+    while ((c = in.read()) != -1) {
+      if (c == '\n') {
+        break;
+      }
+      if (c != '\r') {
+        buf.write(c);
+      }
+    }
+    if (c == -1 && buf.size() == 0) {
+      return null;
+    }
+    return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readData(InputStream in, int len) throws IOException {
+    byte[] ret = new byte[len];
+    int off = 0;
+    while (off < len) {
+      int n = in.read(ret, off, len - off);
+      if (n == -1) {
+        throw new IOException("unexpected end of stream");
+      }
+      off += n;
+    }
+    // Trailing CRLF
+    in.read();
+    in.read();
+    return ret;
+  }
+
+  private synchronized String store(String[] cmd, byte[] data) {
+    String key = cmd[1];
+    int flags = Integer.parseInt(cmd[2]);
+    Item cur = items.get(key);
+    switch (cmd[0]) {
+      case "add":
+        if (cur != null) {
+          return "NOT_STORED";
+        }
+        break;
+      case "cas":
+        if (cur == null) {
+          return "NOT_FOUND";
+        }
+        if (cur.cas != Long.parseLong(cmd[5])) {
+          return "EXISTS";
+        }
+        break;
+      default:
+        break;
+    }
+    items.put(key, new Item(flags, data, nextCas++));
+    return "STORED";
+  }
+
+  private synchronized void retrieve(String[] cmd, OutputStream out) throws IOException {
+    for (int i = 1; i < cmd.length; i++) {
+      Item it = items.get(cmd[i]);
+      if (it == null) {
+        continue;
+      }
+      String hdr = String.format("VALUE %s %d %d", cmd[i], it.flags, it.data.length);
+      if (cmd[0].equals("gets")) {
+        hdr += " " + it.cas;
+      }
+      out.write((hdr + "\r\n").getBytes(StandardCharsets.UTF_8));
+      out.write(it.data);
+      out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+    out.write("END\r\n".getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void handle(Socket sock) {
+    try (Socket s = sock) {
+      InputStream in = new BufferedInputStream(s.getInputStream());
+      OutputStream out = s.getOutputStream();
+      String line;
+      while ((line = readLine(in)) != null) {
+        String[] cmd = line.trim().split(" +");
+        String resp = null;
+        switch (cmd[0]) {
+          case "get":
+          case "gets":
+            retrieve(cmd, out);
+            break;
+          case "set":
+          case "add":
+          case "cas":
+            resp = store(cmd, readData(in, Integer.parseInt(cmd[4])));
+            break;
+          case "delete":
+            synchronized (this) {
+              resp = items.remove(cmd[1]) != null ? "DELETED" : "NOT_FOUND";
+            }
+            break;
+          case "flush_all":
+            synchronized (this) {
+              items.clear();
+            }
+            resp = "OK";
+            break;
+          case "version":
+            resp = "VERSION 1.5.0";
+            break;
+          default:
+            resp = "ERROR";
+            break;
+        }
+        if (resp != null) {
+          out.write((resp + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+      }
+    } catch (IOException exc) {
+      // Connection closed
+    }
+  }
+
+  /**
+   * Get port server is listening on
+   *
+   * @return Port
+   */
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.close();
+  }
+
+  /**
+   * Start new stand-in server on an ephemeral port
+   *
+   * @throws IOException IOException
+   */
+  public MemcachedStandIn() throws IOException {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread t =
+        new Thread(
+            () -> {
+              while (!server.isClosed()) {
+                try {
+                  Socket sock = server.accept();
+                  Thread h = new Thread(() -> handle(sock));
+                  h.setDaemon(true);
+                  h.start();
+                } catch (IOException exc) {
+                  // Server closed
+                }
+              }
+            });
+    t.setDaemon(true);
+    t.start();
+  }
+}
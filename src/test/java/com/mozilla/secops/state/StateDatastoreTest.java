@@ -2,7 +2,9 @@ package com.mozilla.secops.state;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
+import java.util.ArrayList;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.EnvironmentVariables;
@@ -59,4 +61,44 @@ public class StateDatastoreTest {
     c1.set("testing", t);
     c1.commit();
   }
+
+  @Test
+  public void testStateBatchedCursor() throws Exception {
+    testEnv();
+    State s = new State(new DatastoreStateInterface("test", "statebatchtest"));
+    s.initialize();
+    s.deleteAll();
+
+    // Write more keys than fit in a single commit
+    ArrayList<String> keys = new ArrayList<>();
+    StateCursor c = s.newCursor();
+    for (int i = 0; i < 1200; i++) {
+      String k = String.format("key%d", i);
+      keys.add(k);
+      StateTestClass t = new StateTestClass();
+      t.str = k;
+      c.set(k, t);
+    }
+    // Buffered writes should be visible to the cursor before commit
+    assertEquals("key10", c.get("key10", StateTestClass.class).str);
+    c.commit();
+
+    keys.add("nonexist");
+    c = s.newCursor();
+    c.prefetch(keys);
+    for (int i = 0; i < 1200; i++) {
+      StateTestClass t = c.get(String.format("key%d", i), StateTestClass.class);
+      assertNotNull(t);
+      assertEquals(String.format("key%d", i), t.str);
+    }
+    assertNull(c.get("nonexist", StateTestClass.class));
+    c.commit();
+
+    s.deleteAll();
+    c = s.newCursor();
+    c.prefetch(keys);
+    assertNull(c.get("key0", StateTestClass.class));
+    assertNull(c.get("key1199", StateTestClass.class));
+    c.commit();
+  }
 }
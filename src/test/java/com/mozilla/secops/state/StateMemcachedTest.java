@@ -1,7 +1,11 @@
 package com.mozilla.secops.state;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class StateMemcachedTest {
@@ -14,4 +18,127 @@ public class StateMemcachedTest {
     s.initialize();
     s.get("testing", StateTestClass.class);
   }
+
+  @Test
+  public void testMemcachedCasConflict() throws Exception {
+    try (MemcachedStandIn m = new MemcachedStandIn()) {
+      State s = new State(new MemcachedStateInterface("127.0.0.1", m.getPort()));
+      s.initialize();
+
+      StateTestClass t = new StateTestClass();
+      t.str = "test";
+      StateCursor c = s.newCursor();
+      c.set("testing", t);
+      c.commit();
+
+      StateCursor c1 = s.newCursor();
+      StateCursor c2 = s.newCursor();
+      StateTestClass t1 = c1.get("testing", StateTestClass.class);
+      StateTestClass t2 = c2.get("testing", StateTestClass.class);
+      assertEquals("test", t1.str);
+      assertEquals("test", t2.str);
+
+      t2.str = "test2";
+      c2.set("testing", t2);
+      c2.commit();
+
+      t1.str = "changed";
+      c1.set("testing", t1);
+      StateConflictException conflict = null;
+      try {
+        c1.commit();
+      } catch (StateConflictException exc) {
+        conflict = exc;
+      }
+      assertNotNull(conflict);
+      assertEquals("test2", s.get("testing", StateTestClass.class).str);
+
+      // A key read as absent is only added if it still does not exist
+      c1 = s.newCursor();
+      c2 = s.newCursor();
+      assertNull(c1.get("new", StateTestClass.class));
+      assertNull(c2.get("new", StateTestClass.class));
+      c2.set("new", t2);
+      c2.commit();
+      c1.set("new", t1);
+      conflict = null;
+      try {
+        c1.commit();
+      } catch (StateConflictException exc) {
+        conflict = exc;
+      }
+      assertNotNull(conflict);
+      s.done();
+    }
+  }
+
+  @Test
+  public void testMemcachedUpdateRetry() throws Exception {
+    try (MemcachedStandIn m = new MemcachedStandIn()) {
+      State s = new State(new MemcachedStateInterface("127.0.0.1", m.getPort()));
+      s.initialize();
+
+      AtomicInteger calls = new AtomicInteger();
+      StateTestClass ret =
+          s.update(
+              "counter",
+              StateTestClass.class,
+              v -> {
+                if (calls.incrementAndGet() == 1) {
+                  // Simulate a concurrent writer modifying the value after it was read
+                  try {
+                    StateCursor c = s.newCursor();
+                    StateTestClass o = new StateTestClass();
+                    o.str = "1";
+                    c.set("counter", o);
+                    c.commit();
+                  } catch (StateException exc) {
+                    throw new RuntimeException(exc);
+                  }
+                }
+                StateTestClass n = new StateTestClass();
+                n.str = v == null ? "1" : Integer.toString(Integer.parseInt(v.str) + 1);
+                return n;
+              });
+      assertEquals(2, calls.get());
+      assertEquals("2", ret.str);
+      assertEquals("2", s.get("counter", StateTestClass.class).str);
+      s.done();
+    }
+  }
+
+  @Test
+  public void testMemcachedPrefetch() throws Exception {
+    try (MemcachedStandIn m = new MemcachedStandIn()) {
+      State s = new State(new MemcachedStateInterface("127.0.0.1", m.getPort()));
+      s.initialize();
+
+      ArrayList<String> keys = new ArrayList<>();
+      StateCursor c = s.newCursor();
+      for (int i = 0; i < 200; i++) {
+        String k = String.format("key%d", i);
+        keys.add(k);
+        StateTestClass t = new StateTestClass();
+        t.str = k;
+        c.set(k, t);
+      }
+      c.commit();
+
+      keys.add("nonexist");
+      c = s.newCursor();
+      c.prefetch(keys);
+      for (int i = 0; i < 200; i++) {
+        StateTestClass t = c.get(String.format("key%d", i), StateTestClass.class);
+        assertNotNull(t);
+        assertEquals(String.format("key%d", i), t.str);
+        t.str = "updated";
+        c.set(String.format("key%d", i), t);
+      }
+      assertNull(c.get("nonexist", StateTestClass.class));
+      c.commit();
+
+      assertEquals("updated", s.get("key199", StateTestClass.class).str);
+      s.done();
+    }
+  }
 }
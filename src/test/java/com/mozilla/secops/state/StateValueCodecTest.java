@@ -0,0 +1,114 @@
+package com.mozilla.secops.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.mozilla.secops.authstate.AuthStateModel;
+import java.util.HashMap;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+public class StateValueCodecTest {
+  public StateValueCodecTest() {}
+
+  /** Single key state interface that keeps the stored representation of the value */
+  private static class RawStateInterface implements StateInterface {
+    private final HashMap<String, String> store = new HashMap<>();
+
+    public void done() {}
+
+    public void deleteAll() {
+      store.clear();
+    }
+
+    public void initialize() {}
+
+    public void flush() {}
+
+    public StateCursor newCursor() {
+      return new StateCursor() {
+        public String getObject(String s) {
+          return store.get(s);
+        }
+
+        public void saveObject(String s, String v) {
+          store.put(s, v);
+        }
+
+        public void commit() {}
+      };
+    }
+  }
+
+  private AuthStateModel getModel(int entries) {
+    AuthStateModel sm = new AuthStateModel("riker");
+    for (int i = 0; i < entries; i++) {
+      sm.updateEntry(
+          String.format("10.0.%d.%d", i / 256, i % 256),
+          new DateTime(1550000000000L + (i * 60000L)),
+          47.2513 + (i * 0.001),
+          -122.3149 - (i * 0.001));
+    }
+    return sm;
+  }
+
+  @Test
+  public void testCodecRoundTrip() throws Exception {
+    CompressingStateValueCodec codec = new CompressingStateValueCodec(16);
+    String small = "{\"str\":\"a\"}";
+    assertEquals(small, codec.encode(small));
+
+    String large = "{\"str\":\"" + new String(new char[1000]).replace('\0', 'a') + "\"}";
+    String enc = codec.encode(large);
+    assertTrue(enc.startsWith(CompressingStateValueCodec.PREFIX_V1));
+    assertTrue(enc.length() < large.length());
+    assertEquals(large, codec.decode(enc));
+
+    // Plain JSON values remain readable
+    assertEquals(large, codec.decode(large));
+    assertEquals(large, new CompressingStateValueCodec(0).decode(enc));
+    assertEquals(large, new CompressingStateValueCodec(0).encode(large));
+  }
+
+  @Test(expected = StateException.class)
+  public void testCodecInvalid() throws Exception {
+    new CompressingStateValueCodec().decode(CompressingStateValueCodec.PREFIX_V1 + "AAAA");
+  }
+
+  @Test
+  public void testCodecAuthStateModel() throws Exception {
+    RawStateInterface rsi = new RawStateInterface();
+    State s = new State(rsi);
+    s.initialize();
+
+    AuthStateModel sm = getModel(200);
+    StateCursor c = s.newCursor();
+    c.set("riker", sm);
+    c.commit();
+    String json = rsi.store.get("riker");
+    assertFalse(json.startsWith(CompressingStateValueCodec.PREFIX_V1));
+
+    s.setValueCodec(new CompressingStateValueCodec());
+    c = s.newCursor();
+    c.set("riker", sm);
+    c.commit();
+    String compressed = rsi.store.get("riker");
+    assertTrue(compressed.startsWith(CompressingStateValueCodec.PREFIX_V1));
+    // Repeated field names and address prefixes compress well
+    assertTrue(compressed.length() * 3 < json.length());
+
+    AuthStateModel d = s.get("riker", AuthStateModel.class);
+    assertNotNull(d);
+    assertEquals(200, d.getEntries().size());
+    AuthStateModel.ModelEntry me = d.getEntries().get("10.0.0.199");
+    assertEquals(47.2513 + (199 * 0.001), me.getLatitude(), 0.0);
+    assertEquals(1550000000000L + (199 * 60000L), me.getTimestamp().getMillis());
+
+    // A cursor without a codec configured can read compressed values
+    d = rsi.newCursor().get("riker", AuthStateModel.class);
+    assertNotNull(d);
+    assertEquals(200, d.getEntries().size());
+  }
+}